@@ -9,21 +9,44 @@
  */
 package org.openmrs.module.cds;
 
+import java.util.Set;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
 import org.openmrs.module.BaseModuleActivator;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.DaemonTokenAware;
+import org.openmrs.module.cds.api.CdsConceptRegistry;
+import org.openmrs.module.cds.api.CdsExecutor;
+import org.openmrs.module.cds.api.ClinicalDataSystemService;
 
 /**
  * This class contains the logic that is run every time this module is either started or shutdown
  */
-public class ClinicalDataSystemActivator extends BaseModuleActivator {
+public class ClinicalDataSystemActivator extends BaseModuleActivator implements DaemonTokenAware {
 	
 	private Log log = LogFactory.getLog(this.getClass());
 	
+	private DaemonToken daemonToken;
+	
+	/**
+	 * @see DaemonTokenAware#setDaemonToken(DaemonToken)
+	 */
+	@Override
+	public void setDaemonToken(DaemonToken token) {
+		this.daemonToken = token;
+	}
+	
 	/**
 	 * @see #started()
 	 */
 	public void started() {
+		CdsConceptRegistry conceptRegistry = getConceptRegistry();
+		conceptRegistry.refresh();
+		Context.getAdministrationService().addGlobalPropertyListener(conceptRegistry);
+		buildAppointmentIndex();
 		log.info("Started Clinical Data System");
 	}
 	
@@ -31,7 +54,49 @@ public class ClinicalDataSystemActivator extends BaseModuleActivator {
 	 * @see #shutdown()
 	 */
 	public void shutdown() {
+		Context.getAdministrationService().removeGlobalPropertyListener(getConceptRegistry());
+		Context.getRegisteredComponent("cds.CdsExecutor", CdsExecutor.class).shutdown();
 		log.info("Shutdown Clinical Data System");
 	}
 	
+	/**
+	 * Builds the appointment index, or the visit summary as a fallback when the index cannot be
+	 * built, and recounts the per-assignee action queues in the background so startup is not held
+	 * up by the bulk loads; cohorts are read from their snapshots until the index is ready. Startup
+	 * has no authenticated user to hand to the CDS executor, so this runs as the daemon user.
+	 */
+	private void buildAppointmentIndex() {
+		Daemon.runInDaemonThread(new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					ClinicalDataSystemService service = Context.getService(ClinicalDataSystemService.class);
+					Set<Integer> changed = service.rebuildAppointmentIndex();
+					// a separate call, so the reload sees what committed after the full load's snapshot
+					service.refreshAppointmentIndex(changed);
+				}
+				catch (Exception e) {
+					log.error("Unable to build the CDS appointment index", e);
+				}
+				try {
+					Context.getService(ClinicalDataSystemService.class).rebuildVisitSummaries();
+				}
+				catch (Exception e) {
+					log.error("Unable to build the CDS visit summary", e);
+				}
+				try {
+					Context.getService(ClinicalDataSystemService.class).rebuildActionQueueCounts();
+				}
+				catch (Exception e) {
+					log.error("Unable to count the CDS action queues", e);
+				}
+			}
+		}, daemonToken);
+	}
+	
+	private CdsConceptRegistry getConceptRegistry() {
+		return Context.getRegisteredComponent("cds.CdsConceptRegistry", CdsConceptRegistry.class);
+	}
+	
 }
@@ -9,6 +9,8 @@
  */
 package org.openmrs.module.cds;
 
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.api.context.Context;
 import org.springframework.stereotype.Component;
 
 /**
@@ -16,6 +18,92 @@ import org.springframework.stereotype.Component;
  */
 @Component("cds.ClinicalDataSystemConfig")
 public class ClinicalDataSystemConfig {
-	
+
 	public final static String MODULE_PRIVILEGE = "Clinical Data System Privilege";
+
+	/**
+	 * Maximum age, in minutes, of a cohort snapshot before it is recomputed from obs/encounter
+	 */
+	public final static String GP_COHORT_SNAPSHOT_MAX_AGE_MINUTES = "cds.cohortSnapshot.maxAgeMinutes";
+
+	public final static int DEFAULT_COHORT_SNAPSHOT_MAX_AGE_MINUTES = 15;
+
+	/**
+	 * Worker threads and queued tasks of the shared CDS executor
+	 */
+	public final static String GP_EXECUTOR_THREADS = "cds.executor.threads";
+
+	public final static int DEFAULT_EXECUTOR_THREADS = 4;
+
+	public final static String GP_EXECUTOR_QUEUE_SIZE = "cds.executor.queueSize";
+
+	public final static int DEFAULT_EXECUTOR_QUEUE_SIZE = 100;
+
+	/**
+	 * Deadline in milliseconds for each patient dashboard section. A single section can be given its
+	 * own deadline with cds.dashboard.sectionTimeoutMs.&lt;section&gt;.
+	 */
+	public final static String GP_DASHBOARD_SECTION_TIMEOUT_MS = "cds.dashboard.sectionTimeoutMs";
+
+	public final static int DEFAULT_DASHBOARD_SECTION_TIMEOUT_MS = 3000;
+
+	/**
+	 * Time to live, in seconds, and maximum number of entries of the in-memory cohort cache
+	 */
+	public final static String GP_COHORT_CACHE_TTL_SECONDS = "cds.cohortCache.ttlSeconds";
+
+	public final static int DEFAULT_COHORT_CACHE_TTL_SECONDS = 300;
+
+	public final static String GP_COHORT_CACHE_MAX_ENTRIES = "cds.cohortCache.maxEntries";
+
+	public final static int DEFAULT_COHORT_CACHE_MAX_ENTRIES = 64;
+
+	/**
+	 * JDBC fetch size of the streaming cohort and action reads. With MySQL Connector/J rows are only
+	 * streamed if the connection URL has useCursorFetch=true, or with a fetch size of -2147483648
+	 * (Integer.MIN_VALUE).
+	 */
+	public final static String GP_STREAM_FETCH_SIZE = "cds.stream.fetchSize";
+
+	public final static int DEFAULT_STREAM_FETCH_SIZE = 1000;
+
+	/**
+	 * JDBC statement timeout, in seconds, of the cohort queries; the driver cancels a query that runs
+	 * longer. 0 disables the timeout.
+	 */
+	public final static String GP_COHORT_QUERY_TIMEOUT_SECONDS = "cds.cohortQuery.timeoutSeconds";
+
+	public final static int DEFAULT_COHORT_QUERY_TIMEOUT_SECONDS = 30;
+
+	/**
+	 * Cohort query timeouts in a row after which the dashboard stops running the query and serves
+	 * its last result, and for how many seconds
+	 */
+	public final static String GP_CIRCUIT_BREAKER_FAILURE_THRESHOLD = "cds.circuitBreaker.failureThreshold";
+
+	public final static int DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 3;
+
+	public final static String GP_CIRCUIT_BREAKER_OPEN_SECONDS = "cds.circuitBreaker.openSeconds";
+
+	public final static int DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS = 60;
+
+	/**
+	 * Reads an integer global property. Falls back to the default when the property is unset, not a
+	 * number, or the administration service is not available (e.g. in unit tests).
+	 */
+	public static int getIntegerGlobalProperty(String propertyName, int defaultValue) {
+		try {
+			String value = Context.getAdministrationService().getGlobalProperty(propertyName);
+			if (StringUtils.isNotBlank(value)) {
+				return Integer.parseInt(value.trim());
+			}
+		}
+		catch (NumberFormatException e) {
+			// fall through to the default
+		}
+		catch (Exception e) {
+			// no running context
+		}
+		return defaultValue;
+	}
 }
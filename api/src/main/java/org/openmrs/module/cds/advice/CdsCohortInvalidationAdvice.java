@@ -0,0 +1,207 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.advice;
+
+import java.lang.reflect.Method;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.cds.api.CdsCohortType;
+import org.openmrs.module.cds.api.CdsConcept;
+import org.openmrs.module.cds.api.CdsConceptRegistry;
+import org.openmrs.module.cds.api.CdsExecutor;
+import org.openmrs.module.cds.api.CdsForm;
+import org.openmrs.module.cds.api.ClinicalDataSystemService;
+import org.springframework.aop.AfterReturningAdvice;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Reloads the patient's appointment index entry (or visit summary while there is no index) and
+ * invalidates cached cohorts and their snapshots after an encounter or obs that can move a patient
+ * in or out of a cohort is saved, voided, unvoided or purged through EncounterService or
+ * ObsService:
+ * <ul>
+ * <li>appointment form encounters and their appointment date obs: upcoming, missed and IIT</li>
+ * <li>attendance form encounters: missed</li>
+ * <li>tracking form encounters and tracking discontinued obs: IIT</li>
+ * </ul>
+ * Other encounters and obs are ignored.
+ * <p>
+ * The advice runs inside the clinical transaction, so it only records the changed patients and
+ * cohorts. The index, summary and snapshot work runs after that transaction commits, in a
+ * transaction of its own, so it can never roll back or lock up a clinical save and never reads
+ * uncommitted data.
+ */
+public class CdsCohortInvalidationAdvice implements AfterReturningAdvice {
+
+	private static final Log log = LogFactory.getLog(CdsCohortInvalidationAdvice.class);
+
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		String name = method.getName();
+		if (!(name.startsWith("save") || name.startsWith("void") || name.startsWith("unvoid") || name
+		        .startsWith("purge"))) {
+			return;
+		}
+		if (args == null || args.length == 0 || !(args[0] instanceof Encounter || args[0] instanceof Obs)) {
+			return;
+		}
+
+		CdsConceptRegistry registry = Context.getRegisteredComponent("cds.CdsConceptRegistry", CdsConceptRegistry.class);
+		Set<CdsCohortType> affected = getAffectedCohorts(args[0], registry);
+		if (affected.isEmpty()) {
+			return;
+		}
+		log.debug("CDS cohorts " + affected + " changed by " + name);
+		Integer patientId = getPatientId(args[0]);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			PendingChanges pending = (PendingChanges) TransactionSynchronizationManager.getResource(PendingChanges.class);
+			if (pending == null) {
+				pending = new PendingChanges();
+				TransactionSynchronizationManager.bindResource(PendingChanges.class, pending);
+				TransactionSynchronizationManager.registerSynchronization(pending);
+			}
+			pending.add(patientId, affected);
+		} else {
+			PendingChanges pending = new PendingChanges();
+			pending.add(patientId, affected);
+			pending.apply();
+		}
+	}
+
+	/**
+	 * The cohorts whose membership can change when the given encounter or obs changes
+	 */
+	static Set<CdsCohortType> getAffectedCohorts(Object changed, CdsConceptRegistry registry) {
+		Set<CdsCohortType> affected = EnumSet.noneOf(CdsCohortType.class);
+		if (changed instanceof Encounter) {
+			// all cohorts read appointment dates from the appointment form only
+			addFormCohorts((Encounter) changed, registry, affected);
+		} else if (changed instanceof Obs) {
+			Obs obs = (Obs) changed;
+			if (isConcept(obs, CdsConcept.APPOINTMENT_DATE, registry)) {
+				if (isForm(obs.getEncounter(), registry.getFormId(CdsForm.APPOINTMENT))) {
+					affected.add(CdsCohortType.UPCOMING);
+					affected.add(CdsCohortType.MISSED);
+					affected.add(CdsCohortType.IIT);
+				}
+			} else if (isConcept(obs, CdsConcept.TRACKING_DISCONTINUED, registry)) {
+				affected.add(CdsCohortType.IIT);
+			}
+		}
+		return affected;
+	}
+
+	private static Integer getPatientId(Object changed) {
+		if (changed instanceof Encounter) {
+			Encounter encounter = (Encounter) changed;
+			return encounter.getPatient() != null ? encounter.getPatient().getPatientId() : null;
+		}
+		Obs obs = (Obs) changed;
+		return obs.getPerson() != null ? obs.getPerson().getPersonId() : null;
+	}
+
+	private static void addFormCohorts(Encounter encounter, CdsConceptRegistry registry, Set<CdsCohortType> affected) {
+		if (encounter.getForm() == null || encounter.getForm().getFormId() == null) {
+			return;
+		}
+		Integer formId = encounter.getForm().getFormId();
+		if (formId == registry.getFormId(CdsForm.APPOINTMENT)) {
+			affected.add(CdsCohortType.UPCOMING);
+			affected.add(CdsCohortType.MISSED);
+			affected.add(CdsCohortType.IIT);
+		}
+		if (formId == registry.getFormId(CdsForm.TRACKING)) {
+			affected.add(CdsCohortType.IIT);
+		}
+		if (registry.getAttendanceFormIds().contains(formId)) {
+			affected.add(CdsCohortType.MISSED);
+		}
+	}
+
+	private static boolean isConcept(Obs obs, CdsConcept concept, CdsConceptRegistry registry) {
+		return obs.getConcept() != null && obs.getConcept().getConceptId() != null
+		        && obs.getConcept().getConceptId() == registry.getConceptId(concept);
+	}
+
+	/**
+	 * The patients and cohorts changed by one clinical transaction. After it commits they are
+	 * handed to a CDS worker thread, which applies them in its own session and transaction; if the
+	 * pool is full they are applied on this thread, still in a new transaction. A rolled back
+	 * transaction changes nothing.
+	 */
+	static class PendingChanges extends TransactionSynchronizationAdapter {
+
+		final Set<Integer> patientIds = new LinkedHashSet<Integer>();
+
+		final Set<CdsCohortType> cohorts = EnumSet.noneOf(CdsCohortType.class);
+
+		void add(Integer patientId, Set<CdsCohortType> affected) {
+			if (patientId != null) {
+				patientIds.add(patientId);
+			}
+			cohorts.addAll(affected);
+		}
+
+		@Override
+		public void afterCommit() {
+			apply();
+		}
+
+		@Override
+		public void afterCompletion(int status) {
+			TransactionSynchronizationManager.unbindResourceIfPossible(PendingChanges.class);
+		}
+
+		void apply() {
+			try {
+				Context.getRegisteredComponent("cds.CdsExecutor", CdsExecutor.class).submit(new Callable<Void>() {
+
+					@Override
+					public Void call() {
+						applyNow();
+						return null;
+					}
+				});
+			}
+			catch (RejectedExecutionException e) {
+				log.warn("CDS executor is full, applying cohort changes " + cohorts + " on the request thread");
+				applyNow();
+			}
+			catch (Exception e) {
+				log.warn("Unable to schedule CDS cohort changes " + cohorts + ": " + e.getMessage());
+			}
+		}
+
+		private void applyNow() {
+			try {
+				Context.getService(ClinicalDataSystemService.class).applyCohortChanges(patientIds, cohorts);
+			}
+			catch (Exception e) {
+				// the clinical save has committed; the cache and snapshots expire on their own
+				log.warn("Unable to apply CDS cohort changes " + cohorts + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private static boolean isForm(Encounter encounter, int formId) {
+		return encounter != null && encounter.getForm() != null && encounter.getForm().getFormId() != null
+		        && encounter.getForm().getFormId() == formId;
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.advice;
+
+import java.lang.reflect.Method;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.Form;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.cds.api.CdsConceptNameCache;
+import org.openmrs.module.cds.api.CdsConceptRegistry;
+import org.springframework.aop.AfterReturningAdvice;
+
+/**
+ * Refreshes the {@link CdsConceptRegistry} when one of its concepts or forms is saved, retired or
+ * purged through ConceptService or FormService. A changed concept is also dropped from the
+ * {@link CdsConceptNameCache}, which is cleared entirely when a registered concept (e.g. the
+ * tracking status question and its answers) changes. Other metadata changes are ignored.
+ */
+public class CdsMetadataChangeAdvice implements AfterReturningAdvice {
+
+	private static final Log log = LogFactory.getLog(CdsMetadataChangeAdvice.class);
+
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		String name = method.getName();
+		if (!(name.startsWith("save") || name.startsWith("retire") || name.startsWith("unretire") || name
+		        .startsWith("purge"))) {
+			return;
+		}
+		if (args == null || args.length == 0) {
+			return;
+		}
+
+		CdsConceptRegistry registry = Context.getRegisteredComponent("cds.CdsConceptRegistry", CdsConceptRegistry.class);
+		Object changed = args[0];
+		boolean registered = (changed instanceof Concept && registry.isRegisteredConcept(((Concept) changed)
+		        .getConceptId())) || (changed instanceof Form && registry.isRegisteredForm(((Form) changed).getFormId()));
+		if (registered) {
+			log.debug("CDS metadata changed by " + name + ", refreshing concept registry");
+			registry.refresh();
+		}
+		if (changed instanceof Concept) {
+			CdsConceptNameCache nameCache = Context.getRegisteredComponent("cds.CdsConceptNameCache",
+			    CdsConceptNameCache.class);
+			if (registered) {
+				nameCache.invalidateAll();
+			} else {
+				nameCache.invalidate(((Concept) changed).getConceptId());
+			}
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.openmrs.module.cds.api.dto.AppointmentIndexEntry;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory index of each patient's latest appointment date, latest attendance visit and tracking
+ * state, ordered by appointment date. The upcoming, missed and IIT cohorts become a range scan over
+ * the appointment dates instead of a scan of obs. The index is built once at startup and each
+ * patient is reloaded when one of their encounters or obs on the CDS forms and concepts changes
+ * (see org.openmrs.module.cds.advice.CdsCohortInvalidationAdvice).
+ * <p>
+ * Only the latest appointment is kept, so a patient whose latest appointment lies outside a window
+ * is not in the cohort even if an earlier, superseded appointment falls inside it. Windows are whole
+ * days, like the cohort queries.
+ */
+@Component("cds.CdsAppointmentIndex")
+public class CdsAppointmentIndex {
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private Map<Integer, AppointmentIndexEntry> patients = new HashMap<Integer, AppointmentIndexEntry>();
+
+	private TreeMap<Long, Set<Integer>> byAppointment = new TreeMap<Long, Set<Integer>>();
+
+	private volatile boolean ready;
+
+	private volatile Date builtAt;
+
+	private boolean rebuilding;
+
+	private final Set<Integer> changedDuringRebuild = new HashSet<Integer>();
+
+	/**
+	 * Whether the index has been built and can answer cohorts
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	public Date getBuiltAt() {
+		return builtAt;
+	}
+
+	public int getPatientCount() {
+		lock.readLock().lock();
+		try {
+			return patients.size();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Starts recording the patients updated while the full load for {@link #finishRebuild} runs
+	 */
+	public void beginRebuild() {
+		lock.writeLock().lock();
+		try {
+			rebuilding = true;
+			changedDuringRebuild.clear();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replaces the whole index with the given entries
+	 *
+	 * @return the patients updated since {@link #beginRebuild}, whose entries in the full load may
+	 *         be out of date and should be reloaded
+	 */
+	public Set<Integer> finishRebuild(Map<Integer, AppointmentIndexEntry> entries) {
+		Map<Integer, AppointmentIndexEntry> newPatients = new HashMap<Integer, AppointmentIndexEntry>(entries.size() * 2);
+		TreeMap<Long, Set<Integer>> newByAppointment = new TreeMap<Long, Set<Integer>>();
+		for (AppointmentIndexEntry entry : entries.values()) {
+			add(entry, newPatients, newByAppointment);
+		}
+
+		lock.writeLock().lock();
+		try {
+			patients = newPatients;
+			byAppointment = newByAppointment;
+			rebuilding = false;
+			Set<Integer> changed = new HashSet<Integer>(changedDuringRebuild);
+			changedDuringRebuild.clear();
+			builtAt = new Date();
+			ready = true;
+			return changed;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void cancelRebuild() {
+		lock.writeLock().lock();
+		try {
+			rebuilding = false;
+			changedDuringRebuild.clear();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replaces the entries of the given patients; patients missing from entries are removed
+	 */
+	public void update(Collection<Integer> patientIds, Map<Integer, AppointmentIndexEntry> entries) {
+		lock.writeLock().lock();
+		try {
+			for (Integer patientId : patientIds) {
+				if (rebuilding) {
+					changedDuringRebuild.add(patientId);
+				}
+				remove(patientId);
+				AppointmentIndexEntry entry = entries.get(patientId);
+				if (entry != null) {
+					add(entry, patients, byAppointment);
+				}
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a cohort as of now, with the same day boundaries as the cohort queries:
+	 * <ul>
+	 * <li>UPCOMING: latest appointment from today to today + days</li>
+	 * <li>MISSED: latest appointment after today - days and before today, with no attendance visit
+	 * on or after it</li>
+	 * <li>IIT: latest appointment from today - days to before today, with an active tracking
+	 * encounter</li>
+	 * </ul>
+	 */
+	public CdsCohort getCohort(CdsCohortType cohort, Date now, int days) {
+		IntList ids = new IntList();
+		lock.readLock().lock();
+		try {
+			for (AppointmentIndexEntry entry : scan(cohort, now, days)) {
+				ids.add(entry.getPatientId());
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		return CdsCohort.of(ids);
+	}
+
+	/**
+	 * Returns the latest appointment date of each patient in a cohort, from the same range scan as
+	 * {@link #getCohort(CdsCohortType, Date, int)}
+	 */
+	public Map<Integer, Date> getLatestAppointments(CdsCohortType cohort, Date now, int days) {
+		Map<Integer, Date> result = new TreeMap<Integer, Date>();
+		lock.readLock().lock();
+		try {
+			for (AppointmentIndexEntry entry : scan(cohort, now, days)) {
+				result.put(entry.getPatientId(), entry.getLatestAppointmentDate());
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		return result;
+	}
+
+	/**
+	 * The entries in a cohort's window; the caller holds the read lock
+	 */
+	private List<AppointmentIndexEntry> scan(CdsCohortType cohort, Date now, int days) {
+		long today = startOfDay(now, 0);
+		NavigableMap<Long, Set<Integer>> range;
+		switch (cohort) {
+			case UPCOMING:
+				range = byAppointment.subMap(today, true, startOfDay(now, days), true);
+				break;
+			case MISSED:
+				range = byAppointment.subMap(startOfDay(now, -days), false, today, false);
+				break;
+			default:
+				range = byAppointment.subMap(startOfDay(now, -days), true, today, false);
+				break;
+		}
+		List<AppointmentIndexEntry> entries = new ArrayList<AppointmentIndexEntry>();
+		for (Set<Integer> patientIds : range.values()) {
+			for (Integer patientId : patientIds) {
+				AppointmentIndexEntry entry = patients.get(patientId);
+				if (matches(cohort, entry)) {
+					entries.add(entry);
+				}
+			}
+		}
+		return entries;
+	}
+
+	private static boolean matches(CdsCohortType cohort, AppointmentIndexEntry entry) {
+		switch (cohort) {
+			case MISSED:
+				return entry.getLatestVisitDate() == null
+				        || entry.getLatestVisitDate().before(entry.getLatestAppointmentDate());
+			case IIT:
+				return entry.isTracked();
+			default:
+				return true;
+		}
+	}
+
+	private void remove(Integer patientId) {
+		AppointmentIndexEntry old = patients.remove(patientId);
+		if (old != null && old.getLatestAppointmentDate() != null) {
+			Long key = old.getLatestAppointmentDate().getTime();
+			Set<Integer> atDate = byAppointment.get(key);
+			if (atDate != null) {
+				atDate.remove(patientId);
+				if (atDate.isEmpty()) {
+					byAppointment.remove(key);
+				}
+			}
+		}
+	}
+
+	private static void add(AppointmentIndexEntry entry, Map<Integer, AppointmentIndexEntry> patients,
+	        TreeMap<Long, Set<Integer>> byAppointment) {
+		patients.put(entry.getPatientId(), entry);
+		if (entry.getLatestAppointmentDate() != null) {
+			Long key = entry.getLatestAppointmentDate().getTime();
+			Set<Integer> atDate = byAppointment.get(key);
+			if (atDate == null) {
+				atDate = new HashSet<Integer>(4);
+				byAppointment.put(key, atDate);
+			}
+			atDate.add(entry.getPatientId());
+		}
+	}
+
+	private static long startOfDay(Date base, int days) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(base);
+		cal.add(Calendar.DAY_OF_MONTH, days);
+		cal.set(Calendar.HOUR_OF_DAY, 0);
+		cal.set(Calendar.MINUTE, 0);
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+		return cal.getTimeInMillis();
+	}
+}
@@ -0,0 +1,247 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.APIException;
+import org.openmrs.module.cds.ClinicalDataSystemConfig;
+import org.springframework.stereotype.Component;
+
+/**
+ * Circuit breaker in front of the cohort queries behind the dashboard. Each key (e.g. a dashboard
+ * query and its windows) remembers its last successful result. When a query times out (see
+ * {@link ClinicalDataSystemConfig#GP_COHORT_QUERY_TIMEOUT_SECONDS}) that result is served instead,
+ * with the time it was computed; after
+ * {@link ClinicalDataSystemConfig#GP_CIRCUIT_BREAKER_FAILURE_THRESHOLD} timeouts in a row the key
+ * is opened and the query is not run at all for
+ * {@link ClinicalDataSystemConfig#GP_CIRCUIT_BREAKER_OPEN_SECONDS}. Then one request is let through
+ * to try it again while the others keep getting the last result.
+ * <p>
+ * Only timeouts count as failures; other errors are passed on and leave the breaker as it is.
+ * <p>
+ * Besides the dashboard counts, the raw cohort queries behind the cohort lists and the IIT result
+ * are guarded, keyed by cohort and window.
+ */
+@Component("cds.CdsCircuitBreaker")
+public class CdsCircuitBreaker {
+
+	private static final Log log = LogFactory.getLog(CdsCircuitBreaker.class);
+
+	private static final int MAX_KEYS = 64;
+
+	/**
+	 * MySQL's SQL state for a statement cancelled by its timeout
+	 */
+	private static final String TIMEOUT_SQL_STATE = "70100";
+
+	/**
+	 * The guarded query
+	 */
+	public interface Call<T> {
+
+		T call();
+	}
+
+	/**
+	 * A result and when it was computed; stale results come from an earlier successful call
+	 */
+	public static final class Result<T> {
+
+		private final T value;
+
+		private final Date asOf;
+
+		private final boolean stale;
+
+		Result(T value, Date asOf, boolean stale) {
+			this.value = value;
+			this.asOf = asOf;
+			this.stale = stale;
+		}
+
+		public T getValue() {
+			return value;
+		}
+
+		public Date getAsOf() {
+			return asOf;
+		}
+
+		public boolean isStale() {
+			return stale;
+		}
+	}
+
+	/**
+	 * Thrown instead of running the query while its key is open and there is no earlier result
+	 */
+	public static class OpenException extends APIException {
+
+		private static final long serialVersionUID = 1L;
+
+		public OpenException(String message) {
+			super(message);
+		}
+	}
+
+	private final Map<String, State> states = new LinkedHashMap<String, State>(16, 0.75f, true);
+
+	/**
+	 * Runs the call unless the key is open, and falls back to the key's last successful result when
+	 * it times out
+	 *
+	 * @throws OpenException if the key is open and there is no earlier result; a timeout without an
+	 *             earlier result is rethrown
+	 */
+	public <T> Result<T> execute(String key, Call<T> call) {
+		State state;
+		long now = currentTimeMillis();
+		synchronized (this) {
+			state = getState(key);
+			if (state.openUntil != 0 && (now < state.openUntil || state.probing)) {
+				return lastResult(key, state, null);
+			}
+			if (state.openUntil != 0) {
+				state.probing = true;
+			}
+		}
+
+		T value;
+		try {
+			value = call.call();
+		}
+		catch (RuntimeException e) {
+			if (!isTimeout(e)) {
+				synchronized (this) {
+					state.probing = false;
+				}
+				throw e;
+			}
+			int threshold = ClinicalDataSystemConfig.getIntegerGlobalProperty(
+			    ClinicalDataSystemConfig.GP_CIRCUIT_BREAKER_FAILURE_THRESHOLD,
+			    ClinicalDataSystemConfig.DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD);
+			int openSeconds = ClinicalDataSystemConfig.getIntegerGlobalProperty(
+			    ClinicalDataSystemConfig.GP_CIRCUIT_BREAKER_OPEN_SECONDS,
+			    ClinicalDataSystemConfig.DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS);
+			synchronized (this) {
+				state.probing = false;
+				state.failures++;
+				if (state.failures >= Math.max(1, threshold)) {
+					state.openUntil = currentTimeMillis() + openSeconds * 1000L;
+					log.warn("Opening circuit breaker for " + key + " for " + openSeconds + " s after " + state.failures
+					        + " query timeouts");
+				} else {
+					log.warn("Query for " + key + " timed out (" + state.failures + " in a row)");
+				}
+				return lastResult(key, state, e);
+			}
+		}
+
+		synchronized (this) {
+			if (state.openUntil != 0) {
+				log.info("Closing circuit breaker for " + key);
+			}
+			state.failures = 0;
+			state.openUntil = 0;
+			state.probing = false;
+			state.lastValue = value;
+			state.lastSuccessAt = new Date(now);
+		}
+		return new Result<T>(value, new Date(now), false);
+	}
+
+	/**
+	 * Runs the call without a breaker, for callers that have none
+	 */
+	public static <T> Result<T> unguarded(Call<T> call) {
+		Date now = new Date();
+		return new Result<T>(call.call(), now, false);
+	}
+
+	public synchronized boolean isOpen(String key) {
+		State state = states.get(key);
+		return state != null && state.openUntil != 0;
+	}
+
+	public synchronized void reset() {
+		states.clear();
+	}
+
+	/**
+	 * Whether the exception or one of its causes is a statement timeout
+	 */
+	public static boolean isTimeout(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SQLTimeoutException) {
+				return true;
+			}
+			if (cause instanceof SQLException && TIMEOUT_SQL_STATE.equals(((SQLException) cause).getSQLState())) {
+				return true;
+			}
+			if (cause.getCause() == cause) {
+				break;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Overridden in tests to move the clock
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> Result<T> lastResult(String key, State state, RuntimeException timeout) {
+		if (state.lastSuccessAt != null) {
+			return new Result<T>((T) state.lastValue, state.lastSuccessAt, true);
+		}
+		if (timeout != null) {
+			throw timeout;
+		}
+		throw new OpenException("The query for " + key + " is paused after repeated timeouts and has no earlier result");
+	}
+
+	private State getState(String key) {
+		State state = states.get(key);
+		if (state == null) {
+			state = new State();
+			states.put(key, state);
+			Iterator<State> it = states.values().iterator();
+			while (states.size() > MAX_KEYS && it.hasNext()) {
+				it.next();
+				it.remove();
+			}
+		}
+		return state;
+	}
+
+	private static final class State {
+
+		int failures;
+
+		long openUntil;
+
+		boolean probing;
+
+		Object lastValue;
+
+		Date lastSuccessAt;
+	}
+}
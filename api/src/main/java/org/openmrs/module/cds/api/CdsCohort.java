@@ -0,0 +1,251 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An immutable set of patient IDs backed by a sorted, duplicate-free int[]. Four bytes per patient
+ * instead of a boxed Integer plus list slot, and union, intersection and difference are linear
+ * merges, so cohorts can be combined in memory (e.g. IIT patients without a pending action, or the
+ * number of distinct patients across all cohorts).
+ */
+public final class CdsCohort {
+
+	private static final int[] NO_IDS = new int[0];
+
+	private static final CdsCohort EMPTY = new CdsCohort(NO_IDS);
+
+	private final int[] ids;
+
+	private CdsCohort(int[] ids) {
+		this.ids = ids;
+	}
+
+	public static CdsCohort empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Builds a cohort from IDs in any order; nulls and duplicates are dropped
+	 */
+	public static CdsCohort of(Collection<Integer> patientIds) {
+		if (patientIds == null || patientIds.isEmpty()) {
+			return EMPTY;
+		}
+		int[] ids = new int[patientIds.size()];
+		int n = 0;
+		for (Integer id : patientIds) {
+			if (id != null) {
+				ids[n++] = id;
+			}
+		}
+		return sortAndDedupe(ids, n);
+	}
+
+	public static CdsCohort of(int... patientIds) {
+		if (patientIds.length == 0) {
+			return EMPTY;
+		}
+		return sortAndDedupe(patientIds.clone(), patientIds.length);
+	}
+
+	/**
+	 * Builds a cohort from IDs in any order, sorting the list's backing array in place instead of
+	 * copying it. The list must not be used afterwards.
+	 */
+	public static CdsCohort of(IntList patientIds) {
+		if (patientIds == null || patientIds.isEmpty()) {
+			return EMPTY;
+		}
+		return sortAndDedupe(patientIds.elements(), patientIds.size());
+	}
+
+	private static CdsCohort sortAndDedupe(int[] ids, int length) {
+		Arrays.sort(ids, 0, length);
+		int n = 0;
+		for (int i = 0; i < length; i++) {
+			if (n == 0 || ids[i] != ids[n - 1]) {
+				ids[n++] = ids[i];
+			}
+		}
+		return n == 0 ? EMPTY : new CdsCohort(n == ids.length ? ids : Arrays.copyOf(ids, n));
+	}
+
+	/**
+	 * Number of distinct patients
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	public boolean isEmpty() {
+		return ids.length == 0;
+	}
+
+	public boolean contains(int patientId) {
+		return Arrays.binarySearch(ids, patientId) >= 0;
+	}
+
+	/**
+	 * Patients in this cohort or the other
+	 */
+	public CdsCohort union(CdsCohort other) {
+		if (other.isEmpty()) {
+			return this;
+		}
+		if (isEmpty()) {
+			return other;
+		}
+		int[] a = ids;
+		int[] b = other.ids;
+		int[] out = new int[a.length + b.length];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				out[n++] = a[i++];
+			} else if (a[i] > b[j]) {
+				out[n++] = b[j++];
+			} else {
+				out[n++] = a[i++];
+				j++;
+			}
+		}
+		while (i < a.length) {
+			out[n++] = a[i++];
+		}
+		while (j < b.length) {
+			out[n++] = b[j++];
+		}
+		return wrap(out, n);
+	}
+
+	/**
+	 * Patients in both this cohort and the other
+	 */
+	public CdsCohort intersect(CdsCohort other) {
+		int[] a = ids;
+		int[] b = other.ids;
+		int[] out = new int[Math.min(a.length, b.length)];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				out[n++] = a[i++];
+				j++;
+			}
+		}
+		return wrap(out, n);
+	}
+
+	/**
+	 * Patients in this cohort but not in the other
+	 */
+	public CdsCohort difference(CdsCohort other) {
+		if (isEmpty() || other.isEmpty()) {
+			return this;
+		}
+		int[] a = ids;
+		int[] b = other.ids;
+		int[] out = new int[a.length];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length) {
+			if (j == b.length || a[i] < b[j]) {
+				out[n++] = a[i++];
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				i++;
+				j++;
+			}
+		}
+		return n == a.length ? this : wrap(out, n);
+	}
+
+	/**
+	 * Distinct patients across all the given cohorts
+	 */
+	public static CdsCohort unionAll(CdsCohort... cohorts) {
+		CdsCohort result = EMPTY;
+		for (CdsCohort cohort : cohorts) {
+			if (cohort != null) {
+				result = result.union(cohort);
+			}
+		}
+		return result;
+	}
+
+	private static CdsCohort wrap(int[] ids, int n) {
+		if (n == 0) {
+			return EMPTY;
+		}
+		return new CdsCohort(n == ids.length ? ids : Arrays.copyOf(ids, n));
+	}
+
+	/**
+	 * A copy of the patient IDs in ascending order
+	 */
+	public int[] toArray() {
+		return ids.clone();
+	}
+
+	/**
+	 * A read-only List view in ascending order, boxing each ID only when it is read
+	 */
+	public List<Integer> asList() {
+		return new AbstractList<Integer>() {
+
+			@Override
+			public Integer get(int index) {
+				return ids[index];
+			}
+
+			@Override
+			public int size() {
+				return ids.length;
+			}
+		};
+	}
+
+	/**
+	 * Up to limit patient IDs greater than afterPatientId (from the start when null), in ascending
+	 * order, as a read-only view. Matches the keyset paging of the DAO cohort queries.
+	 */
+	public List<Integer> page(Integer afterPatientId, int limit) {
+		int from = 0;
+		if (afterPatientId != null) {
+			int index = Arrays.binarySearch(ids, afterPatientId);
+			from = index >= 0 ? index + 1 : -(index + 1);
+		}
+		int to = (int) Math.min((long) from + Math.max(0, limit), ids.length);
+		return asList().subList(from, to);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof CdsCohort && Arrays.equals(ids, ((CdsCohort) o).ids);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(ids);
+	}
+
+	@Override
+	public String toString() {
+		return "CdsCohort[" + ids.length + " patients]";
+	}
+}
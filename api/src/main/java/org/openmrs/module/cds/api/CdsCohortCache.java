@@ -0,0 +1,259 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+import java.util.Calendar;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openmrs.module.cds.ClinicalDataSystemConfig;
+import org.openmrs.module.cds.api.dto.IitResult;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded, least-recently-used cache of cohorts (and of the IIT result behind the IIT list) keyed by
+ * cohort, window and clinic day, sitting in front of the cohort snapshots. Entries expire after
+ * {@link ClinicalDataSystemConfig#GP_COHORT_CACHE_TTL_SECONDS} and are dropped as soon as an
+ * encounter or obs that can move a patient in or out of a cohort is saved (see
+ * org.openmrs.module.cds.advice.CdsCohortInvalidationAdvice).
+ * <p>
+ * Loads run outside the lock, so two requests missing the same key at once may both load it. A
+ * load that started before an invalidation of its cohort is returned to its caller but not cached.
+ */
+@Component("cds.CdsCohortCache")
+public class CdsCohortCache {
+
+	/**
+	 * Computes a cohort on a cache miss
+	 */
+	public interface Loader {
+
+		CdsCohort load();
+	}
+
+	/**
+	 * Computes the IIT result on a cache miss
+	 */
+	public interface IitLoader {
+
+		IitResult load();
+	}
+
+	private interface ValueLoader<T> {
+
+		T load();
+	}
+
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private final Map<CdsCohortType, Long> generations = new EnumMap<CdsCohortType, Long>(CdsCohortType.class);
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	private final LongAdder invalidations = new LongAdder();
+
+	/**
+	 * Returns the cached cohort for today's clinic day, loading and caching it on a miss
+	 */
+	public CdsCohort get(CdsCohortType cohort, int days, final Loader loader) {
+		return get(cohort, cohort.name(), days, new ValueLoader<CdsCohort>() {
+
+			@Override
+			public CdsCohort load() {
+				return loader.load();
+			}
+		});
+	}
+
+	/**
+	 * Returns the cached IIT result for today's clinic day, loading and caching it on a miss. It is
+	 * keyed and invalidated like the IIT cohort, so paging through the IIT list reads one result.
+	 */
+	public IitResult getIitResult(int days, final IitLoader loader) {
+		return get(CdsCohortType.IIT, "IIT_RESULT", days, new ValueLoader<IitResult>() {
+
+			@Override
+			public IitResult load() {
+				return loader.load();
+			}
+		});
+	}
+
+	/**
+	 * Returns the cached cohort for today's clinic day without loading it, or null on a miss
+	 */
+	public CdsCohort getIfPresent(CdsCohortType cohort, int days) {
+		int ttlSeconds = ClinicalDataSystemConfig.getIntegerGlobalProperty(
+		    ClinicalDataSystemConfig.GP_COHORT_CACHE_TTL_SECONDS, ClinicalDataSystemConfig.DEFAULT_COHORT_CACHE_TTL_SECONDS);
+		if (ttlSeconds <= 0) {
+			return null;
+		}
+		
+		long now = currentTimeMillis();
+		synchronized (this) {
+			Entry entry = entries.get(key(cohort.name(), days, now));
+			if (entry != null && entry.expiresAt > now) {
+				hits.increment();
+				return (CdsCohort) entry.value;
+			}
+			misses.increment();
+			return null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T get(CdsCohortType type, String name, int days, ValueLoader<T> loader) {
+		int ttlSeconds = ClinicalDataSystemConfig.getIntegerGlobalProperty(
+		    ClinicalDataSystemConfig.GP_COHORT_CACHE_TTL_SECONDS, ClinicalDataSystemConfig.DEFAULT_COHORT_CACHE_TTL_SECONDS);
+		if (ttlSeconds <= 0) {
+			return loader.load();
+		}
+
+		long now = currentTimeMillis();
+		String key = key(name, days, now);
+		long generation;
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.expiresAt > now) {
+				hits.increment();
+				return (T) entry.value;
+			}
+			if (entry != null) {
+				entries.remove(key);
+			}
+			misses.increment();
+			generation = getGeneration(type);
+		}
+
+		T loaded = loader.load();
+		if (loaded == null) {
+			return null;
+		}
+		int maxEntries = ClinicalDataSystemConfig.getIntegerGlobalProperty(
+		    ClinicalDataSystemConfig.GP_COHORT_CACHE_MAX_ENTRIES, ClinicalDataSystemConfig.DEFAULT_COHORT_CACHE_MAX_ENTRIES);
+		synchronized (this) {
+			if (getGeneration(type) == generation) {
+				entries.put(key, new Entry(type, loaded, now + ttlSeconds * 1000L));
+				evictEldest(maxEntries);
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Drops every window and day of the given cohorts
+	 */
+	public synchronized void invalidate(Set<CdsCohortType> cohorts) {
+		for (CdsCohortType cohort : cohorts) {
+			generations.put(cohort, getGeneration(cohort) + 1);
+		}
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			if (cohorts.contains(it.next().type)) {
+				it.remove();
+				invalidations.increment();
+			}
+		}
+	}
+
+	public synchronized void invalidateAll() {
+		for (CdsCohortType cohort : CdsCohortType.values()) {
+			generations.put(cohort, getGeneration(cohort) + 1);
+		}
+		invalidations.add(entries.size());
+		entries.clear();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Share of lookups answered from the cache, 0..1
+	 */
+	public double getHitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	/**
+	 * Entries dropped because the cache was full
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Entries dropped because an encounter or obs affecting their cohort was saved
+	 */
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	/**
+	 * Overridden in tests to move the clock
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private void evictEldest(int maxEntries) {
+		Iterator<Entry> it = entries.values().iterator();
+		while (entries.size() > Math.max(1, maxEntries) && it.hasNext()) {
+			it.next();
+			it.remove();
+			evictions.increment();
+		}
+	}
+
+	private long getGeneration(CdsCohortType cohort) {
+		Long generation = generations.get(cohort);
+		return generation != null ? generation : 0L;
+	}
+
+	private static String key(String name, int days, long now) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTimeInMillis(now);
+		int clinicDay = cal.get(Calendar.YEAR) * 10000 + (cal.get(Calendar.MONTH) + 1) * 100 + cal.get(Calendar.DAY_OF_MONTH);
+		return name + ":" + days + ":" + clinicDay;
+	}
+
+	private static final class Entry {
+
+		final CdsCohortType type;
+
+		final Object value;
+
+		final long expiresAt;
+
+		Entry(CdsCohortType type, Object value, long expiresAt) {
+			this.type = type;
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
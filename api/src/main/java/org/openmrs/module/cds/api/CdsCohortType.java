@@ -0,0 +1,32 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+/**
+ * The patient cohorts tracked by the CDS dashboard. The name is what gets stored in the
+ * cds_cohort_snapshot tables.
+ */
+public enum CdsCohortType {
+
+	/**
+	 * Appointment (concept 5096 on form 27) within the next N days
+	 */
+	UPCOMING,
+
+	/**
+	 * Appointment within the last N days with no follow-up encounter
+	 */
+	MISSED,
+
+	/**
+	 * Tracked on form 13 without discontinuation, with an appointment within the last N days
+	 */
+	IIT
+}
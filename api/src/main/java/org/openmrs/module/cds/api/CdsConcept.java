@@ -0,0 +1,53 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+/**
+ * The concepts the CDS module reads. Each ID can be overridden with the global property
+ * cds.concept.&lt;key&gt;, e.g. cds.concept.viralLoad.
+ */
+public enum CdsConcept {
+
+	VIRAL_LOAD("viralLoad", 856),
+
+	CURRENT_LINE("currentLine", 165708),
+
+	CURRENT_REGIMEN("currentRegimen", 164506),
+
+	APPOINTMENT_DATE("appointmentDate", 5096),
+
+	EAC_SESSION("eacSession", 166097),
+
+	/**
+	 * Recorded on the tracking form when the client is discontinued
+	 */
+	TRACKING_DISCONTINUED("trackingDiscontinued", 165470),
+
+	TRACKING_STATUS("trackingStatus", 167239),
+
+	TRACKING_COMMENT("trackingComment", 167237);
+
+	private final String key;
+
+	private final int defaultId;
+
+	CdsConcept(String key, int defaultId) {
+		this.key = key;
+		this.defaultId = defaultId;
+	}
+
+	public int getDefaultId() {
+		return defaultId;
+	}
+
+	public String getGlobalProperty() {
+		return "cds.concept." + key;
+	}
+}
@@ -0,0 +1,206 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.openmrs.module.cds.api.dto.ConceptNameEntry;
+import org.springframework.stereotype.Component;
+
+/**
+ * Names of coded answers shown by CDS screens, e.g. the tracking status answers in the client
+ * effort history. Holds every locale's names of a concept, loaded in bulk, and picks the name for
+ * the user's locale in memory, so queries only need to return value_coded IDs.
+ * <p>
+ * A concept is dropped when it is saved, retired or purged through ConceptService, and everything
+ * is dropped when one of the registered CDS concepts changes (see
+ * org.openmrs.module.cds.advice.CdsMetadataChangeAdvice). A load that started before an
+ * invalidation is returned to its caller but not cached.
+ */
+@Component("cds.CdsConceptNameCache")
+public class CdsConceptNameCache {
+
+	/**
+	 * Loads all non-voided names of the given concepts on a cache miss
+	 */
+	public interface Loader {
+
+		List<ConceptNameEntry> load(Collection<Integer> conceptIds);
+	}
+
+	/**
+	 * Used when the user's locale has no name for a concept, as the CDS queries did before
+	 */
+	public static final String FALLBACK_LOCALE = "en";
+
+	private final Map<Integer, List<ConceptNameEntry>> names = new HashMap<Integer, List<ConceptNameEntry>>();
+
+	private final Set<CdsConcept> preloaded = EnumSet.noneOf(CdsConcept.class);
+
+	private long generation;
+
+	/**
+	 * @return true if the answers of the question have been loaded since the last full
+	 *         invalidation
+	 */
+	public synchronized boolean isPreloaded(CdsConcept question) {
+		return preloaded.contains(question);
+	}
+
+	/**
+	 * Caches the names of all answers of a question, read in one query
+	 */
+	public void preload(CdsConcept question, List<ConceptNameEntry> answerNames) {
+		long started;
+		synchronized (this) {
+			started = generation;
+		}
+		Map<Integer, List<ConceptNameEntry>> grouped = group(answerNames, Collections.<Integer> emptySet());
+		synchronized (this) {
+			if (generation == started) {
+				names.putAll(grouped);
+				preloaded.add(question);
+			}
+		}
+	}
+
+	/**
+	 * Returns the name of each concept in the locale, loading the concepts not cached yet with one
+	 * call to the loader. Concepts without any name are absent from the result.
+	 */
+	public Map<Integer, String> getNames(Collection<Integer> conceptIds, Locale locale, Loader loader) {
+		Map<Integer, List<ConceptNameEntry>> found = new HashMap<Integer, List<ConceptNameEntry>>();
+		Set<Integer> missing = new LinkedHashSet<Integer>();
+		long started;
+		synchronized (this) {
+			started = generation;
+			for (Integer conceptId : conceptIds) {
+				if (conceptId == null) {
+					continue;
+				}
+				List<ConceptNameEntry> cached = names.get(conceptId);
+				if (cached != null) {
+					found.put(conceptId, cached);
+				} else {
+					missing.add(conceptId);
+				}
+			}
+		}
+
+		if (!missing.isEmpty()) {
+			Map<Integer, List<ConceptNameEntry>> loaded = group(loader.load(missing), missing);
+			found.putAll(loaded);
+			synchronized (this) {
+				if (generation == started) {
+					names.putAll(loaded);
+				}
+			}
+		}
+
+		Map<Integer, String> result = new HashMap<Integer, String>();
+		for (Map.Entry<Integer, List<ConceptNameEntry>> entry : found.entrySet()) {
+			String name = pickName(entry.getValue(), locale);
+			if (name != null) {
+				result.put(entry.getKey(), name);
+			}
+		}
+		return result;
+	}
+
+	public synchronized void invalidate(Integer conceptId) {
+		names.remove(conceptId);
+		generation++;
+	}
+
+	public synchronized void invalidateAll() {
+		names.clear();
+		preloaded.clear();
+		generation++;
+	}
+
+	public synchronized int getSize() {
+		return names.size();
+	}
+
+	/**
+	 * Picks the name for the locale: the user's exact locale, then its language, then
+	 * {@link #FALLBACK_LOCALE}, then any locale. Within a locale the locale-preferred name wins,
+	 * then the fully specified name, then a synonym; short names and index terms are last.
+	 */
+	static String pickName(List<ConceptNameEntry> candidates, Locale locale) {
+		List<String> locales = new ArrayList<String>(3);
+		if (locale != null) {
+			locales.add(locale.toString());
+			locales.add(locale.getLanguage());
+		}
+		locales.add(FALLBACK_LOCALE);
+		for (String wanted : locales) {
+			ConceptNameEntry best = null;
+			for (ConceptNameEntry candidate : candidates) {
+				if (wanted.equalsIgnoreCase(candidate.getLocale())
+				        && (best == null || rank(candidate) < rank(best))) {
+					best = candidate;
+				}
+			}
+			if (best != null) {
+				return best.getName();
+			}
+		}
+		ConceptNameEntry best = null;
+		for (ConceptNameEntry candidate : candidates) {
+			if (best == null || rank(candidate) < rank(best)) {
+				best = candidate;
+			}
+		}
+		return best != null ? best.getName() : null;
+	}
+
+	private static int rank(ConceptNameEntry name) {
+		if (name.isLocalePreferred()) {
+			return 0;
+		}
+		if ("FULLY_SPECIFIED".equals(name.getConceptNameType())) {
+			return 1;
+		}
+		if (name.getConceptNameType() == null) {
+			return 2;
+		}
+		return 3;
+	}
+
+	/**
+	 * Groups names by concept; requested concepts without names get an empty list so they are not
+	 * loaded again
+	 */
+	private static Map<Integer, List<ConceptNameEntry>> group(List<ConceptNameEntry> entries, Set<Integer> requested) {
+		Map<Integer, List<ConceptNameEntry>> grouped = new HashMap<Integer, List<ConceptNameEntry>>();
+		for (Integer conceptId : requested) {
+			grouped.put(conceptId, new ArrayList<ConceptNameEntry>(0));
+		}
+		for (ConceptNameEntry entry : entries) {
+			List<ConceptNameEntry> list = grouped.get(entry.getConceptId());
+			if (list == null) {
+				list = new ArrayList<ConceptNameEntry>(4);
+				grouped.put(entry.getConceptId(), list);
+			}
+			list.add(entry);
+		}
+		return grouped;
+	}
+}
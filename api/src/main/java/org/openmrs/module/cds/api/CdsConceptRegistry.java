@@ -0,0 +1,180 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.cds.ClinicalDataSystemConfig;
+import org.springframework.stereotype.Component;
+
+/**
+ * Resolves the concept, form and identifier type IDs used by CDS once and keeps them in an immutable
+ * lookup, so request paths never go back to the concept or form tables. Only IDs are kept: Hibernate
+ * entities loaded here would be detached from every other session. Until {@link #refresh()}
+ * runs (normally from the module activator) the built-in default IDs are used.
+ * <p>
+ * Overrides are read from the cds.concept.*, cds.form.* and cds.identifierType.pepfar global
+ * properties; the registry listens for changes to them and is also refreshed when one of its
+ * concepts or forms is saved, retired or purged.
+ */
+@Component("cds.CdsConceptRegistry")
+public class CdsConceptRegistry implements GlobalPropertyListener {
+
+	private static final Log log = LogFactory.getLog(CdsConceptRegistry.class);
+
+	public static final String GP_ATTENDANCE_FORMS = "cds.form.attendance";
+
+	public static final String GP_PEPFAR_IDENTIFIER_TYPE = "cds.identifierType.pepfar";
+
+	/**
+	 * Encounters on these forms count as the client having attended after a missed appointment
+	 */
+	public static final String DEFAULT_ATTENDANCE_FORMS = "27,14,21";
+
+	public static final int DEFAULT_PEPFAR_IDENTIFIER_TYPE = 4;
+
+	private volatile Metadata metadata = Metadata.defaults();
+
+	public int getConceptId(CdsConcept concept) {
+		return metadata.conceptIds.get(concept);
+	}
+
+	public int getFormId(CdsForm form) {
+		return metadata.formIds.get(form);
+	}
+
+	public List<Integer> getAttendanceFormIds() {
+		return metadata.attendanceFormIds;
+	}
+
+	public int getPepfarIdentifierTypeId() {
+		return metadata.pepfarIdentifierTypeId;
+	}
+
+	/**
+	 * @return true if the concept ID is one the registry resolves
+	 */
+	public boolean isRegisteredConcept(Integer conceptId) {
+		return conceptId != null && metadata.conceptIds.containsValue(conceptId);
+	}
+
+	/**
+	 * @return true if the form ID is one the registry resolves
+	 */
+	public boolean isRegisteredForm(Integer formId) {
+		return formId != null && (metadata.formIds.containsValue(formId) || metadata.attendanceFormIds.contains(formId));
+	}
+
+	/**
+	 * Re-reads the global properties and checks that the concepts and forms exist, then swaps the
+	 * lookup in one step. Must run with an open session.
+	 */
+	public void refresh() {
+		Map<CdsConcept, Integer> conceptIds = new EnumMap<CdsConcept, Integer>(CdsConcept.class);
+		for (CdsConcept c : CdsConcept.values()) {
+			int id = ClinicalDataSystemConfig.getIntegerGlobalProperty(c.getGlobalProperty(), c.getDefaultId());
+			conceptIds.put(c, id);
+			if (Context.getConceptService().getConcept(id) == null) {
+				log.warn("CDS concept " + c + " (ID " + id + ") does not exist");
+			}
+		}
+
+		Map<CdsForm, Integer> formIds = new EnumMap<CdsForm, Integer>(CdsForm.class);
+		for (CdsForm f : CdsForm.values()) {
+			int id = ClinicalDataSystemConfig.getIntegerGlobalProperty(f.getGlobalProperty(), f.getDefaultId());
+			formIds.put(f, id);
+			if (Context.getFormService().getForm(id) == null) {
+				log.warn("CDS form " + f + " (ID " + id + ") does not exist");
+			}
+		}
+
+		String attendanceForms = Context.getAdministrationService().getGlobalProperty(GP_ATTENDANCE_FORMS,
+		    DEFAULT_ATTENDANCE_FORMS);
+		int pepfarIdentifierTypeId = ClinicalDataSystemConfig.getIntegerGlobalProperty(GP_PEPFAR_IDENTIFIER_TYPE,
+		    DEFAULT_PEPFAR_IDENTIFIER_TYPE);
+
+		metadata = new Metadata(conceptIds, formIds, parseIds(attendanceForms), pepfarIdentifierTypeId);
+		log.info("CDS concept registry refreshed: " + conceptIds + ", forms " + formIds);
+	}
+
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return propertyName != null
+		        && (propertyName.startsWith("cds.concept.") || propertyName.startsWith("cds.form.") || propertyName
+		                .equals(GP_PEPFAR_IDENTIFIER_TYPE));
+	}
+
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		refresh();
+	}
+
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		refresh();
+	}
+
+	static List<Integer> parseIds(String value) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (String part : StringUtils.split(StringUtils.defaultString(value), ',')) {
+			try {
+				ids.add(Integer.valueOf(part.trim()));
+			}
+			catch (NumberFormatException e) {
+				log.warn("Ignoring invalid form ID '" + part + "' in " + GP_ATTENDANCE_FORMS);
+			}
+		}
+		return Collections.unmodifiableList(ids);
+	}
+
+	/**
+	 * One immutable generation of the lookup
+	 */
+	private static final class Metadata {
+
+		final Map<CdsConcept, Integer> conceptIds;
+
+		final Map<CdsForm, Integer> formIds;
+
+		final List<Integer> attendanceFormIds;
+
+		final int pepfarIdentifierTypeId;
+
+		Metadata(Map<CdsConcept, Integer> conceptIds, Map<CdsForm, Integer> formIds, List<Integer> attendanceFormIds,
+		    int pepfarIdentifierTypeId) {
+			this.conceptIds = Collections.unmodifiableMap(conceptIds);
+			this.formIds = Collections.unmodifiableMap(formIds);
+			this.attendanceFormIds = attendanceFormIds;
+			this.pepfarIdentifierTypeId = pepfarIdentifierTypeId;
+		}
+
+		static Metadata defaults() {
+			Map<CdsConcept, Integer> conceptIds = new EnumMap<CdsConcept, Integer>(CdsConcept.class);
+			for (CdsConcept c : CdsConcept.values()) {
+				conceptIds.put(c, c.getDefaultId());
+			}
+			Map<CdsForm, Integer> formIds = new EnumMap<CdsForm, Integer>(CdsForm.class);
+			for (CdsForm f : CdsForm.values()) {
+				formIds.put(f, f.getDefaultId());
+			}
+			return new Metadata(conceptIds, formIds, parseIds(DEFAULT_ATTENDANCE_FORMS), DEFAULT_PEPFAR_IDENTIFIER_TYPE);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.cds.ClinicalDataSystemConfig;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded thread pool for CDS work that can run concurrently, such as the patient dashboard
+ * sections. Each task runs in its own OpenMRS session, with its own user context holding the user,
+ * locale and location of the submitting request. When the pool and its queue are full a task is
+ * rejected rather than queued without bound.
+ * <p>
+ * Work without a request behind it, such as the startup builds, has no user to run as; it is run
+ * with org.openmrs.api.context.Daemon instead.
+ * <p>
+ * Tasks must not hand Hibernate entities back to the caller: their session is closed when the
+ * task ends, so results should be plain values, maps or DTOs.
+ */
+@Component("cds.CdsExecutor")
+public class CdsExecutor {
+
+	private static final Log log = LogFactory.getLog(CdsExecutor.class);
+
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * Submits a task to run with its own session and a copy of the calling user's context, so the
+	 * task and the request never share proxy privileges or see each other log out
+	 * 
+	 * @throws RejectedExecutionException if the pool and its queue are full
+	 */
+	public <T> Future<T> submit(final Callable<T> task) {
+		final UserContext userContext = new TaskUserContext(Context.getUserContext());
+		return getExecutor().submit(new Callable<T>() {
+
+			@Override
+			public T call() throws Exception {
+				openSession();
+				try {
+					Context.setUserContext(userContext);
+					return task.call();
+				}
+				finally {
+					closeSession();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits until the deadline (epoch milliseconds) for a task's result. On timeout the task is
+	 * cancelled; on timeout or failure the fallback is returned.
+	 */
+	public static <T> T getBefore(Future<T> future, long deadline, T fallback, String name) {
+		if (future == null) {
+			return fallback;
+		}
+		try {
+			return future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException e) {
+			future.cancel(true);
+			log.warn("CDS task " + name + " missed its deadline");
+		}
+		catch (ExecutionException e) {
+			log.warn("CDS task " + name + " failed: " + e.getCause(), e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return fallback;
+	}
+
+	/**
+	 * Stops accepting tasks and interrupts running ones; called when the module shuts down
+	 */
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Overridden in tests, which have no database
+	 */
+	protected void openSession() {
+		Context.openSession();
+	}
+
+	protected void closeSession() {
+		Context.closeSession();
+	}
+
+	private synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			int threads = ClinicalDataSystemConfig.getIntegerGlobalProperty(ClinicalDataSystemConfig.GP_EXECUTOR_THREADS,
+			    ClinicalDataSystemConfig.DEFAULT_EXECUTOR_THREADS);
+			int queueSize = ClinicalDataSystemConfig.getIntegerGlobalProperty(
+			    ClinicalDataSystemConfig.GP_EXECUTOR_QUEUE_SIZE, ClinicalDataSystemConfig.DEFAULT_EXECUTOR_QUEUE_SIZE);
+			executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+			        Math.max(1, queueSize)), new CdsThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+			executor.allowCoreThreadTimeOut(true);
+			log.info("Started CDS executor with " + threads + " threads");
+		}
+		return executor;
+	}
+
+	/**
+	 * The submitting request's user, locale and location, copied when the task is submitted
+	 */
+	private static class TaskUserContext extends UserContext {
+
+		private static final long serialVersionUID = 1L;
+
+		private final User user;
+
+		TaskUserContext(UserContext source) {
+			this.user = source.getAuthenticatedUser();
+			setLocale(source.getLocale());
+			setLocation(source.getLocation());
+		}
+
+		@Override
+		public User getAuthenticatedUser() {
+			return user;
+		}
+
+		@Override
+		public boolean isAuthenticated() {
+			return user != null;
+		}
+	}
+
+	private static class CdsThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "cds-worker-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+/**
+ * The forms the CDS module reads. Each ID can be overridden with the global property
+ * cds.form.&lt;key&gt;, e.g. cds.form.tracking.
+ */
+public enum CdsForm {
+
+	/**
+	 * Form on which the next appointment date (concept 5096) is recorded
+	 */
+	APPOINTMENT("appointment", 27),
+
+	/**
+	 * Client tracking form used for IIT follow-up
+	 */
+	TRACKING("tracking", 13);
+
+	private final String key;
+
+	private final int defaultId;
+
+	CdsForm(String key, int defaultId) {
+		this.key = key;
+		this.defaultId = defaultId;
+	}
+
+	public int getDefaultId() {
+		return defaultId;
+	}
+
+	public String getGlobalProperty() {
+		return "cds.form." + key;
+	}
+}
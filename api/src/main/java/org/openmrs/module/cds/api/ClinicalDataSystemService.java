@@ -9,15 +9,28 @@
  */
 package org.openmrs.module.cds.api;
 
+import org.openmrs.Obs;
 import org.openmrs.annotation.Authorized;
 import org.openmrs.api.APIException;
 import org.openmrs.api.OpenmrsService;
 import org.openmrs.module.cds.ClinicalDataSystemConfig;
 import org.openmrs.module.cds.Item;
+import org.openmrs.module.cds.api.dto.CdsActionCursor;
+import org.openmrs.module.cds.api.dto.CdsActionInsertResult;
 import org.openmrs.module.cds.api.dto.CdsActionRecord;
+import org.openmrs.module.cds.api.dto.CdsActionStatusChange;
+import org.openmrs.module.cds.api.dto.CdsPatientSummary;
 import org.openmrs.module.cds.api.dto.ClientEffortEntry;
+import org.openmrs.module.cds.api.dto.DashboardStats;
+import org.openmrs.module.cds.api.dto.IitResult;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * The main service of this module, which is exposed for other modules. See
@@ -53,7 +66,7 @@ public interface ClinicalDataSystemService extends OpenmrsService {
 	
 	/**
 	 * Returns patient IDs with upcoming appointments (concept 5096 on form 27) within the next N
-	 * days.
+	 * days. Answered from the cohort snapshot, which is recomputed when missing or stale.
 	 */
 	@Authorized()
 	@Transactional(readOnly = true)
@@ -61,7 +74,7 @@ public interface ClinicalDataSystemService extends OpenmrsService {
 	
 	/**
 	 * Returns patient IDs with missed appointments within the last N days and no follow-up
-	 * encounter.
+	 * encounter. Answered from the cohort snapshot, which is recomputed when missing or stale.
 	 */
 	@Authorized()
 	@Transactional(readOnly = true)
@@ -69,19 +82,273 @@ public interface ClinicalDataSystemService extends OpenmrsService {
 	
 	/**
 	 * Returns patient IDs on the verge of IIT based on tracking form (13) and no discontinuation
-	 * reason (165470).
+	 * reason (165470). Answered from the cohort snapshot, which is recomputed when missing or stale.
 	 */
 	@Authorized()
 	@Transactional(readOnly = true)
 	List<Integer> getIITPatientIds(int lookbackDays) throws APIException;
 	
 	/**
-	 * Returns client effort entries (tracking history) for a patient from tracking form (13).
+	 * Returns one keyset page of upcoming-appointment patient IDs: up to limit IDs greater than
+	 * afterPatientId (null for the first page), in ID order.
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	List<Integer> getUpcomingAppointmentPatientIds(int withinDays, Integer afterPatientId, int limit) throws APIException;
+	
+	/**
+	 * Returns one keyset page of missed-appointment patient IDs.
+	 * 
+	 * @see #getUpcomingAppointmentPatientIds(int, Integer, int)
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	List<Integer> getMissedAppointmentPatientIds(int lastDays, Integer afterPatientId, int limit) throws APIException;
+	
+	/**
+	 * Returns one keyset page of IIT patient IDs.
+	 * 
+	 * @see #getUpcomingAppointmentPatientIds(int, Integer, int)
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	List<Integer> getIITPatientIds(int lookbackDays, Integer afterPatientId, int limit) throws APIException;
+	
+	/**
+	 * Returns a cohort as a compact patient ID set, read from its snapshot like
+	 * {@link #getIITPatientIds(int)}. Use the set operations on {@link CdsCohort} to combine cohorts,
+	 * e.g. {@code getCohort(IIT, 28).difference(getPendingActionCohort())}. IDs are scrolled into one
+	 * int[] without building a boxed list. Once the appointment index is built (see
+	 * {@link #rebuildAppointmentIndex()}) cohorts are range scans over it instead. Results are held in the cohort cache for
+	 * {@link ClinicalDataSystemConfig#GP_COHORT_CACHE_TTL_SECONDS}, which also answers the list and
+	 * paged cohort methods.
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	CdsCohort getCohort(CdsCohortType cohort, int days) throws APIException;
+	
+	/**
+	 * Same patients as {@link #getUpcomingAppointmentPatientIds(int)}, as a {@link CdsCohort}.
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	CdsCohort getUpcomingAppointmentCohort(int withinDays) throws APIException;
+	
+	/**
+	 * Same patients as {@link #getMissedAppointmentPatientIds(int)}, as a {@link CdsCohort}.
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	CdsCohort getMissedAppointmentCohort(int lastDays) throws APIException;
+	
+	/**
+	 * Same patients as {@link #getIITPatientIds(int)}, as a {@link CdsCohort}.
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	CdsCohort getIITCohort(int lookbackDays) throws APIException;
+	
+	/**
+	 * The IIT cohort with each patient's latest appointment, days overdue and risk tier
+	 * ({@link IitBucket}), computed in one pass: a range scan of the appointment index once it is
+	 * built, otherwise one grouped query. Cached with the IIT cohort, so the IIT list pages through
+	 * one result.
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	IitResult getIITResult(int lookbackDays) throws APIException;
+	
+	/**
+	 * Drops the given cohorts from the cohort cache and expires their snapshots, so the next read
+	 * recomputes them. Called when an encounter or obs that can change these cohorts is saved.
+	 */
+	@Authorized()
+	@Transactional
+	void invalidateCohorts(Set<CdsCohortType> cohorts) throws APIException;
+	
+	/**
+	 * Applies a committed clinical change: reloads the patients' appointment index entries, and their
+	 * visit summary rows while the index is not ready, then invalidates the cohorts. Runs in a new transaction, after the transaction
+	 * that saved the encounter or obs has committed.
+	 */
+	@Authorized()
+	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	void applyCohortChanges(Collection<Integer> patientIds, Set<CdsCohortType> cohorts) throws APIException;
+	
+	/**
+	 * Loads the in-memory appointment index from obs and encounter. Run once at startup; until it
+	 * completes cohorts are read from their snapshots.
+	 * 
+	 * @return the patients whose entries were reloaded while the full load ran; the full load may
+	 *         not have seen their changes, so reload them with {@link #refreshAppointmentIndex} once
+	 *         this transaction has ended
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	Set<Integer> rebuildAppointmentIndex() throws APIException;
+	
+	/**
+	 * Reloads the appointment index entries of the given patients after their encounters or obs
+	 * changed
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	void refreshAppointmentIndex(Collection<Integer> patientIds) throws APIException;
+	
+	/**
+	 * Recomputes cds_patient_visit_summary, each patient's latest appointment and latest attendance
+	 * visit, for all patients. Run at startup after the appointment index; the summary is the
+	 * fallback for the missed and IIT cohorts while there is no index, so this does nothing once
+	 * the index is ready. Until it completes those cohorts are computed from obs and encounter.
+	 */
+	@Authorized()
+	@Transactional
+	void rebuildVisitSummaries() throws APIException;
+	
+	/**
+	 * Recomputes the visit summary rows of the given patients after their encounters or obs changed
+	 */
+	@Authorized()
+	@Transactional
+	void refreshVisitSummaries(Collection<Integer> patientIds) throws APIException;
+	
+	/**
+	 * Returns the patients that have at least one pending action in cds_actions_table.
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	CdsCohort getPendingActionCohort() throws APIException;
+	
+	/**
+	 * Streams a cohort to the handler in ascending patient ID order, from its snapshot when fresh and
+	 * from the raw query otherwise. Rows are scrolled from a stateless session with the
+	 * {@link ClinicalDataSystemConfig#GP_STREAM_FETCH_SIZE} fetch size, so memory stays constant
+	 * whatever the cohort size. A stale snapshot is not refreshed.
+	 * 
+	 * @return the number of patients handed to the handler
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	int streamCohort(CdsCohortType cohort, int days, PatientIdHandler handler) throws APIException;
+	
+	/**
+	 * Streams non-voided actions, newest first within each status, to the handler like
+	 * {@link #streamCohort}.
+	 * 
+	 * @param status only actions with this status (e.g. PENDING), or all actions when null
+	 * @return the number of actions handed to the handler
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	int streamCdsActions(String status, CdsRowHandler<CdsActionRecord> handler) throws APIException;
+	
+	/**
+	 * Counts patients with upcoming appointments within the next N days without loading their IDs.
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	int getUpcomingAppointmentCount(int withinDays) throws APIException;
+	
+	/**
+	 * Counts patients with missed appointments within the last N days without loading their IDs.
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	int getMissedAppointmentCount(int lastDays) throws APIException;
+	
+	/**
+	 * Counts patients on the verge of IIT without loading their IDs.
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	int getIITCount(int lookbackDays) throws APIException;
+	
+	/**
+	 * Counts pending actions in cds_actions_table without loading them.
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	int getPendingCdsActionCount() throws APIException;
+	
+	/**
+	 * Counts one assignee's pending actions from the per-assignee counter table, without touching
+	 * cds_actions_table.
+	 * 
+	 * @param assignedToUserId the assignee, or null for unassigned actions
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	int getPendingCdsActionCount(Integer assignedToUserId) throws APIException;
+	
+	/**
+	 * Returns the pending action count of every assignee with pending actions, read from the
+	 * per-assignee counter table. Unassigned actions are counted under the null key.
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	Map<Integer, Integer> getPendingActionCountsByAssignee() throws APIException;
+	
+	/**
+	 * Recounts the per-assignee pending action counters from cds_actions_table, e.g. after actions
+	 * were imported directly into the table. Run at module startup.
+	 */
+	@Authorized()
+	@Transactional
+	void rebuildActionQueueCounts() throws APIException;
+	
+	/**
+	 * Returns the landing page statistics only. Counts come from fresh cohort snapshots where
+	 * available and from count queries otherwise; no patient IDs are transferred. The total counts
+	 * each patient once, however many cohorts they are in. When the count queries time out, the last
+	 * counts computed for the same windows are returned with {@link DashboardStats#getAsOf()} set;
+	 * after repeated timeouts the queries are paused for a while (see
+	 * {@link CdsCircuitBreaker}).
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	DashboardStats getDashboardStats(int upcomingDays, int missedDays, int iitDays) throws APIException;
+	
+	/**
+	 * Returns the line-list rows (PEPFAR ID, names, age, gender, appointment dates, EAC history) for
+	 * the given patients in the order given, loaded with set-based queries instead of per-patient
+	 * lookups. Unknown or voided patients are skipped.
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	List<CdsPatientSummary> getPatientSummaries(Collection<Integer> patientIds) throws APIException;
+	
+	/**
+	 * Returns the latest non-voided obs for each of the given concepts, read in one query instead of
+	 * loading the patient's obs history per concept. Concepts without obs are absent.
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	Map<CdsConcept, Obs> getLatestObs(Integer patientId, Set<CdsConcept> concepts) throws APIException;
+	
+	/**
+	 * Returns true if the patient has any non-voided obs for the concept, e.g. an EAC session.
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	boolean hasObs(Integer patientId, CdsConcept concept) throws APIException;
+	
+	/**
+	 * Returns client effort entries (tracking history) for a patient from tracking form (13), with
+	 * the tracking status named in the user's locale.
 	 */
 	@Authorized()
 	@Transactional(readOnly = true)
 	List<ClientEffortEntry> getClientEffort(Integer patientId) throws APIException;
 	
+	/**
+	 * Returns the name of each concept in the locale, falling back to its language, then English,
+	 * then any locale. Names come from the concept name cache; only uncached concepts are read, in
+	 * one query. Concepts without names are absent.
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	Map<Integer, String> getConceptNames(Collection<Integer> conceptIds, Locale locale) throws APIException;
+	
 	/**
 	 * Adds a new action record to cds_actions_table.
 	 */
@@ -89,6 +356,16 @@ public interface ClinicalDataSystemService extends OpenmrsService {
 	@Transactional
 	void addCdsAction(CdsActionRecord action) throws APIException;
 	
+	/**
+	 * Adds many action records in one transaction using JDBC batching, e.g. when follow-ups are
+	 * assigned for a whole IIT list. The generated action_id is set on each inserted record and
+	 * returned per row. Rows without a patient or rejected by the database are reported as failures
+	 * without stopping the others.
+	 */
+	@Authorized(ClinicalDataSystemConfig.MODULE_PRIVILEGE)
+	@Transactional
+	CdsActionInsertResult addCdsActions(List<CdsActionRecord> actions) throws APIException;
+	
 	/**
 	 * Returns all pending actions from cds_actions_table.
 	 */
@@ -96,10 +373,46 @@ public interface ClinicalDataSystemService extends OpenmrsService {
 	@Transactional(readOnly = true)
 	List<CdsActionRecord> getPendingCdsActions() throws APIException;
 	
+	/**
+	 * Returns one keyset page of pending actions, newest first. Pass the dateCreated and actionId of
+	 * the last action of the previous page to get the next one, or nulls for the first page.
+	 * 
+	 * @param assignedToUserId only actions assigned to this user, or all when null
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	List<CdsActionRecord> getPendingCdsActions(Integer assignedToUserId, Date beforeDateCreated, Integer beforeActionId,
+	        int limit) throws APIException;
+	
+	/**
+	 * Returns one page of a user's own pending actions, newest first, read through the
+	 * (assigned_to_user_id, status, date_created) index.
+	 * 
+	 * @param cursor the position after the last action of the previous page, or null for the first
+	 *            page
+	 */
+	@Authorized()
+	@Transactional(readOnly = true)
+	List<CdsActionRecord> getActionQueueForUser(Integer userId, CdsActionCursor cursor, int limit)
+	        throws APIException;
+	
 	/**
 	 * Updates the status for a given action in cds_actions_table.
 	 */
 	@Authorized(ClinicalDataSystemConfig.MODULE_PRIVILEGE)
 	@Transactional
 	void updateCdsActionStatus(Integer actionId, String status) throws APIException;
+	
+	/**
+	 * Changes the status of many actions at once, each only if it still has the expected status,
+	 * so two officers closing the same action cannot overwrite each other. Changed actions get
+	 * date_modified stamped.
+	 * 
+	 * @param changes the expected and new status per action ID
+	 * @return the IDs whose status had already changed (or that do not exist) and were left as they
+	 *         were
+	 */
+	@Authorized(ClinicalDataSystemConfig.MODULE_PRIVILEGE)
+	@Transactional
+	List<Integer> updateCdsActionStatuses(Map<Integer, CdsActionStatusChange> changes) throws APIException;
 }
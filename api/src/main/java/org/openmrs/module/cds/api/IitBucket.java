@@ -0,0 +1,59 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+/**
+ * Risk tiers of the IIT cohort by how many whole days the latest appointment is overdue
+ */
+public enum IitBucket {
+
+	DAYS_1_TO_7(1, 7, "1-7 days"),
+
+	DAYS_8_TO_28(8, 28, "8-28 days"),
+
+	DAYS_29_PLUS(29, Integer.MAX_VALUE, "29+ days");
+
+	private final int minDays;
+
+	private final int maxDays;
+
+	private final String label;
+
+	IitBucket(int minDays, int maxDays, String label) {
+		this.minDays = minDays;
+		this.maxDays = maxDays;
+		this.label = label;
+	}
+
+	public int getMinDays() {
+		return minDays;
+	}
+
+	public int getMaxDays() {
+		return maxDays;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * The bucket of a patient whose appointment is the given number of days overdue; patients not
+	 * yet overdue fall in the first bucket
+	 */
+	public static IitBucket forDaysOverdue(int daysOverdue) {
+		for (IitBucket bucket : values()) {
+			if (daysOverdue <= bucket.maxDays) {
+				return bucket;
+			}
+		}
+		return DAYS_29_PLUS;
+	}
+}
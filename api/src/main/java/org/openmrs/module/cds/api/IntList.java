@@ -0,0 +1,89 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A growable list of primitive ints, used to read patient IDs from a query without a boxed List in
+ * between
+ */
+public class IntList {
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private int[] elements;
+
+	private int size;
+
+	public IntList() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public IntList(int initialCapacity) {
+		elements = new int[Math.max(1, initialCapacity)];
+	}
+
+	public void add(int value) {
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, elements.length + (elements.length >> 1) + 1);
+		}
+		elements[size++] = value;
+	}
+
+	public int get(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+		return elements[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * A copy trimmed to the size of the list
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(elements, size);
+	}
+
+	/**
+	 * A read-only List view, boxing each value only when it is read
+	 */
+	public List<Integer> asList() {
+		return new AbstractList<Integer>() {
+
+			@Override
+			public Integer get(int index) {
+				return IntList.this.get(index);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * The backing array, valid up to {@link #size()}
+	 */
+	int[] elements() {
+		return elements;
+	}
+}
@@ -9,35 +9,181 @@
  */
 package org.openmrs.module.cds.api.dao;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.SQLQuery;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.StatelessSession;
+import org.hibernate.jdbc.Work;
+import org.openmrs.Obs;
 import org.openmrs.api.db.hibernate.DbSession;
 import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.cds.ClinicalDataSystemConfig;
 import org.openmrs.module.cds.Item;
+import org.openmrs.module.cds.api.CdsCohortType;
+import org.openmrs.module.cds.api.CdsConcept;
+import org.openmrs.module.cds.api.CdsConceptRegistry;
+import org.openmrs.module.cds.api.CdsForm;
+import org.openmrs.module.cds.api.CdsRowHandler;
+import org.openmrs.module.cds.api.IntList;
+import org.openmrs.module.cds.api.PatientIdHandler;
+import org.openmrs.module.cds.api.dto.AppointmentIndexEntry;
+import org.openmrs.module.cds.api.dto.CdsActionInsertResult;
 import org.openmrs.module.cds.api.dto.CdsActionRecord;
+import org.openmrs.module.cds.api.dto.CdsActionStatusChange;
+import org.openmrs.module.cds.api.dto.CdsPatientSummary;
 import org.openmrs.module.cds.api.dto.ClientEffortEntry;
+import org.openmrs.module.cds.api.dto.ConceptNameEntry;
 import org.springframework.stereotype.Repository;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 @Repository("cds.ClinicalDataSystemDao")
 public class ClinicalDataSystemDao {
 	
 	private static final Log log = LogFactory.getLog(ClinicalDataSystemDao.class);
 
+	private static final int SNAPSHOT_INSERT_CHUNK_SIZE = 1000;
+
+	private static final int SUMMARY_CHUNK_SIZE = 500;
+
+	private static final int ACTION_BATCH_SIZE = 500;
+
+	private static final String INSERT_ACTION_SQL = "insert into cds_actions_table "
+	        + "(patient_id, encounter_id, call_report, next_step_action, assigned_to_user_id, status, date_created) "
+	        + "values (?, ?, ?, ?, ?, coalesce(?, 'PENDING'), current_timestamp)";
+
+	/*
+	 * Adds a delta to one assignee's pending count; the row is inserted on first use. Plain update
+	 * and insert rather than a vendor upsert, so the counts work on any database. Counts never go
+	 * below zero, so a missed decrement cannot leave a negative queue size.
+	 */
+	private static final String UPDATE_QUEUE_COUNT_SQL = "update cds_action_queue_count "
+	        + "set pending_count = case when pending_count + ? > 0 then pending_count + ? else 0 end "
+	        + "where assigned_to_user_id = ?";
+
+	private static final String INSERT_QUEUE_COUNT_SQL = "insert into cds_action_queue_count (assigned_to_user_id, pending_count) "
+	        + "values (?, ?)";
+
+	/**
+	 * SQL state class of integrity constraint violations, such as a duplicate key
+	 */
+	private static final String INTEGRITY_VIOLATION_SQL_STATE_CLASS = "23";
+
+	private static final String PENDING = "PENDING";
+
+	/**
+	 * Total pending, non-voided actions, from the per-assignee counters rather than cds_actions_table
+	 */
+	private static final String PENDING_ACTION_TOTAL_SQL = "select coalesce(sum(pending_count), 0) from cds_action_queue_count";
+
+	/**
+	 * The assigned_to_user_id under which unassigned actions are counted in cds_action_queue_count
+	 */
+	static final int UNASSIGNED = 0;
+
+	/*
+	 * Cohort conditions, shared by the per-cohort queries and the combined dashboard query. Each
+	 * cohort has its own date parameter names so they can be combined in one statement; concept and
+	 * form IDs come from the concept registry (see bindCohortParameters).
+	 */
+	/*
+	 * Each patient's latest appointment on the appointment form, from one grouped pass over the
+	 * appointment obs. Every cohort is keyed on this date, like the appointment index and
+	 * cds_patient_visit_summary, so all three give the same members. Exposes e.patient_id and
+	 * e.latest_appointment_date.
+	 */
+	private static final String LATEST_APPOINTMENT_SQL = "from (select o_appt.person_id as patient_id, max(o_appt.value_datetime) as latest_appointment_date "
+	        + "from obs o_appt join encounter e_appt on o_appt.encounter_id = e_appt.encounter_id "
+	        + "where o_appt.concept_id = :appointmentConcept and e_appt.form_id = :appointmentForm "
+	        + "and o_appt.voided = 0 and e_appt.voided = 0 group by o_appt.person_id) e ";
+
+	/*
+	 * The upcoming cohort: the latest appointment falls in the window
+	 */
+	private static final String UPCOMING_COHORT_SQL = LATEST_APPOINTMENT_SQL
+	        + "where e.latest_appointment_date between :upcomingFrom and :upcomingUntil";
+
+	private static final String UPCOMING_SUMMARY_COHORT_SQL = "from cds_patient_visit_summary e "
+	        + "where e.latest_appointment_date between :upcomingFrom and :upcomingUntil";
+
+	/*
+	 * The missed cohort: the latest appointment fell in the window and no attendance visit happened
+	 * on or after it. A patient who missed an appointment but already has a later one booked is not
+	 * missed.
+	 */
+	private static final String MISSED_COHORT_SQL = LATEST_APPOINTMENT_SQL
+	        + "where e.latest_appointment_date < :missedUntil and e.latest_appointment_date > :missedFrom "
+	        + "and not exists (select 1 from encounter e2 where e2.patient_id = e.patient_id and e2.form_id in (:attendanceForms) and e2.encounter_datetime >= e.latest_appointment_date and e2.voided = 0)";
+
+	/*
+	 * The same cohorts as range scans of cds_patient_visit_summary on latest_appointment_date, used
+	 * while the summary is ready. Aliased e like the other cohorts so the shared select lists apply.
+	 */
+	private static final String MISSED_SUMMARY_COHORT_SQL = "from cds_patient_visit_summary e "
+	        + "where e.latest_appointment_date < :missedUntil and e.latest_appointment_date > :missedFrom "
+	        + "and (e.latest_visit_date is null or e.latest_visit_date < e.latest_appointment_date)";
+
+	/*
+	 * The IIT cohort: the latest appointment fell in the window and the patient has a tracking
+	 * encounter that was not discontinued. Tracking is an exists check per patient, so heavily
+	 * tracked patients do not multiply their appointment rows.
+	 */
+	private static final String IIT_TRACKED_SQL = "and exists (select 1 from encounter t where t.patient_id = e.patient_id "
+	        + "and t.form_id = :trackingForm and t.voided = 0 "
+	        + "and not exists (select 1 from obs o_disc where o_disc.encounter_id = t.encounter_id and o_disc.concept_id = :trackingDiscontinuedConcept and o_disc.voided = 0))";
+
+	private static final String IIT_COHORT_SQL = LATEST_APPOINTMENT_SQL
+	        + "where e.latest_appointment_date >= :iitFrom and e.latest_appointment_date < :iitUntil " + IIT_TRACKED_SQL;
+
+	private static final String IIT_SUMMARY_COHORT_SQL = "from cds_patient_visit_summary e "
+	        + "where e.latest_appointment_date >= :iitFrom and e.latest_appointment_date < :iitUntil " + IIT_TRACKED_SQL;
+
+	public static final String PENDING_ACTIONS_COHORT = "PENDING_ACTIONS";
+
 	DbSessionFactory sessionFactory;
+
+	private CdsConceptRegistry conceptRegistry = new CdsConceptRegistry();
+
+	private volatile boolean visitSummaryReady;
 	
 	/**
 	 * Injected in moduleApplicationContext.xml
 	 */
 	public void setSessionFactory(DbSessionFactory sessionFactory) {
-		System.out.println("[CDS DAO] setSessionFactory() called");
-		System.out.println("[CDS DAO] Parameter - sessionFactory: " + (sessionFactory != null ? sessionFactory.getClass().getName() : "NULL"));
+		log.debug("[CDS DAO] setSessionFactory() called");
+		log.debug("[CDS DAO] Parameter - sessionFactory: " + (sessionFactory != null ? sessionFactory.getClass().getName() : "NULL"));
 		this.sessionFactory = sessionFactory;
-		System.out.println("[CDS DAO] setSessionFactory() - SessionFactory injected successfully");
+		log.debug("[CDS DAO] setSessionFactory() - SessionFactory injected successfully");
+	}
+	
+	/**
+	 * Injected in moduleApplicationContext.xml; until then the registry defaults are used
+	 */
+	public void setConceptRegistry(CdsConceptRegistry conceptRegistry) {
+		this.conceptRegistry = conceptRegistry;
 	}
 	
 	private DbSession getSession() {
@@ -45,11 +191,11 @@ public class ClinicalDataSystemDao {
 	}
 	
 	public Item getItemByUuid(String uuid) {
-		System.out.println("[CDS DAO] getItemByUuid() called");
-		System.out.println("[CDS DAO] Parameter - uuid: " + (uuid != null ? uuid : "NULL"));
+		log.debug("[CDS DAO] getItemByUuid() called");
+		log.debug("[CDS DAO] Parameter - uuid: " + (uuid != null ? uuid : "NULL"));
 		try {
 			Item result = (Item) getSession().createCriteria(Item.class).add(Restrictions.eq("uuid", uuid)).uniqueResult();
-			System.out.println("[CDS DAO] getItemByUuid() - Query executed successfully, Result: " + (result != null ? result.getId() : "NULL"));
+			log.debug("[CDS DAO] getItemByUuid() - Query executed successfully, Result: " + (result != null ? result.getId() : "NULL"));
 			return result;
 		} catch (Exception e) {
 			log.error("[CDS DAO] getItemByUuid() - ERROR: " + e.getMessage(), e);
@@ -58,11 +204,11 @@ public class ClinicalDataSystemDao {
 	}
 	
 	public Item saveItem(Item item) {
-		System.out.println("[CDS DAO] saveItem() called");
-		System.out.println("[CDS DAO] Parameter - item: " + (item != null ? "Item ID=" + item.getId() : "NULL"));
+		log.debug("[CDS DAO] saveItem() called");
+		log.debug("[CDS DAO] Parameter - item: " + (item != null ? "Item ID=" + item.getId() : "NULL"));
 		try {
 			getSession().saveOrUpdate(item);
-			System.out.println("[CDS DAO] saveItem() - Item saved/updated successfully, Item ID: " + item.getId());
+			log.debug("[CDS DAO] saveItem() - Item saved/updated successfully, Item ID: " + item.getId());
 			return item;
 		} catch (Exception e) {
 			log.error("[CDS DAO] saveItem() - ERROR: " + e.getMessage(), e);
@@ -74,26 +220,23 @@ public class ClinicalDataSystemDao {
 	
 	@SuppressWarnings("unchecked")
 	public List<Integer> getUpcomingAppointmentPatientIds(Date now, Date until) {
-		System.out.println("[CDS DAO] getUpcomingAppointmentPatientIds() called");
-		System.out.println("[CDS DAO] Parameter - now: " + now);
-		System.out.println("[CDS DAO] Parameter - until: " + until);
+		log.debug("[CDS DAO] getUpcomingAppointmentPatientIds() called");
+		log.debug("[CDS DAO] Parameter - now: " + now);
+		log.debug("[CDS DAO] Parameter - until: " + until);
 		try {
-			String sql = "select distinct e.patient_id " + "from obs o join encounter e on o.encounter_id = e.encounter_id "
-			        + "where o.concept_id = 5096 and e.form_id = 27 " + "and o.value_datetime between :now and :until "
-			        + "and o.voided = 0 and e.voided = 0";
+			String sql = "select distinct e.patient_id " + getCohortSql(CdsCohortType.UPCOMING);
 			log.debug("[CDS DAO] Executing SQL: " + sql);
 			SQLQuery q = getSession().createSQLQuery(sql);
-			q.setDate("now", now);
-			q.setDate("until", until);
+			bindCohortParameters(q, EnumSet.of(CdsCohortType.UPCOMING), now, until, null, null);
 			List<?> rows = q.list();
-			System.out.println("[CDS DAO] getUpcomingAppointmentPatientIds() - Query returned " + rows.size() + " rows");
+			log.debug("[CDS DAO] getUpcomingAppointmentPatientIds() - Query returned " + rows.size() + " rows");
 
 			List<Integer> result = new ArrayList<Integer>();
 			for (Object r : rows) {
 				if (r instanceof Number)
 					result.add(((Number) r).intValue());
 			}
-			System.out.println("[CDS DAO] getUpcomingAppointmentPatientIds() - Parsed " + result.size() + " patient IDs");
+			log.debug("[CDS DAO] getUpcomingAppointmentPatientIds() - Parsed " + result.size() + " patient IDs");
 			return result;
 		} catch (Exception e) {
 			log.error("[CDS DAO] getUpcomingAppointmentPatientIds() - ERROR: " + e.getMessage(), e);
@@ -103,29 +246,23 @@ public class ClinicalDataSystemDao {
 	
 	@SuppressWarnings("unchecked")
 	public List<Integer> getMissedAppointmentPatientIds(Date fromDate, Date now) {
-		System.out.println("[CDS DAO] getMissedAppointmentPatientIds() called");
-		System.out.println("[CDS DAO] Parameter - fromDate: " + fromDate);
-		System.out.println("[CDS DAO] Parameter - now: " + now);
-		try {
-			String sql = "select distinct e.patient_id from obs o "
-			        + "join encounter e on o.encounter_id = e.encounter_id "
-			        + "where o.concept_id = 5096 and e.form_id = 27 "
-			        + "and o.value_datetime < :now and o.value_datetime > :fromDate "
-			        + "and o.voided = 0 and e.voided = 0 "
-			        + "and not exists (select 1 from encounter e2 where e2.patient_id = e.patient_id and e2.form_id in (27,14,21) and e2.encounter_datetime >= o.value_datetime and e2.voided = 0)";
+		log.debug("[CDS DAO] getMissedAppointmentPatientIds() called");
+		log.debug("[CDS DAO] Parameter - fromDate: " + fromDate);
+		log.debug("[CDS DAO] Parameter - now: " + now);
+		try {
+			String sql = "select distinct e.patient_id " + getCohortSql(CdsCohortType.MISSED);
 			log.debug("[CDS DAO] Executing SQL: " + sql);
 			SQLQuery q = getSession().createSQLQuery(sql);
-			q.setDate("now", now);
-			q.setDate("fromDate", fromDate);
+			bindCohortParameters(q, EnumSet.of(CdsCohortType.MISSED), now, null, fromDate, null);
 			List<?> rows = q.list();
-			System.out.println("[CDS DAO] getMissedAppointmentPatientIds() - Query returned " + rows.size() + " rows");
+			log.debug("[CDS DAO] getMissedAppointmentPatientIds() - Query returned " + rows.size() + " rows");
 
 			List<Integer> result = new ArrayList<Integer>();
 			for (Object r : rows) {
 				if (r instanceof Number)
 					result.add(((Number) r).intValue());
 			}
-			System.out.println("[CDS DAO] getMissedAppointmentPatientIds() - Parsed " + result.size() + " patient IDs");
+			log.debug("[CDS DAO] getMissedAppointmentPatientIds() - Parsed " + result.size() + " patient IDs");
 			return result;
 		} catch (Exception e) {
 			log.error("[CDS DAO] getMissedAppointmentPatientIds() - ERROR: " + e.getMessage(), e);
@@ -135,29 +272,23 @@ public class ClinicalDataSystemDao {
 	
 	@SuppressWarnings("unchecked")
 	public List<Integer> getIITPatientIds(Date fromDate, Date now) {
-		System.out.println("[CDS DAO] getIITPatientIds() called");
-		System.out.println("[CDS DAO] Parameter - fromDate: " + fromDate);
-		System.out.println("[CDS DAO] Parameter - now: " + now);
+		log.debug("[CDS DAO] getIITPatientIds() called");
+		log.debug("[CDS DAO] Parameter - fromDate: " + fromDate);
+		log.debug("[CDS DAO] Parameter - now: " + now);
 		try {
-			String sql = "select distinct e.patient_id "
-			        + "from encounter e "
-			        + "join obs o_appt on o_appt.person_id = e.patient_id "
-			        + "where e.form_id = 13 and e.voided = 0 and o_appt.voided = 0 "
-			        + "and o_appt.concept_id = 5096 and o_appt.value_datetime between :fromDate and :now and o_appt.value_datetime < :now "
-			        + "and not exists (select 1 from obs o_disc where o_disc.encounter_id = e.encounter_id and o_disc.concept_id = 165470 and o_disc.voided = 0)";
+			String sql = "select distinct e.patient_id " + getCohortSql(CdsCohortType.IIT);
 			log.debug("[CDS DAO] Executing SQL: " + sql);
 			SQLQuery q = getSession().createSQLQuery(sql);
-			q.setDate("fromDate", fromDate);
-			q.setDate("now", now);
+			bindCohortParameters(q, EnumSet.of(CdsCohortType.IIT), now, null, null, fromDate);
 			List<?> rows = q.list();
-			System.out.println("[CDS DAO] getIITPatientIds() - Query returned " + rows.size() + " rows");
+			log.debug("[CDS DAO] getIITPatientIds() - Query returned " + rows.size() + " rows");
 
 			List<Integer> result = new ArrayList<Integer>();
 			for (Object r : rows) {
 				if (r instanceof Number)
 					result.add(((Number) r).intValue());
 			}
-			System.out.println("[CDS DAO] getIITPatientIds() - Parsed " + result.size() + " patient IDs");
+			log.debug("[CDS DAO] getIITPatientIds() - Parsed " + result.size() + " patient IDs");
 			return result;
 		} catch (Exception e) {
 			log.error("[CDS DAO] getIITPatientIds() - ERROR: " + e.getMessage(), e);
@@ -165,47 +296,149 @@ public class ClinicalDataSystemDao {
 		}
 	}
 	
+	/**
+	 * Returns the latest appointment date of each IIT patient, in patient ID order, from the same
+	 * grouped pass as the IIT cohort
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<Integer, Date> getIITLatestAppointments(Date fromDate, Date now) {
+		log.debug("[CDS DAO] getIITLatestAppointments() called - fromDate: " + fromDate + ", now: " + now);
+		try {
+			String sql = "select e.patient_id, e.latest_appointment_date " + getCohortSql(CdsCohortType.IIT)
+			        + " order by e.patient_id";
+			log.debug("[CDS DAO] Executing SQL: " + sql);
+			SQLQuery q = getSession().createSQLQuery(sql);
+			bindCohortParameters(q, EnumSet.of(CdsCohortType.IIT), now, null, null, fromDate);
+			List<Object[]> rows = q.list();
+			Map<Integer, Date> result = new LinkedHashMap<Integer, Date>(rows.size() * 2);
+			for (Object[] row : rows) {
+				Integer patientId = toInteger(row[0]);
+				if (patientId != null) {
+					result.put(patientId, (Date) row[1]);
+				}
+			}
+			log.debug("[CDS DAO] getIITLatestAppointments() - Parsed " + result.size() + " patients");
+			return result;
+		} catch (Exception e) {
+			log.error("[CDS DAO] getIITLatestAppointments() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Returns the tracking form history of a patient, newest first, with the tracking status as its
+	 * value_coded concept ID; the service resolves status names through the concept name cache
+	 */
 	@SuppressWarnings("unchecked")
 	public List<ClientEffortEntry> getClientEffort(Integer patientId) {
-		System.out.println("[CDS DAO] getClientEffort() called");
-		System.out.println("[CDS DAO] Parameter - patientId: " + patientId);
+		log.debug("[CDS DAO] getClientEffort() called");
+		log.debug("[CDS DAO] Parameter - patientId: " + patientId);
 		try {
-			String sql = "select e.encounter_datetime as action_date, "
-			        + "(select cn.name from concept_name cn where cn.concept_id = o_status.value_coded and cn.locale = 'en' and cn.concept_name_type = 'FULLY_SPECIFIED') as status_name, "
+			String sql = "select e.encounter_datetime as action_date, o_status.value_coded as status_concept_id, "
 			        + "o_comment.value_text as comments "
 			        + "from encounter e "
-			        + "left join obs o_status on e.encounter_id = o_status.encounter_id and o_status.concept_id = 167239 and o_status.voided = 0 "
-			        + "left join obs o_comment on e.encounter_id = o_comment.encounter_id and o_comment.concept_id = 167237 and o_comment.voided = 0 "
-			        + "where e.patient_id = :pid and e.form_id = 13 and e.voided = 0 " + "order by e.encounter_datetime desc";
+			        + "left join obs o_status on e.encounter_id = o_status.encounter_id and o_status.concept_id = :statusConcept and o_status.voided = 0 "
+			        + "left join obs o_comment on e.encounter_id = o_comment.encounter_id and o_comment.concept_id = :commentConcept and o_comment.voided = 0 "
+			        + "where e.patient_id = :pid and e.form_id = :trackingForm and e.voided = 0 " + "order by e.encounter_datetime desc";
 			log.debug("[CDS DAO] Executing SQL: " + sql);
 			SQLQuery q = getSession().createSQLQuery(sql);
 			q.setInteger("pid", patientId);
+			q.setInteger("statusConcept", conceptRegistry.getConceptId(CdsConcept.TRACKING_STATUS));
+			q.setInteger("commentConcept", conceptRegistry.getConceptId(CdsConcept.TRACKING_COMMENT));
+			q.setInteger("trackingForm", conceptRegistry.getFormId(CdsForm.TRACKING));
 			List<?> rows = q.list();
-			System.out.println("[CDS DAO] getClientEffort() - Query returned " + rows.size() + " rows");
+			log.debug("[CDS DAO] getClientEffort() - Query returned " + rows.size() + " rows");
 
 			List<ClientEffortEntry> result = new ArrayList<ClientEffortEntry>();
 			for (Object row : rows) {
 				Object[] cols = (Object[]) row;
-				ClientEffortEntry e = new ClientEffortEntry((Date) cols[0], cols[1] != null ? cols[1].toString() : null,
-				        cols[2] != null ? cols[2].toString() : null);
+				ClientEffortEntry e = new ClientEffortEntry((Date) cols[0], null, cols[2] != null ? cols[2].toString()
+				        : null);
+				e.setStatusConceptId(toInteger(cols[1]));
 				result.add(e);
 			}
-			System.out.println("[CDS DAO] getClientEffort() - Parsed " + result.size() + " client effort entries");
+			log.debug("[CDS DAO] getClientEffort() - Parsed " + result.size() + " client effort entries");
 			return result;
 		} catch (Exception e) {
 			log.error("[CDS DAO] getClientEffort() - ERROR: " + e.getMessage(), e);
 			throw e;
 		}
 	}
+
+	// ---- Concept names ----
+
+	/**
+	 * Returns the non-voided names, in every locale, of all answers of the question concept, read
+	 * in one query to fill the concept name cache
+	 */
+	public List<ConceptNameEntry> getConceptAnswerNames(CdsConcept question) {
+		log.debug("[CDS DAO] getConceptAnswerNames() called - question: " + question);
+		try {
+			SQLQuery q = getSession().createSQLQuery(
+			    "select cn.concept_id, cn.name, cn.locale, cn.concept_name_type, cn.locale_preferred "
+			            + "from concept_answer ca join concept_name cn on cn.concept_id = ca.answer_concept "
+			            + "where ca.concept_id = :question and cn.voided = 0");
+			q.setInteger("question", conceptRegistry.getConceptId(question));
+			List<ConceptNameEntry> result = toConceptNames(q.list());
+			log.debug("[CDS DAO] getConceptAnswerNames() - Loaded " + result.size() + " names");
+			return result;
+		} catch (Exception e) {
+			log.error("[CDS DAO] getConceptAnswerNames() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the non-voided names, in every locale, of the given concepts
+	 */
+	public List<ConceptNameEntry> getConceptNames(Collection<Integer> conceptIds) {
+		log.debug("[CDS DAO] getConceptNames() called - concepts: " + conceptIds.size());
+		List<ConceptNameEntry> result = new ArrayList<ConceptNameEntry>();
+		if (conceptIds.isEmpty()) {
+			return result;
+		}
+		try {
+			List<Integer> ids = new ArrayList<Integer>(conceptIds);
+			for (int from = 0; from < ids.size(); from += SUMMARY_CHUNK_SIZE) {
+				SQLQuery q = getSession().createSQLQuery(
+				    "select concept_id, name, locale, concept_name_type, locale_preferred from concept_name "
+				            + "where concept_id in (:ids) and voided = 0");
+				q.setParameterList("ids", ids.subList(from, Math.min(from + SUMMARY_CHUNK_SIZE, ids.size())));
+				result.addAll(toConceptNames(q.list()));
+			}
+			return result;
+		} catch (Exception e) {
+			log.error("[CDS DAO] getConceptNames() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Maps rows selected as concept_id, name, locale, concept_name_type, locale_preferred
+	 */
+	private static List<ConceptNameEntry> toConceptNames(List<?> rows) {
+		List<ConceptNameEntry> result = new ArrayList<ConceptNameEntry>(rows.size());
+		for (Object row : rows) {
+			Object[] cols = (Object[]) row;
+			result.add(new ConceptNameEntry(toInt(cols[0]), cols[1] != null ? cols[1].toString() : null,
+			        cols[2] != null ? cols[2].toString() : null, cols[3] != null ? cols[3].toString() : null,
+			        isTrue(cols[4])));
+		}
+		return result;
+	}
+
+	private static boolean isTrue(Object value) {
+		return value instanceof Boolean ? (Boolean) value : toInt(value) != 0;
+	}
 	
 	public void insertCdsAction(CdsActionRecord a) {
-		System.out.println("[CDS DAO] insertCdsAction() called");
-		System.out.println("[CDS DAO] Parameter - CdsActionRecord: patientId=" + a.getPatientId() + ", encounterId=" + a.getEncounterId()
+		log.debug("[CDS DAO] insertCdsAction() called");
+		log.debug("[CDS DAO] Parameter - CdsActionRecord: patientId=" + a.getPatientId() + ", encounterId=" + a.getEncounterId()
 		        + ", callReport=" + a.getCallReport() + ", nextStepAction=" + a.getNextStepAction()
 		        + ", assignedToUserId=" + a.getAssignedToUserId() + ", status=" + a.getStatus());
 		try {
-			String sql = "insert into cds_actions_table (patient_id, encounter_id, call_report, next_step_action, assigned_to_user_id, status) "
-			        + "values (:patient_id, :encounter_id, :call_report, :next_step_action, :assigned_to_user_id, coalesce(:status, 'PENDING'))";
+			String sql = "insert into cds_actions_table (patient_id, encounter_id, call_report, next_step_action, assigned_to_user_id, status, date_created) "
+			        + "values (:patient_id, :encounter_id, :call_report, :next_step_action, :assigned_to_user_id, coalesce(:status, 'PENDING'), current_timestamp)";
 			log.debug("[CDS DAO] Executing SQL: " + sql);
 			SQLQuery q = getSession().createSQLQuery(sql);
 			q.setInteger("patient_id", a.getPatientId());
@@ -221,39 +454,208 @@ public class ClinicalDataSystemDao {
 				q.setInteger("assigned_to_user_id", a.getAssignedToUserId());
 			q.setString("status", a.getStatus());
 			int result = q.executeUpdate();
-			System.out.println("[CDS DAO] insertCdsAction() - Query executed successfully, Rows affected: " + result);
+			log.debug("[CDS DAO] insertCdsAction() - Query executed successfully, Rows affected: " + result);
+			if (result > 0) {
+				Map<Integer, Integer> deltas = new TreeMap<Integer, Integer>();
+				addPendingDelta(deltas, a.getAssignedToUserId(), null, a.getStatus() != null ? a.getStatus() : PENDING);
+				adjustPendingCounts(deltas);
+			}
 		} catch (Exception e) {
 			log.error("[CDS DAO] insertCdsAction() - ERROR: " + e.getMessage(), e);
 			throw e;
 		}
 	}
+
+	/**
+	 * Inserts the actions with JDBC batching on the session's connection, so they share its
+	 * transaction, and sets the generated action_id on each inserted record. A row without a
+	 * patient, or rejected by the database, is reported in the result and does not stop the others.
+	 * The pending counts of the assignees are updated once for the whole list.
+	 */
+	public CdsActionInsertResult insertCdsActions(final List<CdsActionRecord> actions) {
+		log.debug("[CDS DAO] insertCdsActions() called - actions: " + actions.size());
+		final CdsActionInsertResult[] result = new CdsActionInsertResult[1];
+		try {
+			getSession().doWork(new Work() {
+
+				@Override
+				public void execute(Connection connection) throws SQLException {
+					result[0] = insertCdsActions(connection, actions);
+				}
+			});
+			log.debug("[CDS DAO] insertCdsActions() - Inserted " + result[0].getInsertedCount() + ", failed "
+			        + result[0].getFailures().size());
+			return result[0];
+		} catch (Exception e) {
+			log.error("[CDS DAO] insertCdsActions() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	static CdsActionInsertResult insertCdsActions(Connection connection, List<CdsActionRecord> actions)
+	        throws SQLException {
+		CdsActionInsertResult result = new CdsActionInsertResult(actions.size());
+		PreparedStatement ps = connection.prepareStatement(INSERT_ACTION_SQL, Statement.RETURN_GENERATED_KEYS);
+		try {
+			List<Integer> batch = new ArrayList<Integer>(ACTION_BATCH_SIZE);
+			for (int row = 0; row < actions.size(); row++) {
+				CdsActionRecord a = actions.get(row);
+				if (a == null || a.getPatientId() == null) {
+					result.addFailure(row, "PatientId is required to add an action");
+					continue;
+				}
+				setActionParameters(ps, a);
+				ps.addBatch();
+				batch.add(row);
+				if (batch.size() == ACTION_BATCH_SIZE) {
+					executeActionBatch(connection, ps, batch, actions, result);
+				}
+			}
+			executeActionBatch(connection, ps, batch, actions, result);
+		} finally {
+			ps.close();
+		}
+
+		Map<Integer, Integer> deltas = new TreeMap<Integer, Integer>();
+		for (int row = 0; row < actions.size(); row++) {
+			if (result.getActionIds().get(row) != null) {
+				CdsActionRecord a = actions.get(row);
+				addPendingDelta(deltas, a.getAssignedToUserId(), null, a.getStatus() != null ? a.getStatus() : PENDING);
+			}
+		}
+		adjustPendingCounts(connection, deltas);
+		return result;
+	}
+
+	/**
+	 * Runs the queued inserts and sets the generated keys on their rows. When the batch fails, which
+	 * rows the driver inserted and which keys it returned depend on its settings
+	 * (rewriteBatchedStatements, continueBatchOnError), so the batch is rolled back to a savepoint
+	 * and its rows are inserted one at a time, each with its own generated key.
+	 */
+	private static void executeActionBatch(Connection connection, PreparedStatement ps, List<Integer> batch,
+	        List<CdsActionRecord> actions, CdsActionInsertResult result) throws SQLException {
+		if (batch.isEmpty()) {
+			return;
+		}
+		Savepoint savepoint = connection.setSavepoint();
+		try {
+			ps.executeBatch();
+		} catch (BatchUpdateException e) {
+			log.warn("[CDS DAO] insertCdsActions() - Batch of " + batch.size() + " failed, inserting its rows one by one: "
+			        + e.getMessage());
+			connection.rollback(savepoint);
+			ps.clearBatch();
+			for (Integer row : batch) {
+				insertAction(ps, row, actions, result);
+			}
+			batch.clear();
+			return;
+		}
+		connection.releaseSavepoint(savepoint);
+
+		ResultSet keys = ps.getGeneratedKeys();
+		try {
+			for (Integer row : batch) {
+				setActionId(row, keys != null && keys.next() ? keys.getInt(1) : null, actions, result);
+			}
+		} finally {
+			if (keys != null) {
+				keys.close();
+			}
+		}
+		batch.clear();
+	}
+
+	private static void insertAction(PreparedStatement ps, int row, List<CdsActionRecord> actions,
+	        CdsActionInsertResult result) throws SQLException {
+		setActionParameters(ps, actions.get(row));
+		try {
+			ps.executeUpdate();
+		} catch (SQLException e) {
+			result.addFailure(row, e.getMessage());
+			return;
+		}
+		ResultSet keys = ps.getGeneratedKeys();
+		try {
+			setActionId(row, keys != null && keys.next() ? keys.getInt(1) : null, actions, result);
+		} finally {
+			if (keys != null) {
+				keys.close();
+			}
+		}
+	}
+
+	private static void setActionParameters(PreparedStatement ps, CdsActionRecord a) throws SQLException {
+		ps.setInt(1, a.getPatientId());
+		ps.setObject(2, a.getEncounterId(), Types.INTEGER);
+		ps.setString(3, a.getCallReport());
+		ps.setString(4, a.getNextStepAction());
+		ps.setObject(5, a.getAssignedToUserId(), Types.INTEGER);
+		ps.setString(6, a.getStatus());
+	}
+
+	private static void setActionId(int row, Integer actionId, List<CdsActionRecord> actions,
+	        CdsActionInsertResult result) {
+		actions.get(row).setActionId(actionId);
+		result.setActionId(row, actionId);
+	}
 	
 	@SuppressWarnings("unchecked")
 	public List<CdsActionRecord> getPendingCdsActions() {
-		System.out.println("[CDS DAO] getPendingCdsActions() called");
+		log.debug("[CDS DAO] getPendingCdsActions() called");
 		try {
 			String sql = "select action_id, patient_id, encounter_id, call_report, next_step_action, assigned_to_user_id, status, date_created "
-			        + "from cds_actions_table where status = 'PENDING' order by date_created desc";
+			        + "from cds_actions_table where status = 'PENDING' and is_voided = 0 order by date_created desc";
 			log.debug("[CDS DAO] Executing SQL: " + sql);
 			SQLQuery q = getSession().createSQLQuery(sql);
 			List<?> rows = q.list();
-			System.out.println("[CDS DAO] getPendingCdsActions() - Query returned " + rows.size() + " rows");
+			log.debug("[CDS DAO] getPendingCdsActions() - Query returned " + rows.size() + " rows");
 
-			List<CdsActionRecord> result = new ArrayList<CdsActionRecord>();
-			for (Object row : rows) {
-				Object[] cols = (Object[]) row;
-				CdsActionRecord a = new CdsActionRecord();
-				a.setActionId(cols[0] != null ? ((Number) cols[0]).intValue() : null);
-				a.setPatientId(cols[1] != null ? ((Number) cols[1]).intValue() : null);
-				a.setEncounterId(cols[2] != null ? ((Number) cols[2]).intValue() : null);
-				a.setCallReport(cols[3] != null ? cols[3].toString() : null);
-				a.setNextStepAction(cols[4] != null ? cols[4].toString() : null);
-				a.setAssignedToUserId(cols[5] != null ? ((Number) cols[5]).intValue() : null);
-				a.setStatus(cols[6] != null ? cols[6].toString() : null);
-				a.setDateCreated((Date) cols[7]);
-				result.add(a);
-			}
-			System.out.println("[CDS DAO] getPendingCdsActions() - Parsed " + result.size() + " CDS action records");
+			List<CdsActionRecord> result = toActionRecords(rows);
+			log.debug("[CDS DAO] getPendingCdsActions() - Parsed " + result.size() + " CDS action records");
+			return result;
+		} catch (Exception e) {
+			log.error("[CDS DAO] getPendingCdsActions() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns up to limit pending, non-voided actions, newest first, created before the given
+	 * (dateCreated, actionId) position; the first page when beforeDateCreated is null. Reads the
+	 * (status, is_voided, date_created, action_id) index in order, or the (assigned_to_user_id,
+	 * status, date_created, action_id) index for one assignee, so each page costs the same however
+	 * many historical actions there are.
+	 * 
+	 * @param assignedToUserId only actions assigned to this user, or all when null
+	 */
+	public List<CdsActionRecord> getPendingCdsActions(Integer assignedToUserId, Date beforeDateCreated,
+	        Integer beforeActionId, int limit) {
+		log.debug("[CDS DAO] getPendingCdsActions() called - assignedTo: " + assignedToUserId + ", before: "
+		        + beforeDateCreated + "/" + beforeActionId + ", limit: " + limit);
+		try {
+			StringBuilder sql = new StringBuilder("select action_id, patient_id, encounter_id, call_report, next_step_action, "
+			        + "assigned_to_user_id, status, date_created from cds_actions_table "
+			        + "where status = 'PENDING' and is_voided = 0");
+			if (assignedToUserId != null) {
+				sql.append(" and assigned_to_user_id = :assignedTo");
+			}
+			if (beforeDateCreated != null) {
+				sql.append(" and (date_created < :beforeDate or (date_created = :beforeDate and action_id < :beforeId))");
+			}
+			sql.append(" order by date_created desc, action_id desc");
+			SQLQuery q = getSession().createSQLQuery(sql.toString());
+			if (assignedToUserId != null) {
+				q.setInteger("assignedTo", assignedToUserId);
+			}
+			if (beforeDateCreated != null) {
+				q.setTimestamp("beforeDate", beforeDateCreated);
+				q.setInteger("beforeId", beforeActionId != null ? beforeActionId : Integer.MAX_VALUE);
+			}
+			q.setMaxResults(limit);
+			List<CdsActionRecord> result = toActionRecords(q.list());
+			log.debug("[CDS DAO] getPendingCdsActions() - Parsed " + result.size() + " CDS action records");
 			return result;
 		} catch (Exception e) {
 			log.error("[CDS DAO] getPendingCdsActions() - ERROR: " + e.getMessage(), e);
@@ -261,24 +663,252 @@ public class ClinicalDataSystemDao {
 		}
 	}
 	
-	public void updateCdsActionStatus(Integer actionId, String status) {
+	/**
+	 * Sets an action's status and stamps date_modified, adjusting its assignee's pending count
+	 */
+	public void updateCdsActionStatus(Integer actionId, String status, Date modifiedAt) {
 		log.info("[CDS DAO] updateCdsActionStatus() called");
 		log.info("[CDS DAO] Parameter - actionId: " + actionId);
 		log.info("[CDS DAO] Parameter - status: " + status);
 		try {
-			String sql = "update cds_actions_table set status = :status where action_id = :id";
+			SQLQuery lock = getSession().createSQLQuery(
+			    "select status, assigned_to_user_id, is_voided from cds_actions_table where action_id = :id for update");
+			lock.setInteger("id", actionId);
+			Object[] current = (Object[]) lock.uniqueResult();
+
+			String sql = "update cds_actions_table set status = :status, date_modified = :modifiedAt where action_id = :id";
 			log.debug("[CDS DAO] Executing SQL: " + sql);
 			SQLQuery q = getSession().createSQLQuery(sql);
 			q.setString("status", status);
+			q.setTimestamp("modifiedAt", modifiedAt);
 			q.setInteger("id", actionId);
 			int result = q.executeUpdate();
 			log.info("[CDS DAO] updateCdsActionStatus() - Query executed successfully, Rows affected: " + result);
+			if (current != null && toInt(current[2]) == 0) {
+				Map<Integer, Integer> deltas = new TreeMap<Integer, Integer>();
+				addPendingDelta(deltas, toInteger(current[1]), current[0] != null ? current[0].toString() : null, status);
+				adjustPendingCounts(deltas);
+			}
 		} catch (Exception e) {
 			log.error("[CDS DAO] updateCdsActionStatus() - ERROR: " + e.getMessage(), e);
 			throw e;
 		}
 	}
 
+	/**
+	 * Applies compare-and-set status transitions. Each chunk of actions is locked with one select
+	 * ... for update; the actions still in their expected status are then changed with a single
+	 * CASE update that also stamps date_modified, and the assignees' pending counts are adjusted.
+	 * 
+	 * @return the IDs of the actions whose status no longer matched (or that do not exist), in
+	 *         ascending order; these were not changed
+	 */
+	public List<Integer> updateCdsActionStatuses(Map<Integer, CdsActionStatusChange> changes, Date modifiedAt) {
+		log.debug("[CDS DAO] updateCdsActionStatuses() called - actions: " + changes.size());
+		try {
+			List<Integer> ids = new ArrayList<Integer>(changes.keySet());
+			Collections.sort(ids);
+			List<Integer> lost = new ArrayList<Integer>();
+			for (int from = 0; from < ids.size(); from += ACTION_BATCH_SIZE) {
+				List<Integer> chunk = ids.subList(from, Math.min(from + ACTION_BATCH_SIZE, ids.size()));
+
+				SQLQuery lock = getSession().createSQLQuery("select action_id, status, assigned_to_user_id, is_voided "
+				        + "from cds_actions_table where action_id in (:ids) for update");
+				lock.setParameterList("ids", chunk);
+				Map<Integer, String> current = new HashMap<Integer, String>();
+				Map<Integer, Object[]> locked = new HashMap<Integer, Object[]>();
+				for (Object row : lock.list()) {
+					Object[] cols = (Object[]) row;
+					current.put(toInt(cols[0]), cols[1] != null ? cols[1].toString() : null);
+					locked.put(toInt(cols[0]), cols);
+				}
+
+				List<Integer> won = new ArrayList<Integer>(chunk.size());
+				for (Integer id : chunk) {
+					if (current.containsKey(id) && StringUtils.equals(current.get(id), changes.get(id).getExpectedStatus())) {
+						won.add(id);
+					} else {
+						lost.add(id);
+					}
+				}
+				if (won.isEmpty()) {
+					continue;
+				}
+
+				StringBuilder sql = new StringBuilder("update cds_actions_table set status = case action_id");
+				for (int i = 0; i < won.size(); i++) {
+					sql.append(" when :id").append(i).append(" then :status").append(i);
+				}
+				sql.append(" end, date_modified = :modifiedAt where action_id in (:ids)");
+				SQLQuery update = getSession().createSQLQuery(sql.toString());
+				for (int i = 0; i < won.size(); i++) {
+					update.setInteger("id" + i, won.get(i));
+					update.setString("status" + i, changes.get(won.get(i)).getNewStatus());
+				}
+				update.setTimestamp("modifiedAt", modifiedAt);
+				update.setParameterList("ids", won);
+				update.executeUpdate();
+
+				Map<Integer, Integer> deltas = new TreeMap<Integer, Integer>();
+				for (Integer id : won) {
+					Object[] cols = locked.get(id);
+					if (toInt(cols[3]) == 0) {
+						addPendingDelta(deltas, toInteger(cols[2]), current.get(id), changes.get(id).getNewStatus());
+					}
+				}
+				adjustPendingCounts(deltas);
+			}
+			log.debug("[CDS DAO] updateCdsActionStatuses() - Updated " + (ids.size() - lost.size()) + ", lost "
+			        + lost.size());
+			return lost;
+		} catch (Exception e) {
+			log.error("[CDS DAO] updateCdsActionStatuses() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	// ---- Assignee queue counts ----
+
+	/**
+	 * Returns the pending, non-voided action count per assignee from cds_action_queue_count;
+	 * unassigned actions are under the null key. Assignees with nothing pending are absent.
+	 */
+	public Map<Integer, Integer> getPendingActionCountsByAssignee() {
+		log.debug("[CDS DAO] getPendingActionCountsByAssignee() called");
+		try {
+			SQLQuery q = getSession().createSQLQuery(
+			    "select assigned_to_user_id, pending_count from cds_action_queue_count where pending_count > 0");
+			Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+			for (Object row : q.list()) {
+				Object[] cols = (Object[]) row;
+				int assignee = toInt(cols[0]);
+				counts.put(assignee == UNASSIGNED ? null : assignee, toInt(cols[1]));
+			}
+			return counts;
+		} catch (Exception e) {
+			log.error("[CDS DAO] getPendingActionCountsByAssignee() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns one assignee's pending, non-voided action count from cds_action_queue_count
+	 * 
+	 * @param assignedToUserId the assignee, or null for unassigned actions
+	 */
+	public int countPendingCdsActions(Integer assignedToUserId) {
+		log.debug("[CDS DAO] countPendingCdsActions() called - assignedTo: " + assignedToUserId);
+		try {
+			SQLQuery q = getSession().createSQLQuery(
+			    "select pending_count from cds_action_queue_count where assigned_to_user_id = :assignedTo");
+			q.setInteger("assignedTo", assignedToUserId != null ? assignedToUserId : UNASSIGNED);
+			return toInt(q.uniqueResult());
+		} catch (Exception e) {
+			log.error("[CDS DAO] countPendingCdsActions() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Recounts cds_action_queue_count from cds_actions_table, for rows written outside this DAO
+	 * 
+	 * @return the number of assignees with pending actions
+	 */
+	public int rebuildActionQueueCounts() {
+		log.debug("[CDS DAO] rebuildActionQueueCounts() called");
+		try {
+			getSession().createSQLQuery("delete from cds_action_queue_count").executeUpdate();
+			int assignees = getSession().createSQLQuery(
+			    "insert into cds_action_queue_count (assigned_to_user_id, pending_count) "
+			            + "select coalesce(assigned_to_user_id, " + UNASSIGNED + "), count(*) from cds_actions_table "
+			            + "where status = 'PENDING' and is_voided = 0 group by coalesce(assigned_to_user_id, "
+			            + UNASSIGNED + ")").executeUpdate();
+			log.debug("[CDS DAO] rebuildActionQueueCounts() - Counted pending actions for " + assignees + " assignees");
+			return assignees;
+		} catch (Exception e) {
+			log.error("[CDS DAO] rebuildActionQueueCounts() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Adds the change in one assignee's pending count caused by an action moving from fromStatus
+	 * to toStatus; fromStatus is null for a new action
+	 */
+	static void addPendingDelta(Map<Integer, Integer> deltas, Integer assignedToUserId, String fromStatus,
+	        String toStatus) {
+		int delta = (PENDING.equals(toStatus) ? 1 : 0) - (PENDING.equals(fromStatus) ? 1 : 0);
+		if (delta == 0) {
+			return;
+		}
+		Integer key = assignedToUserId != null ? assignedToUserId : UNASSIGNED;
+		Integer previous = deltas.get(key);
+		deltas.put(key, previous != null ? previous + delta : delta);
+	}
+
+	/**
+	 * Applies pending count deltas on the session's connection, so they commit or roll back with
+	 * the action changes that caused them
+	 */
+	private void adjustPendingCounts(final Map<Integer, Integer> deltas) {
+		if (deltas.isEmpty()) {
+			return;
+		}
+		getSession().doWork(new Work() {
+
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				adjustPendingCounts(connection, deltas);
+			}
+		});
+	}
+
+	/**
+	 * Applies the deltas with one update per assignee, inserting the counter row of a new assignee,
+	 * in assignee order so concurrent writers lock the counter rows in the same order
+	 */
+	static void adjustPendingCounts(Connection connection, Map<Integer, Integer> deltas) throws SQLException {
+		if (deltas.isEmpty()) {
+			return;
+		}
+		PreparedStatement update = connection.prepareStatement(UPDATE_QUEUE_COUNT_SQL);
+		PreparedStatement insert = null;
+		try {
+			for (Map.Entry<Integer, Integer> entry : new TreeMap<Integer, Integer>(deltas).entrySet()) {
+				int delta = entry.getValue();
+				if (delta == 0) {
+					continue;
+				}
+				update.setInt(1, delta);
+				update.setInt(2, delta);
+				update.setInt(3, entry.getKey());
+				if (update.executeUpdate() > 0) {
+					continue;
+				}
+				if (insert == null) {
+					insert = connection.prepareStatement(INSERT_QUEUE_COUNT_SQL);
+				}
+				insert.setInt(1, entry.getKey());
+				insert.setInt(2, Math.max(delta, 0));
+				try {
+					insert.executeUpdate();
+				} catch (SQLException e) {
+					String state = e.getSQLState();
+					if (state == null || !state.startsWith(INTEGRITY_VIOLATION_SQL_STATE_CLASS)) {
+						throw e;
+					}
+					// another transaction created the row since the update
+					update.executeUpdate();
+				}
+			}
+		} finally {
+			update.close();
+			if (insert != null) {
+				insert.close();
+			}
+		}
+	}
+
 	/**
 	 * Get all pending actions for a specific patient
 	 */
@@ -288,27 +918,15 @@ public class ClinicalDataSystemDao {
 		log.info("[CDS DAO] Parameter - patientId: " + patientId);
 		try {
 			String sql = "select action_id, patient_id, encounter_id, call_report, next_step_action, assigned_to_user_id, status, date_created "
-			        + "from cds_actions_table where patient_id = :pid and status = 'PENDING' order by date_created desc";
+			        + "from cds_actions_table where patient_id = :pid and status = 'PENDING' and is_voided = 0 "
+			        + "order by date_created desc";
 			log.debug("[CDS DAO] Executing SQL: " + sql);
 			SQLQuery q = getSession().createSQLQuery(sql);
 			q.setInteger("pid", patientId);
 			List<?> rows = q.list();
 			log.info("[CDS DAO] getPendingActionsByPatient() - Query returned " + rows.size() + " rows");
 
-			List<CdsActionRecord> result = new ArrayList<CdsActionRecord>();
-			for (Object row : rows) {
-				Object[] cols = (Object[]) row;
-				CdsActionRecord a = new CdsActionRecord();
-				a.setActionId(cols[0] != null ? ((Number) cols[0]).intValue() : null);
-				a.setPatientId(cols[1] != null ? ((Number) cols[1]).intValue() : null);
-				a.setEncounterId(cols[2] != null ? ((Number) cols[2]).intValue() : null);
-				a.setCallReport(cols[3] != null ? cols[3].toString() : null);
-				a.setNextStepAction(cols[4] != null ? cols[4].toString() : null);
-				a.setAssignedToUserId(cols[5] != null ? ((Number) cols[5]).intValue() : null);
-				a.setStatus(cols[6] != null ? cols[6].toString() : null);
-				a.setDateCreated((Date) cols[7]);
-				result.add(a);
-			}
+			List<CdsActionRecord> result = toActionRecords(rows);
 			log.info("[CDS DAO] getPendingActionsByPatient() - Parsed " + result.size() + " pending action records");
 			return result;
 		} catch (Exception e) {
@@ -333,20 +951,7 @@ public class ClinicalDataSystemDao {
 			List<?> rows = q.list();
 			log.info("[CDS DAO] getAllActionsByPatient() - Query returned " + rows.size() + " rows");
 
-			List<CdsActionRecord> result = new ArrayList<CdsActionRecord>();
-			for (Object row : rows) {
-				Object[] cols = (Object[]) row;
-				CdsActionRecord a = new CdsActionRecord();
-				a.setActionId(cols[0] != null ? ((Number) cols[0]).intValue() : null);
-				a.setPatientId(cols[1] != null ? ((Number) cols[1]).intValue() : null);
-				a.setEncounterId(cols[2] != null ? ((Number) cols[2]).intValue() : null);
-				a.setCallReport(cols[3] != null ? cols[3].toString() : null);
-				a.setNextStepAction(cols[4] != null ? cols[4].toString() : null);
-				a.setAssignedToUserId(cols[5] != null ? ((Number) cols[5]).intValue() : null);
-				a.setStatus(cols[6] != null ? cols[6].toString() : null);
-				a.setDateCreated((Date) cols[7]);
-				result.add(a);
-			}
+			List<CdsActionRecord> result = toActionRecords(rows);
 			log.info("[CDS DAO] getAllActionsByPatient() - Parsed " + result.size() + " action records");
 			return result;
 		} catch (Exception e) {
@@ -354,4 +959,912 @@ public class ClinicalDataSystemDao {
 			throw e;
 		}
 	}
+
+	/**
+	 * Maps rows selected as action_id, patient_id, encounter_id, call_report, next_step_action,
+	 * assigned_to_user_id, status, date_created
+	 */
+	static List<CdsActionRecord> toActionRecords(List<?> rows) {
+		List<CdsActionRecord> result = new ArrayList<CdsActionRecord>(rows.size());
+		for (Object row : rows) {
+			result.add(toActionRecord((Object[]) row));
+		}
+		return result;
+	}
+
+	static CdsActionRecord toActionRecord(Object[] cols) {
+		CdsActionRecord a = new CdsActionRecord();
+		a.setActionId(cols[0] != null ? ((Number) cols[0]).intValue() : null);
+		a.setPatientId(cols[1] != null ? ((Number) cols[1]).intValue() : null);
+		a.setEncounterId(cols[2] != null ? ((Number) cols[2]).intValue() : null);
+		a.setCallReport(cols[3] != null ? cols[3].toString() : null);
+		a.setNextStepAction(cols[4] != null ? cols[4].toString() : null);
+		a.setAssignedToUserId(cols[5] != null ? ((Number) cols[5]).intValue() : null);
+		a.setStatus(cols[6] != null ? cols[6].toString() : null);
+		a.setDateCreated((Date) cols[7]);
+		return a;
+	}
+
+	// ---- Counts ----
+
+	public int countUpcomingAppointmentPatients(Date now, Date until) {
+		log.debug("[CDS DAO] countUpcomingAppointmentPatients() called - now: " + now + ", until: " + until);
+		try {
+			SQLQuery q = getSession().createSQLQuery("select count(distinct e.patient_id) "
+			        + getCohortSql(CdsCohortType.UPCOMING));
+			bindCohortParameters(q, EnumSet.of(CdsCohortType.UPCOMING), now, until, null, null);
+			return toInt(q.uniqueResult());
+		} catch (Exception e) {
+			log.error("[CDS DAO] countUpcomingAppointmentPatients() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	public int countMissedAppointmentPatients(Date fromDate, Date now) {
+		log.debug("[CDS DAO] countMissedAppointmentPatients() called - fromDate: " + fromDate + ", now: " + now);
+		try {
+			SQLQuery q = getSession().createSQLQuery("select count(distinct e.patient_id) "
+			        + getCohortSql(CdsCohortType.MISSED));
+			bindCohortParameters(q, EnumSet.of(CdsCohortType.MISSED), now, null, fromDate, null);
+			return toInt(q.uniqueResult());
+		} catch (Exception e) {
+			log.error("[CDS DAO] countMissedAppointmentPatients() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	public int countIITPatients(Date fromDate, Date now) {
+		log.debug("[CDS DAO] countIITPatients() called - fromDate: " + fromDate + ", now: " + now);
+		try {
+			SQLQuery q = getSession().createSQLQuery("select count(distinct e.patient_id) " + getCohortSql(CdsCohortType.IIT));
+			bindCohortParameters(q, EnumSet.of(CdsCohortType.IIT), now, null, null, fromDate);
+			return toInt(q.uniqueResult());
+		} catch (Exception e) {
+			log.error("[CDS DAO] countIITPatients() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	public int countPendingCdsActions() {
+		log.debug("[CDS DAO] countPendingCdsActions() called");
+		try {
+			SQLQuery q = getSession().createSQLQuery(PENDING_ACTION_TOTAL_SQL);
+			return toInt(q.uniqueResult());
+		} catch (Exception e) {
+			log.error("[CDS DAO] countPendingCdsActions() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the patient counts of every cohort snapshot computed after freshAfter, plus the pending
+	 * action count, in one statement. Cohorts without a fresh snapshot are absent from the map; the
+	 * pending action count is under PENDING_ACTIONS.
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Integer> getDashboardCountsFromSnapshots(int upcomingDays, int missedDays, int iitDays,
+	        Date freshAfter) {
+		log.debug("[CDS DAO] getDashboardCountsFromSnapshots() called - freshAfter: " + freshAfter);
+		try {
+			String sql = "select s.cohort, s.patient_count from cds_cohort_snapshot s "
+			        + "where s.computed_at >= :freshAfter "
+			        + "and ((s.cohort = 'UPCOMING' and s.window_days = :upcomingDays) "
+			        + "or (s.cohort = 'MISSED' and s.window_days = :missedDays) "
+			        + "or (s.cohort = 'IIT' and s.window_days = :iitDays)) "
+			        + "union all "
+			        + "select '" + PENDING_ACTIONS_COHORT + "', (" + PENDING_ACTION_TOTAL_SQL + ")";
+			SQLQuery q = getSession().createSQLQuery(sql);
+			q.setTimestamp("freshAfter", freshAfter);
+			q.setInteger("upcomingDays", upcomingDays);
+			q.setInteger("missedDays", missedDays);
+			q.setInteger("iitDays", iitDays);
+
+			Map<String, Integer> result = new HashMap<String, Integer>();
+			for (Object row : q.list()) {
+				Object[] cols = (Object[]) row;
+				result.put(cols[0].toString().trim(), toInt(cols[1]));
+			}
+			return result;
+		} catch (Exception e) {
+			log.error("[CDS DAO] getDashboardCountsFromSnapshots() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Counts the given cohorts with the raw queries, as scalar subqueries of one statement
+	 */
+	public Map<CdsCohortType, Integer> countDashboardCohorts(Set<CdsCohortType> cohorts, Date now, Date upcomingUntil,
+	        Date missedFrom, Date iitFrom) {
+		log.debug("[CDS DAO] countDashboardCohorts() called - cohorts: " + cohorts);
+		Map<CdsCohortType, Integer> result = new EnumMap<CdsCohortType, Integer>(CdsCohortType.class);
+		if (cohorts.isEmpty()) {
+			return result;
+		}
+		try {
+			List<CdsCohortType> order = new ArrayList<CdsCohortType>(cohorts);
+			List<String> columns = new ArrayList<String>();
+			for (CdsCohortType cohort : order) {
+				columns.add("(select count(distinct e.patient_id) " + getCohortSql(cohort) + ")");
+			}
+			String sql = "select " + StringUtils.join(columns, ", ");
+			log.debug("[CDS DAO] Executing SQL: " + sql);
+			SQLQuery q = getSession().createSQLQuery(sql);
+			bindCohortParameters(q, cohorts, now, upcomingUntil, missedFrom, iitFrom);
+
+			Object row = q.uniqueResult();
+			Object[] cols = row instanceof Object[] ? (Object[]) row : new Object[] { row };
+			for (int i = 0; i < order.size(); i++) {
+				result.put(order.get(i), toInt(cols[i]));
+			}
+			return result;
+		} catch (Exception e) {
+			log.error("[CDS DAO] countDashboardCohorts() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Counts distinct patients across the upcoming, missed and IIT cohorts in one statement. Cohorts
+	 * not in {@code stale} are read from their snapshot members, the stale ones from the raw
+	 * queries, so a patient in several cohorts is counted once.
+	 */
+	public int countDistinctDashboardPatients(Set<CdsCohortType> stale, int upcomingDays, int missedDays, int iitDays,
+	        Date now, Date upcomingUntil, Date missedFrom, Date iitFrom) {
+		log.debug("[CDS DAO] countDistinctDashboardPatients() called - stale: " + stale);
+		try {
+			List<String> parts = new ArrayList<String>();
+			List<String> snapshots = new ArrayList<String>();
+			for (CdsCohortType cohort : CdsCohortType.values()) {
+				if (stale.contains(cohort)) {
+					parts.add("select e.patient_id " + getCohortSql(cohort));
+				} else {
+					snapshots.add("(m.cohort = '" + cohort.name() + "' and m.window_days = :" + cohort.name().toLowerCase()
+					        + "Days)");
+				}
+			}
+			if (!snapshots.isEmpty()) {
+				parts.add("select m.patient_id from cds_cohort_snapshot_member m where " + StringUtils.join(snapshots, " or "));
+			}
+			String sql = "select count(distinct t.patient_id) from (" + StringUtils.join(parts, " union all ") + ") t";
+			log.debug("[CDS DAO] Executing SQL: " + sql);
+			SQLQuery q = getSession().createSQLQuery(sql);
+			if (!stale.isEmpty()) {
+				bindCohortParameters(q, stale, now, upcomingUntil, missedFrom, iitFrom);
+			}
+			if (!stale.contains(CdsCohortType.UPCOMING)) {
+				q.setInteger("upcomingDays", upcomingDays);
+			}
+			if (!stale.contains(CdsCohortType.MISSED)) {
+				q.setInteger("missedDays", missedDays);
+			}
+			if (!stale.contains(CdsCohortType.IIT)) {
+				q.setInteger("iitDays", iitDays);
+			}
+			return toInt(q.uniqueResult());
+		} catch (Exception e) {
+			log.error("[CDS DAO] countDistinctDashboardPatients() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Patients with at least one pending action
+	 */
+	public List<Integer> getPendingActionPatientIds() {
+		log.debug("[CDS DAO] getPendingActionPatientIds() called");
+		try {
+			SQLQuery q = getSession().createSQLQuery(
+			    "select distinct patient_id from cds_actions_table where status = 'PENDING' and is_voided = 0 order by patient_id");
+			return toPatientIds(q.list());
+		} catch (Exception e) {
+			log.error("[CDS DAO] getPendingActionPatientIds() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	private String getCohortSql(CdsCohortType cohort) {
+		switch (cohort) {
+			case UPCOMING:
+				return visitSummaryReady ? UPCOMING_SUMMARY_COHORT_SQL : UPCOMING_COHORT_SQL;
+			case MISSED:
+				return visitSummaryReady ? MISSED_SUMMARY_COHORT_SQL : MISSED_COHORT_SQL;
+			default:
+				return visitSummaryReady ? IIT_SUMMARY_COHORT_SQL : IIT_COHORT_SQL;
+		}
+	}
+
+	/**
+	 * Binds the parameters of the given cohorts' conditions. The appointment concept and form and
+	 * the attendance forms are only bound when the statement uses them, since the cohorts read the
+	 * visit summary instead while it is ready. Every cohort statement gets the cohort
+	 * query timeout here.
+	 */
+	private void bindCohortParameters(SQLQuery q, Set<CdsCohortType> cohorts, Date now, Date upcomingUntil, Date missedFrom,
+	        Date iitFrom) {
+		applyCohortQueryTimeout(q);
+		if (hasParameter(q, "appointmentConcept")) {
+			q.setInteger("appointmentConcept", conceptRegistry.getConceptId(CdsConcept.APPOINTMENT_DATE));
+		}
+		if (cohorts.contains(CdsCohortType.UPCOMING)) {
+			q.setDate("upcomingFrom", now);
+			q.setDate("upcomingUntil", upcomingUntil);
+		}
+		if (hasParameter(q, "appointmentForm")) {
+			q.setInteger("appointmentForm", conceptRegistry.getFormId(CdsForm.APPOINTMENT));
+		}
+		if (cohorts.contains(CdsCohortType.MISSED)) {
+			q.setDate("missedFrom", missedFrom);
+			q.setDate("missedUntil", now);
+			if (hasParameter(q, "attendanceForms")) {
+				q.setParameterList("attendanceForms", conceptRegistry.getAttendanceFormIds());
+			}
+		}
+		if (cohorts.contains(CdsCohortType.IIT)) {
+			q.setDate("iitFrom", iitFrom);
+			q.setDate("iitUntil", now);
+			q.setInteger("trackingForm", conceptRegistry.getFormId(CdsForm.TRACKING));
+			q.setInteger("trackingDiscontinuedConcept", conceptRegistry.getConceptId(CdsConcept.TRACKING_DISCONTINUED));
+		}
+	}
+
+	/**
+	 * Sets the JDBC statement timeout, so the driver cancels a cohort query that runs longer than
+	 * {@link ClinicalDataSystemConfig#GP_COHORT_QUERY_TIMEOUT_SECONDS} instead of holding the
+	 * request thread and connection
+	 */
+	private static void applyCohortQueryTimeout(SQLQuery q) {
+		int timeoutSeconds = ClinicalDataSystemConfig.getIntegerGlobalProperty(
+		    ClinicalDataSystemConfig.GP_COHORT_QUERY_TIMEOUT_SECONDS,
+		    ClinicalDataSystemConfig.DEFAULT_COHORT_QUERY_TIMEOUT_SECONDS);
+		if (timeoutSeconds > 0) {
+			q.setTimeout(timeoutSeconds);
+		}
+	}
+
+	private static boolean hasParameter(SQLQuery q, String name) {
+		String[] names = q.getNamedParameters();
+		return names == null || Arrays.asList(names).contains(name);
+	}
+
+	private static int toInt(Object value) {
+		return value instanceof Number ? ((Number) value).intValue() : 0;
+	}
+
+	private static Integer toInteger(Object value) {
+		return value instanceof Number ? ((Number) value).intValue() : null;
+	}
+
+	// ---- Appointment index ----
+
+	/**
+	 * Loads the appointment index entries of the given patients, or of all patients when
+	 * patientIds is null, with one grouped query each for the latest appointment date on the
+	 * appointment form, the latest attendance encounter and the active tracking encounters. Patients
+	 * with none of these are not returned.
+	 */
+	public Map<Integer, AppointmentIndexEntry> getAppointmentIndexEntries(Collection<Integer> patientIds) {
+		log.debug("[CDS DAO] getAppointmentIndexEntries() called - patients: "
+		        + (patientIds == null ? "all" : String.valueOf(patientIds.size())));
+		Map<Integer, AppointmentIndexEntry> entries = new HashMap<Integer, AppointmentIndexEntry>();
+		if (patientIds != null && patientIds.isEmpty()) {
+			return entries;
+		}
+		try {
+			SQLQuery appointments = getSession().createSQLQuery(
+			    "select o.person_id, max(o.value_datetime) from obs o join encounter e on o.encounter_id = e.encounter_id "
+			            + "where o.concept_id = :appointmentConcept and e.form_id = :appointmentForm "
+			            + "and o.voided = 0 and e.voided = 0"
+			            + (patientIds != null ? " and o.person_id in (:patientIds)" : "") + " group by o.person_id");
+			appointments.setInteger("appointmentConcept", conceptRegistry.getConceptId(CdsConcept.APPOINTMENT_DATE));
+			appointments.setInteger("appointmentForm", conceptRegistry.getFormId(CdsForm.APPOINTMENT));
+			for (Object[] row : listRows(appointments, patientIds)) {
+				getAppointmentIndexEntry(entries, row[0]).setLatestAppointmentDate((Date) row[1]);
+			}
+
+			SQLQuery visits = getSession().createSQLQuery(
+			    "select e.patient_id, max(e.encounter_datetime) from encounter e "
+			            + "where e.form_id in (:attendanceForms) and e.voided = 0"
+			            + (patientIds != null ? " and e.patient_id in (:patientIds)" : "") + " group by e.patient_id");
+			visits.setParameterList("attendanceForms", conceptRegistry.getAttendanceFormIds());
+			for (Object[] row : listRows(visits, patientIds)) {
+				getAppointmentIndexEntry(entries, row[0]).setLatestVisitDate((Date) row[1]);
+			}
+
+			SQLQuery tracked = getSession().createSQLQuery(
+			    "select e.patient_id, count(*) from encounter e where e.form_id = :trackingForm and e.voided = 0 "
+			            + "and not exists (select 1 from obs o_disc where o_disc.encounter_id = e.encounter_id "
+			            + "and o_disc.concept_id = :trackingDiscontinuedConcept and o_disc.voided = 0)"
+			            + (patientIds != null ? " and e.patient_id in (:patientIds)" : "") + " group by e.patient_id");
+			tracked.setInteger("trackingForm", conceptRegistry.getFormId(CdsForm.TRACKING));
+			tracked.setInteger("trackingDiscontinuedConcept", conceptRegistry.getConceptId(CdsConcept.TRACKING_DISCONTINUED));
+			for (Object[] row : listRows(tracked, patientIds)) {
+				getAppointmentIndexEntry(entries, row[0]).setTracked(true);
+			}
+			log.debug("[CDS DAO] getAppointmentIndexEntries() - Loaded " + entries.size() + " patients");
+			return entries;
+		} catch (Exception e) {
+			log.error("[CDS DAO] getAppointmentIndexEntries() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Object[]> listRows(SQLQuery q, Collection<Integer> patientIds) {
+		if (patientIds != null) {
+			q.setParameterList("patientIds", patientIds);
+		}
+		return q.list();
+	}
+
+	private static AppointmentIndexEntry getAppointmentIndexEntry(Map<Integer, AppointmentIndexEntry> entries,
+	        Object patientId) {
+		Integer id = toInt(patientId);
+		AppointmentIndexEntry entry = entries.get(id);
+		if (entry == null) {
+			entry = new AppointmentIndexEntry(id);
+			entries.put(id, entry);
+		}
+		return entry;
+	}
+
+	// ---- Visit summary ----
+
+	/**
+	 * Recomputes the cds_patient_visit_summary rows of the given patients, or of all patients when
+	 * patientIds is null: the latest appointment date on the appointment form and the latest
+	 * attendance visit, from one grouped insert ... select per chunk. Patients without a
+	 * non-voided appointment have no row. After a full rebuild the missed cohort is read from the
+	 * summary.
+	 * 
+	 * @return the number of summary rows written
+	 */
+	public int refreshVisitSummaries(Collection<Integer> patientIds) {
+		log.debug("[CDS DAO] refreshVisitSummaries() called - patients: "
+		        + (patientIds == null ? "all" : String.valueOf(patientIds.size())));
+		try {
+			int rows = 0;
+			if (patientIds == null) {
+				getSession().createSQLQuery("delete from cds_patient_visit_summary").executeUpdate();
+				rows = insertVisitSummaries(null);
+				visitSummaryReady = true;
+			} else {
+				List<Integer> ids = new ArrayList<Integer>(patientIds);
+				for (int from = 0; from < ids.size(); from += SUMMARY_CHUNK_SIZE) {
+					List<Integer> chunk = ids.subList(from, Math.min(from + SUMMARY_CHUNK_SIZE, ids.size()));
+					SQLQuery delete = getSession().createSQLQuery(
+					    "delete from cds_patient_visit_summary where patient_id in (:patientIds)");
+					delete.setParameterList("patientIds", chunk);
+					delete.executeUpdate();
+					rows += insertVisitSummaries(chunk);
+				}
+			}
+			log.debug("[CDS DAO] refreshVisitSummaries() - Wrote " + rows + " summary rows");
+			return rows;
+		} catch (Exception e) {
+			log.error("[CDS DAO] refreshVisitSummaries() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return true once a full rebuild has run, so the missed cohort is answered from the summary
+	 */
+	public boolean isVisitSummaryReady() {
+		return visitSummaryReady;
+	}
+
+	/**
+	 * Stops (or resumes) reading the missed and IIT cohorts from the summary, e.g. once the summary
+	 * is no longer kept up to date
+	 */
+	public void setVisitSummaryReady(boolean visitSummaryReady) {
+		this.visitSummaryReady = visitSummaryReady;
+	}
+
+	private int insertVisitSummaries(List<Integer> patientIds) {
+		String filter = patientIds != null ? " and e.patient_id in (:patientIds)" : "";
+		SQLQuery q = getSession().createSQLQuery(
+		    "insert into cds_patient_visit_summary (patient_id, latest_appointment_date, latest_visit_date, date_updated) "
+		            + "select a.patient_id, a.latest_appointment_date, v.latest_visit_date, current_timestamp from "
+		            + "(select e.patient_id, max(o.value_datetime) as latest_appointment_date "
+		            + "from obs o join encounter e on o.encounter_id = e.encounter_id "
+		            + "where o.concept_id = :appointmentConcept and e.form_id = :appointmentForm "
+		            + "and o.value_datetime is not null and o.voided = 0 and e.voided = 0" + filter
+		            + " group by e.patient_id) a "
+		            + "left join (select e.patient_id, max(e.encounter_datetime) as latest_visit_date from encounter e "
+		            + "where e.form_id in (:attendanceForms) and e.voided = 0" + filter
+		            + " group by e.patient_id) v on v.patient_id = a.patient_id");
+		q.setInteger("appointmentConcept", conceptRegistry.getConceptId(CdsConcept.APPOINTMENT_DATE));
+		q.setInteger("appointmentForm", conceptRegistry.getFormId(CdsForm.APPOINTMENT));
+		q.setParameterList("attendanceForms", conceptRegistry.getAttendanceFormIds());
+		if (patientIds != null) {
+			q.setParameterList("patientIds", patientIds);
+		}
+		return q.executeUpdate();
+	}
+
+	// ---- Keyset pages ----
+
+	/**
+	 * Returns up to limit upcoming-appointment patient IDs greater than afterPatientId, in ID order
+	 */
+	public List<Integer> getUpcomingAppointmentPatientIds(Date now, Date until, Integer afterPatientId, int limit) {
+		return getCohortPatientIdsPage(CdsCohortType.UPCOMING, now, until, null, null, afterPatientId, limit);
+	}
+
+	/**
+	 * Returns up to limit missed-appointment patient IDs greater than afterPatientId, in ID order
+	 */
+	public List<Integer> getMissedAppointmentPatientIds(Date fromDate, Date now, Integer afterPatientId, int limit) {
+		return getCohortPatientIdsPage(CdsCohortType.MISSED, now, null, fromDate, null, afterPatientId, limit);
+	}
+
+	/**
+	 * Returns up to limit IIT patient IDs greater than afterPatientId, in ID order
+	 */
+	public List<Integer> getIITPatientIds(Date fromDate, Date now, Integer afterPatientId, int limit) {
+		return getCohortPatientIdsPage(CdsCohortType.IIT, now, null, null, fromDate, afterPatientId, limit);
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Integer> getCohortPatientIdsPage(CdsCohortType cohort, Date now, Date upcomingUntil, Date missedFrom,
+	        Date iitFrom, Integer afterPatientId, int limit) {
+		log.debug("[CDS DAO] getCohortPatientIdsPage() called - cohort: " + cohort + ", afterPatientId: "
+		        + afterPatientId + ", limit: " + limit);
+		try {
+			String sql = "select distinct e.patient_id " + getCohortSql(cohort)
+			        + " and e.patient_id > :afterPatientId order by e.patient_id";
+			SQLQuery q = getSession().createSQLQuery(sql);
+			bindCohortParameters(q, EnumSet.of(cohort), now, upcomingUntil, missedFrom, iitFrom);
+			q.setInteger("afterPatientId", afterPatientId != null ? afterPatientId : 0);
+			q.setMaxResults(limit);
+			return toPatientIds(q.list());
+		} catch (Exception e) {
+			log.error("[CDS DAO] getCohortPatientIdsPage() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns up to limit patient IDs greater than afterPatientId from a cohort snapshot, read
+	 * straight off the snapshot member primary key
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Integer> getCohortSnapshotPatientIds(String cohort, int windowDays, Integer afterPatientId, int limit) {
+		log.debug("[CDS DAO] getCohortSnapshotPatientIds() called - cohort: " + cohort + ", windowDays: " + windowDays
+		        + ", afterPatientId: " + afterPatientId + ", limit: " + limit);
+		try {
+			String sql = "select patient_id from cds_cohort_snapshot_member where cohort = :cohort and window_days = :windowDays "
+			        + "and patient_id > :afterPatientId order by patient_id";
+			SQLQuery q = getSession().createSQLQuery(sql);
+			q.setString("cohort", cohort);
+			q.setInteger("windowDays", windowDays);
+			q.setInteger("afterPatientId", afterPatientId != null ? afterPatientId : 0);
+			q.setMaxResults(limit);
+			return toPatientIds(q.list());
+		} catch (Exception e) {
+			log.error("[CDS DAO] getCohortSnapshotPatientIds() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads a cohort straight into an IntList, scrolling the result instead of building a List of
+	 * rows first
+	 */
+	public IntList getCohortPatientIdList(CdsCohortType cohort, Date now, Date upcomingUntil, Date missedFrom,
+	        Date iitFrom) {
+		log.debug("[CDS DAO] getCohortPatientIdList() called - cohort: " + cohort);
+		try {
+			String sql = "select distinct e.patient_id " + getCohortSql(cohort) + " order by e.patient_id";
+			SQLQuery q = getSession().createSQLQuery(sql);
+			bindCohortParameters(q, EnumSet.of(cohort), now, upcomingUntil, missedFrom, iitFrom);
+			IntList result = scrollPatientIds(q);
+			log.debug("[CDS DAO] getCohortPatientIdList() - Read " + result.size() + " patient IDs");
+			return result;
+		} catch (Exception e) {
+			log.error("[CDS DAO] getCohortPatientIdList() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the members of a cohort snapshot straight into an IntList
+	 */
+	public IntList getCohortSnapshotPatientIdList(String cohort, int windowDays) {
+		log.debug("[CDS DAO] getCohortSnapshotPatientIdList() called - cohort: " + cohort + ", windowDays: " + windowDays);
+		try {
+			SQLQuery q = getSession().createSQLQuery(
+			    "select m.patient_id from cds_cohort_snapshot_member m "
+			            + "where m.cohort = :cohort and m.window_days = :windowDays order by m.patient_id");
+			q.setString("cohort", cohort);
+			q.setInteger("windowDays", windowDays);
+			return scrollPatientIds(q);
+		} catch (Exception e) {
+			log.error("[CDS DAO] getCohortSnapshotPatientIdList() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	// ---- Streaming reads ----
+
+	/**
+	 * Streams a cohort to the handler from a read-only stateless session, scrolling forward only with
+	 * the given JDBC fetch size, so memory use does not grow with the cohort
+	 * 
+	 * @return the number of IDs handed to the handler
+	 */
+	public int streamCohortPatientIds(CdsCohortType cohort, Date now, Date upcomingUntil, Date missedFrom, Date iitFrom,
+	        int fetchSize, PatientIdHandler handler) {
+		log.debug("[CDS DAO] streamCohortPatientIds() called - cohort: " + cohort + ", fetchSize: " + fetchSize);
+		StatelessSession session = sessionFactory.getHibernateSessionFactory().openStatelessSession();
+		try {
+			SQLQuery q = session.createSQLQuery("select distinct e.patient_id " + getCohortSql(cohort)
+			        + " order by e.patient_id");
+			bindCohortParameters(q, EnumSet.of(cohort), now, upcomingUntil, missedFrom, iitFrom);
+			return streamPatientIds(q, fetchSize, handler);
+		} catch (Exception e) {
+			log.error("[CDS DAO] streamCohortPatientIds() - ERROR: " + e.getMessage(), e);
+			throw e;
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Streams the members of a cohort snapshot to the handler, like
+	 * {@link #streamCohortPatientIds(CdsCohortType, Date, Date, Date, Date, int, PatientIdHandler)}
+	 */
+	public int streamCohortSnapshotPatientIds(String cohort, int windowDays, int fetchSize, PatientIdHandler handler) {
+		log.debug("[CDS DAO] streamCohortSnapshotPatientIds() called - cohort: " + cohort + ", windowDays: " + windowDays);
+		StatelessSession session = sessionFactory.getHibernateSessionFactory().openStatelessSession();
+		try {
+			SQLQuery q = session.createSQLQuery("select m.patient_id from cds_cohort_snapshot_member m "
+			        + "where m.cohort = :cohort and m.window_days = :windowDays order by m.patient_id");
+			q.setString("cohort", cohort);
+			q.setInteger("windowDays", windowDays);
+			return streamPatientIds(q, fetchSize, handler);
+		} catch (Exception e) {
+			log.error("[CDS DAO] streamCohortSnapshotPatientIds() - ERROR: " + e.getMessage(), e);
+			throw e;
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Streams non-voided actions, newest first within each status, to the handler from a read-only
+	 * stateless session. The order follows idx_cds_actions_pending_queue (status, is_voided,
+	 * date_created, action_id), so the rows are read off the index without a sort.
+	 * 
+	 * @param status only actions with this status, or all actions when null
+	 * @return the number of actions handed to the handler
+	 */
+	public int streamCdsActions(String status, int fetchSize, CdsRowHandler<CdsActionRecord> handler) {
+		log.debug("[CDS DAO] streamCdsActions() called - status: " + status + ", fetchSize: " + fetchSize);
+		StatelessSession session = sessionFactory.getHibernateSessionFactory().openStatelessSession();
+		try {
+			String sql = "select action_id, patient_id, encounter_id, call_report, next_step_action, assigned_to_user_id, status, date_created "
+			        + "from cds_actions_table where is_voided = 0" + (status != null ? " and status = :status" : "")
+			        + " order by status desc, is_voided desc, date_created desc, action_id desc";
+			SQLQuery q = session.createSQLQuery(sql);
+			if (status != null) {
+				q.setString("status", status);
+			}
+			q.setReadOnly(true);
+			q.setFetchSize(fetchSize);
+			int count = 0;
+			ScrollableResults rows = q.scroll(ScrollMode.FORWARD_ONLY);
+			try {
+				while (rows.next()) {
+					count++;
+					if (!handler.handle(toActionRecord(rows.get()))) {
+						break;
+					}
+				}
+			} finally {
+				rows.close();
+			}
+			log.debug("[CDS DAO] streamCdsActions() - Streamed " + count + " actions");
+			return count;
+		} catch (Exception e) {
+			log.error("[CDS DAO] streamCdsActions() - ERROR: " + e.getMessage(), e);
+			throw e;
+		} finally {
+			session.close();
+		}
+	}
+
+	private static int streamPatientIds(SQLQuery q, int fetchSize, PatientIdHandler handler) {
+		q.setReadOnly(true);
+		q.setFetchSize(fetchSize);
+		int count = 0;
+		ScrollableResults rows = q.scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			while (rows.next()) {
+				Object id = rows.get(0);
+				if (id instanceof Number) {
+					count++;
+					if (!handler.handle(((Number) id).intValue())) {
+						break;
+					}
+				}
+			}
+		} finally {
+			rows.close();
+		}
+		return count;
+	}
+
+	private static IntList scrollPatientIds(SQLQuery q) {
+		IntList result = new IntList(1024);
+		ScrollableResults rows = q.scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			while (rows.next()) {
+				Object id = rows.get(0);
+				if (id instanceof Number) {
+					result.add(((Number) id).intValue());
+				}
+			}
+		} finally {
+			rows.close();
+		}
+		return result;
+	}
+
+	private static List<Integer> toPatientIds(List<?> rows) {
+		List<Integer> result = new ArrayList<Integer>(rows.size());
+		for (Object r : rows) {
+			if (r instanceof Number)
+				result.add(((Number) r).intValue());
+		}
+		return result;
+	}
+
+	// ---- Patient summaries ----
+
+	/**
+	 * Loads the line-list columns for many patients with one set-based query per chunk of IDs:
+	 * PEPFAR ID, preferred name, birthdate, gender, latest and next appointment date and whether any
+	 * EAC session was recorded. Unknown or voided
+	 * patients are left out.
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<Integer, CdsPatientSummary> getPatientSummaries(Collection<Integer> patientIds, Date now) {
+		log.debug("[CDS DAO] getPatientSummaries() called - patients: " + patientIds.size());
+		Map<Integer, CdsPatientSummary> result = new HashMap<Integer, CdsPatientSummary>();
+		if (patientIds.isEmpty()) {
+			return result;
+		}
+		try {
+			String sql = "select p.patient_id, pe.uuid, pi.identifier, pn.given_name, pn.family_name, pe.birthdate, pe.gender, "
+			        + "appt.last_appointment, appt.next_appointment, eac.person_id "
+			        + "from patient p "
+			        + "join person pe on pe.person_id = p.patient_id "
+			        + "left join person_name pn on pn.person_id = p.patient_id and pn.voided = 0 "
+			        + "left join patient_identifier pi on pi.patient_id = p.patient_id and pi.identifier_type = :pepfarIdentifierType and pi.voided = 0 "
+			        + "left join (select o.person_id, max(o.value_datetime) as last_appointment, "
+			        + "min(case when o.value_datetime > :now then o.value_datetime end) as next_appointment "
+			        + "from obs o where o.concept_id = :appointmentConcept and o.voided = 0 and o.person_id in (:ids) "
+			        + "group by o.person_id) appt on appt.person_id = p.patient_id "
+			        + "left join (select distinct o.person_id from obs o where o.concept_id = :eacConcept and o.voided = 0 "
+			        + "and o.person_id in (:ids)) eac on eac.person_id = p.patient_id "
+			        + "where p.patient_id in (:ids) and p.voided = 0 "
+			        + "order by p.patient_id, pn.preferred desc";
+
+			List<Integer> ids = new ArrayList<Integer>(patientIds);
+			for (int from = 0; from < ids.size(); from += SUMMARY_CHUNK_SIZE) {
+				SQLQuery q = getSession().createSQLQuery(sql);
+				q.setTimestamp("now", now);
+				q.setInteger("pepfarIdentifierType", conceptRegistry.getPepfarIdentifierTypeId());
+				q.setInteger("appointmentConcept", conceptRegistry.getConceptId(CdsConcept.APPOINTMENT_DATE));
+				q.setInteger("eacConcept", conceptRegistry.getConceptId(CdsConcept.EAC_SESSION));
+				q.setParameterList("ids", ids.subList(from, Math.min(from + SUMMARY_CHUNK_SIZE, ids.size())));
+				for (Object row : q.list()) {
+					Object[] cols = (Object[]) row;
+					Integer patientId = ((Number) cols[0]).intValue();
+					CdsPatientSummary summary = result.get(patientId);
+					if (summary == null) {
+						// first row per patient carries the preferred name
+						summary = new CdsPatientSummary();
+						summary.setPatientId(patientId);
+						summary.setUuid(cols[1] != null ? cols[1].toString() : null);
+						summary.setGivenName(cols[3] != null ? cols[3].toString() : null);
+						summary.setFamilyName(cols[4] != null ? cols[4].toString() : null);
+						summary.setBirthdate((Date) cols[5]);
+						summary.setGender(cols[6] != null ? cols[6].toString() : null);
+						summary.setLastAppointmentDate((Date) cols[7]);
+						summary.setNextAppointmentDate((Date) cols[8]);
+						summary.setHasEacHistory(cols[9] != null);
+						result.put(patientId, summary);
+					}
+					if (summary.getPepfarId() == null && cols[2] != null) {
+						summary.setPepfarId(cols[2].toString());
+					}
+				}
+			}
+			log.debug("[CDS DAO] getPatientSummaries() - Loaded " + result.size() + " summaries");
+			return result;
+		} catch (Exception e) {
+			log.error("[CDS DAO] getPatientSummaries() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	// ---- Patient observations ----
+
+	/**
+	 * Returns the latest non-voided obs (by obs datetime, then obs ID) for each of the given concepts
+	 * in one query. Concepts the person has no obs for are absent from the result.
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<CdsConcept, Obs> getLatestObs(Integer personId, Set<CdsConcept> concepts) {
+		log.debug("[CDS DAO] getLatestObs() called - personId: " + personId + ", concepts: " + concepts);
+		Map<CdsConcept, Obs> result = new EnumMap<CdsConcept, Obs>(CdsConcept.class);
+		if (concepts.isEmpty()) {
+			return result;
+		}
+		try {
+			Map<Integer, CdsConcept> byConceptId = new HashMap<Integer, CdsConcept>();
+			for (CdsConcept concept : concepts) {
+				byConceptId.put(conceptRegistry.getConceptId(concept), concept);
+			}
+			String sql = "select {o.*} from obs o "
+			        + "where o.person_id = :pid and o.concept_id in (:conceptIds) and o.voided = 0 "
+			        + "and o.obs_id = (select o2.obs_id from obs o2 where o2.person_id = o.person_id "
+			        + "and o2.concept_id = o.concept_id and o2.voided = 0 "
+			        + "order by o2.obs_datetime desc, o2.obs_id desc limit 1)";
+			SQLQuery q = getSession().createSQLQuery(sql);
+			q.addEntity("o", Obs.class);
+			q.setInteger("pid", personId);
+			q.setParameterList("conceptIds", byConceptId.keySet());
+			for (Obs obs : (List<Obs>) q.list()) {
+				result.put(byConceptId.get(obs.getConcept().getConceptId()), obs);
+			}
+			log.debug("[CDS DAO] getLatestObs() - Found " + result.size() + " of " + concepts.size() + " concepts");
+			return result;
+		} catch (Exception e) {
+			log.error("[CDS DAO] getLatestObs() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return true if the person has at least one non-voided obs for the concept; stops at the first
+	 *         match
+	 */
+	public boolean hasObs(Integer personId, CdsConcept concept) {
+		log.debug("[CDS DAO] hasObs() called - personId: " + personId + ", concept: " + concept);
+		try {
+			SQLQuery q = getSession().createSQLQuery(
+			    "select o.obs_id from obs o where o.person_id = :pid and o.concept_id = :conceptId and o.voided = 0");
+			q.setInteger("pid", personId);
+			q.setInteger("conceptId", conceptRegistry.getConceptId(concept));
+			q.setMaxResults(1);
+			return !q.list().isEmpty();
+		} catch (Exception e) {
+			log.error("[CDS DAO] hasObs() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	// ---- Cohort snapshots ----
+
+	/**
+	 * Returns when the snapshot for the given cohort and window was computed, or null if there is
+	 * no snapshot yet
+	 */
+	public Date getCohortSnapshotComputedAt(String cohort, int windowDays) {
+		log.debug("[CDS DAO] getCohortSnapshotComputedAt() called - cohort: " + cohort + ", windowDays: " + windowDays);
+		try {
+			String sql = "select computed_at from cds_cohort_snapshot where cohort = :cohort and window_days = :windowDays";
+			SQLQuery q = getSession().createSQLQuery(sql);
+			q.setString("cohort", cohort);
+			q.setInteger("windowDays", windowDays);
+			Object result = q.uniqueResult();
+			return result instanceof Date ? (Date) result : null;
+		} catch (Exception e) {
+			log.error("[CDS DAO] getCohortSnapshotComputedAt() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Marks every window of the given cohorts as computed at expiredAt, so the next read recomputes
+	 * them. Members are left in place and replaced by that recomputation.
+	 * 
+	 * @return the number of snapshots expired
+	 */
+	public int expireCohortSnapshots(Collection<String> cohorts, Date expiredAt) {
+		log.debug("[CDS DAO] expireCohortSnapshots() called - cohorts: " + cohorts);
+		try {
+			SQLQuery q = getSession().createSQLQuery(
+			    "update cds_cohort_snapshot set computed_at = :expiredAt where cohort in (:cohorts)");
+			q.setTimestamp("expiredAt", expiredAt);
+			q.setParameterList("cohorts", cohorts);
+			int updated = q.executeUpdate();
+			log.debug("[CDS DAO] expireCohortSnapshots() - Expired " + updated + " snapshots");
+			return updated;
+		} catch (Exception e) {
+			log.error("[CDS DAO] expireCohortSnapshots() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the patient IDs stored in the snapshot for the given cohort and window
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Integer> getCohortSnapshotPatientIds(String cohort, int windowDays) {
+		log.debug("[CDS DAO] getCohortSnapshotPatientIds() called - cohort: " + cohort + ", windowDays: " + windowDays);
+		try {
+			String sql = "select patient_id from cds_cohort_snapshot_member where cohort = :cohort and window_days = :windowDays "
+			        + "order by patient_id";
+			SQLQuery q = getSession().createSQLQuery(sql);
+			q.setString("cohort", cohort);
+			q.setInteger("windowDays", windowDays);
+			List<?> rows = q.list();
+
+			List<Integer> result = new ArrayList<Integer>(rows.size());
+			for (Object r : rows) {
+				if (r instanceof Number)
+					result.add(((Number) r).intValue());
+			}
+			log.debug("[CDS DAO] getCohortSnapshotPatientIds() - Parsed " + result.size() + " patient IDs");
+			return result;
+		} catch (Exception e) {
+			log.error("[CDS DAO] getCohortSnapshotPatientIds() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Replaces the snapshot for the given cohort and window with the given patient IDs. IDs without
+	 * a patient row are dropped, so patient_count is the number of members actually written. Run it
+	 * in a transaction of its own so a failure never leaves a partial snapshot.
+	 */
+	public void saveCohortSnapshot(String cohort, int windowDays, List<Integer> patientIds, Date computedAt) {
+		log.debug("[CDS DAO] saveCohortSnapshot() called - cohort: " + cohort + ", windowDays: " + windowDays
+		        + ", patients: " + patientIds.size());
+		try {
+			SQLQuery deleteMembers = getSession().createSQLQuery(
+			    "delete from cds_cohort_snapshot_member where cohort = :cohort and window_days = :windowDays");
+			deleteMembers.setString("cohort", cohort);
+			deleteMembers.setInteger("windowDays", windowDays);
+			deleteMembers.executeUpdate();
+
+			SQLQuery deleteHeader = getSession().createSQLQuery(
+			    "delete from cds_cohort_snapshot where cohort = :cohort and window_days = :windowDays");
+			deleteHeader.setString("cohort", cohort);
+			deleteHeader.setInteger("windowDays", windowDays);
+			deleteHeader.executeUpdate();
+
+			int patientCount = 0;
+			String insertMembersSql = "insert into cds_cohort_snapshot_member (cohort, window_days, patient_id) "
+			        + "select :cohort, :windowDays, p.patient_id from patient p where p.patient_id in (:ids)";
+			for (int from = 0; from < patientIds.size(); from += SNAPSHOT_INSERT_CHUNK_SIZE) {
+				List<Integer> chunk = patientIds.subList(from, Math.min(from + SNAPSHOT_INSERT_CHUNK_SIZE, patientIds.size()));
+				SQLQuery insertMembers = getSession().createSQLQuery(insertMembersSql);
+				insertMembers.setString("cohort", cohort);
+				insertMembers.setInteger("windowDays", windowDays);
+				insertMembers.setParameterList("ids", chunk);
+				patientCount += insertMembers.executeUpdate();
+			}
+
+			SQLQuery insertHeader = getSession().createSQLQuery(
+			    "insert into cds_cohort_snapshot (cohort, window_days, computed_at, patient_count) "
+			            + "values (:cohort, :windowDays, :computedAt, :patientCount)");
+			insertHeader.setString("cohort", cohort);
+			insertHeader.setInteger("windowDays", windowDays);
+			insertHeader.setTimestamp("computedAt", computedAt);
+			insertHeader.setInteger("patientCount", patientCount);
+			insertHeader.executeUpdate();
+
+			log.debug("[CDS DAO] saveCohortSnapshot() - Snapshot saved with " + patientCount + " patients");
+		} catch (Exception e) {
+			log.error("[CDS DAO] saveCohortSnapshot() - ERROR: " + e.getMessage(), e);
+			throw e;
+		}
+	}
 }
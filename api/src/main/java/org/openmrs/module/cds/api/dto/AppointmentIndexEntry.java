@@ -0,0 +1,75 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api.dto;
+
+import java.util.Date;
+
+/**
+ * One patient of the in-memory appointment index: the dates the upcoming, missed and IIT cohorts
+ * are decided on
+ */
+public class AppointmentIndexEntry {
+
+	private Integer patientId;
+
+	private Date latestAppointmentDate;
+
+	private Date latestVisitDate;
+
+	private boolean tracked;
+
+	public AppointmentIndexEntry() {
+	}
+
+	public AppointmentIndexEntry(Integer patientId) {
+		this.patientId = patientId;
+	}
+
+	public Integer getPatientId() {
+		return patientId;
+	}
+
+	public void setPatientId(Integer patientId) {
+		this.patientId = patientId;
+	}
+
+	/**
+	 * Latest appointment date (concept 5096) recorded on the appointment form
+	 */
+	public Date getLatestAppointmentDate() {
+		return latestAppointmentDate;
+	}
+
+	public void setLatestAppointmentDate(Date latestAppointmentDate) {
+		this.latestAppointmentDate = latestAppointmentDate;
+	}
+
+	/**
+	 * Latest encounter on one of the attendance forms
+	 */
+	public Date getLatestVisitDate() {
+		return latestVisitDate;
+	}
+
+	public void setLatestVisitDate(Date latestVisitDate) {
+		this.latestVisitDate = latestVisitDate;
+	}
+
+	/**
+	 * Whether the patient has a tracking form encounter that was not discontinued
+	 */
+	public boolean isTracked() {
+		return tracked;
+	}
+
+	public void setTracked(boolean tracked) {
+		this.tracked = tracked;
+	}
+}
@@ -0,0 +1,71 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api.dto;
+
+import java.util.Date;
+
+/**
+ * Keyset position in an action queue ordered newest first: the next page starts after the action
+ * with this date_created and action_id. Written to URLs as dateCreatedMillis:actionId.
+ */
+public class CdsActionCursor {
+
+	private final Date dateCreated;
+
+	private final Integer actionId;
+
+	public CdsActionCursor(Date dateCreated, Integer actionId) {
+		this.dateCreated = dateCreated;
+		this.actionId = actionId;
+	}
+
+	/**
+	 * The cursor after the given action, or null if it has no date_created
+	 */
+	public static CdsActionCursor after(CdsActionRecord action) {
+		if (action == null || action.getDateCreated() == null) {
+			return null;
+		}
+		return new CdsActionCursor(action.getDateCreated(), action.getActionId());
+	}
+
+	/**
+	 * Parses a cursor written by {@link #toString()}; null when blank or malformed
+	 */
+	public static CdsActionCursor parse(String value) {
+		if (value == null) {
+			return null;
+		}
+		int colon = value.indexOf(':');
+		if (colon <= 0) {
+			return null;
+		}
+		try {
+			return new CdsActionCursor(new Date(Long.parseLong(value.substring(0, colon).trim())), Integer.valueOf(value
+			        .substring(colon + 1).trim()));
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	public Date getDateCreated() {
+		return dateCreated;
+	}
+
+	public Integer getActionId() {
+		return actionId;
+	}
+
+	@Override
+	public String toString() {
+		return dateCreated.getTime() + ":" + actionId;
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api.dto;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Outcome of a batch insert of actions: the generated action_id of each row, and the reason each
+ * failed row was not inserted. Rows are identified by their index in the submitted list.
+ */
+public class CdsActionInsertResult {
+
+	private final Integer[] actionIds;
+
+	private final Map<Integer, String> failures = new TreeMap<Integer, String>();
+
+	public CdsActionInsertResult(int rows) {
+		this.actionIds = new Integer[rows];
+	}
+
+	public void setActionId(int row, Integer actionId) {
+		actionIds[row] = actionId;
+	}
+
+	public void addFailure(int row, String reason) {
+		actionIds[row] = null;
+		failures.put(row, reason);
+	}
+
+	/**
+	 * Generated action_id per submitted row, in submission order; null for failed rows
+	 */
+	public List<Integer> getActionIds() {
+		return Collections.unmodifiableList(Arrays.asList(actionIds));
+	}
+
+	/**
+	 * Failure reason per failed row index
+	 */
+	public Map<Integer, String> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	public int getInsertedCount() {
+		return actionIds.length - failures.size();
+	}
+
+	public boolean hasFailures() {
+		return !failures.isEmpty();
+	}
+}
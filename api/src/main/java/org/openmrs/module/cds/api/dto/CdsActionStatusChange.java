@@ -0,0 +1,39 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api.dto;
+
+/**
+ * A compare-and-set status transition for one action: the status is only changed to newStatus if it
+ * is still expectedStatus
+ */
+public class CdsActionStatusChange {
+
+	private final String expectedStatus;
+
+	private final String newStatus;
+
+	public CdsActionStatusChange(String expectedStatus, String newStatus) {
+		this.expectedStatus = expectedStatus;
+		this.newStatus = newStatus;
+	}
+
+	public String getExpectedStatus() {
+		return expectedStatus;
+	}
+
+	public String getNewStatus() {
+		return newStatus;
+	}
+
+	@Override
+	public String toString() {
+		return expectedStatus + " -> " + newStatus;
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api.dto;
+
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * One row of the IIT, missed and upcoming line lists, loaded for many patients at once
+ */
+public class CdsPatientSummary {
+
+	private Integer patientId;
+
+	private String uuid;
+
+	private String pepfarId;
+
+	private String givenName;
+
+	private String familyName;
+
+	private Date birthdate;
+
+	private String gender;
+
+	private Date lastAppointmentDate;
+
+	private Date nextAppointmentDate;
+
+	private boolean hasEacHistory;
+
+	public Integer getPatientId() {
+		return patientId;
+	}
+
+	public void setPatientId(Integer patientId) {
+		this.patientId = patientId;
+	}
+
+	public String getUuid() {
+		return uuid;
+	}
+
+	public void setUuid(String uuid) {
+		this.uuid = uuid;
+	}
+
+	public String getPepfarId() {
+		return pepfarId;
+	}
+
+	public void setPepfarId(String pepfarId) {
+		this.pepfarId = pepfarId;
+	}
+
+	public String getGivenName() {
+		return givenName;
+	}
+
+	public void setGivenName(String givenName) {
+		this.givenName = givenName;
+	}
+
+	public String getFamilyName() {
+		return familyName;
+	}
+
+	public void setFamilyName(String familyName) {
+		this.familyName = familyName;
+	}
+
+	public String getFullName() {
+		return (givenName != null ? givenName : "") + " " + (familyName != null ? familyName : "");
+	}
+
+	public Date getBirthdate() {
+		return birthdate;
+	}
+
+	public void setBirthdate(Date birthdate) {
+		this.birthdate = birthdate;
+	}
+
+	/**
+	 * Age in whole years as of today, or null if the birthdate is unknown
+	 */
+	public Integer getAge() {
+		if (birthdate == null) {
+			return null;
+		}
+		Calendar today = Calendar.getInstance();
+		Calendar born = Calendar.getInstance();
+		born.setTime(birthdate);
+		int age = today.get(Calendar.YEAR) - born.get(Calendar.YEAR);
+		if (today.get(Calendar.DAY_OF_YEAR) < born.get(Calendar.DAY_OF_YEAR)) {
+			age--;
+		}
+		return age;
+	}
+
+	public String getGender() {
+		return gender;
+	}
+
+	public void setGender(String gender) {
+		this.gender = gender;
+	}
+
+	/**
+	 * Latest appointment date (concept 5096) recorded for the patient
+	 */
+	public Date getLastAppointmentDate() {
+		return lastAppointmentDate;
+	}
+
+	public void setLastAppointmentDate(Date lastAppointmentDate) {
+		this.lastAppointmentDate = lastAppointmentDate;
+	}
+
+	/**
+	 * Earliest appointment date (concept 5096) in the future
+	 */
+	public Date getNextAppointmentDate() {
+		return nextAppointmentDate;
+	}
+
+	public void setNextAppointmentDate(Date nextAppointmentDate) {
+		this.nextAppointmentDate = nextAppointmentDate;
+	}
+
+	public boolean isHasEacHistory() {
+		return hasEacHistory;
+	}
+
+	public void setHasEacHistory(boolean hasEacHistory) {
+		this.hasEacHistory = hasEacHistory;
+	}
+}
@@ -8,6 +8,8 @@ public class ClientEffortEntry {
 	
 	private String status;
 	
+	private Integer statusConceptId;
+	
 	private String comments;
 	
 	public ClientEffortEntry() {
@@ -35,6 +37,18 @@ public class ClientEffortEntry {
 		this.status = status;
 	}
 	
+	/**
+	 * The tracking status answer (value_coded), whose name is filled into status for the user's
+	 * locale
+	 */
+	public Integer getStatusConceptId() {
+		return statusConceptId;
+	}
+	
+	public void setStatusConceptId(Integer statusConceptId) {
+		this.statusConceptId = statusConceptId;
+	}
+	
 	public String getComments() {
 		return comments;
 	}
@@ -0,0 +1,61 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api.dto;
+
+/**
+ * One non-voided row of concept_name, as held by the concept name cache
+ */
+public class ConceptNameEntry {
+
+	private final Integer conceptId;
+
+	private final String name;
+
+	private final String locale;
+
+	private final String conceptNameType;
+
+	private final boolean localePreferred;
+
+	public ConceptNameEntry(Integer conceptId, String name, String locale, String conceptNameType,
+	    boolean localePreferred) {
+		this.conceptId = conceptId;
+		this.name = name;
+		this.locale = locale;
+		this.conceptNameType = conceptNameType;
+		this.localePreferred = localePreferred;
+	}
+
+	public Integer getConceptId() {
+		return conceptId;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * The locale as stored, e.g. en, fr or fr_CI
+	 */
+	public String getLocale() {
+		return locale;
+	}
+
+	/**
+	 * FULLY_SPECIFIED, SHORT, INDEX_TERM or null for a synonym
+	 */
+	public String getConceptNameType() {
+		return conceptNameType;
+	}
+
+	public boolean isLocalePreferred() {
+		return localePreferred;
+	}
+}
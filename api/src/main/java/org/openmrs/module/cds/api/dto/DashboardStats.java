@@ -9,6 +9,8 @@
  */
 package org.openmrs.module.cds.api.dto;
 
+import java.util.Date;
+
 /**
  * Data Transfer Object for dashboard statistics
  */
@@ -22,6 +24,10 @@ public class DashboardStats {
 	
 	private int pendingActionsCount;
 	
+	private int totalActivePatients;
+	
+	private Date asOf;
+	
 	public DashboardStats() {
 	}
 	
@@ -63,4 +69,24 @@ public class DashboardStats {
 	public void setPendingActionsCount(int pendingActionsCount) {
 		this.pendingActionsCount = pendingActionsCount;
 	}
+	
+	public int getTotalActivePatients() {
+		return totalActivePatients;
+	}
+	
+	public void setTotalActivePatients(int totalActivePatients) {
+		this.totalActivePatients = totalActivePatients;
+	}
+	
+	/**
+	 * When these counts were computed, if they are earlier counts served because the cohort
+	 * queries timed out; null when they were computed for this request
+	 */
+	public Date getAsOf() {
+		return asOf;
+	}
+	
+	public void setAsOf(Date asOf) {
+		this.asOf = asOf;
+	}
 }
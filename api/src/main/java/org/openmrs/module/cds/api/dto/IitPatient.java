@@ -0,0 +1,52 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api.dto;
+
+import java.util.Date;
+
+import org.openmrs.module.cds.api.IitBucket;
+
+/**
+ * One patient of the IIT cohort: the latest appointment, how many whole days it is overdue and the
+ * resulting risk tier
+ */
+public class IitPatient {
+
+	private final Integer patientId;
+
+	private final Date latestAppointmentDate;
+
+	private final int daysOverdue;
+
+	private final IitBucket bucket;
+
+	public IitPatient(Integer patientId, Date latestAppointmentDate, int daysOverdue) {
+		this.patientId = patientId;
+		this.latestAppointmentDate = latestAppointmentDate;
+		this.daysOverdue = daysOverdue;
+		this.bucket = IitBucket.forDaysOverdue(daysOverdue);
+	}
+
+	public Integer getPatientId() {
+		return patientId;
+	}
+
+	public Date getLatestAppointmentDate() {
+		return latestAppointmentDate;
+	}
+
+	public int getDaysOverdue() {
+		return daysOverdue;
+	}
+
+	public IitBucket getBucket() {
+		return bucket;
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api.dto;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openmrs.module.cds.api.IitBucket;
+
+/**
+ * The IIT cohort with each patient's latest appointment, days overdue and risk tier, computed from
+ * one pass over the latest appointments. Patients are kept in ID order so the IIT list can page
+ * the result by patient ID like the other cohorts.
+ */
+public class IitResult {
+
+	private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+	private final Date computedAt;
+
+	private final int lookbackDays;
+
+	private final List<IitPatient> patients;
+
+	private final Map<IitBucket, Integer> bucketCounts = new EnumMap<IitBucket, Integer>(IitBucket.class);
+
+	private IitResult(Date computedAt, int lookbackDays, List<IitPatient> patients) {
+		this.computedAt = computedAt;
+		this.lookbackDays = lookbackDays;
+		this.patients = Collections.unmodifiableList(patients);
+		for (IitBucket bucket : IitBucket.values()) {
+			bucketCounts.put(bucket, 0);
+		}
+		for (IitPatient patient : patients) {
+			bucketCounts.put(patient.getBucket(), bucketCounts.get(patient.getBucket()) + 1);
+		}
+	}
+
+	/**
+	 * Builds the result from each IIT patient's latest appointment date. Days overdue are counted
+	 * between the start of the appointment day and the start of today, so an appointment yesterday
+	 * is one day overdue.
+	 */
+	public static IitResult of(Date computedAt, int lookbackDays, Map<Integer, Date> latestAppointments) {
+		long today = startOfDay(computedAt);
+		List<IitPatient> patients = new ArrayList<IitPatient>(latestAppointments.size());
+		for (Map.Entry<Integer, Date> entry : new TreeMap<Integer, Date>(latestAppointments).entrySet()) {
+			Date appointment = entry.getValue();
+			int daysOverdue = appointment == null ? 0 : (int) Math.round((today - startOfDay(appointment))
+			        / (double) DAY_MILLIS);
+			patients.add(new IitPatient(entry.getKey(), appointment, daysOverdue));
+		}
+		return new IitResult(computedAt, lookbackDays, patients);
+	}
+
+	public Date getComputedAt() {
+		return computedAt;
+	}
+
+	public int getLookbackDays() {
+		return lookbackDays;
+	}
+
+	/**
+	 * All patients in ID order
+	 */
+	public List<IitPatient> getPatients() {
+		return patients;
+	}
+
+	public List<Integer> getPatientIds() {
+		List<Integer> ids = new ArrayList<Integer>(patients.size());
+		for (IitPatient patient : patients) {
+			ids.add(patient.getPatientId());
+		}
+		return ids;
+	}
+
+	public int size() {
+		return patients.size();
+	}
+
+	/**
+	 * Number of patients in each bucket, including empty buckets, in bucket order
+	 */
+	public Map<IitBucket, Integer> getBucketCounts() {
+		return Collections.unmodifiableMap(bucketCounts);
+	}
+
+	public int getCount(IitBucket bucket) {
+		return bucketCounts.get(bucket);
+	}
+
+	public List<IitPatient> getPatients(IitBucket bucket) {
+		List<IitPatient> result = new ArrayList<IitPatient>(getCount(bucket));
+		for (IitPatient patient : patients) {
+			if (patient.getBucket() == bucket) {
+				result.add(patient);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Up to limit patients with an ID greater than afterPatientId (null for the first page)
+	 */
+	public List<IitPatient> page(Integer afterPatientId, int limit) {
+		int from = 0;
+		if (afterPatientId != null) {
+			int low = 0;
+			int high = patients.size();
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (patients.get(mid).getPatientId() <= afterPatientId) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			from = low;
+		}
+		return patients.subList(from, Math.min(patients.size(), from + Math.max(limit, 0)));
+	}
+
+	private static long startOfDay(Date date) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(date);
+		cal.set(Calendar.HOUR_OF_DAY, 0);
+		cal.set(Calendar.MINUTE, 0);
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+		return cal.getTimeInMillis();
+	}
+}
@@ -9,26 +9,78 @@
  */
 package org.openmrs.module.cds.api.impl;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Obs;
 import org.openmrs.api.APIException;
 import org.openmrs.api.UserService;
+import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.cds.ClinicalDataSystemConfig;
 import org.openmrs.module.cds.Item;
+import org.openmrs.module.cds.api.CdsAppointmentIndex;
+import org.openmrs.module.cds.api.CdsCircuitBreaker;
+import org.openmrs.module.cds.api.CdsCohort;
+import org.openmrs.module.cds.api.CdsCohortCache;
+import org.openmrs.module.cds.api.CdsCohortType;
+import org.openmrs.module.cds.api.CdsConcept;
+import org.openmrs.module.cds.api.CdsConceptNameCache;
+import org.openmrs.module.cds.api.CdsRowHandler;
 import org.openmrs.module.cds.api.ClinicalDataSystemService;
+import org.openmrs.module.cds.api.IntList;
+import org.openmrs.module.cds.api.PatientIdHandler;
 import org.openmrs.module.cds.api.dao.ClinicalDataSystemDao;
+import org.openmrs.module.cds.api.dto.CdsActionCursor;
+import org.openmrs.module.cds.api.dto.CdsActionInsertResult;
 import org.openmrs.module.cds.api.dto.CdsActionRecord;
+import org.openmrs.module.cds.api.dto.CdsActionStatusChange;
+import org.openmrs.module.cds.api.dto.CdsPatientSummary;
 import org.openmrs.module.cds.api.dto.ClientEffortEntry;
+import org.openmrs.module.cds.api.dto.ConceptNameEntry;
+import org.openmrs.module.cds.api.dto.DashboardStats;
+import org.openmrs.module.cds.api.dto.IitResult;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 public class ClinicalDataSystemServiceImpl extends BaseOpenmrsService implements ClinicalDataSystemService {
 	
+	private static final Log log = LogFactory.getLog(ClinicalDataSystemServiceImpl.class);
+	
 	ClinicalDataSystemDao dao;
 	
 	UserService userService;
 	
+	CdsCohortCache cohortCache;
+	
+	CdsAppointmentIndex appointmentIndex;
+	
+	CdsConceptNameCache conceptNameCache;
+	
+	CdsCircuitBreaker circuitBreaker;
+	
+	PlatformTransactionManager transactionManager;
+	
+	private final Object snapshotLock = new Object();
+	
+	private final Object appointmentIndexLock = new Object();
+	
 	/**
 	 * Injected in moduleApplicationContext.xml
 	 */
@@ -43,6 +95,46 @@ public class ClinicalDataSystemServiceImpl extends BaseOpenmrsService implements
 		this.userService = userService;
 	}
 	
+	/**
+	 * Injected in moduleApplicationContext.xml. Without a cache every cohort read goes to the
+	 * snapshots.
+	 */
+	public void setCohortCache(CdsCohortCache cohortCache) {
+		this.cohortCache = cohortCache;
+	}
+	
+	/**
+	 * Injected in moduleApplicationContext.xml. Without an index cohorts are read from their
+	 * snapshots.
+	 */
+	public void setAppointmentIndex(CdsAppointmentIndex appointmentIndex) {
+		this.appointmentIndex = appointmentIndex;
+	}
+	
+	/**
+	 * Injected in moduleApplicationContext.xml. Without a cache concept names are read on every
+	 * call.
+	 */
+	public void setConceptNameCache(CdsConceptNameCache conceptNameCache) {
+		this.conceptNameCache = conceptNameCache;
+	}
+	
+	/**
+	 * Injected in moduleApplicationContext.xml. Without a breaker a timed out dashboard or cohort
+	 * query fails the request.
+	 */
+	public void setCircuitBreaker(CdsCircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+	
+	/**
+	 * Injected in moduleApplicationContext.xml, to write cohort snapshots in their own transaction.
+	 * Without it snapshots are written in the caller's transaction.
+	 */
+	public void setTransactionManager(PlatformTransactionManager transactionManager) {
+		this.transactionManager = transactionManager;
+	}
+	
 	@Override
 	public Item getItemByUuid(String uuid) throws APIException {
 		return dao.getItemByUuid(uuid);
@@ -61,30 +153,457 @@ public class ClinicalDataSystemServiceImpl extends BaseOpenmrsService implements
 	
 	@Override
 	public List<Integer> getUpcomingAppointmentPatientIds(int withinDays) throws APIException {
-		Date now = new Date();
-		Date until = addDays(now, withinDays);
-		return dao.getUpcomingAppointmentPatientIds(now, until);
+		if (cohortCache != null) {
+			return getCohort(CdsCohortType.UPCOMING, withinDays).asList();
+		}
+		return getCohortPatientIds(CdsCohortType.UPCOMING, withinDays);
 	}
 	
 	@Override
 	public List<Integer> getMissedAppointmentPatientIds(int lastDays) throws APIException {
-		Date now = new Date();
-		Date from = addDays(now, -lastDays);
-		return dao.getMissedAppointmentPatientIds(from, now);
+		if (cohortCache != null) {
+			return getCohort(CdsCohortType.MISSED, lastDays).asList();
+		}
+		return getCohortPatientIds(CdsCohortType.MISSED, lastDays);
 	}
 	
 	@Override
 	public List<Integer> getIITPatientIds(int lookbackDays) throws APIException {
+		if (cohortCache != null) {
+			return getCohort(CdsCohortType.IIT, lookbackDays).asList();
+		}
+		return getCohortPatientIds(CdsCohortType.IIT, lookbackDays);
+	}
+	
+	@Override
+	public List<Integer> getUpcomingAppointmentPatientIds(int withinDays, Integer afterPatientId, int limit)
+	        throws APIException {
+		return getCohortPatientIdsPage(CdsCohortType.UPCOMING, withinDays, afterPatientId, limit);
+	}
+	
+	@Override
+	public List<Integer> getMissedAppointmentPatientIds(int lastDays, Integer afterPatientId, int limit)
+	        throws APIException {
+		return getCohortPatientIdsPage(CdsCohortType.MISSED, lastDays, afterPatientId, limit);
+	}
+	
+	@Override
+	public List<Integer> getIITPatientIds(int lookbackDays, Integer afterPatientId, int limit) throws APIException {
+		return getCohortPatientIdsPage(CdsCohortType.IIT, lookbackDays, afterPatientId, limit);
+	}
+	
+	@Override
+	public CdsCohort getCohort(final CdsCohortType cohort, final int days) throws APIException {
+		if (cohortCache == null) {
+			return loadCohort(cohort, days);
+		}
+		return cohortCache.get(cohort, days, new CdsCohortCache.Loader() {
+			
+			@Override
+			public CdsCohort load() {
+				return loadCohort(cohort, days);
+			}
+		});
+	}
+	
+	@Override
+	public void invalidateCohorts(Set<CdsCohortType> cohorts) throws APIException {
+		if (cohorts == null || cohorts.isEmpty()) {
+			return;
+		}
+		if (cohortCache != null) {
+			cohortCache.invalidate(cohorts);
+		}
+		List<String> names = new ArrayList<String>(cohorts.size());
+		for (CdsCohortType cohort : cohorts) {
+			names.add(cohort.name());
+		}
+		dao.expireCohortSnapshots(names, new Date(0));
+	}
+	
+	@Override
+	public void applyCohortChanges(Collection<Integer> patientIds, Set<CdsCohortType> cohorts) throws APIException {
+		if (cohorts == null || cohorts.isEmpty()) {
+			return;
+		}
+		if (patientIds != null && !patientIds.isEmpty()) {
+			refreshAppointmentIndex(patientIds);
+			if (cohorts.contains(CdsCohortType.MISSED) && (appointmentIndex == null || !appointmentIndex.isReady())) {
+				refreshVisitSummaries(patientIds);
+			}
+		}
+		// last, so a read between the reload and the invalidation cannot cache the old membership
+		invalidateCohorts(cohorts);
+	}
+	
+	@Override
+	public Set<Integer> rebuildAppointmentIndex() throws APIException {
+		if (appointmentIndex == null) {
+			return Collections.emptySet();
+		}
+		long start = System.currentTimeMillis();
+		appointmentIndex.beginRebuild();
+		Set<Integer> changed;
+		try {
+			changed = appointmentIndex.finishRebuild(dao.getAppointmentIndexEntries(null));
+		}
+		catch (RuntimeException e) {
+			appointmentIndex.cancelRebuild();
+			throw e;
+		}
+		// the summary is only kept up to date while there is no index
+		dao.setVisitSummaryReady(false);
+		log.info("Built CDS appointment index of " + appointmentIndex.getPatientCount() + " patients in "
+		        + (System.currentTimeMillis() - start) + " ms, " + changed.size() + " patients changed meanwhile");
+		return changed;
+	}
+	
+	@Override
+	public void refreshAppointmentIndex(Collection<Integer> patientIds) throws APIException {
+		if (appointmentIndex == null || patientIds == null || patientIds.isEmpty()) {
+			return;
+		}
+		// reading and applying under one lock keeps a slower, older reload from overwriting a newer one
+		synchronized (appointmentIndexLock) {
+			appointmentIndex.update(patientIds, dao.getAppointmentIndexEntries(patientIds));
+		}
+	}
+	
+	@Override
+	public void rebuildVisitSummaries() throws APIException {
+		if (appointmentIndex != null && appointmentIndex.isReady()) {
+			log.info("CDS appointment index is ready, not building the visit summary");
+			return;
+		}
+		long start = System.currentTimeMillis();
+		int rows = dao.refreshVisitSummaries(null);
+		log.info("Built CDS visit summary of " + rows + " patients in " + (System.currentTimeMillis() - start) + " ms");
+	}
+	
+	@Override
+	public void refreshVisitSummaries(Collection<Integer> patientIds) throws APIException {
+		if (patientIds == null || patientIds.isEmpty()) {
+			return;
+		}
+		dao.refreshVisitSummaries(patientIds);
+	}
+	
+	/**
+	 * Scans the appointment index once it is built; until then reads the cohort from its snapshot,
+	 * recomputing and saving the snapshot when it is stale. While the raw query times out the
+	 * cohort's last result is served and not saved.
+	 */
+	private CdsCohort loadCohort(final CdsCohortType cohort, final int days) {
+		final Date now = new Date();
+		if (appointmentIndex != null && appointmentIndex.isReady()) {
+			return appointmentIndex.getCohort(cohort, now, days);
+		}
+		Date computedAt = dao.getCohortSnapshotComputedAt(cohort.name(), days);
+		if (computedAt != null && !computedAt.before(getSnapshotFreshAfter(now))) {
+			return CdsCohort.of(dao.getCohortSnapshotPatientIdList(cohort.name(), days));
+		}
+		
+		String key = getCohortQueryKey(cohort, days);
+		CdsCircuitBreaker.Result<CdsCohort> result = executeGuarded(key, new CdsCircuitBreaker.Call<CdsCohort>() {
+			
+			@Override
+			public CdsCohort call() {
+				IntList patientIds = dao.getCohortPatientIdList(cohort, now, addDays(now, days), addDays(now, -days),
+				    addDays(now, -days));
+				return patientIds != null ? CdsCohort.of(patientIds) : null;
+			}
+		});
+		if (result.getValue() == null) {
+			return CdsCohort.empty();
+		}
+		if (!result.isStale()) {
+			saveSnapshot(cohort, days, result.getValue().asList(), now);
+		}
+		return result.getValue();
+	}
+	
+	@Override
+	public CdsCohort getUpcomingAppointmentCohort(int withinDays) throws APIException {
+		return getCohort(CdsCohortType.UPCOMING, withinDays);
+	}
+	
+	@Override
+	public CdsCohort getMissedAppointmentCohort(int lastDays) throws APIException {
+		return getCohort(CdsCohortType.MISSED, lastDays);
+	}
+	
+	@Override
+	public CdsCohort getIITCohort(int lookbackDays) throws APIException {
+		return getCohort(CdsCohortType.IIT, lookbackDays);
+	}
+	
+	@Override
+	public IitResult getIITResult(final int lookbackDays) throws APIException {
+		if (cohortCache == null) {
+			return loadIITResult(lookbackDays);
+		}
+		return cohortCache.getIitResult(lookbackDays, new CdsCohortCache.IitLoader() {
+			
+			@Override
+			public IitResult load() {
+				return loadIITResult(lookbackDays);
+			}
+		});
+	}
+	
+	private IitResult loadIITResult(final int lookbackDays) {
+		final Date now = new Date();
+		if (appointmentIndex != null && appointmentIndex.isReady()) {
+			return IitResult.of(now, lookbackDays,
+			    appointmentIndex.getLatestAppointments(CdsCohortType.IIT, now, lookbackDays));
+		}
+		return executeGuarded("iitResult:" + lookbackDays, new CdsCircuitBreaker.Call<IitResult>() {
+			
+			@Override
+			public IitResult call() {
+				return IitResult.of(now, lookbackDays, dao.getIITLatestAppointments(addDays(now, -lookbackDays), now));
+			}
+		}).getValue();
+	}
+	
+	@Override
+	public CdsCohort getPendingActionCohort() throws APIException {
+		return CdsCohort.of(dao.getPendingActionPatientIds());
+	}
+	
+	/**
+	 * A stream cannot be answered with an earlier result, so while the raw query times out or its
+	 * breaker is open the stream fails instead
+	 */
+	@Override
+	public int streamCohort(final CdsCohortType cohort, final int days, final PatientIdHandler handler)
+	        throws APIException {
+		if (appointmentIndex != null && appointmentIndex.isReady()) {
+			int count = 0;
+			for (int patientId : appointmentIndex.getCohort(cohort, new Date(), days).toArray()) {
+				count++;
+				if (!handler.handle(patientId)) {
+					break;
+				}
+			}
+			return count;
+		}
+		final int fetchSize = ClinicalDataSystemConfig.getIntegerGlobalProperty(
+		    ClinicalDataSystemConfig.GP_STREAM_FETCH_SIZE, ClinicalDataSystemConfig.DEFAULT_STREAM_FETCH_SIZE);
+		final Date now = new Date();
+		Date computedAt = dao.getCohortSnapshotComputedAt(cohort.name(), days);
+		if (computedAt != null && !computedAt.before(getSnapshotFreshAfter(now))) {
+			return dao.streamCohortSnapshotPatientIds(cohort.name(), days, fetchSize, handler);
+		}
+		String key = "stream:" + getCohortQueryKey(cohort, days);
+		CdsCircuitBreaker.Result<Integer> result = executeGuarded(key, new CdsCircuitBreaker.Call<Integer>() {
+			
+			@Override
+			public Integer call() {
+				return dao.streamCohortPatientIds(cohort, now, addDays(now, days), addDays(now, -days), addDays(now,
+				    -days), fetchSize, handler);
+			}
+		});
+		if (result.isStale()) {
+			throw new CdsCircuitBreaker.OpenException("The query for " + key
+			        + " timed out or is paused after repeated timeouts");
+		}
+		return result.getValue();
+	}
+	
+	@Override
+	public int streamCdsActions(String status, CdsRowHandler<CdsActionRecord> handler) throws APIException {
+		int fetchSize = ClinicalDataSystemConfig.getIntegerGlobalProperty(ClinicalDataSystemConfig.GP_STREAM_FETCH_SIZE,
+		    ClinicalDataSystemConfig.DEFAULT_STREAM_FETCH_SIZE);
+		return dao.streamCdsActions(status, fetchSize, handler);
+	}
+	
+	@Override
+	public int getUpcomingAppointmentCount(int withinDays) throws APIException {
+		if (appointmentIndex != null && appointmentIndex.isReady()) {
+			return getCohort(CdsCohortType.UPCOMING, withinDays).size();
+		}
+		Date now = new Date();
+		return dao.countUpcomingAppointmentPatients(now, addDays(now, withinDays));
+	}
+	
+	@Override
+	public int getMissedAppointmentCount(int lastDays) throws APIException {
+		if (appointmentIndex != null && appointmentIndex.isReady()) {
+			return getCohort(CdsCohortType.MISSED, lastDays).size();
+		}
+		Date now = new Date();
+		return dao.countMissedAppointmentPatients(addDays(now, -lastDays), now);
+	}
+	
+	@Override
+	public int getIITCount(int lookbackDays) throws APIException {
+		if (appointmentIndex != null && appointmentIndex.isReady()) {
+			return getCohort(CdsCohortType.IIT, lookbackDays).size();
+		}
 		Date now = new Date();
-		Date from = addDays(now, -lookbackDays);
-		return dao.getIITPatientIds(from, now);
+		return dao.countIITPatients(addDays(now, -lookbackDays), now);
+	}
+	
+	@Override
+	public int getPendingCdsActionCount() throws APIException {
+		return dao.countPendingCdsActions();
+	}
+	
+	@Override
+	public int getPendingCdsActionCount(Integer assignedToUserId) throws APIException {
+		return dao.countPendingCdsActions(assignedToUserId);
+	}
+	
+	@Override
+	public Map<Integer, Integer> getPendingActionCountsByAssignee() throws APIException {
+		return dao.getPendingActionCountsByAssignee();
+	}
+	
+	@Override
+	public void rebuildActionQueueCounts() throws APIException {
+		long start = System.currentTimeMillis();
+		int assignees = dao.rebuildActionQueueCounts();
+		log.info("Counted pending CDS actions for " + assignees + " assignees in " + (System.currentTimeMillis() - start)
+		        + " ms");
+	}
+	
+	@Override
+	public DashboardStats getDashboardStats(final int upcomingDays, final int missedDays, final int iitDays)
+	        throws APIException {
+		if (appointmentIndex != null && appointmentIndex.isReady()) {
+			return getDashboardStatsFromIndex(upcomingDays, missedDays, iitDays);
+		}
+		if (circuitBreaker == null) {
+			return countDashboardStats(upcomingDays, missedDays, iitDays);
+		}
+		CdsCircuitBreaker.Result<DashboardStats> result = circuitBreaker.execute("dashboardStats:" + upcomingDays + ":"
+		        + missedDays + ":" + iitDays, new CdsCircuitBreaker.Call<DashboardStats>() {
+			
+			@Override
+			public DashboardStats call() {
+				return countDashboardStats(upcomingDays, missedDays, iitDays);
+			}
+		});
+		if (!result.isStale()) {
+			return result.getValue();
+		}
+		// copied, so the breaker's last result is never marked with an "as of" time
+		DashboardStats last = result.getValue();
+		DashboardStats stats = new DashboardStats(last.getIitCount(), last.getMissedCount(), last.getUpcomingCount(),
+		        last.getPendingActionsCount());
+		stats.setTotalActivePatients(last.getTotalActivePatients());
+		stats.setAsOf(result.getAsOf());
+		return stats;
+	}
+	
+	/**
+	 * Dashboard counts from the fresh snapshots, recounting the stale cohorts with the cohort
+	 * queries
+	 */
+	private DashboardStats countDashboardStats(int upcomingDays, int missedDays, int iitDays) {
+		Date now = new Date();
+		Map<String, Integer> counts = dao.getDashboardCountsFromSnapshots(upcomingDays, missedDays, iitDays,
+		    getSnapshotFreshAfter(now));
+		
+		Set<CdsCohortType> stale = EnumSet.noneOf(CdsCohortType.class);
+		for (CdsCohortType cohort : CdsCohortType.values()) {
+			if (!counts.containsKey(cohort.name())) {
+				stale.add(cohort);
+			}
+		}
+		Map<CdsCohortType, Integer> recounted = dao.countDashboardCohorts(stale, now, addDays(now, upcomingDays),
+		    addDays(now, -missedDays), addDays(now, -iitDays));
+		for (Map.Entry<CdsCohortType, Integer> entry : recounted.entrySet()) {
+			counts.put(entry.getKey().name(), entry.getValue());
+		}
+		
+		DashboardStats stats = new DashboardStats(getCount(counts, CdsCohortType.IIT.name()), getCount(counts,
+		    CdsCohortType.MISSED.name()), getCount(counts, CdsCohortType.UPCOMING.name()), getCount(counts,
+		    ClinicalDataSystemDao.PENDING_ACTIONS_COHORT));
+		stats.setTotalActivePatients(dao.countDistinctDashboardPatients(stale, upcomingDays, missedDays, iitDays, now,
+		    addDays(now, upcomingDays), addDays(now, -missedDays), addDays(now, -iitDays)));
+		return stats;
+	}
+	
+	@Override
+	public List<CdsPatientSummary> getPatientSummaries(Collection<Integer> patientIds) throws APIException {
+		List<CdsPatientSummary> summaries = new ArrayList<CdsPatientSummary>();
+		if (patientIds == null || patientIds.isEmpty()) {
+			return summaries;
+		}
+		Map<Integer, CdsPatientSummary> byId = dao.getPatientSummaries(new LinkedHashSet<Integer>(patientIds), new Date());
+		for (Integer patientId : patientIds) {
+			CdsPatientSummary summary = byId.remove(patientId);
+			if (summary != null) {
+				summaries.add(summary);
+			}
+		}
+		return summaries;
+	}
+	
+	@Override
+	public Map<CdsConcept, Obs> getLatestObs(Integer patientId, Set<CdsConcept> concepts) throws APIException {
+		if (patientId == null || concepts == null || concepts.isEmpty()) {
+			return new EnumMap<CdsConcept, Obs>(CdsConcept.class);
+		}
+		return dao.getLatestObs(patientId, concepts);
+	}
+	
+	@Override
+	public boolean hasObs(Integer patientId, CdsConcept concept) throws APIException {
+		if (patientId == null || concept == null) {
+			return false;
+		}
+		return dao.hasObs(patientId, concept);
 	}
 	
 	@Override
 	public List<ClientEffortEntry> getClientEffort(Integer patientId) throws APIException {
 		if (patientId == null)
 			return new ArrayList<ClientEffortEntry>();
-		return dao.getClientEffort(patientId);
+		List<ClientEffortEntry> entries = dao.getClientEffort(patientId);
+		if (entries == null) {
+			return null;
+		}
+		
+		Set<Integer> statusConceptIds = new LinkedHashSet<Integer>();
+		for (ClientEffortEntry entry : entries) {
+			if (entry.getStatusConceptId() != null) {
+				statusConceptIds.add(entry.getStatusConceptId());
+			}
+		}
+		if (statusConceptIds.isEmpty()) {
+			return entries;
+		}
+		if (conceptNameCache != null && !conceptNameCache.isPreloaded(CdsConcept.TRACKING_STATUS)) {
+			conceptNameCache.preload(CdsConcept.TRACKING_STATUS, dao.getConceptAnswerNames(CdsConcept.TRACKING_STATUS));
+		}
+		Map<Integer, String> names = getConceptNames(statusConceptIds, Context.getLocale());
+		for (ClientEffortEntry entry : entries) {
+			if (entry.getStatusConceptId() != null) {
+				entry.setStatus(names.get(entry.getStatusConceptId()));
+			}
+		}
+		return entries;
+	}
+	
+	@Override
+	public Map<Integer, String> getConceptNames(Collection<Integer> conceptIds, Locale locale) throws APIException {
+		if (conceptIds == null || conceptIds.isEmpty()) {
+			return new HashMap<Integer, String>();
+		}
+		CdsConceptNameCache.Loader loader = new CdsConceptNameCache.Loader() {
+			
+			@Override
+			public List<ConceptNameEntry> load(Collection<Integer> missing) {
+				return dao.getConceptNames(missing);
+			}
+		};
+		if (conceptNameCache == null) {
+			return new CdsConceptNameCache().getNames(conceptIds, locale, loader);
+		}
+		return conceptNameCache.getNames(conceptIds, locale, loader);
 	}
 	
 	@Override
@@ -95,17 +614,224 @@ public class ClinicalDataSystemServiceImpl extends BaseOpenmrsService implements
 		dao.insertCdsAction(action);
 	}
 	
+	@Override
+	public CdsActionInsertResult addCdsActions(List<CdsActionRecord> actions) throws APIException {
+		if (actions == null || actions.isEmpty()) {
+			return new CdsActionInsertResult(0);
+		}
+		return dao.insertCdsActions(actions);
+	}
+	
 	@Override
 	public List<CdsActionRecord> getPendingCdsActions() throws APIException {
 		return dao.getPendingCdsActions();
 	}
 	
+	@Override
+	public List<CdsActionRecord> getPendingCdsActions(Integer assignedToUserId, Date beforeDateCreated,
+	        Integer beforeActionId, int limit) throws APIException {
+		return dao.getPendingCdsActions(assignedToUserId, beforeDateCreated, beforeActionId, limit);
+	}
+	
+	@Override
+	public List<CdsActionRecord> getActionQueueForUser(Integer userId, CdsActionCursor cursor, int limit)
+	        throws APIException {
+		if (userId == null) {
+			throw new APIException("userId is required");
+		}
+		return dao.getPendingCdsActions(userId, cursor != null ? cursor.getDateCreated() : null,
+		    cursor != null ? cursor.getActionId() : null, limit);
+	}
+	
 	@Override
 	public void updateCdsActionStatus(Integer actionId, String status) throws APIException {
 		if (actionId == null) {
 			throw new APIException("actionId is required");
 		}
-		dao.updateCdsActionStatus(actionId, status);
+		dao.updateCdsActionStatus(actionId, status, new Date());
+	}
+	
+	@Override
+	public List<Integer> updateCdsActionStatuses(Map<Integer, CdsActionStatusChange> changes) throws APIException {
+		if (changes == null || changes.isEmpty()) {
+			return new ArrayList<Integer>();
+		}
+		for (Map.Entry<Integer, CdsActionStatusChange> entry : changes.entrySet()) {
+			if (entry.getKey() == null || entry.getValue() == null) {
+				throw new APIException("actionId and status change are required");
+			}
+		}
+		return dao.updateCdsActionStatuses(changes, new Date());
+	}
+	
+	/**
+	 * Answers a cohort from its snapshot, running the raw cohort query only when the snapshot is
+	 * missing or older than {@link ClinicalDataSystemConfig#GP_COHORT_SNAPSHOT_MAX_AGE_MINUTES}
+	 */
+	private List<Integer> getCohortPatientIds(CdsCohortType cohort, int days) {
+		Date now = new Date();
+		Date computedAt = dao.getCohortSnapshotComputedAt(cohort.name(), days);
+		if (computedAt != null && !computedAt.before(getSnapshotFreshAfter(now))) {
+			return dao.getCohortSnapshotPatientIds(cohort.name(), days);
+		}
+		
+		CdsCircuitBreaker.Result<CdsCohort> result = queryCohortGuarded(cohort, days, now);
+		List<Integer> patientIds = result.getValue() != null ? result.getValue().asList() : null;
+		if (!result.isStale()) {
+			saveSnapshot(cohort, days, patientIds, now);
+		}
+		return patientIds;
+	}
+	
+	private DashboardStats getDashboardStatsFromIndex(int upcomingDays, int missedDays, int iitDays) {
+		CdsCohort upcoming = getCohort(CdsCohortType.UPCOMING, upcomingDays);
+		CdsCohort missed = getCohort(CdsCohortType.MISSED, missedDays);
+		CdsCohort iit = getCohort(CdsCohortType.IIT, iitDays);
+		
+		DashboardStats stats = new DashboardStats(iit.size(), missed.size(), upcoming.size(), dao.countPendingCdsActions());
+		stats.setTotalActivePatients(CdsCohort.unionAll(upcoming, missed, iit).size());
+		return stats;
+	}
+	
+	private int getCount(Map<String, Integer> counts, String key) {
+		Integer count = counts.get(key);
+		return count != null ? count : 0;
+	}
+	
+	/**
+	 * Pages a cohort out of the appointment index once it is built, or out of the cohort cache when
+	 * the cohort is already cached. Otherwise pages it off its snapshot, so every page is an index
+	 * range scan on the snapshot members rather than a load of the whole cohort. A stale snapshot is
+	 * recomputed first; if it cannot be saved the raw query is paged instead. While the raw query
+	 * times out the cohort's last result is paged in memory.
+	 */
+	private List<Integer> getCohortPatientIdsPage(CdsCohortType cohort, int days, Integer afterPatientId, int limit) {
+		if (appointmentIndex != null && appointmentIndex.isReady()) {
+			return getCohort(cohort, days).page(afterPatientId, limit);
+		}
+		CdsCohort cached = cohortCache != null ? cohortCache.getIfPresent(cohort, days) : null;
+		if (cached != null) {
+			return cached.page(afterPatientId, limit);
+		}
+		
+		Date now = new Date();
+		Date computedAt = dao.getCohortSnapshotComputedAt(cohort.name(), days);
+		if (computedAt == null || computedAt.before(getSnapshotFreshAfter(now))) {
+			CdsCircuitBreaker.Result<CdsCohort> result = queryCohortGuarded(cohort, days, now);
+			if (result.isStale()) {
+				return result.getValue() != null ? result.getValue().page(afterPatientId, limit) : new ArrayList<Integer>();
+			}
+			List<Integer> patientIds = result.getValue() != null ? result.getValue().asList() : null;
+			if (!saveSnapshot(cohort, days, patientIds, now)) {
+				switch (cohort) {
+					case UPCOMING:
+						return dao.getUpcomingAppointmentPatientIds(now, addDays(now, days), afterPatientId, limit);
+					case MISSED:
+						return dao.getMissedAppointmentPatientIds(addDays(now, -days), now, afterPatientId, limit);
+					default:
+						return dao.getIITPatientIds(addDays(now, -days), now, afterPatientId, limit);
+				}
+			}
+		}
+		return dao.getCohortSnapshotPatientIds(cohort.name(), days, afterPatientId, limit);
+	}
+	
+	/**
+	 * Writes the snapshot in a transaction of its own, so a failure rolls back the whole snapshot and
+	 * leaves the caller's (read-only) session usable, and the caller still returns the fresh result.
+	 * Writers are serialized and a snapshot newer than this one is kept, so two requests recomputing
+	 * the same cohort do not race on its rows.
+	 */
+	private boolean saveSnapshot(final CdsCohortType cohort, final int days, final List<Integer> patientIds,
+	        final Date computedAt) {
+		if (patientIds == null) {
+			return false;
+		}
+		try {
+			synchronized (snapshotLock) {
+				if (transactionManager == null) {
+					writeSnapshot(cohort, days, patientIds, computedAt);
+				} else {
+					TransactionTemplate template = new TransactionTemplate(transactionManager);
+					template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+					template.execute(new TransactionCallbackWithoutResult() {
+						
+						@Override
+						protected void doInTransactionWithoutResult(TransactionStatus status) {
+							writeSnapshot(cohort, days, patientIds, computedAt);
+						}
+					});
+				}
+			}
+			return true;
+		}
+		catch (RuntimeException e) {
+			log.warn("Unable to save " + cohort + " snapshot for " + days + " days: " + e.getMessage());
+			return false;
+		}
+	}
+	
+	private void writeSnapshot(CdsCohortType cohort, int days, List<Integer> patientIds, Date computedAt) {
+		Date existing = dao.getCohortSnapshotComputedAt(cohort.name(), days);
+		if (existing != null && !existing.before(computedAt)) {
+			return;
+		}
+		dao.saveCohortSnapshot(cohort.name(), days, patientIds, computedAt);
+	}
+	
+	/**
+	 * Runs the raw query of a cohort through the circuit breaker, sharing the breaker key with
+	 * {@link #loadCohort}. A stale result is an earlier membership and must not be saved as a
+	 * snapshot.
+	 */
+	private CdsCircuitBreaker.Result<CdsCohort> queryCohortGuarded(final CdsCohortType cohort, final int days,
+	        final Date now) {
+		return executeGuarded(getCohortQueryKey(cohort, days), new CdsCircuitBreaker.Call<CdsCohort>() {
+			
+			@Override
+			public CdsCohort call() {
+				List<Integer> patientIds = queryCohort(cohort, days, now);
+				return patientIds != null ? CdsCohort.of(patientIds) : null;
+			}
+		});
+	}
+	
+	/**
+	 * Runs a cohort query through the circuit breaker, so a query that keeps timing out is paused and
+	 * answered with its last result like the dashboard counts. Without a breaker the query just runs.
+	 */
+	private <T> CdsCircuitBreaker.Result<T> executeGuarded(String key, CdsCircuitBreaker.Call<T> call) {
+		if (circuitBreaker == null) {
+			return CdsCircuitBreaker.unguarded(call);
+		}
+		return circuitBreaker.execute(key, call);
+	}
+	
+	private static String getCohortQueryKey(CdsCohortType cohort, int days) {
+		return "cohort:" + cohort + ":" + days;
+	}
+	
+	private List<Integer> queryCohort(CdsCohortType cohort, int days, Date now) {
+		switch (cohort) {
+			case UPCOMING:
+				return dao.getUpcomingAppointmentPatientIds(now, addDays(now, days));
+			case MISSED:
+				return dao.getMissedAppointmentPatientIds(addDays(now, -days), now);
+			case IIT:
+				return dao.getIITPatientIds(addDays(now, -days), now);
+			default:
+				throw new APIException("Unknown cohort: " + cohort);
+		}
+	}
+	
+	/**
+	 * Snapshots computed before the returned date are stale
+	 */
+	private Date getSnapshotFreshAfter(Date now) {
+		int maxAgeMinutes = ClinicalDataSystemConfig.getIntegerGlobalProperty(
+		    ClinicalDataSystemConfig.GP_COHORT_SNAPSHOT_MAX_AGE_MINUTES,
+		    ClinicalDataSystemConfig.DEFAULT_COHORT_SNAPSHOT_MAX_AGE_MINUTES);
+		return new Date(now.getTime() - maxAgeMinutes * 60000L);
 	}
 	
 	private Date addDays(Date base, int days) {
@@ -0,0 +1,133 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call count, error count, returned rows and a latency histogram for one instrumented method.
+ * Recording only touches LongAdders and an AtomicLongArray, so it never blocks.
+ * <p>
+ * Latencies are bucketed in microseconds with four buckets per power of two, so a percentile is
+ * reported with at most 25% error.
+ */
+public class CdsMethodStats {
+
+	static final int BUCKETS = 132;
+
+	private final String name;
+
+	private final LongAdder calls = new LongAdder();
+
+	private final LongAdder errors = new LongAdder();
+
+	private final LongAdder rows = new LongAdder();
+
+	private final LongAdder totalMicros = new LongAdder();
+
+	private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+	public CdsMethodStats(String name) {
+		this.name = name;
+	}
+
+	public void record(long elapsedNanos, int rowCount, boolean error) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+		calls.increment();
+		totalMicros.add(micros);
+		if (rowCount > 0) {
+			rows.add(rowCount);
+		}
+		if (error) {
+			errors.increment();
+		}
+		histogram.incrementAndGet(bucketFor(micros));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCalls() {
+		return calls.sum();
+	}
+
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	public long getRows() {
+		return rows.sum();
+	}
+
+	public double getMeanMillis() {
+		long count = calls.sum();
+		return count == 0 ? 0 : totalMicros.sum() / 1000.0 / count;
+	}
+
+	public double getP50Millis() {
+		return getPercentileMillis(0.50);
+	}
+
+	public double getP95Millis() {
+		return getPercentileMillis(0.95);
+	}
+
+	public double getP99Millis() {
+		return getPercentileMillis(0.99);
+	}
+
+	/**
+	 * Upper bound, in milliseconds, of the bucket holding the given percentile (0..1)
+	 */
+	public double getPercentileMillis(double percentile) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = histogram.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return upperBoundMicros(i) / 1000.0;
+			}
+		}
+		return upperBoundMicros(BUCKETS - 1) / 1000.0;
+	}
+
+	static int bucketFor(long micros) {
+		if (micros < 4) {
+			return (int) Math.max(0, micros);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) ((micros >>> (exponent - 2)) & 3);
+		return Math.min((exponent - 1) * 4 + sub, BUCKETS - 1);
+	}
+
+	static long lowerBoundMicros(int bucket) {
+		if (bucket < 4) {
+			return bucket;
+		}
+		int exponent = bucket / 4 + 1;
+		return (4L + bucket % 4) << (exponent - 2);
+	}
+
+	static long upperBoundMicros(int bucket) {
+		return bucket < BUCKETS - 1 ? lowerBoundMicros(bucket + 1) : Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openmrs.api.context.Context;
+import org.springframework.stereotype.Component;
+
+/**
+ * Registry of per-method CDS metrics. DAO and service calls are recorded by
+ * {@link CdsMetricsInterceptor}; fragment controllers record themselves with {@link #start(String)}.
+ * The admin metrics page lists {@link #getStats()}.
+ */
+@Component("cds.CdsMetrics")
+public class CdsMetrics {
+
+	private final ConcurrentMap<String, CdsMethodStats> stats = new ConcurrentHashMap<String, CdsMethodStats>();
+
+	public void record(String name, long elapsedNanos, int rowCount, boolean error) {
+		getOrCreate(name).record(elapsedNanos, rowCount, error);
+	}
+
+	/**
+	 * Starts timing a call; finish it with {@link Sample#stop()}
+	 */
+	public Sample start(String name) {
+		return new Sample(getOrCreate(name));
+	}
+
+	/**
+	 * Starts timing a call on the registered metrics bean. Used by fragment controllers, which are
+	 * not proxied; returns a sample that records nothing when the module context is not available.
+	 */
+	public static Sample time(String name) {
+		try {
+			return Context.getRegisteredComponent("cds.CdsMetrics", CdsMetrics.class).start(name);
+		}
+		catch (Exception e) {
+			return new Sample(null);
+		}
+	}
+
+	/**
+	 * All methods recorded so far, slowest p95 first
+	 */
+	public List<CdsMethodStats> getStats() {
+		List<CdsMethodStats> list = new ArrayList<CdsMethodStats>(stats.values());
+		Collections.sort(list, new Comparator<CdsMethodStats>() {
+
+			@Override
+			public int compare(CdsMethodStats a, CdsMethodStats b) {
+				return Double.compare(b.getP95Millis(), a.getP95Millis());
+			}
+		});
+		return list;
+	}
+
+	public void reset() {
+		stats.clear();
+	}
+
+	/**
+	 * Returns the number of rows in a method's result, or 0 if it is not a collection or map
+	 */
+	public static int countRows(Object result) {
+		if (result instanceof Collection) {
+			return ((Collection<?>) result).size();
+		}
+		if (result instanceof Map) {
+			return ((Map<?, ?>) result).size();
+		}
+		return 0;
+	}
+
+	private CdsMethodStats getOrCreate(String name) {
+		CdsMethodStats s = stats.get(name);
+		if (s == null) {
+			CdsMethodStats created = new CdsMethodStats(name);
+			s = stats.putIfAbsent(name, created);
+			if (s == null) {
+				s = created;
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * One timed call
+	 */
+	public static class Sample {
+
+		private final CdsMethodStats stats;
+
+		private final long start = System.nanoTime();
+
+		private int rows;
+
+		private boolean error;
+
+		Sample(CdsMethodStats stats) {
+			this.stats = stats;
+		}
+
+		public void setRows(int rows) {
+			this.rows = rows;
+		}
+
+		public void setError() {
+			this.error = true;
+		}
+
+		public void stop() {
+			if (stats != null) {
+				stats.record(System.nanoTime() - start, rows, error);
+			}
+		}
+	}
+}
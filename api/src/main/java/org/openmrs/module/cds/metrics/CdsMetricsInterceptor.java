@@ -0,0 +1,46 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.metrics;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Records latency, rows returned and errors for every call to the proxied bean. Wired around the
+ * CDS DAO and service in moduleApplicationContext.xml.
+ */
+public class CdsMetricsInterceptor implements MethodInterceptor {
+
+	private CdsMetrics metrics;
+
+	public void setMetrics(CdsMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		String name = invocation.getMethod().getDeclaringClass().getSimpleName() + "."
+		        + invocation.getMethod().getName();
+		long start = System.nanoTime();
+		boolean error = false;
+		Object result = null;
+		try {
+			result = invocation.proceed();
+			return result;
+		}
+		catch (Throwable t) {
+			error = true;
+			throw t;
+		}
+		finally {
+			metrics.record(name, System.nanoTime() - start, CdsMetrics.countRows(result), error);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.cds.api.dto.AppointmentIndexEntry;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CdsAppointmentIndex range scans and incremental updates
+ */
+public class CdsAppointmentIndexTest {
+
+	private Date now;
+
+	private CdsAppointmentIndex index;
+
+	@Before
+	public void setUp() {
+		Calendar cal = Calendar.getInstance();
+		cal.set(2024, Calendar.MARCH, 15, 10, 30, 0);
+		now = cal.getTime();
+		index = new CdsAppointmentIndex();
+	}
+
+	@Test
+	public void testGetCohort_RangesMatchCohortQueries() {
+		// Arrange
+		Map<Integer, AppointmentIndexEntry> entries = new HashMap<Integer, AppointmentIndexEntry>();
+		put(entries, entry(1, day(0), null, false)); // due today
+		put(entries, entry(2, day(30), null, false)); // due on the last day of the window
+		put(entries, entry(3, day(31), null, false)); // after the window
+		put(entries, entry(4, day(-5), null, true)); // missed and tracked
+		put(entries, entry(5, day(-5), day(-2), false)); // came back after the appointment
+		put(entries, entry(6, day(-28), null, true)); // first day of the IIT window
+		put(entries, entry(7, null, day(-1), true)); // no appointment
+
+		// Act
+		index.beginRebuild();
+		index.finishRebuild(entries);
+
+		// Assert
+		assertTrue(index.isReady());
+		assertEquals(Arrays.asList(1, 2), index.getCohort(CdsCohortType.UPCOMING, now, 30).asList());
+		assertEquals(Arrays.asList(4), index.getCohort(CdsCohortType.MISSED, now, 28).asList());
+		assertEquals(Arrays.asList(4, 6), index.getCohort(CdsCohortType.IIT, now, 28).asList());
+		Map<Integer, Date> iit = index.getLatestAppointments(CdsCohortType.IIT, now, 28);
+		assertEquals(Arrays.asList(4, 6), new ArrayList<Integer>(iit.keySet()));
+		assertEquals(day(-28), iit.get(6));
+	}
+
+	@Test
+	public void testUpdate_MovesAndRemovesPatients() {
+		// Arrange
+		Map<Integer, AppointmentIndexEntry> entries = new HashMap<Integer, AppointmentIndexEntry>();
+		put(entries, entry(1, day(-3), null, false));
+		put(entries, entry(2, day(-3), null, false));
+		index.beginRebuild();
+		index.finishRebuild(entries);
+
+		// Act: patient 1 books a new appointment, patient 2's encounters are all voided
+		Map<Integer, AppointmentIndexEntry> changed = new HashMap<Integer, AppointmentIndexEntry>();
+		put(changed, entry(1, day(10), day(-3), false));
+		index.update(Arrays.asList(1, 2), changed);
+
+		// Assert
+		assertTrue(index.getCohort(CdsCohortType.MISSED, now, 28).isEmpty());
+		assertEquals(Arrays.asList(1), index.getCohort(CdsCohortType.UPCOMING, now, 30).asList());
+		assertEquals(1, index.getPatientCount());
+	}
+
+	@Test
+	public void testFinishRebuild_ReturnsPatientsUpdatedDuringLoad() {
+		// Arrange
+		index.beginRebuild();
+		index.update(Collections.singleton(9), new HashMap<Integer, AppointmentIndexEntry>());
+
+		// Act
+		Set<Integer> changed = index.finishRebuild(new HashMap<Integer, AppointmentIndexEntry>());
+
+		// Assert
+		assertEquals(Collections.singleton(9), changed);
+		index.beginRebuild();
+		assertTrue(index.finishRebuild(new HashMap<Integer, AppointmentIndexEntry>()).isEmpty());
+	}
+
+	private Date day(int offset) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(now);
+		cal.add(Calendar.DAY_OF_MONTH, offset);
+		cal.set(Calendar.HOUR_OF_DAY, 0);
+		cal.set(Calendar.MINUTE, 0);
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+		return cal.getTime();
+	}
+
+	private static AppointmentIndexEntry entry(int patientId, Date appointment, Date visit, boolean tracked) {
+		AppointmentIndexEntry entry = new AppointmentIndexEntry(patientId);
+		entry.setLatestAppointmentDate(appointment);
+		entry.setLatestVisitDate(visit);
+		entry.setTracked(tracked);
+		return entry;
+	}
+
+	private static void put(Map<Integer, AppointmentIndexEntry> entries, AppointmentIndexEntry entry) {
+		entries.put(entry.getPatientId(), entry);
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.cds.ClinicalDataSystemConfig;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CdsCircuitBreaker fallback to the last result, opening and retrying
+ */
+public class CdsCircuitBreakerTest {
+
+	private long now;
+
+	private CdsCircuitBreaker breaker;
+
+	private CountingCall call;
+
+	@Before
+	public void setUp() {
+		now = 1700000000000L;
+		breaker = new CdsCircuitBreaker() {
+
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+		call = new CountingCall();
+	}
+
+	@Test
+	public void testExecute_TimeoutServesLastResultAsOfItsComputation() {
+		// Arrange
+		call.value = 42;
+		breaker.execute("stats", call);
+		long computedAt = now;
+
+		// Act
+		now += 60000L;
+		call.failure = new RuntimeException("query failed", new SQLTimeoutException("Statement cancelled due to timeout"));
+		CdsCircuitBreaker.Result<Integer> result = breaker.execute("stats", call);
+
+		// Assert
+		assertTrue(result.isStale());
+		assertEquals(Integer.valueOf(42), result.getValue());
+		assertEquals(computedAt, result.getAsOf().getTime());
+		assertFalse(breaker.isOpen("stats"));
+	}
+
+	@Test
+	public void testExecute_OpensAfterRepeatedTimeoutsAndRetriesOnceOpenPeriodEnds() {
+		// Arrange
+		call.value = 7;
+		breaker.execute("stats", call);
+		call.failure = new RuntimeException(new SQLException("Query execution was interrupted", "70100"));
+
+		// Act
+		for (int i = 0; i < ClinicalDataSystemConfig.DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD; i++) {
+			breaker.execute("stats", call);
+		}
+		int callsWhenOpened = call.calls;
+		CdsCircuitBreaker.Result<Integer> whileOpen = breaker.execute("stats", call);
+		now += ClinicalDataSystemConfig.DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS * 1000L;
+		call.failure = null;
+		call.value = 8;
+		CdsCircuitBreaker.Result<Integer> retried = breaker.execute("stats", call);
+
+		// Assert
+		assertTrue(whileOpen.isStale());
+		assertEquals(callsWhenOpened + 1, call.calls);
+		assertFalse(retried.isStale());
+		assertEquals(Integer.valueOf(8), retried.getValue());
+		assertFalse(breaker.isOpen("stats"));
+	}
+
+	@Test(expected = CdsCircuitBreaker.OpenException.class)
+	public void testExecute_OpenWithoutEarlierResultFailsFast() {
+		// Arrange
+		call.failure = new RuntimeException(new SQLTimeoutException());
+		for (int i = 0; i < ClinicalDataSystemConfig.DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD; i++) {
+			try {
+				breaker.execute("stats", call);
+				fail("timeout without an earlier result should be rethrown");
+			}
+			catch (RuntimeException e) {
+				assertTrue(CdsCircuitBreaker.isTimeout(e));
+			}
+		}
+
+		// Act
+		breaker.execute("stats", call);
+	}
+
+	@Test
+	public void testExecute_OtherErrorsDoNotCountAsTimeouts() {
+		// Arrange
+		call.failure = new IllegalStateException("bad mapping");
+
+		// Act
+		for (int i = 0; i < ClinicalDataSystemConfig.DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD; i++) {
+			try {
+				breaker.execute("stats", call);
+			}
+			catch (IllegalStateException e) {
+				// expected
+			}
+		}
+
+		// Assert
+		assertFalse(breaker.isOpen("stats"));
+	}
+
+	private static class CountingCall implements CdsCircuitBreaker.Call<Integer> {
+
+		private int calls;
+
+		private Integer value;
+
+		private RuntimeException failure;
+
+		@Override
+		public Integer call() {
+			calls++;
+			if (failure != null) {
+				throw failure;
+			}
+			return value;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.cds.ClinicalDataSystemConfig;
+import org.openmrs.module.cds.api.dto.IitResult;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for CdsCohortCache expiry, invalidation, eviction and hit rate
+ */
+public class CdsCohortCacheTest {
+
+	private long now;
+
+	private CdsCohortCache cache;
+
+	private CountingLoader loader;
+
+	@Before
+	public void setUp() {
+		now = 1700000000000L;
+		cache = new CdsCohortCache() {
+
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+		loader = new CountingLoader(CdsCohort.of(1, 2, 3));
+	}
+
+	@Test
+	public void testGet_HitUntilTtlExpires() {
+		// Act
+		cache.get(CdsCohortType.IIT, 28, loader);
+		CdsCohort cached = cache.get(CdsCohortType.IIT, 28, loader);
+		now += ClinicalDataSystemConfig.DEFAULT_COHORT_CACHE_TTL_SECONDS * 1000L;
+		cache.get(CdsCohortType.IIT, 28, loader);
+
+		// Assert
+		assertEquals(CdsCohort.of(1, 2, 3), cached);
+		assertEquals(2, loader.loads);
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(1.0 / 3, cache.getHitRate(), 0.0001);
+	}
+
+	@Test
+	public void testGetIfPresent_DoesNotLoad() {
+		// Act
+		CdsCohort beforeLoad = cache.getIfPresent(CdsCohortType.IIT, 28);
+		cache.get(CdsCohortType.IIT, 28, loader);
+		CdsCohort afterLoad = cache.getIfPresent(CdsCohortType.IIT, 28);
+		now += ClinicalDataSystemConfig.DEFAULT_COHORT_CACHE_TTL_SECONDS * 1000L;
+		CdsCohort afterExpiry = cache.getIfPresent(CdsCohortType.IIT, 28);
+
+		// Assert
+		assertNull(beforeLoad);
+		assertEquals(CdsCohort.of(1, 2, 3), afterLoad);
+		assertNull(afterExpiry);
+		assertEquals(1, loader.loads);
+	}
+
+	@Test
+	public void testGet_KeyedByCohortAndWindow() {
+		// Act
+		cache.get(CdsCohortType.IIT, 28, loader);
+		cache.get(CdsCohortType.IIT, 90, loader);
+		cache.get(CdsCohortType.MISSED, 28, loader);
+
+		// Assert
+		assertEquals(3, loader.loads);
+		assertEquals(3, cache.getSize());
+	}
+
+	@Test
+	public void testInvalidate_DropsOnlyGivenCohorts() {
+		// Arrange
+		cache.get(CdsCohortType.IIT, 28, loader);
+		cache.get(CdsCohortType.UPCOMING, 30, loader);
+
+		// Act
+		cache.invalidate(EnumSet.of(CdsCohortType.IIT));
+		cache.get(CdsCohortType.IIT, 28, loader);
+		cache.get(CdsCohortType.UPCOMING, 30, loader);
+
+		// Assert
+		assertEquals(3, loader.loads);
+		assertEquals(1, cache.getInvalidations());
+	}
+
+	@Test
+	public void testInvalidate_LoadInProgressIsNotCached() {
+		// Arrange
+		CdsCohortCache.Loader invalidatingLoader = new CdsCohortCache.Loader() {
+
+			@Override
+			public CdsCohort load() {
+				// an obs is saved while the cohort is being computed
+				cache.invalidate(EnumSet.of(CdsCohortType.IIT));
+				return CdsCohort.of(7);
+			}
+		};
+
+		// Act
+		CdsCohort loaded = cache.get(CdsCohortType.IIT, 28, invalidatingLoader);
+
+		// Assert
+		assertEquals(CdsCohort.of(7), loaded);
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testGetIitResult_CachedWithIitCohortUntilInvalidated() {
+		// Arrange
+		final int[] loads = new int[1];
+		CdsCohortCache.IitLoader iitLoader = new CdsCohortCache.IitLoader() {
+
+			@Override
+			public IitResult load() {
+				loads[0]++;
+				return IitResult.of(new Date(now), 28, Collections.singletonMap(7, new Date(now - 86400000L)));
+			}
+		};
+
+		// Act
+		IitResult first = cache.getIitResult(28, iitLoader);
+		IitResult second = cache.getIitResult(28, iitLoader);
+		CdsCohort cohort = cache.get(CdsCohortType.IIT, 28, loader);
+		cache.invalidate(EnumSet.of(CdsCohortType.IIT));
+		cache.getIitResult(28, iitLoader);
+
+		// Assert
+		assertSame(first, second);
+		assertEquals(CdsCohort.of(1, 2, 3), cohort);
+		assertEquals(2, loads[0]);
+		assertEquals(1, loader.loads);
+		assertEquals(2, cache.getInvalidations());
+	}
+
+	@Test
+	public void testGet_EvictsLeastRecentlyUsed() {
+		// Arrange
+		for (int days = 0; days < ClinicalDataSystemConfig.DEFAULT_COHORT_CACHE_MAX_ENTRIES; days++) {
+			cache.get(CdsCohortType.MISSED, days, loader);
+		}
+		cache.get(CdsCohortType.MISSED, 0, loader);
+
+		// Act
+		cache.get(CdsCohortType.MISSED, 1000, loader);
+
+		// Assert
+		assertEquals(ClinicalDataSystemConfig.DEFAULT_COHORT_CACHE_MAX_ENTRIES, cache.getSize());
+		assertEquals(1, cache.getEvictions());
+		int loads = loader.loads;
+		cache.get(CdsCohortType.MISSED, 0, loader);
+		assertEquals(loads, loader.loads);
+		cache.get(CdsCohortType.MISSED, 1, loader);
+		assertEquals(loads + 1, loader.loads);
+	}
+
+	private static class CountingLoader implements CdsCohortCache.Loader {
+
+		private final CdsCohort cohort;
+
+		int loads;
+
+		CountingLoader(CdsCohort cohort) {
+			this.cohort = cohort;
+		}
+
+		@Override
+		public CdsCohort load() {
+			loads++;
+			return cohort;
+		}
+	}
+}
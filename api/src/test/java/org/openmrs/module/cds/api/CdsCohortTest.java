@@ -0,0 +1,103 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CdsCohort set operations
+ */
+public class CdsCohortTest {
+
+	@Test
+	public void testOf_SortsAndDropsDuplicatesAndNulls() {
+		// Act
+		CdsCohort cohort = CdsCohort.of(Arrays.asList(5, null, 2, 5, 9, 2));
+
+		// Assert
+		assertEquals(3, cohort.size());
+		assertArrayEquals(new int[] { 2, 5, 9 }, cohort.toArray());
+		assertTrue(cohort.contains(5));
+		assertFalse(cohort.contains(3));
+	}
+
+	@Test
+	public void testOf_IntList() {
+		// Arrange
+		IntList ids = new IntList(2);
+		for (int id : new int[] { 7, 3, 7, 1, 9 }) {
+			ids.add(id);
+		}
+
+		// Act
+		CdsCohort cohort = CdsCohort.of(ids);
+
+		// Assert
+		assertArrayEquals(new int[] { 1, 3, 7, 9 }, cohort.toArray());
+	}
+
+	@Test
+	public void testSetOperations() {
+		// Arrange
+		CdsCohort a = CdsCohort.of(1, 3, 5, 7, 9);
+		CdsCohort b = CdsCohort.of(3, 4, 5, 10);
+
+		// Act & Assert
+		assertArrayEquals(new int[] { 1, 3, 4, 5, 7, 9, 10 }, a.union(b).toArray());
+		assertArrayEquals(new int[] { 3, 5 }, a.intersect(b).toArray());
+		assertArrayEquals(new int[] { 1, 7, 9 }, a.difference(b).toArray());
+		assertArrayEquals(new int[] { 4, 10 }, b.difference(a).toArray());
+		assertEquals(a.union(b), b.union(a));
+	}
+
+	@Test
+	public void testEmptyOperands() {
+		// Arrange
+		CdsCohort a = CdsCohort.of(1, 2);
+
+		// Act & Assert
+		assertSame(a, a.union(CdsCohort.empty()));
+		assertSame(a, CdsCohort.empty().union(a));
+		assertTrue(a.intersect(CdsCohort.empty()).isEmpty());
+		assertSame(a, a.difference(CdsCohort.empty()));
+		assertTrue(CdsCohort.of(Arrays.<Integer> asList()).isEmpty());
+	}
+
+	@Test
+	public void testUnionAll_CountsEachPatientOnce() {
+		// Arrange
+		CdsCohort upcoming = CdsCohort.of(1, 2, 3);
+		CdsCohort missed = CdsCohort.of(3, 4);
+		CdsCohort iit = CdsCohort.of(4, 5, 1);
+
+		// Act
+		CdsCohort all = CdsCohort.unionAll(upcoming, missed, iit);
+
+		// Assert
+		assertEquals(5, all.size());
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5), all.asList());
+	}
+
+	@Test
+	public void testPage_StartsAfterGivenId() {
+		// Arrange
+		CdsCohort cohort = CdsCohort.of(2, 4, 6, 8, 10);
+
+		// Act & Assert
+		assertEquals(Arrays.asList(2, 4), cohort.page(null, 2));
+		assertEquals(Arrays.asList(6, 8), cohort.page(4, 2));
+		assertEquals(Arrays.asList(6, 8, 10), cohort.page(5, 100));
+		assertTrue(cohort.page(10, 2).isEmpty());
+	}
+}
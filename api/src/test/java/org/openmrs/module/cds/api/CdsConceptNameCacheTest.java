@@ -0,0 +1,121 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.cds.api.dto.ConceptNameEntry;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CdsConceptNameCache locale fallback, bulk loading and invalidation
+ */
+public class CdsConceptNameCacheTest {
+
+	private CdsConceptNameCache cache;
+
+	private CountingLoader loader;
+
+	@Before
+	public void setUp() {
+		cache = new CdsConceptNameCache();
+		loader = new CountingLoader();
+		loader.names.add(new ConceptNameEntry(165899, "Client reached", "en", "FULLY_SPECIFIED", true));
+		loader.names.add(new ConceptNameEntry(165899, "Client joint", "fr", "FULLY_SPECIFIED", false));
+		loader.names.add(new ConceptNameEntry(165899, "Joint", "fr", null, true));
+		loader.names.add(new ConceptNameEntry(165900, "Not reachable", "en", "FULLY_SPECIFIED", true));
+		loader.names.add(new ConceptNameEntry(165901, "Numero equivocado", "es", "FULLY_SPECIFIED", true));
+	}
+
+	@Test
+	public void testGetNames_FallsBackFromCountryToLanguageToEnglish() {
+		// Act
+		Map<Integer, String> names = cache.getNames(Arrays.asList(165899, 165900, 165901), Locale.CANADA_FRENCH, loader);
+
+		// Assert
+		assertEquals("Joint", names.get(165899));
+		assertEquals("Not reachable", names.get(165900));
+		assertEquals("Numero equivocado", names.get(165901));
+	}
+
+	@Test
+	public void testGetNames_LoadsMissingConceptsOnceInBulk() {
+		// Act
+		cache.getNames(Arrays.asList(165899, 165900, 170000), Locale.ENGLISH, loader);
+		Map<Integer, String> names = cache.getNames(Arrays.asList(165899, 165900, 170000), new Locale("es"), loader);
+
+		// Assert
+		assertEquals(1, loader.calls);
+		assertEquals(Arrays.asList(165899, 165900, 170000), loader.lastRequested);
+		assertEquals("Client reached", names.get(165899));
+		assertFalse("concept without names", names.containsKey(170000));
+	}
+
+	@Test
+	public void testPreload_AnswersAreServedWithoutLoading() {
+		// Arrange
+		cache.preload(CdsConcept.TRACKING_STATUS, loader.names);
+
+		// Act
+		Map<Integer, String> names = cache.getNames(Arrays.asList(165899, 165901), Locale.FRENCH, loader);
+
+		// Assert
+		assertTrue(cache.isPreloaded(CdsConcept.TRACKING_STATUS));
+		assertEquals(0, loader.calls);
+		assertEquals("Joint", names.get(165899));
+	}
+
+	@Test
+	public void testInvalidate_ReloadsOnlyTheChangedConcept() {
+		// Arrange
+		cache.preload(CdsConcept.TRACKING_STATUS, loader.names);
+
+		// Act
+		cache.invalidate(165900);
+		cache.getNames(Arrays.asList(165899, 165900), Locale.ENGLISH, loader);
+		cache.invalidateAll();
+
+		// Assert
+		assertEquals(1, loader.calls);
+		assertEquals(Arrays.asList(165900), loader.lastRequested);
+		assertFalse(cache.isPreloaded(CdsConcept.TRACKING_STATUS));
+		assertEquals(0, cache.getSize());
+	}
+
+	private static class CountingLoader implements CdsConceptNameCache.Loader {
+
+		private final List<ConceptNameEntry> names = new ArrayList<ConceptNameEntry>();
+
+		private int calls;
+
+		private List<Integer> lastRequested;
+
+		@Override
+		public List<ConceptNameEntry> load(Collection<Integer> conceptIds) {
+			calls++;
+			lastRequested = new ArrayList<Integer>(conceptIds);
+			List<ConceptNameEntry> result = new ArrayList<ConceptNameEntry>();
+			for (ConceptNameEntry name : names) {
+				if (conceptIds.contains(name.getConceptId())) {
+					result.add(name);
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for CdsConceptRegistry defaults, which apply before the registry is refreshed
+ */
+public class CdsConceptRegistryTest {
+
+	@Test
+	public void testDefaults_BeforeRefresh() {
+		// Arrange
+		CdsConceptRegistry registry = new CdsConceptRegistry();
+
+		// Act & Assert
+		assertEquals(5096, registry.getConceptId(CdsConcept.APPOINTMENT_DATE));
+		assertEquals(13, registry.getFormId(CdsForm.TRACKING));
+		assertEquals(Arrays.asList(27, 14, 21), registry.getAttendanceFormIds());
+		assertEquals(4, registry.getPepfarIdentifierTypeId());
+	}
+
+	@Test
+	public void testIsRegistered() {
+		// Arrange
+		CdsConceptRegistry registry = new CdsConceptRegistry();
+
+		// Act & Assert
+		assertTrue(registry.isRegisteredConcept(166097));
+		assertFalse(registry.isRegisteredConcept(1));
+		assertTrue(registry.isRegisteredForm(21));
+		assertFalse(registry.isRegisteredForm(null));
+	}
+
+	@Test
+	public void testSupportsPropertyName() {
+		// Arrange
+		CdsConceptRegistry registry = new CdsConceptRegistry();
+
+		// Act & Assert
+		assertTrue(registry.supportsPropertyName("cds.concept.viralLoad"));
+		assertTrue(registry.supportsPropertyName(CdsConceptRegistry.GP_ATTENDANCE_FORMS));
+		assertTrue(registry.supportsPropertyName(CdsConceptRegistry.GP_PEPFAR_IDENTIFIER_TYPE));
+		assertFalse(registry.supportsPropertyName("cds.cohortSnapshot.maxAgeMinutes"));
+	}
+
+	@Test
+	public void testParseIds_SkipsInvalidEntries() {
+		// Act & Assert
+		assertEquals(Arrays.asList(27, 21), CdsConceptRegistry.parseIds(" 27, x ,21"));
+		assertTrue(CdsConceptRegistry.parseIds(null).isEmpty());
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the user context CdsExecutor tasks run with
+ */
+public class CdsExecutorTest {
+
+	private CdsExecutor executor;
+
+	@Before
+	public void setUp() {
+		executor = new CdsExecutor() {
+
+			@Override
+			protected void openSession() {
+			}
+
+			@Override
+			protected void closeSession() {
+				Context.clearUserContext();
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+		Context.clearUserContext();
+	}
+
+	@Test
+	public void testSubmit_TaskRunsAsCallingUserInItsOwnContext() throws Exception {
+		// Arrange
+		User user = new User(7);
+		UserContext requestContext = mock(UserContext.class);
+		when(requestContext.getAuthenticatedUser()).thenReturn(user);
+		when(requestContext.getLocale()).thenReturn(Locale.FRENCH);
+		Context.setUserContext(requestContext);
+
+		// Act
+		UserContext taskContext = executor.submit(new CurrentUserContext()).get();
+
+		// Assert
+		assertNotSame(requestContext, taskContext);
+		assertSame(user, taskContext.getAuthenticatedUser());
+		assertTrue(taskContext.isAuthenticated());
+		assertEquals(Locale.FRENCH, taskContext.getLocale());
+	}
+
+	@Test
+	public void testSubmit_StartupWorkHasNoUserToRunAs() throws Exception {
+		// Arrange: a module is started without an authenticated user
+		Context.setUserContext(mock(UserContext.class));
+
+		// Act
+		UserContext taskContext = executor.submit(new CurrentUserContext()).get();
+
+		// Assert
+		assertFalse("startup builds must run as the daemon rather than on the executor", taskContext.isAuthenticated());
+		assertNull(taskContext.getAuthenticatedUser());
+	}
+
+	private static class CurrentUserContext implements Callable<UserContext> {
+
+		@Override
+		public UserContext call() {
+			return Context.getUserContext();
+		}
+	}
+}
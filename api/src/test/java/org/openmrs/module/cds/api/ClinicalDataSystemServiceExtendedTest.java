@@ -10,17 +10,28 @@
 package org.openmrs.module.cds.api;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.openmrs.api.APIException;
 import org.openmrs.module.cds.api.dao.ClinicalDataSystemDao;
+import org.openmrs.module.cds.api.dto.AppointmentIndexEntry;
+import org.openmrs.module.cds.api.dto.CdsActionCursor;
 import org.openmrs.module.cds.api.dto.CdsActionRecord;
+import org.openmrs.module.cds.api.dto.IitResult;
 import org.openmrs.module.cds.api.impl.ClinicalDataSystemServiceImpl;
 
 import static org.junit.Assert.*;
@@ -205,6 +216,25 @@ public class ClinicalDataSystemServiceExtendedTest {
 		}
 	}
 
+	@Test
+	public void testGetActionQueueForUser_SeeksPastCursorForUser() {
+		// Arrange
+		Date created = new Date(5000L);
+		when(dao.getPendingCdsActions(7, created, 42, 26)).thenReturn(createActionList(3));
+
+		// Act
+		List<CdsActionRecord> result = service.getActionQueueForUser(7, new CdsActionCursor(created, 42), 26);
+
+		// Assert
+		assertEquals(3, result.size());
+		verify(dao, times(1)).getPendingCdsActions(7, created, 42, 26);
+	}
+
+	@Test(expected = APIException.class)
+	public void testGetActionQueueForUser_RequiresUser() {
+		service.getActionQueueForUser(null, null, 25);
+	}
+
 	@Test
 	public void testMultipleConsecutiveQueries() {
 		// Arrange
@@ -282,6 +312,58 @@ public class ClinicalDataSystemServiceExtendedTest {
 		assertEquals(0, result.size());
 	}
 
+	@Test
+	public void testGetIITResult_BucketsLatestAppointmentsFromDaoWithoutIndex() {
+		// Arrange
+		long day = 24 * 60 * 60 * 1000L;
+		Map<Integer, Date> latest = new HashMap<>();
+		latest.put(5, new Date(System.currentTimeMillis() - 3 * day));
+		latest.put(2, new Date(System.currentTimeMillis() - 40 * day));
+		when(dao.getIITLatestAppointments(any(Date.class), any(Date.class))).thenReturn(latest);
+
+		// Act
+		IitResult result = service.getIITResult(90);
+
+		// Assert
+		assertEquals(Arrays.asList(2, 5), result.getPatientIds());
+		assertEquals(1, result.getCount(IitBucket.DAYS_1_TO_7));
+		assertEquals(0, result.getCount(IitBucket.DAYS_8_TO_28));
+		assertEquals(IitBucket.DAYS_29_PLUS, result.getPatients().get(0).getBucket());
+		verify(dao, never()).getIITPatientIds(any(Date.class), any(Date.class));
+	}
+
+	@Test
+	public void testRebuildAppointmentIndex_ConcurrentChangeSurvivesReload() {
+		// Arrange
+		long day = 24 * 60 * 60 * 1000L;
+		service.setAppointmentIndex(new CdsAppointmentIndex());
+		final AppointmentIndexEntry fresh = new AppointmentIndexEntry(5);
+		fresh.setLatestAppointmentDate(new Date(System.currentTimeMillis() + 3 * day));
+		AppointmentIndexEntry stale = new AppointmentIndexEntry(5);
+		stale.setLatestAppointmentDate(new Date(System.currentTimeMillis() - 10 * day));
+		final Map<Integer, AppointmentIndexEntry> fullLoad = new HashMap<>();
+		fullLoad.put(5, stale);
+		when(dao.getAppointmentIndexEntries(Collections.singleton(5))).thenReturn(
+		    Collections.singletonMap(5, fresh));
+		when(dao.getAppointmentIndexEntries(null)).thenAnswer(new Answer<Map<Integer, AppointmentIndexEntry>>() {
+
+			@Override
+			public Map<Integer, AppointmentIndexEntry> answer(InvocationOnMock invocation) {
+				// an appointment saved and applied while the full load was reading its snapshot
+				service.refreshAppointmentIndex(Collections.singleton(5));
+				return fullLoad;
+			}
+		});
+
+		// Act
+		Set<Integer> changed = service.rebuildAppointmentIndex();
+		service.refreshAppointmentIndex(changed);
+
+		// Assert
+		assertEquals(Collections.singleton(5), changed);
+		assertEquals(Arrays.asList(5), service.getUpcomingAppointmentCohort(7).asList());
+	}
+
 	// Helper methods
 	private List<Integer> createIntegerList(int count) {
 		List<Integer> list = new ArrayList<>();
@@ -9,20 +9,37 @@
  */
 package org.openmrs.module.cds.api;
 
+import java.sql.SQLTimeoutException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.openmrs.Obs;
 import org.openmrs.module.cds.api.dao.ClinicalDataSystemDao;
+import org.openmrs.module.cds.api.dto.AppointmentIndexEntry;
 import org.openmrs.module.cds.api.dto.CdsActionRecord;
+import org.openmrs.module.cds.api.dto.CdsPatientSummary;
 import org.openmrs.module.cds.api.dto.ClientEffortEntry;
+import org.openmrs.module.cds.api.dto.DashboardStats;
 import org.openmrs.module.cds.api.impl.ClinicalDataSystemServiceImpl;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -201,7 +218,377 @@ public class ClinicalDataSystemServiceTest {
 		assertEquals(15, result90.size());
 	}
 
+	@Test
+	public void testGetIITPatientIds_FreshSnapshotSkipsRawQuery() {
+		// Arrange
+		List<Integer> snapshotIds = createIntegerList(4);
+		when(dao.getCohortSnapshotComputedAt("IIT", 90)).thenReturn(new Date());
+		when(dao.getCohortSnapshotPatientIds("IIT", 90)).thenReturn(snapshotIds);
+
+		// Act
+		List<Integer> result = service.getIITPatientIds(90);
+
+		// Assert
+		assertEquals(4, result.size());
+		verify(dao, never()).getIITPatientIds(any(Date.class), any(Date.class));
+		verify(dao, never()).saveCohortSnapshot(anyString(), anyInt(), anyList(), any(Date.class));
+	}
+
+	@Test
+	public void testGetIITPatientIds_StaleSnapshotIsRecomputed() {
+		// Arrange
+		List<Integer> freshIds = createIntegerList(6);
+		when(dao.getCohortSnapshotComputedAt("IIT", 90)).thenReturn(new Date(0));
+		when(dao.getIITPatientIds(any(Date.class), any(Date.class))).thenReturn(freshIds);
+
+		// Act
+		List<Integer> result = service.getIITPatientIds(90);
+
+		// Assert
+		assertEquals(6, result.size());
+		verify(dao, never()).getCohortSnapshotPatientIds(anyString(), anyInt());
+		verify(dao, times(1)).saveCohortSnapshot(eq("IIT"), eq(90), eq(freshIds), any(Date.class));
+	}
+
+	@Test
+	public void testGetIITPatientIds_SnapshotIsWrittenInItsOwnTransaction() {
+		// Arrange
+		PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+		when(transactionManager.getTransaction(any(TransactionDefinition.class))).thenReturn(
+		    mock(TransactionStatus.class));
+		service.setTransactionManager(transactionManager);
+		when(dao.getCohortSnapshotComputedAt("IIT", 90)).thenReturn(new Date(0));
+		when(dao.getIITPatientIds(any(Date.class), any(Date.class))).thenReturn(createIntegerList(3));
+
+		// Act
+		service.getIITPatientIds(90);
+
+		// Assert
+		ArgumentCaptor<TransactionDefinition> definition = ArgumentCaptor.forClass(TransactionDefinition.class);
+		verify(transactionManager).getTransaction(definition.capture());
+		assertEquals(TransactionDefinition.PROPAGATION_REQUIRES_NEW, definition.getValue().getPropagationBehavior());
+		verify(transactionManager).commit(any(TransactionStatus.class));
+		verify(dao, times(1)).saveCohortSnapshot(eq("IIT"), eq(90), anyList(), any(Date.class));
+	}
+
+	@Test
+	public void testGetIITPatientIds_TimeoutServesLastResultWithoutSavingIt() {
+		// Arrange
+		service.setCircuitBreaker(new CdsCircuitBreaker());
+		when(dao.getCohortSnapshotComputedAt("IIT", 90)).thenReturn(null);
+		when(dao.getIITPatientIds(any(Date.class), any(Date.class))).thenReturn(createIntegerList(3)).thenThrow(
+		    new RuntimeException(new SQLTimeoutException("Statement cancelled due to timeout")));
+
+		// Act
+		service.getIITPatientIds(90);
+		List<Integer> result = service.getIITPatientIds(90);
+
+		// Assert
+		assertEquals(Arrays.asList(1, 2, 3), result);
+		verify(dao, times(1)).saveCohortSnapshot(eq("IIT"), eq(90), anyList(), any(Date.class));
+	}
+
+	@Test
+	public void testGetIITPatientIds_NewerSnapshotIsKept() {
+		// Arrange
+		when(dao.getCohortSnapshotComputedAt("IIT", 90)).thenReturn(new Date(0), new Date(Long.MAX_VALUE));
+		when(dao.getIITPatientIds(any(Date.class), any(Date.class))).thenReturn(createIntegerList(3));
+
+		// Act
+		List<Integer> result = service.getIITPatientIds(90);
+
+		// Assert
+		assertEquals(3, result.size());
+		verify(dao, never()).saveCohortSnapshot(anyString(), anyInt(), anyList(), any(Date.class));
+	}
+
+	@Test
+	public void testGetIITPatientIdsPage_FreshSnapshotIsPagedByCursor() {
+		// Arrange
+		when(dao.getCohortSnapshotComputedAt("IIT", 90)).thenReturn(new Date());
+		when(dao.getCohortSnapshotPatientIds("IIT", 90, 40, 51)).thenReturn(Arrays.asList(41, 42));
+
+		// Act
+		List<Integer> result = service.getIITPatientIds(90, 40, 51);
+
+		// Assert
+		assertEquals(Arrays.asList(41, 42), result);
+		verify(dao, never()).getIITPatientIds(any(Date.class), any(Date.class));
+	}
+
+	@Test
+	public void testGetIITPatientIdsPage_CacheMissIsPagedOffSnapshot() {
+		// Arrange
+		service.setCohortCache(new CdsCohortCache());
+		when(dao.getCohortSnapshotComputedAt("IIT", 90)).thenReturn(new Date());
+		when(dao.getCohortSnapshotPatientIds("IIT", 90, 40, 51)).thenReturn(Arrays.asList(41, 42));
+
+		// Act
+		List<Integer> result = service.getIITPatientIds(90, 40, 51);
+
+		// Assert
+		assertEquals(Arrays.asList(41, 42), result);
+		verify(dao, never()).getCohortSnapshotPatientIdList(anyString(), anyInt());
+	}
+
+	@Test
+	public void testGetIITPatientIdsPage_FallsBackToRawPageWhenSnapshotCannotBeSaved() {
+		// Arrange
+		when(dao.getCohortSnapshotComputedAt("IIT", 90)).thenReturn(null);
+		when(dao.getIITPatientIds(any(Date.class), any(Date.class))).thenReturn(createIntegerList(6));
+		doThrow(new RuntimeException("locked")).when(dao).saveCohortSnapshot(anyString(), anyInt(), anyList(),
+		    any(Date.class));
+		when(dao.getIITPatientIds(any(Date.class), any(Date.class), eq(3), eq(2))).thenReturn(Arrays.asList(4, 5));
+
+		// Act
+		List<Integer> result = service.getIITPatientIds(90, 3, 2);
+
+		// Assert
+		assertEquals(Arrays.asList(4, 5), result);
+		verify(dao, never()).getCohortSnapshotPatientIds(anyString(), anyInt(), anyInt(), anyInt());
+	}
+
+	@Test
+	public void testGetDashboardStats_CountsOnlyStaleCohorts() {
+		// Arrange
+		Map<String, Integer> snapshotCounts = new HashMap<>();
+		snapshotCounts.put("UPCOMING", 11);
+		snapshotCounts.put("PENDING_ACTIONS", 3);
+		when(dao.getDashboardCountsFromSnapshots(eq(300), eq(277), eq(277), any(Date.class))).thenReturn(snapshotCounts);
+
+		Map<CdsCohortType, Integer> recounted = new EnumMap<>(CdsCohortType.class);
+		recounted.put(CdsCohortType.MISSED, 7);
+		recounted.put(CdsCohortType.IIT, 5);
+		when(dao.countDashboardCohorts(eq(EnumSet.of(CdsCohortType.MISSED, CdsCohortType.IIT)), any(Date.class),
+		    any(Date.class), any(Date.class), any(Date.class))).thenReturn(recounted);
+		when(dao.countDistinctDashboardPatients(eq(EnumSet.of(CdsCohortType.MISSED, CdsCohortType.IIT)), eq(300), eq(277),
+		    eq(277), any(Date.class), any(Date.class), any(Date.class), any(Date.class))).thenReturn(15);
+
+		// Act
+		DashboardStats stats = service.getDashboardStats(300, 277, 277);
+
+		// Assert
+		assertEquals(11, stats.getUpcomingCount());
+		assertEquals(7, stats.getMissedCount());
+		assertEquals(5, stats.getIitCount());
+		assertEquals(3, stats.getPendingActionsCount());
+		assertEquals(15, stats.getTotalActivePatients());
+		verify(dao, never()).getIITPatientIds(any(Date.class), any(Date.class));
+	}
+
+	@Test
+	public void testGetCohort_FromFreshSnapshot() {
+		// Arrange
+		when(dao.getCohortSnapshotComputedAt(eq("IIT"), eq(28))).thenReturn(new Date());
+		when(dao.getCohortSnapshotPatientIdList(eq("IIT"), eq(28))).thenReturn(createIntList(9, 3, 3, 7));
+		when(dao.getPendingActionPatientIds()).thenReturn(Arrays.asList(3, 4));
+
+		// Act
+		CdsCohort iit = service.getIITCohort(28);
+		CdsCohort notActioned = iit.difference(service.getPendingActionCohort());
+
+		// Assert
+		assertEquals(3, iit.size());
+		assertEquals(Arrays.asList(3, 7, 9), iit.asList());
+		assertEquals(Arrays.asList(7, 9), notActioned.asList());
+		verify(dao, never()).getIITPatientIds(any(Date.class), any(Date.class));
+	}
+
+	@Test
+	public void testGetCohort_StaleSnapshotReadsPrimitiveIdsAndSavesSnapshot() {
+		// Arrange
+		when(dao.getCohortPatientIdList(eq(CdsCohortType.UPCOMING), any(Date.class), any(Date.class), any(Date.class),
+		    any(Date.class))).thenReturn(createIntList(4, 2, 8));
+
+		// Act
+		CdsCohort upcoming = service.getUpcomingAppointmentCohort(30);
+
+		// Assert
+		assertArrayEquals(new int[] { 2, 4, 8 }, upcoming.toArray());
+		verify(dao, times(1)).saveCohortSnapshot(eq("UPCOMING"), eq(30), eq(Arrays.asList(2, 4, 8)), any(Date.class));
+		verify(dao, never()).getUpcomingAppointmentPatientIds(any(Date.class), any(Date.class));
+	}
+
+	@Test
+	public void testGetCohort_CachedUntilInvalidated() {
+		// Arrange
+		service.setCohortCache(new CdsCohortCache());
+		when(dao.getCohortSnapshotComputedAt(eq("IIT"), eq(28))).thenReturn(new Date());
+		when(dao.getCohortSnapshotPatientIdList(eq("IIT"), eq(28))).thenReturn(createIntList(5, 1, 3),
+		    createIntList(5, 1));
+
+		// Act
+		List<Integer> first = service.getIITPatientIds(28);
+		List<Integer> page = service.getIITPatientIds(28, 1, 10);
+		service.invalidateCohorts(EnumSet.of(CdsCohortType.IIT));
+		CdsCohort afterInvalidation = service.getIITCohort(28);
+
+		// Assert
+		assertEquals(Arrays.asList(1, 3, 5), first);
+		assertEquals(Arrays.asList(3, 5), page);
+		assertEquals(Arrays.asList(1, 5), afterInvalidation.asList());
+		verify(dao, times(2)).getCohortSnapshotPatientIdList("IIT", 28);
+		verify(dao, times(1)).expireCohortSnapshots(eq(Arrays.asList("IIT")), any(Date.class));
+	}
+
+	@Test
+	public void testApplyCohortChanges_ReloadsPatientsBeforeInvalidating() {
+		// Arrange
+		List<Integer> patientIds = Arrays.asList(7);
+
+		// Act
+		service.applyCohortChanges(patientIds, EnumSet.of(CdsCohortType.UPCOMING, CdsCohortType.MISSED));
+
+		// Assert
+		InOrder inOrder = inOrder(dao);
+		inOrder.verify(dao).refreshVisitSummaries(patientIds);
+		inOrder.verify(dao).expireCohortSnapshots(eq(Arrays.asList("UPCOMING", "MISSED")), any(Date.class));
+	}
+
+	@Test
+	public void testApplyCohortChanges_LeavesVisitSummaryOnceIndexIsReady() {
+		// Arrange
+		service.setAppointmentIndex(new CdsAppointmentIndex());
+		when(dao.getAppointmentIndexEntries(null)).thenReturn(new HashMap<Integer, AppointmentIndexEntry>());
+		service.rebuildAppointmentIndex();
+
+		// Act
+		service.applyCohortChanges(Arrays.asList(7), EnumSet.of(CdsCohortType.MISSED));
+		service.rebuildVisitSummaries();
+
+		// Assert
+		verify(dao).setVisitSummaryReady(false);
+		verify(dao, never()).refreshVisitSummaries(anyCollection());
+		verify(dao).expireCohortSnapshots(eq(Arrays.asList("MISSED")), any(Date.class));
+	}
+
+	@Test
+	public void testGetCohort_ScansAppointmentIndexOnceBuilt() {
+		// Arrange
+		service.setAppointmentIndex(new CdsAppointmentIndex());
+		Calendar yesterday = Calendar.getInstance();
+		yesterday.add(Calendar.DAY_OF_MONTH, -1);
+		AppointmentIndexEntry entry = new AppointmentIndexEntry(7);
+		entry.setLatestAppointmentDate(yesterday.getTime());
+		entry.setTracked(true);
+		Map<Integer, AppointmentIndexEntry> entries = new HashMap<>();
+		entries.put(7, entry);
+		when(dao.getAppointmentIndexEntries(null)).thenReturn(entries);
+
+		// Act
+		service.rebuildAppointmentIndex();
+		CdsCohort iit = service.getIITCohort(28);
+		int missedCount = service.getMissedAppointmentCount(28);
+
+		// Assert
+		assertEquals(Arrays.asList(7), iit.asList());
+		assertEquals(1, missedCount);
+		verify(dao, never()).getCohortSnapshotComputedAt(anyString(), anyInt());
+		verify(dao, never()).countMissedAppointmentPatients(any(Date.class), any(Date.class));
+	}
+
+	@Test
+	public void testStreamCohort_UsesFreshSnapshot() {
+		// Arrange
+		PatientIdHandler handler = mock(PatientIdHandler.class);
+		when(dao.getCohortSnapshotComputedAt(eq("MISSED"), eq(28))).thenReturn(new Date());
+		when(dao.streamCohortSnapshotPatientIds(eq("MISSED"), eq(28), eq(1000), same(handler))).thenReturn(12);
+
+		// Act
+		int streamed = service.streamCohort(CdsCohortType.MISSED, 28, handler);
+
+		// Assert
+		assertEquals(12, streamed);
+		verify(dao, never()).streamCohortPatientIds(any(CdsCohortType.class), any(Date.class), any(Date.class),
+		    any(Date.class), any(Date.class), anyInt(), any(PatientIdHandler.class));
+	}
+
+	@Test
+	public void testStreamCohort_StaleSnapshotStreamsQueryWithoutSaving() {
+		// Arrange
+		PatientIdHandler handler = mock(PatientIdHandler.class);
+		when(dao.streamCohortPatientIds(eq(CdsCohortType.IIT), any(Date.class), any(Date.class), any(Date.class),
+		    any(Date.class), eq(1000), same(handler))).thenReturn(3);
+
+		// Act
+		int streamed = service.streamCohort(CdsCohortType.IIT, 28, handler);
+
+		// Assert
+		assertEquals(3, streamed);
+		verify(dao, never()).saveCohortSnapshot(anyString(), anyInt(), anyList(), any(Date.class));
+	}
+
+	@Test(expected = CdsCircuitBreaker.OpenException.class)
+	public void testStreamCohort_TimeoutIsNotAnsweredWithEarlierCount() {
+		// Arrange
+		service.setCircuitBreaker(new CdsCircuitBreaker());
+		PatientIdHandler handler = mock(PatientIdHandler.class);
+		when(dao.streamCohortPatientIds(eq(CdsCohortType.IIT), any(Date.class), any(Date.class), any(Date.class),
+		    any(Date.class), eq(1000), same(handler))).thenReturn(3).thenThrow(
+		    new RuntimeException(new SQLTimeoutException("Statement cancelled due to timeout")));
+		service.streamCohort(CdsCohortType.IIT, 28, handler);
+
+		// Act
+		service.streamCohort(CdsCohortType.IIT, 28, handler);
+	}
+
+	@Test
+	public void testGetPatientSummaries_KeepsRequestedOrderAndSkipsUnknown() {
+		// Arrange
+		Map<Integer, CdsPatientSummary> loaded = new HashMap<>();
+		for (Integer id : new Integer[] { 3, 1 }) {
+			CdsPatientSummary summary = new CdsPatientSummary();
+			summary.setPatientId(id);
+			loaded.put(id, summary);
+		}
+		when(dao.getPatientSummaries(anyCollection(), any(Date.class))).thenReturn(loaded);
+
+		// Act
+		List<CdsPatientSummary> result = service.getPatientSummaries(Arrays.asList(3, 2, 1));
+
+		// Assert
+		assertEquals(2, result.size());
+		assertEquals(Integer.valueOf(3), result.get(0).getPatientId());
+		assertEquals(Integer.valueOf(1), result.get(1).getPatientId());
+		verify(dao, times(1)).getPatientSummaries(anyCollection(), any(Date.class));
+	}
+
+	@Test
+	public void testGetLatestObs_OneDaoCallForAllConcepts() {
+		// Arrange
+		Map<CdsConcept, Obs> latest = new EnumMap<>(CdsConcept.class);
+		latest.put(CdsConcept.VIRAL_LOAD, new Obs());
+		Set<CdsConcept> concepts = EnumSet.of(CdsConcept.VIRAL_LOAD, CdsConcept.CURRENT_REGIMEN);
+		when(dao.getLatestObs(7, concepts)).thenReturn(latest);
+
+		// Act
+		Map<CdsConcept, Obs> result = service.getLatestObs(7, concepts);
+
+		// Assert
+		assertEquals(1, result.size());
+		verify(dao, times(1)).getLatestObs(7, concepts);
+	}
+
+	@Test
+	public void testGetLatestObs_NullPatientSkipsDao() {
+		// Act
+		Map<CdsConcept, Obs> result = service.getLatestObs(null, EnumSet.of(CdsConcept.VIRAL_LOAD));
+
+		// Assert
+		assertTrue(result.isEmpty());
+		assertFalse(service.hasObs(null, CdsConcept.EAC_SESSION));
+		verifyZeroInteractions(dao);
+	}
+
 	// Helper methods
+	private IntList createIntList(int... values) {
+		IntList list = new IntList();
+		for (int value : values) {
+			list.add(value);
+		}
+		return list;
+	}
+
 	private List<Integer> createIntegerList(int count) {
 		List<Integer> list = new ArrayList<>();
 		for (int i = 1; i <= count; i++) {
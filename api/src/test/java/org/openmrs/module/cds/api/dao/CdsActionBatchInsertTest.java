@@ -0,0 +1,203 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.cds.api.dto.CdsActionInsertResult;
+import org.openmrs.module.cds.api.dto.CdsActionRecord;
+import org.openmrs.module.cds.testdata.SyntheticClinicalDataGenerator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the batched action insert of ClinicalDataSystemDao against an in-memory H2 database
+ */
+public class CdsActionBatchInsertTest {
+
+	private Connection connection;
+
+	@Before
+	public void setUp() throws Exception {
+		connection = DriverManager.getConnection("jdbc:h2:mem:cds-actions;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+		SyntheticClinicalDataGenerator.createSchema(connection);
+		// like the Hibernate session the DAO borrows the connection from
+		connection.setAutoCommit(false);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		connection.rollback();
+		Statement st = connection.createStatement();
+		st.execute("drop all objects");
+		st.close();
+		connection.close();
+	}
+
+	@Test
+	public void testInsertCdsActions_ReturnsGeneratedIdsAndPerRowFailures() throws Exception {
+		// Arrange
+		CdsActionRecord first = createAction(101, null);
+		CdsActionRecord noPatient = createAction(null, null);
+		CdsActionRecord tooLong = createAction(102, StringUtils.repeat("x", 300));
+		CdsActionRecord last = createAction(103, "Home visit");
+
+		// Act
+		CdsActionInsertResult result = ClinicalDataSystemDao.insertCdsActions(connection,
+		    Arrays.asList(first, noPatient, tooLong, last));
+
+		// Assert
+		assertEquals(2, result.getInsertedCount());
+		assertEquals(Arrays.asList(1, 2), new ArrayList<Integer>(result.getFailures().keySet()));
+		assertNotNull(first.getActionId());
+		assertNotNull(last.getActionId());
+		assertEquals(Arrays.asList(first.getActionId(), null, null, last.getActionId()), result.getActionIds());
+		assertEquals(2, countActions("PENDING"));
+	}
+
+	@Test
+	public void testInsertCdsActions_FailedBatchKeysMatchTheirRows() throws Exception {
+		// Arrange
+		List<CdsActionRecord> actions = new ArrayList<CdsActionRecord>();
+		for (int i = 0; i < 6; i++) {
+			actions.add(createAction(200 + i, i == 2 || i == 4 ? StringUtils.repeat("x", 300) : null));
+		}
+
+		// Act
+		CdsActionInsertResult result = ClinicalDataSystemDao.insertCdsActions(connection, actions);
+
+		// Assert
+		assertEquals(4, result.getInsertedCount());
+		assertEquals(Arrays.asList(2, 4), new ArrayList<Integer>(result.getFailures().keySet()));
+		assertEquals(4, countActions("PENDING"));
+		for (int i = 0; i < 6; i++) {
+			if (i != 2 && i != 4) {
+				assertEquals(Integer.valueOf(200 + i), getPatientId(actions.get(i).getActionId()));
+			}
+		}
+	}
+
+	@Test
+	public void testInsertCdsActions_SpansSeveralBatches() throws Exception {
+		// Arrange
+		List<CdsActionRecord> actions = new ArrayList<CdsActionRecord>();
+		for (int i = 0; i < 1234; i++) {
+			actions.add(createAction(1000 + i, null));
+		}
+
+		// Act
+		CdsActionInsertResult result = ClinicalDataSystemDao.insertCdsActions(connection, actions);
+
+		// Assert
+		assertFalse(result.hasFailures());
+		assertEquals(1234, result.getInsertedCount());
+		assertEquals(1234, countActions("PENDING"));
+		assertTrue(actions.get(1233).getActionId() > actions.get(0).getActionId());
+	}
+
+	@Test
+	public void testInsertCdsActions_CountsPendingActionsPerAssignee() throws Exception {
+		// Arrange
+		CdsActionRecord completed = createAction(104, null);
+		completed.setAssignedToUserId(5);
+		completed.setStatus("COMPLETED");
+		List<CdsActionRecord> actions = Arrays.asList(assign(createAction(101, null), 5), assign(createAction(102, null), 5),
+		    createAction(103, null), completed);
+
+		// Act
+		ClinicalDataSystemDao.insertCdsActions(connection, actions);
+		Map<Integer, Integer> closed = new TreeMap<Integer, Integer>();
+		ClinicalDataSystemDao.addPendingDelta(closed, 5, "PENDING", "COMPLETED");
+		ClinicalDataSystemDao.adjustPendingCounts(connection, closed);
+
+		// Assert
+		assertEquals(1, countQueue(5));
+		assertEquals(1, countQueue(ClinicalDataSystemDao.UNASSIGNED));
+	}
+
+	@Test
+	public void testAdjustPendingCounts_CreatesRowOnFirstUseAndNeverGoesNegative() throws Exception {
+		// Arrange
+		Map<Integer, Integer> decrement = new TreeMap<Integer, Integer>();
+		decrement.put(9, -2);
+		Map<Integer, Integer> increment = new TreeMap<Integer, Integer>();
+		increment.put(9, 3);
+
+		// Act
+		ClinicalDataSystemDao.adjustPendingCounts(connection, decrement);
+		int afterDecrement = countQueue(9);
+		ClinicalDataSystemDao.adjustPendingCounts(connection, increment);
+		ClinicalDataSystemDao.adjustPendingCounts(connection, decrement);
+
+		// Assert
+		assertEquals(0, afterDecrement);
+		assertEquals(1, countQueue(9));
+	}
+
+	private static CdsActionRecord assign(CdsActionRecord action, Integer userId) {
+		action.setAssignedToUserId(userId);
+		return action;
+	}
+
+	private int countQueue(int assignedToUserId) throws Exception {
+		Statement st = connection.createStatement();
+		try {
+			ResultSet rs = st.executeQuery("select pending_count from cds_action_queue_count where assigned_to_user_id = "
+			        + assignedToUserId);
+			return rs.next() ? rs.getInt(1) : 0;
+		}
+		finally {
+			st.close();
+		}
+	}
+
+	private CdsActionRecord createAction(Integer patientId, String nextStep) {
+		CdsActionRecord action = new CdsActionRecord();
+		action.setPatientId(patientId);
+		action.setCallReport("Called client");
+		action.setNextStepAction(nextStep);
+		return action;
+	}
+
+	private Integer getPatientId(Integer actionId) throws Exception {
+		Statement st = connection.createStatement();
+		try {
+			ResultSet rs = st.executeQuery("select patient_id from cds_actions_table where action_id = " + actionId);
+			return rs.next() ? rs.getInt(1) : null;
+		}
+		finally {
+			st.close();
+		}
+	}
+
+	private int countActions(String status) throws Exception {
+		Statement st = connection.createStatement();
+		try {
+			ResultSet rs = st.executeQuery("select count(*) from cds_actions_table where status = '" + status + "'");
+			rs.next();
+			return rs.getInt(1);
+		}
+		finally {
+			st.close();
+		}
+	}
+}
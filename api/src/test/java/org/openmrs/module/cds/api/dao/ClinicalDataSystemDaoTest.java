@@ -10,8 +10,11 @@
 package org.openmrs.module.cds.api.dao;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -22,6 +25,15 @@ import org.mockito.runners.MockitoJUnitRunner;
 import org.openmrs.api.db.hibernate.DbSessionFactory;
 import org.openmrs.api.db.hibernate.DbSession;
 import org.hibernate.SQLQuery;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.jdbc.Work;
+import org.openmrs.module.cds.ClinicalDataSystemConfig;
+import org.openmrs.module.cds.api.dto.CdsActionRecord;
+import org.openmrs.module.cds.api.dto.CdsActionStatusChange;
+import org.openmrs.module.cds.api.dto.ClientEffortEntry;
 
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatcher.*;
@@ -270,6 +282,302 @@ public class ClinicalDataSystemDaoTest {
   verify(session, times(1)).createSQLQuery(anyString());
 	}
 
+	@Test
+	public void testSaveCohortSnapshot_CountsMembersActuallyWritten() {
+		// Arrange
+		when(session.createSQLQuery(anyString())).thenReturn(query);
+		// one of the three IDs has no patient row
+		when(query.executeUpdate()).thenReturn(2);
+
+		// Act
+		dao.saveCohortSnapshot("IIT", 28, Arrays.asList(1, 2, 3), new Date());
+
+		// Assert
+		verify(query).setInteger("patientCount", 2);
+	}
+
+	@Test
+	public void testGetDashboardCountsFromSnapshots_ReadsPendingCountFromQueueCounts() {
+		// Arrange
+		List<Object[]> rows = new ArrayList<>();
+		rows.add(new Object[] { "UPCOMING", 2 });
+		rows.add(new Object[] { "PENDING_ACTIONS", 7L });
+		when(session.createSQLQuery(anyString())).thenReturn(query);
+		when(query.list()).thenReturn(rows);
+
+		// Act
+		Map<String, Integer> result = dao.getDashboardCountsFromSnapshots(300, 277, 277, new Date());
+
+		// Assert
+		assertEquals(Integer.valueOf(2), result.get("UPCOMING"));
+		assertEquals(Integer.valueOf(7), result.get("PENDING_ACTIONS"));
+		assertNull("MISSED has no fresh snapshot", result.get("MISSED"));
+		verify(session, times(1)).createSQLQuery(anyString());
+		verify(session).createSQLQuery(contains("select coalesce(sum(pending_count), 0) from cds_action_queue_count"));
+	}
+
+	@Test
+	public void testStreamCdsActions_SkipsVoidedActionsInIndexOrder() {
+		// Arrange
+		SessionFactory hibernateSessionFactory = mock(SessionFactory.class);
+		StatelessSession statelessSession = mock(StatelessSession.class);
+		ScrollableResults rows = mock(ScrollableResults.class);
+		when(sessionFactory.getHibernateSessionFactory()).thenReturn(hibernateSessionFactory);
+		when(hibernateSessionFactory.openStatelessSession()).thenReturn(statelessSession);
+		when(statelessSession.createSQLQuery(anyString())).thenReturn(query);
+		when(query.scroll(ScrollMode.FORWARD_ONLY)).thenReturn(rows);
+
+		// Act
+		dao.streamCdsActions("PENDING", 100, null);
+
+		// Assert
+		verify(statelessSession).createSQLQuery(contains("where is_voided = 0 and status = :status "
+		        + "order by status desc, is_voided desc, date_created desc, action_id desc"));
+		verify(query).setString("status", "PENDING");
+		verify(rows).close();
+		verify(statelessSession).close();
+	}
+
+	@Test
+	public void testUpdateCdsActionStatuses_OnlyChangesActionsStillInExpectedStatus() {
+		// Arrange
+		SQLQuery lockQuery = mock(SQLQuery.class);
+		SQLQuery updateQuery = mock(SQLQuery.class);
+		when(session.createSQLQuery(startsWith("select action_id"))).thenReturn(lockQuery);
+		when(session.createSQLQuery(startsWith("update"))).thenReturn(updateQuery);
+		List<Object[]> current = new ArrayList<>();
+		current.add(new Object[] { 1, "PENDING", 3, 0 });
+		current.add(new Object[] { 2, "CLOSED", 3, 0 });
+		when(lockQuery.list()).thenReturn(current);
+
+		Map<Integer, CdsActionStatusChange> changes = new HashMap<>();
+		changes.put(1, new CdsActionStatusChange("PENDING", "CLOSED"));
+		changes.put(2, new CdsActionStatusChange("PENDING", "CLOSED"));
+		changes.put(3, new CdsActionStatusChange("PENDING", "CLOSED"));
+		Date modifiedAt = new Date();
+
+		// Act
+		List<Integer> lost = dao.updateCdsActionStatuses(changes, modifiedAt);
+
+		// Assert
+		assertEquals(Arrays.asList(2, 3), lost);
+		verify(session, times(1)).createSQLQuery(startsWith("update"));
+		verify(updateQuery).setString("status0", "CLOSED");
+		verify(updateQuery).setTimestamp("modifiedAt", modifiedAt);
+		verify(updateQuery).setParameterList("ids", Arrays.asList(1));
+		verify(updateQuery, times(1)).executeUpdate();
+		verify(session, times(1)).doWork(any(Work.class));
+	}
+
+	@Test
+	public void testUpdateCdsActionStatus_StampsDateModified() {
+		// Arrange
+		SQLQuery lockQuery = mock(SQLQuery.class);
+		SQLQuery updateQuery = mock(SQLQuery.class);
+		when(session.createSQLQuery(startsWith("select status"))).thenReturn(lockQuery);
+		when(session.createSQLQuery(startsWith("update"))).thenReturn(updateQuery);
+		when(lockQuery.uniqueResult()).thenReturn(new Object[] { "PENDING", 3, 0 });
+		Date modifiedAt = new Date(1000L);
+
+		// Act
+		dao.updateCdsActionStatus(41, "CLOSED", modifiedAt);
+
+		// Assert
+		verify(session).createSQLQuery(contains("date_modified = :modifiedAt"));
+		verify(updateQuery).setString("status", "CLOSED");
+		verify(updateQuery).setTimestamp("modifiedAt", modifiedAt);
+		verify(updateQuery, times(1)).executeUpdate();
+		verify(session, times(1)).doWork(any(Work.class));
+	}
+
+	@Test
+	public void testGetPendingCdsActionsPage_SeeksPastCursorForAssignee() {
+		// Arrange
+		when(session.createSQLQuery(anyString())).thenReturn(query);
+		List<Object[]> rows = new ArrayList<>();
+		rows.add(new Object[] { 41, 7, null, "Called", "Home visit", 3, "PENDING", new Date(1000L) });
+		when(query.list()).thenReturn(rows);
+		Date before = new Date(5000L);
+
+		// Act
+		List<CdsActionRecord> page = dao.getPendingCdsActions(3, before, 42, 26);
+
+		// Assert
+		assertEquals(1, page.size());
+		assertEquals(Integer.valueOf(41), page.get(0).getActionId());
+		verify(session).createSQLQuery(contains("and assigned_to_user_id = :assignedTo and (date_created < :beforeDate "
+		        + "or (date_created = :beforeDate and action_id < :beforeId)) order by date_created desc, action_id desc"));
+		verify(query).setTimestamp("beforeDate", before);
+		verify(query).setInteger("beforeId", 42);
+		verify(query).setMaxResults(26);
+	}
+
+	@Test
+	public void testGetPendingCdsActionsPage_FirstPageHasNoCursor() {
+		// Arrange
+		when(session.createSQLQuery(anyString())).thenReturn(query);
+		when(query.list()).thenReturn(new ArrayList<>());
+
+		// Act
+		dao.getPendingCdsActions(null, null, null, 51);
+
+		// Assert
+		verify(session).createSQLQuery(contains("where status = 'PENDING' and is_voided = 0 order by"));
+		verify(query, never()).setTimestamp(anyString(), any(Date.class));
+		verify(query).setMaxResults(51);
+	}
+
+	@Test
+	public void testGetPendingActionCountsByAssignee_MapsUnassignedToNull() {
+		// Arrange
+		when(session.createSQLQuery(anyString())).thenReturn(query);
+		List<Object[]> rows = new ArrayList<>();
+		rows.add(new Object[] { 0, 4 });
+		rows.add(new Object[] { 7, 12 });
+		when(query.list()).thenReturn(rows);
+
+		// Act
+		Map<Integer, Integer> counts = dao.getPendingActionCountsByAssignee();
+
+		// Assert
+		assertEquals(Integer.valueOf(4), counts.get(null));
+		assertEquals(Integer.valueOf(12), counts.get(7));
+		assertEquals(2, counts.size());
+	}
+
+	@Test
+	public void testAddPendingDelta_OnlyCountsMovesInAndOutOfPending() {
+		// Arrange
+		Map<Integer, Integer> deltas = new HashMap<>();
+
+		// Act
+		ClinicalDataSystemDao.addPendingDelta(deltas, 7, null, "PENDING");
+		ClinicalDataSystemDao.addPendingDelta(deltas, 7, null, "PENDING");
+		ClinicalDataSystemDao.addPendingDelta(deltas, 7, "PENDING", "CLOSED");
+		ClinicalDataSystemDao.addPendingDelta(deltas, null, "CLOSED", "PENDING");
+		ClinicalDataSystemDao.addPendingDelta(deltas, 8, "CLOSED", "COMPLETED");
+
+		// Assert
+		assertEquals(Integer.valueOf(1), deltas.get(7));
+		assertEquals(Integer.valueOf(1), deltas.get(ClinicalDataSystemDao.UNASSIGNED));
+		assertFalse(deltas.containsKey(8));
+	}
+
+	@Test
+	public void testGetClientEffort_ReturnsStatusConceptIdsWithoutNameSubquery() {
+		// Arrange
+		when(session.createSQLQuery(anyString())).thenReturn(query);
+		List<Object[]> rows = new ArrayList<>();
+		rows.add(new Object[] { new Date(1000L), 165899, "Called twice" });
+		rows.add(new Object[] { new Date(500L), null, null });
+		when(query.list()).thenReturn(rows);
+
+		// Act
+		List<ClientEffortEntry> entries = dao.getClientEffort(7);
+
+		// Assert
+		assertEquals(Integer.valueOf(165899), entries.get(0).getStatusConceptId());
+		assertNull(entries.get(0).getStatus());
+		assertEquals("Called twice", entries.get(0).getComments());
+		assertNull(entries.get(1).getStatusConceptId());
+		verify(session, never()).createSQLQuery(contains("concept_name"));
+	}
+
+	@Test
+	public void testGetMissedAppointmentPatientIds_RangeScansVisitSummaryOnceBuilt() {
+		// Arrange
+		SQLQuery summaryQuery = mock(SQLQuery.class);
+		when(session.createSQLQuery(startsWith("delete"))).thenReturn(summaryQuery);
+		when(session.createSQLQuery(startsWith("insert"))).thenReturn(summaryQuery);
+		when(session.createSQLQuery(startsWith("select"))).thenReturn(query);
+		when(query.list()).thenReturn(new ArrayList<>());
+		dao.refreshVisitSummaries(null);
+		when(query.getNamedParameters()).thenReturn(new String[] { "missedUntil", "missedFrom" });
+		Date now = new Date();
+		Date fromDate = new Date(now.getTime() - 28 * 24 * 60 * 60 * 1000L);
+
+		// Act
+		dao.getMissedAppointmentPatientIds(fromDate, now);
+
+		// Assert
+		assertTrue(dao.isVisitSummaryReady());
+		verify(session).createSQLQuery(contains("from cds_patient_visit_summary e where e.latest_appointment_date"));
+		verify(session, never()).createSQLQuery(contains("not exists"));
+		verify(query).setDate("missedFrom", fromDate);
+		verify(query, never()).setParameterList(eq("attendanceForms"), anyCollection());
+	}
+
+	@Test
+	public void testRefreshVisitSummaries_ReplacesRowsOfGivenPatients() {
+		// Arrange
+		when(session.createSQLQuery(anyString())).thenReturn(query);
+		when(query.executeUpdate()).thenReturn(1);
+
+		// Act
+		dao.refreshVisitSummaries(Arrays.asList(7, 9));
+
+		// Assert
+		assertFalse("a partial refresh does not make the summary ready", dao.isVisitSummaryReady());
+		verify(session).createSQLQuery("delete from cds_patient_visit_summary where patient_id in (:patientIds)");
+		verify(session).createSQLQuery(startsWith("insert into cds_patient_visit_summary"));
+		verify(query, times(2)).setParameterList("patientIds", Arrays.asList(7, 9));
+	}
+
+	@Test
+	public void testGetIITLatestAppointments_GroupsAppointmentsBeforeTrackingCheck() {
+		// Arrange
+		when(session.createSQLQuery(anyString())).thenReturn(query);
+		Date appointment = new Date(1000L);
+		List<Object[]> rows = new ArrayList<>();
+		rows.add(new Object[] { 3, appointment });
+		rows.add(new Object[] { 8, appointment });
+		when(query.list()).thenReturn(rows);
+		Date now = new Date();
+		Date fromDate = new Date(now.getTime() - 28 * 24 * 60 * 60 * 1000L);
+
+		// Act
+		Map<Integer, Date> result = dao.getIITLatestAppointments(fromDate, now);
+
+		// Assert
+		assertEquals(Arrays.asList(3, 8), new ArrayList<>(result.keySet()));
+		assertEquals(appointment, result.get(3));
+		verify(session).createSQLQuery(contains("max(o_appt.value_datetime) as latest_appointment_date"));
+		verify(session, never()).createSQLQuery(contains("join obs o_appt on o_appt.person_id = e.patient_id"));
+		verify(query).setDate("iitFrom", fromDate);
+		verify(query).setDate("iitUntil", now);
+	}
+
+	@Test
+	public void testUpcomingAndMissedQueries_KeyOnLatestAppointment() {
+		// Arrange
+		when(session.createSQLQuery(anyString())).thenReturn(query);
+		when(query.list()).thenReturn(new ArrayList<>());
+		Date now = new Date();
+
+		// Act
+		dao.getUpcomingAppointmentPatientIds(now, new Date(now.getTime() + 28 * 24 * 60 * 60 * 1000L));
+		dao.getMissedAppointmentPatientIds(new Date(now.getTime() - 28 * 24 * 60 * 60 * 1000L), now);
+
+		// Assert
+		verify(session).createSQLQuery(contains("where e.latest_appointment_date between :upcomingFrom and :upcomingUntil"));
+		verify(session).createSQLQuery(contains("e2.encounter_datetime >= e.latest_appointment_date"));
+		verify(session, never()).createSQLQuery(contains("o.value_datetime"));
+	}
+
+	@Test
+	public void testCohortQueries_GetStatementTimeout() {
+		// Arrange
+		when(session.createSQLQuery(anyString())).thenReturn(query);
+		when(query.list()).thenReturn(new ArrayList<>());
+		Date now = new Date();
+
+		// Act
+		dao.getIITPatientIds(new Date(now.getTime() - 28 * 24 * 60 * 60 * 1000L), now);
+
+		// Assert
+		verify(query).setTimeout(ClinicalDataSystemConfig.DEFAULT_COHORT_QUERY_TIMEOUT_SECONDS);
+	}
+
 	// Helper methods
 	private List<Integer> createIntegerList(int count) {
 		List<Integer> list = new ArrayList<>();
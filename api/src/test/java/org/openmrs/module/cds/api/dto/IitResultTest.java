@@ -0,0 +1,86 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api.dto;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.cds.api.IitBucket;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the IitResult days-overdue buckets and paging
+ */
+public class IitResultTest {
+
+	private Date now;
+
+	@Before
+	public void setUp() {
+		Calendar cal = Calendar.getInstance();
+		cal.set(2024, Calendar.MARCH, 15, 10, 30, 0);
+		now = cal.getTime();
+	}
+
+	@Test
+	public void testOf_CountsWholeDaysIntoBuckets() {
+		// Arrange
+		Map<Integer, Date> latest = new HashMap<Integer, Date>();
+		latest.put(9, day(-1, 23)); // late yesterday is one day overdue
+		latest.put(4, day(-7, 0));
+		latest.put(7, day(-8, 12));
+		latest.put(2, day(-28, 9));
+		latest.put(1, day(-29, 9));
+
+		// Act
+		IitResult result = IitResult.of(now, 90, latest);
+
+		// Assert
+		assertEquals(Arrays.asList(1, 2, 4, 7, 9), result.getPatientIds());
+		assertEquals(1, result.getPatients().get(4).getDaysOverdue());
+		assertEquals(IitBucket.DAYS_1_TO_7, result.getPatients().get(2).getBucket());
+		assertEquals(IitBucket.DAYS_8_TO_28, result.getPatients().get(3).getBucket());
+		assertEquals(IitBucket.DAYS_8_TO_28, result.getPatients().get(1).getBucket());
+		assertEquals(IitBucket.DAYS_29_PLUS, result.getPatients().get(0).getBucket());
+		assertEquals(Integer.valueOf(2), result.getBucketCounts().get(IitBucket.DAYS_1_TO_7));
+		assertEquals(2, result.getCount(IitBucket.DAYS_8_TO_28));
+		assertEquals(1, result.getCount(IitBucket.DAYS_29_PLUS));
+	}
+
+	@Test
+	public void testPage_StartsAfterPatientId() {
+		// Arrange
+		Map<Integer, Date> latest = new HashMap<Integer, Date>();
+		for (int id = 10; id <= 50; id += 10) {
+			latest.put(id, day(-3, 0));
+		}
+		IitResult result = IitResult.of(now, 28, latest);
+
+		// Act & Assert
+		assertEquals(2, result.page(null, 2).size());
+		assertEquals(Integer.valueOf(30), result.page(25, 2).get(0).getPatientId());
+		assertEquals(Integer.valueOf(40), result.page(30, 2).get(0).getPatientId());
+		assertTrue(result.page(50, 2).isEmpty());
+	}
+
+	private Date day(int offset, int hour) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(now);
+		cal.add(Calendar.DAY_OF_MONTH, offset);
+		cal.set(Calendar.HOUR_OF_DAY, hour);
+		return cal.getTime();
+	}
+}
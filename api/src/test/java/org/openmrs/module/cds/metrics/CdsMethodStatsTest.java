@@ -0,0 +1,61 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CdsMethodStats histogram and counters
+ */
+public class CdsMethodStatsTest {
+
+	@Test
+	public void testBuckets_AreContiguousAndCoverTheirBounds() {
+		for (int bucket = 0; bucket < CdsMethodStats.BUCKETS - 1; bucket++) {
+			long lower = CdsMethodStats.lowerBoundMicros(bucket);
+			long upper = CdsMethodStats.upperBoundMicros(bucket);
+			assertTrue(upper > lower);
+			assertEquals(bucket, CdsMethodStats.bucketFor(lower));
+			assertEquals(bucket, CdsMethodStats.bucketFor(upper - 1));
+		}
+	}
+
+	@Test
+	public void testPercentiles_WithinBucketError() {
+		// Arrange
+		CdsMethodStats stats = new CdsMethodStats("dao.query");
+		for (int i = 1; i <= 100; i++) {
+			stats.record(TimeUnit.MILLISECONDS.toNanos(i), 10, i == 100);
+		}
+
+		// Act
+		double p50 = stats.getP50Millis();
+		double p99 = stats.getP99Millis();
+
+		// Assert
+		assertEquals(100, stats.getCalls());
+		assertEquals(1, stats.getErrors());
+		assertEquals(1000, stats.getRows());
+		assertTrue(p50 >= 50 && p50 <= 50 * 1.25);
+		assertTrue(p99 >= 99 && p99 <= 99 * 1.25);
+		assertEquals(50.5, stats.getMeanMillis(), 0.01);
+	}
+
+	@Test
+	public void testEmptyStats() {
+		CdsMethodStats stats = new CdsMethodStats("unused");
+		assertEquals(0, stats.getP95Millis(), 0);
+		assertEquals(0, stats.getMeanMillis(), 0);
+	}
+}
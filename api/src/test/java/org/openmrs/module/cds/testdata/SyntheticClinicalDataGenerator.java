@@ -0,0 +1,642 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.testdata;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.cds.api.CdsConcept;
+import org.openmrs.module.cds.api.CdsConceptRegistry;
+import org.openmrs.module.cds.api.CdsForm;
+
+/**
+ * Fills an OpenMRS database with synthetic ART patients for load testing the CDS queries, the line
+ * lists and the patient dashboard. Works over plain JDBC against H2 (MySQL mode, see
+ * {@link #createSchema(Connection)}) or a local MySQL copy of an NMRS database.
+ * <p>
+ * Each patient gets two years of history: pharmacy pickups on form 27 with an appointment date
+ * (5096), regimen and line obs; clinical visits on form 14; viral load (856) on form 21 roughly
+ * every six months with EAC sessions after a high result. A share of patients stop attending; most
+ * of those get tracking encounters on form 13, cds_tracking_efforts rows and cds_actions_table
+ * rows. Generation is deterministic for a given seed and reference date, and new IDs start after
+ * the largest existing ones, so it can be run on top of real data.
+ * <p>
+ * Against MySQL, the forms, concepts, location, creator user and PEPFAR identifier type must exist,
+ * and adding rewriteBatchedStatements=true to the URL makes inserts much faster:
+ *
+ * <pre>
+ * mvn -pl api test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.openmrs.module.cds.testdata.SyntheticClinicalDataGenerator \
+ *     -Dexec.args="jdbc:mysql://localhost:3306/openmrs?rewriteBatchedStatements=true openmrs secret 100000"
+ * </pre>
+ */
+public class SyntheticClinicalDataGenerator {
+
+	private static final Log log = LogFactory.getLog(SyntheticClinicalDataGenerator.class);
+
+	public static final String H2_SCHEMA = "/cds-synthetic-schema.sql";
+
+	private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+	private static final int HISTORY_DAYS = 730;
+
+	private static final int CLINICAL_FORM = 14;
+
+	private static final int LAB_FORM = 21;
+
+	private static final int DEFAULT_ENCOUNTER_TYPE = 1;
+
+	/*
+	 * Answer concepts written as value_coded. They only need to exist when the target is MySQL with
+	 * foreign keys; the H2 schema seeds names for the tracking statuses.
+	 */
+	private static final int YES = 1065;
+
+	private static final int[] REGIMENS = { 165681, 165682, 165691, 164512 };
+
+	private static final int FIRST_LINE = 164507;
+
+	private static final int SECOND_LINE = 164513;
+
+	private static final int[] TRACKING_STATUSES = { 165899, 165900, 165901, 165902 };
+
+	private static final String[] TRACKING_STATUS_NAMES = { "Client reached", "Not reachable", "Wrong phone number",
+	        "Returned to care" };
+
+	private static final String[] CONTACT_METHODS = { "Phone Call", "Home Visit", "Contact via CHW" };
+
+	private static final String[] GIVEN_NAMES = { "Amina", "Chinedu", "Ngozi", "Emeka", "Fatima", "Tunde", "Halima",
+	        "Ifeanyi", "Blessing", "Musa", "Aisha", "Obinna", "Zainab", "Segun", "Grace", "Yusuf" };
+
+	private static final String[] FAMILY_NAMES = { "Okafor", "Bello", "Adeyemi", "Eze", "Ibrahim", "Okonkwo", "Abubakar",
+	        "Nwosu", "Ogunleye", "Danjuma", "Achebe", "Lawal", "Obi", "Balogun" };
+
+	private int patients = 10000;
+
+	private long seed = 42L;
+
+	private Date referenceDate = new Date();
+
+	private int locationId = 1;
+
+	private int creatorId = 1;
+
+	private int pepfarIdentifierTypeId = CdsConceptRegistry.DEFAULT_PEPFAR_IDENTIFIER_TYPE;
+
+	private double interruptedShare = 0.2;
+
+	private double trackedShare = 0.6;
+
+	private double highViralLoadShare = 0.15;
+
+	private int batchSize = 5000;
+
+	public void setPatients(int patients) {
+		this.patients = patients;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * "Today" for the generated histories; appointments after it form the upcoming cohort
+	 */
+	public void setReferenceDate(Date referenceDate) {
+		this.referenceDate = referenceDate;
+	}
+
+	public void setLocationId(int locationId) {
+		this.locationId = locationId;
+	}
+
+	public void setCreatorId(int creatorId) {
+		this.creatorId = creatorId;
+	}
+
+	public void setPepfarIdentifierTypeId(int pepfarIdentifierTypeId) {
+		this.pepfarIdentifierTypeId = pepfarIdentifierTypeId;
+	}
+
+	/**
+	 * Share of patients who stop attending at some point in the last six months (default 0.2)
+	 */
+	public void setInterruptedShare(double interruptedShare) {
+		this.interruptedShare = interruptedShare;
+	}
+
+	/**
+	 * Share of interrupted patients who get tracking encounters and efforts (default 0.6)
+	 */
+	public void setTrackedShare(double trackedShare) {
+		this.trackedShare = trackedShare;
+	}
+
+	public void setHighViralLoadShare(double highViralLoadShare) {
+		this.highViralLoadShare = highViralLoadShare;
+	}
+
+	/**
+	 * Rows per JDBC batch; each full batch is committed
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Creates the tables the generator writes and the CDS queries read. Only needed for H2.
+	 */
+	public static void createSchema(Connection connection) throws SQLException, IOException {
+		InputStream in = SyntheticClinicalDataGenerator.class.getResourceAsStream(H2_SCHEMA);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		StringBuilder sql = new StringBuilder();
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.trim().startsWith("--")) {
+					sql.append(line).append('\n');
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		Statement st = connection.createStatement();
+		try {
+			for (String statement : sql.toString().split(";")) {
+				if (statement.trim().length() > 0) {
+					st.execute(statement);
+				}
+			}
+		}
+		finally {
+			st.close();
+		}
+	}
+
+	/**
+	 * Generates the configured number of patients and returns how many rows went into each table
+	 */
+	public Counts generate(Connection connection) throws SQLException {
+		Map<Integer, Integer> encounterTypes = loadEncounterTypes(connection);
+		Ids ids = new Ids(connection);
+		Counts counts = new Counts();
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		Writer writer = new Writer(connection, encounterTypes, counts);
+		try {
+			Random random = new Random(seed);
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < patients; i++) {
+				generatePatient(writer, ids, random);
+				if (writer.pending >= batchSize) {
+					writer.flush();
+					connection.commit();
+				}
+				if ((i + 1) % 10000 == 0) {
+					log.info("Generated " + (i + 1) + " of " + patients + " patients in "
+					        + (System.currentTimeMillis() - start) / 1000 + "s");
+				}
+			}
+			writer.flush();
+			connection.commit();
+		}
+		finally {
+			writer.close();
+			connection.setAutoCommit(autoCommit);
+		}
+		return counts;
+	}
+
+	private void generatePatient(Writer w, Ids ids, Random random) throws SQLException {
+		long now = referenceDate.getTime();
+		int patientId = ++ids.person;
+		boolean female = random.nextDouble() < 0.6;
+		int age = Math.max(15, Math.min(80, (int) Math.round(38 + random.nextGaussian() * 11)));
+		long enrolled = now - (30 + random.nextInt(5 * 365)) * DAY_MS;
+		w.person(patientId, female ? "F" : "M", new Date(now - age * 365L * DAY_MS - random.nextInt(365) * DAY_MS),
+		    enrolled, new UUID(random.nextLong(), random.nextLong()));
+		w.name(++ids.name, patientId, GIVEN_NAMES[random.nextInt(GIVEN_NAMES.length)],
+		    FAMILY_NAMES[random.nextInt(FAMILY_NAMES.length)], enrolled, new UUID(random.nextLong(), random.nextLong()));
+		w.identifier(++ids.identifier, patientId, String.format("PEPFAR%07d", patientId), enrolled,
+		    new UUID(random.nextLong(), random.nextLong()));
+
+		// interrupted patients stop picking up at some point in the last six months
+		long stop = random.nextDouble() < interruptedShare ? now - random.nextInt(180) * DAY_MS : Long.MAX_VALUE;
+		int regimen = REGIMENS[random.nextInt(REGIMENS.length)];
+		int line = random.nextDouble() < 0.9 ? FIRST_LINE : SECOND_LINE;
+		long visit = Math.max(enrolled, now - HISTORY_DAYS * DAY_MS);
+		long nextViralLoad = visit + random.nextInt(180) * DAY_MS;
+		long lastAppointment = 0;
+		while (visit <= now && visit <= stop) {
+			int pickup = ++ids.encounter;
+			w.encounter(pickup, patientId, CdsForm.APPOINTMENT.getDefaultId(), visit, random);
+			lastAppointment = visit + refillDays(random) * DAY_MS;
+			w.obs(++ids.obs, patientId, CdsConcept.APPOINTMENT_DATE, pickup, visit, random).valueDatetime(lastAppointment);
+			w.obs(++ids.obs, patientId, CdsConcept.CURRENT_REGIMEN, pickup, visit, random).valueCoded(regimen);
+			w.obs(++ids.obs, patientId, CdsConcept.CURRENT_LINE, pickup, visit, random).valueCoded(line);
+
+			if (random.nextDouble() < 0.7) {
+				w.encounter(++ids.encounter, patientId, CLINICAL_FORM, visit, random);
+			}
+			if (visit >= nextViralLoad) {
+				int lab = ++ids.encounter;
+				w.encounter(lab, patientId, LAB_FORM, visit, random);
+				boolean high = random.nextDouble() < highViralLoadShare;
+				w.obs(++ids.obs, patientId, CdsConcept.VIRAL_LOAD, lab, visit, random).valueNumeric(
+				    high ? 1000 + random.nextInt(200000) : random.nextInt(1000));
+				if (high && visit + 30 * DAY_MS <= now) {
+					long eacDate = visit + 30 * DAY_MS;
+					int eac = ++ids.encounter;
+					w.encounter(eac, patientId, CLINICAL_FORM, eacDate, random);
+					w.obs(++ids.obs, patientId, CdsConcept.EAC_SESSION, eac, eacDate, random).valueCoded(YES);
+				}
+				nextViralLoad = visit + (150 + random.nextInt(60)) * DAY_MS;
+			}
+			// most clients come back within a week of the appointment, some a little early
+			visit = lastAppointment + (random.nextInt(10) - 2) * DAY_MS;
+		}
+
+		if (stop != Long.MAX_VALUE && lastAppointment < now && random.nextDouble() < trackedShare) {
+			int attempts = 1 + random.nextInt(3);
+			for (int i = 0; i < attempts; i++) {
+				long attempt = lastAppointment + (1 + random.nextInt((int) Math.max(1, (now - lastAppointment) / DAY_MS)))
+				        * DAY_MS;
+				int statusIndex = random.nextInt(TRACKING_STATUSES.length);
+				int tracking = ++ids.encounter;
+				w.encounter(tracking, patientId, CdsForm.TRACKING.getDefaultId(), attempt, random);
+				w.obs(++ids.obs, patientId, CdsConcept.TRACKING_STATUS, tracking, attempt, random).valueCoded(
+				    TRACKING_STATUSES[statusIndex]);
+				w.obs(++ids.obs, patientId, CdsConcept.TRACKING_COMMENT, tracking, attempt, random).valueText(
+				    "Attempt " + (i + 1) + ": " + TRACKING_STATUS_NAMES[statusIndex]);
+				if (i == attempts - 1 && random.nextDouble() < 0.2) {
+					w.obs(++ids.obs, patientId, CdsConcept.TRACKING_DISCONTINUED, tracking, attempt, random).valueCoded(YES);
+				}
+				w.trackingEffort(patientId, CONTACT_METHODS[random.nextInt(CONTACT_METHODS.length)], attempt,
+				    TRACKING_STATUS_NAMES[statusIndex]);
+				w.action(patientId, tracking, "Tracking attempt " + (i + 1) + " after missed appointment",
+				    i == attempts - 1 ? "Follow up" : null, i == attempts - 1 ? "PENDING" : "COMPLETED", attempt);
+			}
+		} else if (random.nextDouble() < 0.05) {
+			w.action(patientId, null, "Reviewed at case conference", "Schedule viral load", "PENDING",
+			    now - random.nextInt(90) * DAY_MS);
+		}
+	}
+
+	/**
+	 * Multi-month dispensing: mostly three-month refills, some monthly and six-monthly
+	 */
+	private static int refillDays(Random random) {
+		double roll = random.nextDouble();
+		return roll < 0.25 ? 30 : roll < 0.85 ? 90 : 180;
+	}
+
+	/**
+	 * Encounter type per form from the form table; H2 has no form table, so everything gets the
+	 * default type there
+	 */
+	private static Map<Integer, Integer> loadEncounterTypes(Connection connection) {
+		Map<Integer, Integer> types = new HashMap<Integer, Integer>();
+		try {
+			Statement st = connection.createStatement();
+			try {
+				ResultSet rs = st.executeQuery("select form_id, encounter_type from form where encounter_type is not null");
+				while (rs.next()) {
+					types.put(rs.getInt(1), rs.getInt(2));
+				}
+			}
+			finally {
+				st.close();
+			}
+		}
+		catch (SQLException e) {
+			log.debug("No form table, using encounter type " + DEFAULT_ENCOUNTER_TYPE + " for all forms");
+		}
+		return types;
+	}
+
+	/**
+	 * Rows written per table
+	 */
+	public static class Counts {
+
+		public long patients;
+
+		public long encounters;
+
+		public long obs;
+
+		public long trackingEfforts;
+
+		public long actions;
+
+		@Override
+		public String toString() {
+			return patients + " patients, " + encounters + " encounters, " + obs + " obs, " + trackingEfforts
+			        + " tracking efforts, " + actions + " actions";
+		}
+	}
+
+	/**
+	 * Next free IDs, starting after the largest existing ones
+	 */
+	private static class Ids {
+
+		int person;
+
+		int name;
+
+		int identifier;
+
+		int encounter;
+
+		int obs;
+
+		Ids(Connection connection) throws SQLException {
+			person = max(connection, "person", "person_id");
+			name = max(connection, "person_name", "person_name_id");
+			identifier = max(connection, "patient_identifier", "patient_identifier_id");
+			encounter = max(connection, "encounter", "encounter_id");
+			obs = max(connection, "obs", "obs_id");
+		}
+
+		private static int max(Connection connection, String table, String column) throws SQLException {
+			Statement st = connection.createStatement();
+			try {
+				ResultSet rs = st.executeQuery("select coalesce(max(" + column + "), 0) from " + table);
+				rs.next();
+				return rs.getInt(1);
+			}
+			finally {
+				st.close();
+			}
+		}
+	}
+
+	/**
+	 * One prepared statement per table, flushed together in foreign key order
+	 */
+	private class Writer {
+
+		private final Map<Integer, Integer> encounterTypes;
+
+		private final Counts counts;
+
+		private final PreparedStatement person;
+
+		private final PreparedStatement patient;
+
+		private final PreparedStatement name;
+
+		private final PreparedStatement identifier;
+
+		private final PreparedStatement encounter;
+
+		private final PreparedStatement obs;
+
+		private final PreparedStatement trackingEffort;
+
+		private final PreparedStatement action;
+
+		private final Timestamp created = new Timestamp(referenceDate.getTime());
+
+		private int pending;
+
+		private ObsRow obsRow;
+
+		Writer(Connection c, Map<Integer, Integer> encounterTypes, Counts counts) throws SQLException {
+			this.encounterTypes = encounterTypes;
+			this.counts = counts;
+			person = c.prepareStatement("insert into person (person_id, gender, birthdate, creator, date_created, uuid) "
+			        + "values (?, ?, ?, ?, ?, ?)");
+			patient = c.prepareStatement("insert into patient (patient_id, creator, date_created) values (?, ?, ?)");
+			name = c.prepareStatement("insert into person_name (person_name_id, preferred, person_id, given_name, "
+			        + "family_name, creator, date_created, uuid) values (?, 1, ?, ?, ?, ?, ?, ?)");
+			identifier = c.prepareStatement("insert into patient_identifier (patient_identifier_id, patient_id, "
+			        + "identifier, identifier_type, preferred, location_id, creator, date_created, uuid) "
+			        + "values (?, ?, ?, ?, 1, ?, ?, ?, ?)");
+			encounter = c.prepareStatement("insert into encounter (encounter_id, encounter_type, patient_id, location_id, "
+			        + "form_id, encounter_datetime, creator, date_created, uuid) values (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+			obs = c.prepareStatement("insert into obs (obs_id, person_id, concept_id, encounter_id, obs_datetime, "
+			        + "location_id, value_coded, value_datetime, value_numeric, value_text, creator, date_created, uuid) "
+			        + "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+			trackingEffort = c.prepareStatement("insert into cds_tracking_efforts (patient_id, verification_type, "
+			        + "contact_method, attempted_contact_date, status, outcome, created_by_user_id, date_created) "
+			        + "values (?, 'Client Verification', ?, ?, ?, ?, ?, ?)");
+			action = c.prepareStatement("insert into cds_actions_table (patient_id, action_type, encounter_id, call_report, "
+			        + "next_step_action, assigned_to_user_id, status, created_by_user_id, date_created) "
+			        + "values (?, 'DOCUMENTED_ACTION', ?, ?, ?, ?, ?, ?, ?)");
+		}
+
+		void person(int personId, String gender, Date birthdate, long enrolled, UUID uuid) throws SQLException {
+			person.setInt(1, personId);
+			person.setString(2, gender);
+			person.setDate(3, new java.sql.Date(birthdate.getTime()));
+			person.setInt(4, creatorId);
+			person.setTimestamp(5, new Timestamp(enrolled));
+			person.setString(6, uuid.toString());
+			person.addBatch();
+			patient.setInt(1, personId);
+			patient.setInt(2, creatorId);
+			patient.setTimestamp(3, new Timestamp(enrolled));
+			patient.addBatch();
+			counts.patients++;
+			pending += 2;
+		}
+
+		void name(int nameId, int personId, String givenName, String familyName, long enrolled, UUID uuid)
+		        throws SQLException {
+			name.setInt(1, nameId);
+			name.setInt(2, personId);
+			name.setString(3, givenName);
+			name.setString(4, familyName);
+			name.setInt(5, creatorId);
+			name.setTimestamp(6, new Timestamp(enrolled));
+			name.setString(7, uuid.toString());
+			name.addBatch();
+			pending++;
+		}
+
+		void identifier(int identifierId, int patientId, String value, long enrolled, UUID uuid) throws SQLException {
+			identifier.setInt(1, identifierId);
+			identifier.setInt(2, patientId);
+			identifier.setString(3, value);
+			identifier.setInt(4, pepfarIdentifierTypeId);
+			identifier.setInt(5, locationId);
+			identifier.setInt(6, creatorId);
+			identifier.setTimestamp(7, new Timestamp(enrolled));
+			identifier.setString(8, uuid.toString());
+			identifier.addBatch();
+			pending++;
+		}
+
+		void encounter(int encounterId, int patientId, int formId, long datetime, Random random) throws SQLException {
+			Integer type = encounterTypes.get(formId);
+			encounter.setInt(1, encounterId);
+			encounter.setInt(2, type != null ? type : DEFAULT_ENCOUNTER_TYPE);
+			encounter.setInt(3, patientId);
+			encounter.setInt(4, locationId);
+			encounter.setInt(5, formId);
+			encounter.setTimestamp(6, new Timestamp(datetime));
+			encounter.setInt(7, creatorId);
+			encounter.setTimestamp(8, new Timestamp(datetime));
+			encounter.setString(9, new UUID(random.nextLong(), random.nextLong()).toString());
+			encounter.addBatch();
+			counts.encounters++;
+			pending++;
+		}
+
+		/**
+		 * Starts an obs row; exactly one value setter on the returned row adds it to the batch
+		 */
+		ObsRow obs(int obsId, int personId, CdsConcept concept, int encounterId, long datetime, Random random)
+		        throws SQLException {
+			obs.setInt(1, obsId);
+			obs.setInt(2, personId);
+			obs.setInt(3, concept.getDefaultId());
+			obs.setInt(4, encounterId);
+			obs.setTimestamp(5, new Timestamp(datetime));
+			obs.setInt(6, locationId);
+			obs.setNull(7, Types.INTEGER);
+			obs.setNull(8, Types.TIMESTAMP);
+			obs.setNull(9, Types.DOUBLE);
+			obs.setNull(10, Types.VARCHAR);
+			obs.setInt(11, creatorId);
+			obs.setTimestamp(12, new Timestamp(datetime));
+			obs.setString(13, new UUID(random.nextLong(), random.nextLong()).toString());
+			if (obsRow == null) {
+				obsRow = new ObsRow();
+			}
+			return obsRow;
+		}
+
+		void trackingEffort(int patientId, String contactMethod, long attempted, String status) throws SQLException {
+			trackingEffort.setInt(1, patientId);
+			trackingEffort.setString(2, contactMethod);
+			trackingEffort.setDate(3, new java.sql.Date(attempted));
+			trackingEffort.setString(4, status);
+			trackingEffort.setString(5, status);
+			trackingEffort.setInt(6, creatorId);
+			trackingEffort.setTimestamp(7, new Timestamp(attempted));
+			trackingEffort.addBatch();
+			counts.trackingEfforts++;
+			pending++;
+		}
+
+		void action(int patientId, Integer encounterId, String callReport, String nextStep, String status, long created)
+		        throws SQLException {
+			action.setInt(1, patientId);
+			if (encounterId == null) {
+				action.setNull(2, Types.INTEGER);
+			} else {
+				action.setInt(2, encounterId);
+			}
+			action.setString(3, callReport);
+			action.setString(4, nextStep);
+			action.setInt(5, creatorId);
+			action.setString(6, status);
+			action.setInt(7, creatorId);
+			action.setTimestamp(8, new Timestamp(created));
+			action.addBatch();
+			counts.actions++;
+			pending++;
+		}
+
+		void flush() throws SQLException {
+			person.executeBatch();
+			patient.executeBatch();
+			name.executeBatch();
+			identifier.executeBatch();
+			encounter.executeBatch();
+			obs.executeBatch();
+			trackingEffort.executeBatch();
+			action.executeBatch();
+			pending = 0;
+		}
+
+		void close() throws SQLException {
+			for (PreparedStatement st : new PreparedStatement[] { person, patient, name, identifier, encounter, obs,
+			        trackingEffort, action }) {
+				st.close();
+			}
+		}
+
+		private class ObsRow {
+
+			void valueCoded(int value) throws SQLException {
+				obs.setInt(7, value);
+				add();
+			}
+
+			void valueDatetime(long value) throws SQLException {
+				obs.setTimestamp(8, new Timestamp(value));
+				add();
+			}
+
+			void valueNumeric(double value) throws SQLException {
+				obs.setDouble(9, value);
+				add();
+			}
+
+			void valueText(String value) throws SQLException {
+				obs.setString(10, value);
+				add();
+			}
+
+			private void add() throws SQLException {
+				obs.addBatch();
+				counts.obs++;
+				pending++;
+			}
+		}
+	}
+
+	/**
+	 * Arguments: JDBC URL, user, password, number of patients. An H2 URL gets the schema created
+	 * first.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("Usage: SyntheticClinicalDataGenerator <jdbcUrl> <user> <password> <patients>");
+			System.exit(1);
+		}
+		Connection connection = DriverManager.getConnection(args[0], args[1], args[2]);
+		try {
+			if (args[0].startsWith("jdbc:h2:")) {
+				createSchema(connection);
+			}
+			SyntheticClinicalDataGenerator generator = new SyntheticClinicalDataGenerator();
+			generator.setPatients(Integer.parseInt(args[3]));
+			Counts counts = generator.generate(connection);
+			System.out.println("Generated " + counts);
+		}
+		finally {
+			connection.close();
+		}
+	}
+}
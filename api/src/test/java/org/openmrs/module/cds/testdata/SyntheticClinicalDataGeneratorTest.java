@@ -0,0 +1,121 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.testdata;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs SyntheticClinicalDataGenerator against an in-memory H2 database
+ */
+public class SyntheticClinicalDataGeneratorTest {
+
+	private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+	private final Date referenceDate = new Date(1760000000000L);
+
+	private Connection connection;
+
+	@Before
+	public void setUp() throws Exception {
+		connection = DriverManager.getConnection("jdbc:h2:mem:cds-synthetic;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+		SyntheticClinicalDataGenerator.createSchema(connection);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Statement st = connection.createStatement();
+		st.execute("drop all objects");
+		st.close();
+		connection.close();
+	}
+
+	@Test
+	public void testGenerate_WritesCountedRows() throws Exception {
+		// Arrange
+		SyntheticClinicalDataGenerator generator = new SyntheticClinicalDataGenerator();
+		generator.setPatients(500);
+		generator.setReferenceDate(referenceDate);
+		generator.setBatchSize(700);
+
+		// Act
+		SyntheticClinicalDataGenerator.Counts counts = generator.generate(connection);
+
+		// Assert
+		assertEquals(500, counts.patients);
+		assertEquals(500, count("select count(*) from patient"));
+		assertEquals(500, count("select count(*) from patient_identifier where identifier_type = 4"));
+		assertEquals(counts.encounters, count("select count(*) from encounter"));
+		assertEquals(counts.obs, count("select count(*) from obs"));
+		assertEquals(counts.trackingEfforts, count("select count(*) from cds_tracking_efforts"));
+		assertEquals(counts.actions, count("select count(*) from cds_actions_table"));
+		assertTrue(counts.trackingEfforts > 0);
+		assertTrue(counts.actions > 0);
+	}
+
+	@Test
+	public void testGenerate_FillsEveryCohort() throws Exception {
+		// Arrange
+		SyntheticClinicalDataGenerator generator = new SyntheticClinicalDataGenerator();
+		generator.setPatients(500);
+		generator.setReferenceDate(referenceDate);
+		java.sql.Timestamp now = new java.sql.Timestamp(referenceDate.getTime());
+		java.sql.Timestamp monthAgo = new java.sql.Timestamp(referenceDate.getTime() - 30 * DAY_MS);
+
+		// Act
+		generator.generate(connection);
+
+		// Assert
+		assertTrue(count("select count(*) from obs where concept_id = 5096 and value_datetime > '" + now + "'") > 0);
+		assertTrue(count("select count(*) from obs where concept_id = 5096 and value_datetime between '" + monthAgo
+		        + "' and '" + now + "'") > 0);
+		assertTrue(count("select count(*) from encounter where form_id = 13") > 0);
+		assertTrue(count("select count(*) from obs where concept_id = 856") > 0);
+		assertTrue(count("select count(*) from obs where concept_id = 164506") > 0);
+	}
+
+	@Test
+	public void testGenerate_IsDeterministicAndAppends() throws Exception {
+		// Arrange
+		SyntheticClinicalDataGenerator generator = new SyntheticClinicalDataGenerator();
+		generator.setPatients(100);
+		generator.setReferenceDate(referenceDate);
+
+		// Act
+		SyntheticClinicalDataGenerator.Counts first = generator.generate(connection);
+		SyntheticClinicalDataGenerator.Counts second = generator.generate(connection);
+
+		// Assert
+		assertEquals(first.toString(), second.toString());
+		assertEquals(200, count("select count(*) from patient"));
+		assertEquals(200, count("select max(person_id) from person"));
+	}
+
+	private long count(String sql) throws Exception {
+		Statement st = connection.createStatement();
+		try {
+			ResultSet rs = st.executeQuery(sql);
+			rs.next();
+			return rs.getLong(1);
+		}
+		finally {
+			st.close();
+		}
+	}
+}
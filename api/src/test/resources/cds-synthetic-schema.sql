@@ -0,0 +1,167 @@
+-- The subset of the OpenMRS 1.11 schema read by the CDS queries, for H2 in MySQL mode.
+-- Used by SyntheticClinicalDataGenerator.createSchema; a MySQL target already has these tables.
+
+create table person (
+    person_id int primary key,
+    gender varchar(50),
+    birthdate date,
+    birthdate_estimated tinyint not null default 0,
+    dead tinyint not null default 0,
+    creator int not null,
+    date_created datetime not null,
+    voided tinyint not null default 0,
+    uuid char(38) not null
+);
+
+create table person_name (
+    person_name_id int primary key,
+    preferred tinyint not null default 0,
+    person_id int not null,
+    given_name varchar(50),
+    family_name varchar(50),
+    creator int not null,
+    date_created datetime not null,
+    voided tinyint not null default 0,
+    uuid char(38) not null
+);
+create index person_name_person_id on person_name (person_id);
+
+create table patient (
+    patient_id int primary key,
+    creator int not null,
+    date_created datetime not null,
+    voided tinyint not null default 0
+);
+
+create table patient_identifier (
+    patient_identifier_id int primary key,
+    patient_id int not null,
+    identifier varchar(50) not null,
+    identifier_type int not null,
+    preferred tinyint not null default 0,
+    location_id int,
+    creator int not null,
+    date_created datetime not null,
+    voided tinyint not null default 0,
+    uuid char(38) not null
+);
+create index patient_identifier_patient_id on patient_identifier (patient_id);
+
+create table encounter (
+    encounter_id int primary key,
+    encounter_type int not null,
+    patient_id int not null,
+    location_id int,
+    form_id int,
+    encounter_datetime datetime not null,
+    creator int not null,
+    date_created datetime not null,
+    voided tinyint not null default 0,
+    uuid char(38) not null
+);
+create index encounter_patient_id on encounter (patient_id);
+create index encounter_form_id on encounter (form_id);
+create index encounter_datetime_idx on encounter (encounter_datetime);
+
+create table obs (
+    obs_id int primary key,
+    person_id int not null,
+    concept_id int not null,
+    encounter_id int,
+    obs_datetime datetime not null,
+    location_id int,
+    value_coded int,
+    value_datetime datetime,
+    value_numeric double,
+    value_text varchar(1000),
+    creator int not null,
+    date_created datetime not null,
+    voided tinyint not null default 0,
+    uuid char(38) not null
+);
+create index obs_person_id on obs (person_id);
+create index obs_encounter_id on obs (encounter_id);
+create index obs_concept_id on obs (concept_id);
+create index obs_value_datetime on obs (value_datetime);
+
+create table concept_name (
+    concept_name_id int auto_increment primary key,
+    concept_id int not null,
+    name varchar(255) not null,
+    locale varchar(50) not null,
+    locale_preferred tinyint default 0,
+    concept_name_type varchar(50),
+    voided tinyint not null default 0
+);
+create index concept_name_concept_id on concept_name (concept_id);
+
+create table concept_answer (
+    concept_answer_id int auto_increment primary key,
+    concept_id int not null,
+    answer_concept int
+);
+create index concept_answer_concept_id on concept_answer (concept_id);
+
+create table cds_actions_table (
+    action_id int auto_increment primary key,
+    patient_id int not null,
+    action_type varchar(50),
+    encounter_id int,
+    call_report clob,
+    next_step_action varchar(255),
+    assigned_to_user_id int,
+    assigned_to_user_name varchar(255),
+    status varchar(50) default 'PENDING',
+    notes clob,
+    created_by_user_id int,
+    date_created datetime,
+    date_modified datetime,
+    is_voided tinyint default 0
+);
+create index idx_cds_actions_patient_id on cds_actions_table (patient_id);
+create index idx_cds_actions_status on cds_actions_table (status);
+create index idx_cds_actions_date_created on cds_actions_table (date_created);
+create index idx_cds_actions_pending_queue on cds_actions_table (status, is_voided, date_created, action_id);
+create index idx_cds_actions_assignee_queue on cds_actions_table (assigned_to_user_id, status, date_created, action_id);
+
+create table cds_action_queue_count (
+    assigned_to_user_id int primary key,
+    pending_count int not null default 0
+);
+
+create table cds_patient_visit_summary (
+    patient_id int primary key,
+    latest_appointment_date datetime,
+    latest_visit_date datetime,
+    date_updated datetime not null
+);
+create index idx_cds_visit_summary_appointment on cds_patient_visit_summary (latest_appointment_date, latest_visit_date);
+
+create table cds_tracking_efforts (
+    tracking_id int auto_increment primary key,
+    patient_id int not null,
+    verification_type varchar(100),
+    contact_method varchar(100),
+    attempted_contact_date date,
+    status varchar(50),
+    outcome clob,
+    notes clob,
+    created_by_user_id int,
+    created_by_user_name varchar(255),
+    date_created datetime,
+    date_modified datetime,
+    is_voided tinyint default 0
+);
+create index idx_cds_tracking_patient_id on cds_tracking_efforts (patient_id);
+
+-- Names of the tracking status answers written by the generator
+insert into concept_name (concept_id, name, locale, concept_name_type) values (165899, 'Client reached', 'en', 'FULLY_SPECIFIED');
+insert into concept_name (concept_id, name, locale, concept_name_type) values (165900, 'Not reachable', 'en', 'FULLY_SPECIFIED');
+insert into concept_name (concept_id, name, locale, concept_name_type) values (165901, 'Wrong phone number', 'en', 'FULLY_SPECIFIED');
+insert into concept_name (concept_id, name, locale, concept_name_type) values (165902, 'Returned to care', 'en', 'FULLY_SPECIFIED');
+
+-- The generator's tracking status answers of the tracking status question (167239)
+insert into concept_answer (concept_id, answer_concept) values (167239, 165899);
+insert into concept_answer (concept_id, answer_concept) values (167239, 165900);
+insert into concept_answer (concept_id, answer_concept) values (167239, 165901);
+insert into concept_answer (concept_id, answer_concept) values (167239, 165902);
@@ -0,0 +1,63 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api.dao;
+
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.module.cds.api.dto.CdsActionRecord;
+
+/**
+ * The Object[] to CdsActionRecord mapping shared by the action queries, on rows shaped like the
+ * ones MySQL returns (BigInteger ids, Timestamp dates, some null columns).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ActionRecordMappingBenchmark {
+
+	@Param({ "100", "10000" })
+	public int rows;
+
+	private List<Object[]> resultSet;
+
+	@Setup
+	public void setUp() {
+		resultSet = new ArrayList<Object[]>(rows);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < rows; i++) {
+			resultSet.add(new Object[] { BigInteger.valueOf(i + 1), i % 5000 + 1, i % 3 == 0 ? null : i + 10,
+			        "Client reached by phone", i % 2 == 0 ? "Schedule EAC" : null, i % 4 == 0 ? null : 7,
+			        i % 10 == 0 ? "COMPLETED" : "PENDING", new Timestamp(now - i * 60000L) });
+		}
+	}
+
+	@Benchmark
+	public List<CdsActionRecord> toActionRecords() {
+		return ClinicalDataSystemDao.toActionRecords(resultSet);
+	}
+}
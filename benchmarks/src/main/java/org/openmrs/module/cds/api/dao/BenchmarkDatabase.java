@@ -0,0 +1,105 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Configuration;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.cds.testdata.SyntheticClinicalDataGenerator;
+
+/**
+ * An in-memory H2 database (MySQL mode) holding the subset of the OpenMRS schema the CDS queries
+ * read, filled by {@link SyntheticClinicalDataGenerator}, and a ClinicalDataSystemDao wired to it
+ * through a plain Hibernate session factory.
+ */
+public class BenchmarkDatabase {
+
+	private final String url;
+
+	private final long now;
+
+	private Connection keepAlive;
+
+	private SessionFactory sessionFactory;
+
+	private ClinicalDataSystemDao dao;
+
+	private Transaction transaction;
+
+	public BenchmarkDatabase(String name, long now) {
+		this.url = "jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+		this.now = now;
+	}
+
+	/**
+	 * Creates the schema and generates the given number of patients with the generator's default
+	 * distributions (about 5 encounters and 12 obs per patient)
+	 */
+	public SyntheticClinicalDataGenerator.Counts create(int patients) throws Exception {
+		Class.forName("org.h2.Driver");
+		keepAlive = DriverManager.getConnection(url, "sa", "");
+		SyntheticClinicalDataGenerator.createSchema(keepAlive);
+		SyntheticClinicalDataGenerator generator = new SyntheticClinicalDataGenerator();
+		generator.setPatients(patients);
+		generator.setReferenceDate(new Date(now));
+		SyntheticClinicalDataGenerator.Counts counts = generator.generate(keepAlive);
+
+		Configuration cfg = new Configuration();
+		cfg.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+		cfg.setProperty("hibernate.connection.url", url);
+		cfg.setProperty("hibernate.connection.username", "sa");
+		cfg.setProperty("hibernate.connection.password", "");
+		cfg.setProperty("hibernate.connection.pool_size", "4");
+		cfg.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+		cfg.setProperty("hibernate.current_session_context_class", "thread");
+		sessionFactory = cfg.buildSessionFactory();
+
+		dao = new ClinicalDataSystemDao();
+		dao.setSessionFactory(new DbSessionFactory(sessionFactory));
+		return counts;
+	}
+
+	public ClinicalDataSystemDao getDao() {
+		return dao;
+	}
+
+	/**
+	 * Opens a transaction on the current session, as the service layer would around a DAO call
+	 */
+	public void begin() {
+		transaction = sessionFactory.getCurrentSession().beginTransaction();
+	}
+
+	public void rollback() {
+		if (transaction != null) {
+			transaction.rollback();
+			transaction = null;
+		}
+	}
+
+	public void close() throws SQLException {
+		if (sessionFactory != null) {
+			sessionFactory.close();
+		}
+		if (keepAlive != null) {
+			Statement st = keepAlive.createStatement();
+			st.execute("shutdown");
+			st.close();
+			keepAlive.close();
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.api.dao;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.module.cds.api.CdsCohortType;
+import org.openmrs.module.cds.api.IntList;
+import org.openmrs.module.cds.api.dto.ClientEffortEntry;
+
+/**
+ * Throughput of the upcoming, missed and IIT cohort queries and of getClientEffort against the H2
+ * benchmark database. Each invocation runs in its own transaction, as it would behind the service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CohortQueryBenchmark {
+
+	private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+	@Param({ "10000", "100000" })
+	public int patients;
+
+	@Param({ "30" })
+	public int windowDays;
+
+	private BenchmarkDatabase database;
+
+	private ClinicalDataSystemDao dao;
+
+	private Date now;
+
+	private Date until;
+
+	private Date from;
+
+	private int nextPatientId;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		long nowMs = System.currentTimeMillis();
+		now = new Date(nowMs);
+		until = new Date(nowMs + windowDays * DAY_MS);
+		from = new Date(nowMs - windowDays * DAY_MS);
+		database = new BenchmarkDatabase("cds-cohorts-" + patients, nowMs);
+		System.out.println("Generated " + database.create(patients));
+		dao = database.getDao();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		database.close();
+	}
+
+	@Setup(Level.Invocation)
+	public void begin() {
+		database.begin();
+	}
+
+	@TearDown(Level.Invocation)
+	public void end() {
+		database.rollback();
+	}
+
+	@Benchmark
+	public List<Integer> upcoming() {
+		return dao.getUpcomingAppointmentPatientIds(now, until);
+	}
+
+	@Benchmark
+	public List<Integer> missed() {
+		return dao.getMissedAppointmentPatientIds(from, now);
+	}
+
+	@Benchmark
+	public List<Integer> iit() {
+		return dao.getIITPatientIds(from, now);
+	}
+
+	@Benchmark
+	public IntList iitIntList() {
+		return dao.getCohortPatientIdList(CdsCohortType.IIT, now, until, from, from);
+	}
+
+	@Benchmark
+	public List<ClientEffortEntry> clientEffort() {
+		nextPatientId = nextPatientId % patients + 1;
+		return dao.getClientEffort(nextPatientId);
+	}
+}
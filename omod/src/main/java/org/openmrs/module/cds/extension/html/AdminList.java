@@ -44,6 +44,7 @@ public class AdminList extends AdministrationSectionExt {
 		
 		map.put("module/cds/cds.form", "cds.title");
 		map.put("cds/cds.page", "cds.refapp.title");
+		map.put("cds/cdsMetrics.page", "cds.metrics.title");
 		
 		return map;
 	}
@@ -13,30 +13,73 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.cds.api.ClinicalDataSystemService;
+import org.openmrs.module.cds.api.dto.CdsActionCursor;
 import org.openmrs.module.cds.api.dto.CdsActionRecord;
+import org.openmrs.module.cds.metrics.CdsMetrics;
 import org.openmrs.ui.framework.fragment.FragmentModel;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestParam;
 
 import java.util.List;
 
 /**
- * Fragment controller for displaying pending CDS actions
+ * Fragment controller for displaying pending CDS actions, newest first, one keyset page at a time
  */
 @Controller
 public class ActionsListFragmentController {
 
 	protected final Log log = LogFactory.getLog(this.getClass());
 
-	public void controller(FragmentModel model) {
+	private static final int DEFAULT_PAGE_SIZE = 50;
+
+	private static final int MAX_PAGE_SIZE = 500;
+
+	/**
+	 * @param actionsCursor position after the last action shown, as dateCreatedMillis:actionId
+	 * @param assignedTo only actions assigned to this user ID
+	 * @param mine only actions assigned to the logged-in user
+	 */
+	public void controller(FragmentModel model,
+	        @RequestParam(value = "actionsCursor", required = false) String actionsCursor,
+	        @RequestParam(value = "actionsPageSize", defaultValue = "" + DEFAULT_PAGE_SIZE) int actionsPageSize,
+	        @RequestParam(value = "assignedTo", required = false) Integer assignedTo,
+	        @RequestParam(value = "mine", defaultValue = "false") boolean mine) {
+		CdsMetrics.Sample sample = CdsMetrics.time("ActionsListFragmentController.controller");
 		try {
 			ClinicalDataSystemService cdsService = Context.getService(ClinicalDataSystemService.class);
-			List<CdsActionRecord> pendingActions = cdsService.getPendingCdsActions();
+			int pageSize = Math.max(1, Math.min(actionsPageSize, MAX_PAGE_SIZE));
+			CdsActionCursor cursor = CdsActionCursor.parse(actionsCursor);
+			Integer userId = Context.getAuthenticatedUser() != null ? Context.getAuthenticatedUser().getUserId() : null;
+			mine = mine && userId != null;
+
+			// one extra row tells us whether there is a next page
+			List<CdsActionRecord> pendingActions;
+			if (mine) {
+				pendingActions = cdsService.getActionQueueForUser(userId, cursor, pageSize + 1);
+			} else {
+				pendingActions = cdsService.getPendingCdsActions(assignedTo, cursor != null ? cursor.getDateCreated()
+				        : null, cursor != null ? cursor.getActionId() : null, pageSize + 1);
+			}
+			CdsActionCursor nextCursor = null;
+			if (pendingActions.size() > pageSize) {
+				pendingActions = pendingActions.subList(0, pageSize);
+				nextCursor = CdsActionCursor.after(pendingActions.get(pageSize - 1));
+			}
 
 			model.addAttribute("pendingActions", pendingActions);
+			model.addAttribute("cursor", cursor != null ? cursor.toString() : null);
+			model.addAttribute("nextCursor", nextCursor != null ? nextCursor.toString() : null);
+			model.addAttribute("pageSize", pageSize);
+			model.addAttribute("assignedTo", mine ? null : assignedTo);
+			model.addAttribute("mine", mine);
+			model.addAttribute("myPendingCount", userId != null ? cdsService.getPendingCdsActionCount(userId) : null);
+			sample.setRows(pendingActions.size());
 		} catch (Exception e) {
+			sample.setError();
 			log.error("Error loading pending actions list", e);
 			model.addAttribute("error", "Error loading pending actions data");
+		} finally {
+			sample.stop();
 		}
 	}
 }
-
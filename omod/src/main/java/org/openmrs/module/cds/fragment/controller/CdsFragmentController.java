@@ -12,18 +12,17 @@ package org.openmrs.module.cds.fragment.controller;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.cds.api.CdsCircuitBreaker;
 import org.openmrs.module.cds.api.ClinicalDataSystemService;
 import org.openmrs.module.cds.api.dto.CdsActionRecord;
+import org.openmrs.module.cds.api.dto.DashboardStats;
+import org.openmrs.module.cds.metrics.CdsMetrics;
 import org.openmrs.ui.framework.annotation.FragmentParam;
 import org.openmrs.ui.framework.fragment.FragmentModel;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestParam;
 
-import java.util.Calendar;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Fragment controller for the CDS Dashboard. Provides data for displaying: - Upcoming appointments
@@ -48,32 +47,42 @@ public class CdsFragmentController {
 	        @RequestParam(value = "missedDays", defaultValue = "" + DEFAULT_MISSED_DAYS) int missedDays,
 	        @RequestParam(value = "iitDays", defaultValue = "" + DEFAULT_IIT_LOOKBACK_DAYS) int iitDays) {
 
-		ClinicalDataSystemService cdsService = Context.getService(ClinicalDataSystemService.class);
-
-		// Get patient IDs for each category
-		List<Integer> upcomingPatientIds = cdsService.getUpcomingAppointmentPatientIds(upcomingDays);
-		List<Integer> missedPatientIds = cdsService.getMissedAppointmentPatientIds(missedDays);
-		List<Integer> iitPatientIds = cdsService.getIITPatientIds(iitDays);
-		List<CdsActionRecord> pendingActions = cdsService.getPendingCdsActions();
-
-		// Create statistics DTO
-		Map<String, Object> stats = new HashMap<>();
+		CdsMetrics.Sample sample = CdsMetrics.time("CdsFragmentController.controller");
+		try {
+			ClinicalDataSystemService cdsService = Context.getService(ClinicalDataSystemService.class);
 
-		stats.put("upcomingCount", upcomingPatientIds.size());
-		stats.put("missedCount", missedPatientIds.size());
-		stats.put("iitCount", iitPatientIds.size());
-		stats.put("pendingActionsCount", pendingActions.size());
-		stats.put("totalActivePatients", upcomingPatientIds.size() + missedPatientIds.size() + iitPatientIds.size());
-        System.out.println("Printing Fetched Stats: "+stats);
+			// The tiles only need counts; the tab fragments load their own patient lists
+			DashboardStats stats;
+			try {
+				stats = cdsService.getDashboardStats(upcomingDays, missedDays, iitDays);
+				log.debug("Fetched dashboard stats - upcoming: " + stats.getUpcomingCount() + ", missed: "
+				        + stats.getMissedCount() + ", IIT: " + stats.getIitCount() + ", pending actions: "
+				        + stats.getPendingActionsCount() + (stats.getAsOf() != null ? ", as of " + stats.getAsOf() : ""));
+			}
+			catch (RuntimeException e) {
+				// a slow cohort query with no earlier counts to fall back on; keep the page usable
+				if (!(e instanceof CdsCircuitBreaker.OpenException) && !CdsCircuitBreaker.isTimeout(e)) {
+					throw e;
+				}
+				log.warn("Dashboard counts unavailable: " + e.getMessage());
+				sample.setError();
+				stats = null;
+				model.addAttribute("statsError", "The dashboard counts are taking too long to compute. Please try again shortly.");
+			}
 
-		model.addAttribute("stats", stats);
-		model.addAttribute("upcomingPatientIds", upcomingPatientIds);
-		model.addAttribute("missedPatientIds", missedPatientIds);
-		model.addAttribute("iitPatientIds", iitPatientIds);
-		model.addAttribute("pendingActions", pendingActions);
-		model.addAttribute("upcomingDays", upcomingDays);
-		model.addAttribute("missedDays", missedDays);
-		model.addAttribute("iitDays", iitDays);
+			model.addAttribute("stats", stats);
+			model.addAttribute("statsAsOf", stats != null ? stats.getAsOf() : null);
+			model.addAttribute("upcomingDays", upcomingDays);
+			model.addAttribute("missedDays", missedDays);
+			model.addAttribute("iitDays", iitDays);
+		}
+		catch (RuntimeException e) {
+			sample.setError();
+			throw e;
+		}
+		finally {
+			sample.stop();
+		}
 	}
 	
 	/**
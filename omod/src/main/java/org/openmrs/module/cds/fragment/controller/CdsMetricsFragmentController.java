@@ -0,0 +1,30 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.fragment.controller;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.cds.api.CdsCohortCache;
+import org.openmrs.module.cds.metrics.CdsMetrics;
+import org.openmrs.ui.framework.fragment.FragmentModel;
+import org.springframework.stereotype.Controller;
+
+/**
+ * Fragment controller for the CDS metrics admin page: per-method call counts, errors, rows and
+ * latency percentiles for the DAO, service and fragment controllers, and the cohort cache hit rate
+ */
+@Controller
+public class CdsMetricsFragmentController {
+
+	public void controller(FragmentModel model) {
+		CdsMetrics metrics = Context.getRegisteredComponent("cds.CdsMetrics", CdsMetrics.class);
+		model.addAttribute("methodStats", metrics.getStats());
+		model.addAttribute("cohortCache", Context.getRegisteredComponent("cds.CdsCohortCache", CdsCohortCache.class));
+	}
+}
@@ -11,13 +11,21 @@ package org.openmrs.module.cds.fragment.controller;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.*;
 import org.openmrs.api.*;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.cds.ClinicalDataSystemConfig;
+import org.openmrs.module.cds.api.CdsConcept;
+import org.openmrs.module.cds.api.CdsConceptRegistry;
+import org.openmrs.module.cds.api.CdsExecutor;
+import org.openmrs.module.cds.metrics.CdsMetrics;
+import org.openmrs.module.cds.api.ClinicalDataSystemService;
 import org.openmrs.ui.framework.fragment.FragmentModel;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -31,12 +39,14 @@ public class CdsdashboardFragmentController {
 
     protected final Log log = LogFactory.getLog(this.getClass());
 
-    private static final Integer PEPFAR_ID_TYPE = 4;
-    private static final Integer VIRAL_LOAD_CONCEPT = 856;
-    private static final Integer CURRENT_LINE_CONCEPT = 165708;
-    private static final Integer CURRENT_REGIMEN_CONCEPT = 164506;
-    private static final Integer APPOINTMENT_DATE_CONCEPT = 5096;
-    private static final Integer EAC_SESSION_CONCEPT = 166097;
+    private static final String SECTION_UNAVAILABLE = "Unavailable";
+
+    /**
+     * Concepts and the PEPFAR identifier type are resolved once by the registry, not per request
+     */
+    private CdsConceptRegistry getConceptRegistry() {
+        return Context.getRegisteredComponent("cds.CdsConceptRegistry", CdsConceptRegistry.class);
+    }
 
     /**
      * Main fragment method to populate patient dashboard data
@@ -46,29 +56,27 @@ public class CdsdashboardFragmentController {
      * @param patientId The patient ID to load data for (from URL parameter)
      */
     public void get(FragmentModel model, @RequestParam(value = "patientId", required = false) Integer patientId) {
-        System.out.println("[CDS PatientDashboardFragment] patientDashboard() called with patientId: " + patientId);
+        log.debug("[CDS PatientDashboardFragment] patientDashboard() called with patientId: " + patientId);
 
+        CdsMetrics.Sample sample = CdsMetrics.time("CdsdashboardFragmentController.get");
         try {
             // Get services
             PatientService patientService = Context.getPatientService();
-            EncounterService encounterService = Context.getEncounterService();
-            ObsService obsService = Context.getObsService();
-            UserService userService = Context.getUserService();
 
             // Load patient
             Patient patient = null;
             if (patientId != null && patientId > 0) {
                 patient = patientService.getPatient(patientId);
-                System.out.println("[CDS PatientDashboardFragment] Patient loaded: " + (patient != null ? patient.getPatientId() : "NULL"));
+                log.debug("[CDS PatientDashboardFragment] Patient loaded: " + (patient != null ? patient.getPatientId() : "NULL"));
             }
 
             // Get PEPFAR ID
             String pepfarId = getPEPFARId(patient);
-            System.out.println("[CDS PatientDashboardFragment] PEPFAR ID: " + pepfarId);
+            log.debug("[CDS PatientDashboardFragment] PEPFAR ID: " + pepfarId);
 
             // Get patient UUID
             String patientUuid = patient != null ? patient.getUuid() : "";
-            System.out.println("[CDS PatientDashboardFragment] Patient UUID: " + patientUuid);
+            log.debug("[CDS PatientDashboardFragment] Patient UUID: " + patientUuid);
 
             // Get patient names
             String givenName = patient != null && patient.getPersonName() != null
@@ -77,7 +85,7 @@ public class CdsdashboardFragmentController {
             String familyName = patient != null && patient.getPersonName() != null
                     ? patient.getPersonName().getFamilyName()
                     : "";
-            System.out.println("[CDS PatientDashboardFragment] Patient Name: " + givenName + " " + familyName);
+            log.debug("[CDS PatientDashboardFragment] Patient Name: " + givenName + " " + familyName);
 
             // Construct EAC form URL with UUIDs
             String eacFormUrl = "";
@@ -86,138 +94,141 @@ public class CdsdashboardFragmentController {
                 String returnUrl = "/openmrs/coreapps/clinicianfacing/patient.page?patientId=" + patientUuid;
                 eacFormUrl = "/openmrs/htmlformentryui/htmlform/enterHtmlFormWithStandardUi.page?patientId=" + patientUuid
                         + "&visitId=0&formUuid=" + formUuid + "&returnUrl=" + returnUrl;
-                System.out.println("[CDS PatientDashboardFragment] EAC Form URL: " + eacFormUrl);
+                log.debug("[CDS PatientDashboardFragment] EAC Form URL: " + eacFormUrl);
             }
 
-            // Get encounters
-            List<Encounter> encounters = new ArrayList<>();
-            if (patient != null) {
-                try {
-                    // { changed code }
-                    // Avoid calling an overloaded getEncounters signature that may not exist at runtime.
-                    // Use a safe, signature-independent method and filter results as needed.
-                    encounters = encounterService.getEncountersByPatient(patient);
-                    if (encounters == null) {
-                        encounters = new ArrayList<>();
-                    } else {
-                        // Keep only non-voided encounters (mirror original false for includeVoided)
-                        encounters = encounters.stream()
-                                .filter(e -> e != null && !e.isVoided())
-                                .collect(Collectors.toList());
-                    }
-                    System.out.println("[CDS PatientDashboardFragment] Total encounters: " + encounters.size());
-                } catch (NoSuchMethodError nsme) {
-                    System.out.println("[CDS PatientDashboardFragment] EncounterService signature missing, falling back to empty list");
-                    encounters = new ArrayList<>();
-                } catch (Exception ex) {
-                    System.out.println("[CDS PatientDashboardFragment] Warning: Error retrieving encounters - " + ex.getMessage());
-                    encounters = new ArrayList<>();
-                }
+            // Encounters, clinical data, users, EAC history, documented actions and tracking
+            // efforts are independent, so they run
+            // concurrently on the CDS executor; each has its own deadline and degrades to a
+            // placeholder instead of holding up the page.
+            ClinicalDataSystemService cdsService = Context.getService(ClinicalDataSystemService.class);
+            CdsExecutor executor = Context.getRegisteredComponent("cds.CdsExecutor", CdsExecutor.class);
+            long start = System.currentTimeMillis();
+            final Integer loadedPatientId = patient != null ? patient.getPatientId() : null;
+
+            Future<List<Map<String, Object>>> encountersTask = submitSection(executor, "encounters",
+                    () -> getEncounters(loadedPatientId));
+            Future<Map<String, Object>> clinicalTask = submitSection(executor, "clinical",
+                    () -> getClinicalData(loadedPatientId));
+            Future<List<Map<String, Object>>> usersTask = submitSection(executor, "users", this::getUsers);
+            Future<Boolean> eacTask = submitSection(executor, "eac",
+                    () -> loadedPatientId != null && cdsService.hasObs(loadedPatientId, CdsConcept.EAC_SESSION));
+            Future<List<Map<String, Object>>> documentedActionsTask = submitSection(executor, "documentedActions",
+                    () -> getDocumentedActions(loadedPatientId));
+            Future<Map<String, Object>> trackingEffortsTask = submitSection(executor, "trackingEfforts",
+                    () -> getTrackingEffortsTable(loadedPatientId));
+
+            List<String> unavailableSections = new ArrayList<>();
+
+            List<Map<String, Object>> encounters = awaitSection(encountersTask, start, "encounters", unavailableSections);
+            if (encounters == null) {
+                encounters = new ArrayList<>();
+            }
+            log.debug("[CDS PatientDashboardFragment] Total encounters: " + encounters.size());
+
+            Map<String, Object> clinicalData = awaitSection(clinicalTask, start, "clinical", unavailableSections);
+            Map<String, Object> viralLoadData;
+            Map<String, Object> regimenData;
+            String nextAppointmentDate;
+            if (clinicalData != null) {
+                viralLoadData = (Map<String, Object>) clinicalData.get("viralLoadData");
+                regimenData = (Map<String, Object>) clinicalData.get("regimenData");
+                nextAppointmentDate = (String) clinicalData.get("nextAppointmentDate");
+            } else {
+                viralLoadData = getViralLoadData(null, new EnumMap<>(CdsConcept.class));
+                viralLoadData.put("error", SECTION_UNAVAILABLE);
+                regimenData = getRegimenData(null, new EnumMap<>(CdsConcept.class));
+                regimenData.put("error", SECTION_UNAVAILABLE);
+                nextAppointmentDate = SECTION_UNAVAILABLE;
             }
+            log.debug("[CDS PatientDashboardFragment] Viral load, regimen and appointment data retrieved");
 
-            // Get viral load data
-            Map<String, Object> viralLoadData = getViralLoadData(patient, obsService);
-            System.out.println("[CDS PatientDashboardFragment] Viral load data retrieved");
-
-            // Get regimen information
-            Map<String, Object> regimenData = getRegimenData(patient, obsService);
-            System.out.println("[CDS PatientDashboardFragment] Regimen data retrieved");
-
-            // Get next appointment
-            String nextAppointmentDate = getNextAppointmentDate(patient, obsService);
-            System.out.println("[CDS PatientDashboardFragment] Next appointment: " + nextAppointmentDate);
-
-            // Get users list (with permission error handling)
-            List<org.openmrs.User> users = new ArrayList<>();
-            try {
-                users = userService.getAllUsers();
-                System.out.println("[CDS PatientDashboardFragment] Users retrieved: " + users.size());
-            } catch (Exception e) {
-                System.out.println("[CDS PatientDashboardFragment] Warning: Cannot retrieve users - " + e.getMessage());
-                System.out.println("[CDS PatientDashboardFragment] This may be due to insufficient privileges or service unavailability");
-                // Continue with empty users list - don't fail the entire dashboard
+            List<Map<String, Object>> users = awaitSection(usersTask, start, "users", unavailableSections);
+            if (users == null) {
                 users = new ArrayList<>();
             }
+            log.debug("[CDS PatientDashboardFragment] Users retrieved: " + users.size());
 
-            // Check if EAC history exists
-            boolean hasEACHistory = hasEACHistory(patient, obsService);
-            System.out.println("[CDS PatientDashboardFragment] EAC History exists: " + hasEACHistory);
+            Boolean eacResult = awaitSection(eacTask, start, "eac", unavailableSections);
+            boolean hasEACHistory = Boolean.TRUE.equals(eacResult);
+            log.debug("[CDS PatientDashboardFragment] EAC History exists: " + hasEACHistory);
 
-            // Get pending actions (empty list for now, can be implemented later)
+            // Get pending actions (empty list for now, can be implemented later). Nothing is
+            // loaded, so there is no point handing it to the executor.
             List<Map<String, Object>> pendingActions = new ArrayList<>();
-            System.out.println("[CDS PatientDashboardFragment] Pending actions retrieved: " + pendingActions.size());
+            log.debug("[CDS PatientDashboardFragment] Pending actions retrieved: " + pendingActions.size());
 
-            // Get documented actions from database
-            List<Map<String, Object>> documentedActions = getDocumentedActions(patient);
-            System.out.println("[CDS PatientDashboardFragment] Documented actions retrieved: " + documentedActions.size());
+            List<Map<String, Object>> documentedActions = awaitSection(documentedActionsTask, start, "documentedActions",
+                    unavailableSections);
+            if (documentedActions == null) {
+                documentedActions = new ArrayList<>();
+            }
+            log.debug("[CDS PatientDashboardFragment] Documented actions retrieved: " + documentedActions.size());
 
-            // Get tracking efforts from database
-            Map<String, Object> trackingEffortsData = getTrackingEffortsTable(patient);
-            List<Map<String, Object>> trackingEfforts = (List<Map<String, Object>>) trackingEffortsData.get("rows");
+            Map<String, Object> trackingEffortsData = awaitSection(trackingEffortsTask, start, "trackingEfforts",
+                    unavailableSections);
+            List<Map<String, Object>> trackingEfforts = trackingEffortsData != null
+                    ? (List<Map<String, Object>>) trackingEffortsData.get("rows") : null;
             if (trackingEfforts == null) {
                 trackingEfforts = new ArrayList<>();
             }
-            System.out.println("[CDS PatientDashboardFragment] Tracking efforts retrieved: " + trackingEfforts.size());
+            log.debug("[CDS PatientDashboardFragment] Tracking efforts retrieved: " + trackingEfforts.size());
 
             // Populate fragment model
-            System.out.println("[CDS PatientDashboardFragment] ========== POPULATING MODEL ==========");
             model.addAttribute("patient", patient);
-            System.out.println("[CDS PatientDashboardFragment] Added: patient = " + (patient != null ? patient.getPatientId() : "null"));
+            log.debug("[CDS PatientDashboardFragment] Added: patient = " + (patient != null ? patient.getPatientId() : "null"));
 
             model.addAttribute("patientId", patientId);
-            System.out.println("[CDS PatientDashboardFragment] Added: patientId = " + patientId);
+            log.debug("[CDS PatientDashboardFragment] Added: patientId = " + patientId);
 
             model.addAttribute("patientUuid", patientUuid);
-            System.out.println("[CDS PatientDashboardFragment] Added: patientUuid = " + patientUuid);
+            log.debug("[CDS PatientDashboardFragment] Added: patientUuid = " + patientUuid);
 
             model.addAttribute("eacFormUrl", eacFormUrl);
-            System.out.println("[CDS PatientDashboardFragment] Added: eacFormUrl = " + eacFormUrl);
+            log.debug("[CDS PatientDashboardFragment] Added: eacFormUrl = " + eacFormUrl);
 
             model.addAttribute("pepfarId", pepfarId);
-            System.out.println("[CDS PatientDashboardFragment] Added: pepfarId = " + pepfarId);
+            log.debug("[CDS PatientDashboardFragment] Added: pepfarId = " + pepfarId);
 
             model.addAttribute("givenName", givenName);
-            System.out.println("[CDS PatientDashboardFragment] Added: givenName = " + givenName);
+            log.debug("[CDS PatientDashboardFragment] Added: givenName = " + givenName);
 
             model.addAttribute("familyName", familyName);
-            System.out.println("[CDS PatientDashboardFragment] Added: familyName = " + familyName);
+            log.debug("[CDS PatientDashboardFragment] Added: familyName = " + familyName);
 
             model.addAttribute("encounters", encounters);
-            System.out.println("[CDS PatientDashboardFragment] Added: encounters = " + encounters.size() + " items");
+            log.debug("[CDS PatientDashboardFragment] Added: encounters = " + encounters.size() + " items");
 
             model.addAttribute("viralLoadData", viralLoadData);
-            System.out.println("[CDS PatientDashboardFragment] Added: viralLoadData = " + viralLoadData);
+            log.debug("[CDS PatientDashboardFragment] Added: viralLoadData = " + viralLoadData);
 
             model.addAttribute("regimenData", regimenData);
-            System.out.println("[CDS PatientDashboardFragment] Added: regimenData = " + regimenData);
+            log.debug("[CDS PatientDashboardFragment] Added: regimenData = " + regimenData);
 
             model.addAttribute("nextAppointmentDate", nextAppointmentDate);
-            System.out.println("[CDS PatientDashboardFragment] Added: nextAppointmentDate = " + nextAppointmentDate);
+            log.debug("[CDS PatientDashboardFragment] Added: nextAppointmentDate = " + nextAppointmentDate);
 
             model.addAttribute("users", users);
-            System.out.println("[CDS PatientDashboardFragment] Added: users = " + users.size() + " items");
+            log.debug("[CDS PatientDashboardFragment] Added: users = " + users.size() + " items");
 
             model.addAttribute("hasEACHistory", hasEACHistory);
-            System.out.println("[CDS PatientDashboardFragment] Added: hasEACHistory = " + hasEACHistory);
+            log.debug("[CDS PatientDashboardFragment] Added: hasEACHistory = " + hasEACHistory);
 
             model.addAttribute("pendingActions", pendingActions);
-            System.out.println("[CDS PatientDashboardFragment] Added: pendingActions = " + pendingActions.size() + " items");
+            log.debug("[CDS PatientDashboardFragment] Added: pendingActions = " + pendingActions.size() + " items");
 
             model.addAttribute("documentedActions", documentedActions);
-            System.out.println("[CDS PatientDashboardFragment] Added: documentedActions = " + documentedActions.size() + " items");
+            log.debug("[CDS PatientDashboardFragment] Added: documentedActions = " + documentedActions.size() + " items");
 
             model.addAttribute("trackingEfforts", trackingEfforts);
-            System.out.println("[CDS PatientDashboardFragment] Added: trackingEfforts = " + trackingEfforts.size() + " items");
+            log.debug("[CDS PatientDashboardFragment] Added: trackingEfforts = " + trackingEfforts.size() + " items");
 
-            System.out.println("[CDS PatientDashboardFragment] ========== MODEL POPULATED ==========");
+            model.addAttribute("unavailableSections", unavailableSections);
+            log.debug("[CDS PatientDashboardFragment] Added: unavailableSections = " + unavailableSections);
 
         } catch (Exception e) {
-            System.out.println("[CDS PatientDashboardFragment] ======== ERROR IN MAIN METHOD ========");
-            System.out.println("[CDS PatientDashboardFragment] ERROR: " + e.getMessage());
-            System.out.println("[CDS PatientDashboardFragment] Exception Type: " + e.getClass().getName());
-            System.out.println("[CDS PatientDashboardFragment] Stack Trace:");
-            e.printStackTrace();
-            System.out.println("[CDS PatientDashboardFragment] ====================================");
+            sample.setError();
+            log.error("[CDS PatientDashboardFragment] ERROR loading patient dashboard: " + e.getMessage(), e);
 
             // Set default attributes so GSP won't fail with missing properties
             model.addAttribute("error", "Failed to load patient dashboard: " + e.getMessage());
@@ -237,28 +248,121 @@ public class CdsdashboardFragmentController {
             model.addAttribute("pendingActions", new ArrayList<>());
             model.addAttribute("documentedActions", new ArrayList<>());
             model.addAttribute("trackingEfforts", new ArrayList<>());
+            model.addAttribute("unavailableSections", new ArrayList<>());
+        } finally {
+            sample.stop();
+        }
+    }
+
+    /**
+     * Submits a dashboard section to the CDS executor. Returns null when the executor is saturated,
+     * which awaitSection reports as unavailable.
+     */
+    private <T> Future<T> submitSection(CdsExecutor executor, String section, Callable<T> task) {
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            log.warn("CDS executor is saturated, skipping dashboard section " + section);
+            return null;
+        }
+    }
+
+    /**
+     * Waits for a section until its deadline, counted from the start of the request. Returns null
+     * and records the section as unavailable if it timed out, failed or was not started.
+     */
+    private <T> T awaitSection(Future<T> task, long start, String section, List<String> unavailableSections) {
+        int timeout = ClinicalDataSystemConfig.getIntegerGlobalProperty(
+                ClinicalDataSystemConfig.GP_DASHBOARD_SECTION_TIMEOUT_MS + "." + section,
+                ClinicalDataSystemConfig.getIntegerGlobalProperty(ClinicalDataSystemConfig.GP_DASHBOARD_SECTION_TIMEOUT_MS,
+                        ClinicalDataSystemConfig.DEFAULT_DASHBOARD_SECTION_TIMEOUT_MS));
+        T result = CdsExecutor.getBefore(task, start + timeout, null, "dashboard section " + section);
+        if (result == null) {
+            unavailableSections.add(section);
+        }
+        return result;
+    }
+
+    /**
+     * Non-voided encounters of the patient, copied into maps because the worker session is closed
+     * before the page renders
+     */
+    private List<Map<String, Object>> getEncounters(Integer patientId) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        if (patientId == null) {
+            return rows;
+        }
+        Patient patient = Context.getPatientService().getPatient(patientId);
+        List<Encounter> encounters = patient != null ? Context.getEncounterService().getEncountersByPatient(patient) : null;
+        if (encounters == null) {
+            return rows;
+        }
+        for (Encounter encounter : encounters) {
+            if (encounter == null || encounter.isVoided()) {
+                continue;
+            }
+            Map<String, Object> row = new HashMap<>();
+            row.put("encounterDatetime", encounter.getEncounterDatetime());
+            row.put("encounterType", Collections.singletonMap("name",
+                    encounter.getEncounterType() != null ? encounter.getEncounterType().getName() : null));
+            row.put("location", Collections.singletonMap("name",
+                    encounter.getLocation() != null ? encounter.getLocation().getName() : null));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Viral load, regimen and next appointment, all from one latest-obs query
+     */
+    private Map<String, Object> getClinicalData(Integer patientId) {
+        Map<CdsConcept, Obs> latestObs = new EnumMap<>(CdsConcept.class);
+        Patient patient = null;
+        if (patientId != null) {
+            patient = Context.getPatientService().getPatient(patientId);
+            latestObs = Context.getService(ClinicalDataSystemService.class).getLatestObs(patientId,
+                    EnumSet.of(CdsConcept.VIRAL_LOAD, CdsConcept.CURRENT_LINE, CdsConcept.CURRENT_REGIMEN,
+                            CdsConcept.APPOINTMENT_DATE));
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("viralLoadData", getViralLoadData(patient, latestObs));
+        data.put("regimenData", getRegimenData(patient, latestObs));
+        data.put("nextAppointmentDate", getNextAppointmentDate(patient, latestObs));
+        return data;
+    }
+
+    /**
+     * Users for the action assignment list, as userId and display name
+     */
+    private List<Map<String, Object>> getUsers() {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (User user : Context.getUserService().getAllUsers()) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("userId", user.getUserId());
+            row.put("personName", user.getPersonName() != null ? user.getPersonName().getFullName() : user.getUsername());
+            rows.add(row);
         }
+        return rows;
     }
 
     /**
      * Get PEPFAR ID from patient identifiers (identifier_type_id = 4)
      */
     private String getPEPFARId(Patient patient) {
-        System.out.println("[CDS PatientDashboardFragment] getPEPFARId() called");
+        log.debug("[CDS PatientDashboardFragment] getPEPFARId() called");
         try {
             if (patient != null && patient.getIdentifiers() != null) {
                 for (PatientIdentifier id : patient.getIdentifiers()) {
-                    if (id.getIdentifierType() != null && id.getIdentifierType().getId().equals(PEPFAR_ID_TYPE)) {
-                        System.out.println("[CDS PatientDashboardFragment] PEPFAR ID found: " + id.getIdentifier());
+                    if (id.getIdentifierType() != null && id.getIdentifierType().getId().equals(getConceptRegistry().getPepfarIdentifierTypeId())) {
+                        log.debug("[CDS PatientDashboardFragment] PEPFAR ID found: " + id.getIdentifier());
                         return id.getIdentifier();
                     }
                 }
             }
-            System.out.println("[CDS PatientDashboardFragment] No PEPFAR ID found");
+            log.debug("[CDS PatientDashboardFragment] No PEPFAR ID found");
             return "N/A";
         } catch (Exception e) {
-            System.out.println("[CDS PatientDashboardFragment] ERROR in getPEPFARId(): " + e.getMessage());
-            e.printStackTrace();
+            log.error("[CDS PatientDashboardFragment] ERROR in getPEPFARId(): " + e.getMessage(), e);
             return "Error";
         }
     }
@@ -269,8 +373,8 @@ public class CdsdashboardFragmentController {
      * - 856: Viral Load Result
      * - 166296: Viral Load Date
      */
-    private Map<String, Object> getViralLoadData(Patient patient, ObsService obsService) {
-        System.out.println("[CDS PatientDashboardFragment] getViralLoadData() called");
+    private Map<String, Object> getViralLoadData(Patient patient, Map<CdsConcept, Obs> latestObs) {
+        log.debug("[CDS PatientDashboardFragment] getViralLoadData() called");
         Map<String, Object> data = new HashMap<>();
 
         try {
@@ -279,22 +383,14 @@ public class CdsdashboardFragmentController {
             data.put("nextViralLoadDate", "N/A");
 
             if (patient == null) {
-                System.out.println("[CDS PatientDashboardFragment] Patient is null, returning default viral load data");
+                log.debug("[CDS PatientDashboardFragment] Patient is null, returning default viral load data");
                 return data;
             }
 
-            Concept viralLoadConcept = Context.getConceptService().getConcept(VIRAL_LOAD_CONCEPT);
-            if (viralLoadConcept == null) {
-                System.out.println("[CDS PatientDashboardFragment] ERROR: Viral load concept not found (ID: " + VIRAL_LOAD_CONCEPT + ")");
-                return data;
-            }
+            Obs latestViralLoad = latestObs.get(CdsConcept.VIRAL_LOAD);
+            log.debug("[CDS PatientDashboardFragment] Latest viral load obs: " + (latestViralLoad != null ? latestViralLoad.getObsId() : "none"));
 
-            List<Obs> viralLoadObs = obsService.getObservationsByPersonAndConcept(patient, viralLoadConcept);
-            System.out.println("[CDS PatientDashboardFragment] Found " + (viralLoadObs != null ? viralLoadObs.size() : 0) + " viral load observations");
-
-            if (viralLoadObs != null && !viralLoadObs.isEmpty()) {
-                // Get the latest viral load
-                Obs latestViralLoad = viralLoadObs.get(viralLoadObs.size() - 1);
+            if (latestViralLoad != null) {
                 if (latestViralLoad.getValueNumeric() != null) {
                     data.put("currentViralLoad", latestViralLoad.getValueNumeric());
 
@@ -303,7 +399,7 @@ public class CdsdashboardFragmentController {
                         SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm");
                         String lastVLDateStr = sdf.format(latestViralLoad.getObsDatetime());
                         data.put("lastViralLoadDate", lastVLDateStr);
-                        System.out.println("[CDS PatientDashboardFragment] Last VL Date: " + lastVLDateStr);
+                        log.debug("[CDS PatientDashboardFragment] Last VL Date: " + lastVLDateStr);
                     }
 
                     // Calculate and format next viral load date (6 months from last)
@@ -314,15 +410,14 @@ public class CdsdashboardFragmentController {
                         SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
                         String nextVLDateStr = sdf.format(cal.getTime());
                         data.put("nextViralLoadDate", nextVLDateStr);
-                        System.out.println("[CDS PatientDashboardFragment] Next VL Date: " + nextVLDateStr);
+                        log.debug("[CDS PatientDashboardFragment] Next VL Date: " + nextVLDateStr);
                     }
 
-                    System.out.println("[CDS PatientDashboardFragment] Viral load: " + data.get("currentViralLoad"));
+                    log.debug("[CDS PatientDashboardFragment] Viral load: " + data.get("currentViralLoad"));
                 }
             }
         } catch (Exception e) {
-            System.out.println("[CDS PatientDashboardFragment] ERROR in getViralLoadData(): " + e.getMessage());
-            e.printStackTrace();
+            log.error("[CDS PatientDashboardFragment] ERROR in getViralLoadData(): " + e.getMessage(), e);
             data.put("error", e.getMessage());
         }
         return data;
@@ -334,8 +429,8 @@ public class CdsdashboardFragmentController {
      * - 165708: Current Line
      * - 164506: Current Regimen
      */
-    private Map<String, Object> getRegimenData(Patient patient, ObsService obsService) {
-        System.out.println("[CDS PatientDashboardFragment] getRegimenData() called");
+    private Map<String, Object> getRegimenData(Patient patient, Map<CdsConcept, Obs> latestObs) {
+        log.debug("[CDS PatientDashboardFragment] getRegimenData() called");
         Map<String, Object> data = new HashMap<>();
 
         try {
@@ -344,53 +439,34 @@ public class CdsdashboardFragmentController {
             data.put("lastPickUpDate", "N/A");
 
             if (patient == null) {
-                System.out.println("[CDS PatientDashboardFragment] Patient is null, returning default regimen data");
+                log.debug("[CDS PatientDashboardFragment] Patient is null, returning default regimen data");
                 return data;
             }
 
             // Get current regimen line
-            Concept lineConcept = Context.getConceptService().getConcept(CURRENT_LINE_CONCEPT);
-            if (lineConcept != null) {
-                List<Obs> lineObs = obsService.getObservationsByPersonAndConcept(patient, lineConcept);
-                System.out.println("[CDS PatientDashboardFragment] Found " + (lineObs != null ? lineObs.size() : 0) + " regimen line observations");
-                if (lineObs != null && !lineObs.isEmpty()) {
-                    Obs latestLine = lineObs.get(lineObs.size() - 1);
-                    if (latestLine.getValueCoded() != null) {
-                        data.put("currentLine", latestLine.getValueCoded().getName().getName());
-                        System.out.println("[CDS PatientDashboardFragment] Current line: " + data.get("currentLine"));
-                    }
-                }
-            } else {
-                System.out.println("[CDS PatientDashboardFragment] ERROR: Current line concept not found (ID: " + CURRENT_LINE_CONCEPT + ")");
+            Obs latestLine = latestObs.get(CdsConcept.CURRENT_LINE);
+            if (latestLine != null && latestLine.getValueCoded() != null) {
+                data.put("currentLine", latestLine.getValueCoded().getName().getName());
+                log.debug("[CDS PatientDashboardFragment] Current line: " + data.get("currentLine"));
             }
 
             // Get current regimen
-            Concept regimenConcept = Context.getConceptService().getConcept(CURRENT_REGIMEN_CONCEPT);
-            if (regimenConcept != null) {
-                List<Obs> regimenObs = obsService.getObservationsByPersonAndConcept(patient, regimenConcept);
-                System.out.println("[CDS PatientDashboardFragment] Found " + (regimenObs != null ? regimenObs.size() : 0) + " regimen observations");
-                if (regimenObs != null && !regimenObs.isEmpty()) {
-                    Obs latestRegimen = regimenObs.get(regimenObs.size() - 1);
-                    if (latestRegimen.getValueCoded() != null) {
-                        data.put("currentRegimen", latestRegimen.getValueCoded().getName().getName());
-
-                        // Format last pick up date as string
-                        if (latestRegimen.getObsDatetime() != null) {
-                            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm");
-                            String lastPickUpStr = sdf.format(latestRegimen.getObsDatetime());
-                            data.put("lastPickUpDate", lastPickUpStr);
-                            System.out.println("[CDS PatientDashboardFragment] Last Pick Up Date: " + lastPickUpStr);
-                        }
-
-                        System.out.println("[CDS PatientDashboardFragment] Current regimen: " + data.get("currentRegimen"));
-                    }
+            Obs latestRegimen = latestObs.get(CdsConcept.CURRENT_REGIMEN);
+            if (latestRegimen != null && latestRegimen.getValueCoded() != null) {
+                data.put("currentRegimen", latestRegimen.getValueCoded().getName().getName());
+
+                // Format last pick up date as string
+                if (latestRegimen.getObsDatetime() != null) {
+                    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+                    String lastPickUpStr = sdf.format(latestRegimen.getObsDatetime());
+                    data.put("lastPickUpDate", lastPickUpStr);
+                    log.debug("[CDS PatientDashboardFragment] Last Pick Up Date: " + lastPickUpStr);
                 }
-            } else {
-                System.out.println("[CDS PatientDashboardFragment] ERROR: Current regimen concept not found (ID: " + CURRENT_REGIMEN_CONCEPT + ")");
+
+                log.debug("[CDS PatientDashboardFragment] Current regimen: " + data.get("currentRegimen"));
             }
         } catch (Exception e) {
-            System.out.println("[CDS PatientDashboardFragment] ERROR in getRegimenData(): " + e.getMessage());
-            e.printStackTrace();
+            log.error("[CDS PatientDashboardFragment] ERROR in getRegimenData(): " + e.getMessage(), e);
             data.put("error", e.getMessage());
         }
         return data;
@@ -400,93 +476,50 @@ public class CdsdashboardFragmentController {
      * Get next appointment date
      * Concept ID 5096: Appointment Date
      */
-    private String getNextAppointmentDate(Patient patient, ObsService obsService) {
-        System.out.println("[CDS PatientDashboardFragment] getNextAppointmentDate() called");
+    private String getNextAppointmentDate(Patient patient, Map<CdsConcept, Obs> latestObs) {
+        log.debug("[CDS PatientDashboardFragment] getNextAppointmentDate() called");
 
         try {
             if (patient == null) {
-                System.out.println("[CDS PatientDashboardFragment] Patient is null, returning 'Not scheduled'");
+                log.debug("[CDS PatientDashboardFragment] Patient is null, returning 'Not scheduled'");
                 return "Not scheduled";
             }
 
-            Concept appointmentConcept = Context.getConceptService().getConcept(APPOINTMENT_DATE_CONCEPT);
-            if (appointmentConcept == null) {
-                System.out.println("[CDS PatientDashboardFragment] ERROR: Appointment concept not found (ID: " + APPOINTMENT_DATE_CONCEPT + ")");
-                return "Not scheduled";
+            // The latest appointment obs holds the most recently scheduled date
+            Obs appointmentObs = latestObs.get(CdsConcept.APPOINTMENT_DATE);
+            if (appointmentObs != null && appointmentObs.getValueDatetime() != null
+                    && appointmentObs.getValueDatetime().after(new Date())) {
+                SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
+                String appointmentDate = sdf.format(appointmentObs.getValueDatetime());
+                log.debug("[CDS PatientDashboardFragment] Next appointment: " + appointmentDate);
+                return appointmentDate;
             }
-
-            List<Obs> appointmentObs = obsService.getObservationsByPersonAndConcept(patient, appointmentConcept);
-            System.out.println("[CDS PatientDashboardFragment] Found " + (appointmentObs != null ? appointmentObs.size() : 0) + " appointment observations");
-
-            if (appointmentObs != null && !appointmentObs.isEmpty()) {
-                for (Obs obs : appointmentObs) {
-                    if (obs.getValueDatetime() != null && obs.getValueDatetime().after(new Date())) {
-                        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-                        String appointmentDate = sdf.format(obs.getValueDatetime());
-                        System.out.println("[CDS PatientDashboardFragment] Next appointment: " + appointmentDate);
-                        return appointmentDate;
-                    }
-                }
-            }
-            System.out.println("[CDS PatientDashboardFragment] No future appointments found");
+            log.debug("[CDS PatientDashboardFragment] No future appointments found");
             return "Not scheduled";
         } catch (Exception e) {
-            System.out.println("[CDS PatientDashboardFragment] ERROR in getNextAppointmentDate(): " + e.getMessage());
-            e.printStackTrace();
+            log.error("[CDS PatientDashboardFragment] ERROR in getNextAppointmentDate(): " + e.getMessage(), e);
             return "Error";
         }
     }
 
-    /**
-     * Check if patient has EAC history
-     * Concept ID 166097: Enhanced Adherence Counselling Session
-     */
-    private boolean hasEACHistory(Patient patient, ObsService obsService) {
-        System.out.println("[CDS PatientDashboardFragment] hasEACHistory() called");
-
-        try {
-            if (patient == null) {
-                System.out.println("[CDS PatientDashboardFragment] Patient is null, returning false for EAC history");
-                return false;
-            }
-
-            Concept eacConcept = Context.getConceptService().getConcept(EAC_SESSION_CONCEPT);
-            if (eacConcept == null) {
-                System.out.println("[CDS PatientDashboardFragment] ERROR: EAC concept not found (ID: " + EAC_SESSION_CONCEPT + ")");
-                return false;
-            }
-
-            List<Obs> eacObs = obsService.getObservationsByPersonAndConcept(patient, eacConcept);
-
-            boolean hasHistory = eacObs != null && !eacObs.isEmpty();
-            System.out.println("[CDS PatientDashboardFragment] EAC History exists: " + hasHistory);
-            return hasHistory;
-        } catch (Exception e) {
-            System.out.println("[CDS PatientDashboardFragment] ERROR in hasEACHistory(): " + e.getMessage());
-            e.printStackTrace();
-            return false;
-        }
-    }
-
     /**
      * Get documented actions for the patient
      * This is a placeholder implementation, replace with real data retrieval logic
      */
-    private List<Map<String, Object>> getDocumentedActions(Patient patient) {
-        System.out.println("[CDS PatientDashboardFragment] getDocumentedActions() called");
+    private List<Map<String, Object>> getDocumentedActions(Integer patientId) {
+        log.debug("[CDS PatientDashboardFragment] getDocumentedActions() called");
         List<Map<String, Object>> actions = new ArrayList<>();
 
         try {
             // TODO: Replace with real implementation
-            if (patient != null) {
+            if (patientId != null) {
                 Map<String, Object> action = new HashMap<>();
                 action.put("date", new Date());
-                action.put("description", "Documented action for patient " + patient.getPatientId());
+                action.put("description", "Documented action for patient " + patientId);
                 actions.add(action);
             }
         } catch (Exception e) {
-            System.out.println("[CDS PatientDashboardFragment] ERROR in getDocumentedActions(): " + e.getMessage());
-            e.printStackTrace();
+            log.error("[CDS PatientDashboardFragment] ERROR in getDocumentedActions(): " + e.getMessage(), e);
         }
         return actions;
     }
@@ -495,9 +528,9 @@ public class CdsdashboardFragmentController {
      * Get tracking efforts for the patient
      * This is a placeholder implementation, replace with real data retrieval logic
      */
-    private Map<String, Object> getTrackingEffortsTable(Patient patient) {
+    private Map<String, Object> getTrackingEffortsTable(Integer patientId) {
 
-        System.out.println("[CDS PatientDashboardFragment] getTrackingEffortsTable() called - returning MOCK data");
+        log.debug("[CDS PatientDashboardFragment] getTrackingEffortsTable() called - returning MOCK data");
 
         Map<String, Object> result = new HashMap<>();
         List<String> headers = new ArrayList<>();
@@ -546,7 +579,7 @@ public class CdsdashboardFragmentController {
             rows.add(row3);
 
             // If patient is null, add a mock informational row
-            if (patient == null) {
+            if (patientId == null) {
                 Map<String, Object> info = new LinkedHashMap<>();
                 info.put("Contact Date", "");
                 info.put("Contact Method", "");
@@ -558,8 +591,7 @@ public class CdsdashboardFragmentController {
             }
 
         } catch (Exception e) {
-            System.out.println("[CDS PatientDashboardFragment] ERROR while building mock tracking efforts: " + e.getMessage());
-            e.printStackTrace();
+            log.error("[CDS PatientDashboardFragment] ERROR while building mock tracking efforts: " + e.getMessage(), e);
         }
 
         result.put("headers", headers);
@@ -13,6 +13,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.cds.api.ClinicalDataSystemService;
+import org.openmrs.module.cds.api.dto.ClientEffortEntry;
+import org.openmrs.module.cds.metrics.CdsMetrics;
 import org.openmrs.ui.framework.annotation.FragmentParam;
 import org.openmrs.ui.framework.fragment.FragmentModel;
 import org.springframework.stereotype.Controller;
@@ -34,13 +36,19 @@ public class ClientEffortFragmentController {
 			return;
 		}
 
+		CdsMetrics.Sample sample = CdsMetrics.time("ClientEffortFragmentController.controller");
 		try {
 			ClinicalDataSystemService cdsService = Context.getService(ClinicalDataSystemService.class);
-			model.addAttribute("clientEffortEntries", cdsService.getClientEffort(patientId));
+			List<ClientEffortEntry> entries = cdsService.getClientEffort(patientId);
+			model.addAttribute("clientEffortEntries", entries);
+			sample.setRows(entries.size());
 			model.addAttribute("patientId", patientId);
 		} catch (Exception e) {
+			sample.setError();
 			log.error("Error retrieving client effort for patient " + patientId, e);
 			model.addAttribute("error", "Error retrieving client effort data");
+		} finally {
+			sample.stop();
 		}
 	}
 }
@@ -12,35 +12,100 @@ package org.openmrs.module.cds.fragment.controller;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.cds.api.CdsCohortType;
 import org.openmrs.module.cds.api.ClinicalDataSystemService;
+import org.openmrs.module.cds.api.dto.IitPatient;
+import org.openmrs.module.cds.api.dto.IitResult;
+import org.openmrs.module.cds.metrics.CdsMetrics;
+import org.openmrs.module.cds.web.export.LineListExporter;
 import org.openmrs.ui.framework.fragment.FragmentModel;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * Fragment controller for displaying the IIT (Interruption in Treatment) patient list
+ * Fragment controller for displaying the IIT (Interruption in Treatment) patient list, with each
+ * patient's days overdue and risk tier
  */
 @Controller
 public class IitListFragmentController {
 
 	protected final Log log = LogFactory.getLog(this.getClass());
 
+	private static final int DEFAULT_PAGE_SIZE = 50;
+
+	private static final int MAX_PAGE_SIZE = 500;
+
 	private static final int DEFAULT_IIT_LOOKBACK_DAYS = 90;
 
 	public void controller(FragmentModel model,
-	        @RequestParam(value = "iitDays", defaultValue = "" + DEFAULT_IIT_LOOKBACK_DAYS) int iitDays) {
+	        @RequestParam(value = "iitDays", defaultValue = "" + DEFAULT_IIT_LOOKBACK_DAYS) int iitDays,
+	        @RequestParam(value = "iitCursor", required = false) Integer iitCursor,
+	        @RequestParam(value = "iitPageSize", defaultValue = "" + DEFAULT_PAGE_SIZE) int iitPageSize) {
+		CdsMetrics.Sample sample = CdsMetrics.time("IitListFragmentController.controller");
 		try {
 			ClinicalDataSystemService cdsService = Context.getService(ClinicalDataSystemService.class);
-			List<Integer> iitPatientIds = cdsService.getIITPatientIds(iitDays);
+			int pageSize = Math.max(1, Math.min(iitPageSize, MAX_PAGE_SIZE));
+			IitResult iit = cdsService.getIITResult(iitDays);
+			// one extra row tells us whether there is a next page
+			List<IitPatient> page = iit.page(iitCursor, pageSize + 1);
+			Integer nextCursor = null;
+			if (page.size() > pageSize) {
+				page = page.subList(0, pageSize);
+				nextCursor = page.get(pageSize - 1).getPatientId();
+			}
+			List<Integer> iitPatientIds = new ArrayList<Integer>(page.size());
+			Map<Integer, IitPatient> iitPatients = new HashMap<Integer, IitPatient>();
+			for (IitPatient patient : page) {
+				iitPatientIds.add(patient.getPatientId());
+				iitPatients.put(patient.getPatientId(), patient);
+			}
 
 			model.addAttribute("iitPatientIds", iitPatientIds);
+			model.addAttribute("iitPatients", iitPatients);
+			model.addAttribute("bucketCounts", iit.getBucketCounts());
+			sample.setRows(iitPatientIds.size());
+			model.addAttribute("patientSummaries", cdsService.getPatientSummaries(iitPatientIds));
+			model.addAttribute("cursor", iitCursor);
+			model.addAttribute("nextCursor", nextCursor);
+			model.addAttribute("pageSize", pageSize);
 			model.addAttribute("lookbackDays", iitDays);
 		} catch (Exception e) {
+			sample.setError();
 			log.error("Error loading IIT patient list", e);
 			model.addAttribute("error", "Error loading IIT patient data");
+		} finally {
+			sample.stop();
 		}
 	}
-}
 
+	/**
+	 * Downloads the whole IIT list as CSV or XLSX (format=csv|xlsx), streamed from the cohort
+	 * in chunks. CSV is gzip-encoded when the browser accepts it or gzip=true is passed.
+	 */
+	@RequestMapping("/module/cds/iitList/export.form")
+	public void export(@RequestParam(value = "iitDays", defaultValue = "" + DEFAULT_IIT_LOOKBACK_DAYS) int iitDays,
+	        @RequestParam(value = "format", defaultValue = LineListExporter.FORMAT_CSV) String format,
+	        @RequestParam(value = "gzip", defaultValue = "false") boolean gzip, HttpServletRequest request,
+	        HttpServletResponse response) throws IOException {
+		CdsMetrics.Sample sample = CdsMetrics.time("IitListFragmentController.export");
+		try {
+			sample.setRows(new LineListExporter().export(CdsCohortType.IIT, iitDays, format, gzip, request,
+			    response));
+		} catch (IOException | RuntimeException e) {
+			sample.setError();
+			log.error("Error exporting IIT list", e);
+			throw e;
+		} finally {
+			sample.stop();
+		}
+	}
+}
@@ -12,11 +12,18 @@ package org.openmrs.module.cds.fragment.controller;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.cds.api.CdsCohortType;
 import org.openmrs.module.cds.api.ClinicalDataSystemService;
+import org.openmrs.module.cds.metrics.CdsMetrics;
+import org.openmrs.module.cds.web.export.LineListExporter;
 import org.openmrs.ui.framework.fragment.FragmentModel;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -27,20 +34,63 @@ public class MissedListFragmentController {
 
 	protected final Log log = LogFactory.getLog(this.getClass());
 
+	private static final int DEFAULT_PAGE_SIZE = 50;
+
+	private static final int MAX_PAGE_SIZE = 500;
+
 	private static final int DEFAULT_MISSED_DAYS = 30;
 
 	public void controller(FragmentModel model,
-	        @RequestParam(value = "missedDays", defaultValue = "" + DEFAULT_MISSED_DAYS) int missedDays) {
+	        @RequestParam(value = "missedDays", defaultValue = "" + DEFAULT_MISSED_DAYS) int missedDays,
+	        @RequestParam(value = "missedCursor", required = false) Integer missedCursor,
+	        @RequestParam(value = "missedPageSize", defaultValue = "" + DEFAULT_PAGE_SIZE) int missedPageSize) {
+		CdsMetrics.Sample sample = CdsMetrics.time("MissedListFragmentController.controller");
 		try {
 			ClinicalDataSystemService cdsService = Context.getService(ClinicalDataSystemService.class);
-			List<Integer> missedPatientIds = cdsService.getMissedAppointmentPatientIds(missedDays);
+			int pageSize = Math.max(1, Math.min(missedPageSize, MAX_PAGE_SIZE));
+			// one extra row tells us whether there is a next page
+			List<Integer> missedPatientIds = cdsService.getMissedAppointmentPatientIds(missedDays, missedCursor, pageSize + 1);
+			Integer nextCursor = null;
+			if (missedPatientIds.size() > pageSize) {
+				missedPatientIds = missedPatientIds.subList(0, pageSize);
+				nextCursor = missedPatientIds.get(pageSize - 1);
+			}
 
 			model.addAttribute("missedPatientIds", missedPatientIds);
+			sample.setRows(missedPatientIds.size());
+			model.addAttribute("patientSummaries", cdsService.getPatientSummaries(missedPatientIds));
+			model.addAttribute("cursor", missedCursor);
+			model.addAttribute("nextCursor", nextCursor);
+			model.addAttribute("pageSize", pageSize);
 			model.addAttribute("lookbackDays", missedDays);
 		} catch (Exception e) {
+			sample.setError();
 			log.error("Error loading missed appointments list", e);
 			model.addAttribute("error", "Error loading missed appointments data");
+		} finally {
+			sample.stop();
 		}
 	}
-}
 
+	/**
+	 * Downloads the whole missed appointments list as CSV or XLSX (format=csv|xlsx), streamed from the cohort
+	 * in chunks. CSV is gzip-encoded when the browser accepts it or gzip=true is passed.
+	 */
+	@RequestMapping("/module/cds/missedList/export.form")
+	public void export(@RequestParam(value = "missedDays", defaultValue = "" + DEFAULT_MISSED_DAYS) int missedDays,
+	        @RequestParam(value = "format", defaultValue = LineListExporter.FORMAT_CSV) String format,
+	        @RequestParam(value = "gzip", defaultValue = "false") boolean gzip, HttpServletRequest request,
+	        HttpServletResponse response) throws IOException {
+		CdsMetrics.Sample sample = CdsMetrics.time("MissedListFragmentController.export");
+		try {
+			sample.setRows(new LineListExporter().export(CdsCohortType.MISSED, missedDays, format, gzip, request,
+			    response));
+		} catch (IOException | RuntimeException e) {
+			sample.setError();
+			log.error("Error exporting missed appointments list", e);
+			throw e;
+		} finally {
+			sample.stop();
+		}
+	}
+}
@@ -12,11 +12,18 @@ package org.openmrs.module.cds.fragment.controller;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.cds.api.CdsCohortType;
 import org.openmrs.module.cds.api.ClinicalDataSystemService;
+import org.openmrs.module.cds.metrics.CdsMetrics;
+import org.openmrs.module.cds.web.export.LineListExporter;
 import org.openmrs.ui.framework.fragment.FragmentModel;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -27,20 +34,63 @@ public class UpcomingListFragmentController {
 
 	protected final Log log = LogFactory.getLog(this.getClass());
 
+	private static final int DEFAULT_PAGE_SIZE = 50;
+
+	private static final int MAX_PAGE_SIZE = 500;
+
 	private static final int DEFAULT_UPCOMING_DAYS = 30;
 
 	public void controller(FragmentModel model,
-	        @RequestParam(value = "upcomingDays", defaultValue = "" + DEFAULT_UPCOMING_DAYS) int upcomingDays) {
+	        @RequestParam(value = "upcomingDays", defaultValue = "" + DEFAULT_UPCOMING_DAYS) int upcomingDays,
+	        @RequestParam(value = "upcomingCursor", required = false) Integer upcomingCursor,
+	        @RequestParam(value = "upcomingPageSize", defaultValue = "" + DEFAULT_PAGE_SIZE) int upcomingPageSize) {
+		CdsMetrics.Sample sample = CdsMetrics.time("UpcomingListFragmentController.controller");
 		try {
 			ClinicalDataSystemService cdsService = Context.getService(ClinicalDataSystemService.class);
-			List<Integer> upcomingPatientIds = cdsService.getUpcomingAppointmentPatientIds(upcomingDays);
+			int pageSize = Math.max(1, Math.min(upcomingPageSize, MAX_PAGE_SIZE));
+			// one extra row tells us whether there is a next page
+			List<Integer> upcomingPatientIds = cdsService.getUpcomingAppointmentPatientIds(upcomingDays, upcomingCursor, pageSize + 1);
+			Integer nextCursor = null;
+			if (upcomingPatientIds.size() > pageSize) {
+				upcomingPatientIds = upcomingPatientIds.subList(0, pageSize);
+				nextCursor = upcomingPatientIds.get(pageSize - 1);
+			}
 
 			model.addAttribute("upcomingPatientIds", upcomingPatientIds);
+			sample.setRows(upcomingPatientIds.size());
+			model.addAttribute("patientSummaries", cdsService.getPatientSummaries(upcomingPatientIds));
+			model.addAttribute("cursor", upcomingCursor);
+			model.addAttribute("nextCursor", nextCursor);
+			model.addAttribute("pageSize", pageSize);
 			model.addAttribute("lookbackDays", upcomingDays);
 		} catch (Exception e) {
+			sample.setError();
 			log.error("Error loading upcoming appointments list", e);
 			model.addAttribute("error", "Error loading upcoming appointments data");
+		} finally {
+			sample.stop();
 		}
 	}
-}
 
+	/**
+	 * Downloads the whole upcoming appointments list as CSV or XLSX (format=csv|xlsx), streamed from the cohort
+	 * in chunks. CSV is gzip-encoded when the browser accepts it or gzip=true is passed.
+	 */
+	@RequestMapping("/module/cds/upcomingList/export.form")
+	public void export(@RequestParam(value = "upcomingDays", defaultValue = "" + DEFAULT_UPCOMING_DAYS) int upcomingDays,
+	        @RequestParam(value = "format", defaultValue = LineListExporter.FORMAT_CSV) String format,
+	        @RequestParam(value = "gzip", defaultValue = "false") boolean gzip, HttpServletRequest request,
+	        HttpServletResponse response) throws IOException {
+		CdsMetrics.Sample sample = CdsMetrics.time("UpcomingListFragmentController.export");
+		try {
+			sample.setRows(new LineListExporter().export(CdsCohortType.UPCOMING, upcomingDays, format, gzip, request,
+			    response));
+		} catch (IOException | RuntimeException e) {
+			sample.setError();
+			log.error("Error exporting upcoming appointments list", e);
+			throw e;
+		} finally {
+			sample.stop();
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.web.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * RFC 4180 CSV in UTF-8, with a byte order mark so Excel detects the encoding. Cells that start
+ * like a formula are prefixed with an apostrophe.
+ */
+public class CsvLineListWriter implements LineListWriter {
+
+	private final Writer out;
+
+	public CsvLineListWriter(OutputStream stream) throws IOException {
+		out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 16 * 1024);
+		out.write('\uFEFF');
+	}
+
+	@Override
+	public void writeRow(String... cells) throws IOException {
+		for (int i = 0; i < cells.length; i++) {
+			if (i > 0) {
+				out.write(',');
+			}
+			writeCell(cells[i]);
+		}
+		out.write("\r\n");
+	}
+
+	private void writeCell(String value) throws IOException {
+		if (value == null || value.isEmpty()) {
+			return;
+		}
+		// keep spreadsheet applications from evaluating cell text as a formula
+		char first = value.charAt(0);
+		if (first == '=' || first == '+' || first == '-' || first == '@') {
+			value = "'" + value;
+		}
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+		}
+		if (!quote) {
+			out.write(value);
+			return;
+		}
+		out.write('"');
+		out.write(value.replace("\"", "\"\""));
+		out.write('"');
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void finish() throws IOException {
+		out.flush();
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.web.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.cds.api.CdsCohort;
+import org.openmrs.module.cds.api.CdsCohortType;
+import org.openmrs.module.cds.api.ClinicalDataSystemService;
+import org.openmrs.module.cds.api.PatientIdHandler;
+import org.openmrs.module.cds.api.dto.CdsPatientSummary;
+
+/**
+ * Streams the IIT, missed or upcoming line list to the response. Patient IDs are streamed from the
+ * service and rendered a chunk at a time, so only one chunk of summaries is held in memory.
+ */
+public class LineListExporter {
+
+	public static final String FORMAT_CSV = "csv";
+
+	public static final String FORMAT_XLSX = "xlsx";
+
+	private static final int CHUNK_SIZE = 500;
+
+	private static final String[] HEADER = { "PEPFAR ID", "Given Name", "Family Name", "Age", "Sex",
+	        "Last Appointment", "Pending Action" };
+
+	private final ClinicalDataSystemService service;
+
+	public LineListExporter(ClinicalDataSystemService service) {
+		this.service = service;
+	}
+
+	public LineListExporter() {
+		this(Context.getService(ClinicalDataSystemService.class));
+	}
+
+	/**
+	 * Writes the cohort as CSV (gzip-compressed when the client accepts it or gzip=true is passed)
+	 * or as XLSX, which is already compressed.
+	 * 
+	 * @return the number of patients exported
+	 */
+	public int export(CdsCohortType cohort, int days, String format, boolean gzip, HttpServletRequest request,
+	        HttpServletResponse response) throws IOException {
+		boolean xlsx = FORMAT_XLSX.equalsIgnoreCase(format);
+		String fileName = "cds-" + cohort.name().toLowerCase() + "-" + days + "d-"
+		        + new SimpleDateFormat("yyyyMMdd").format(new Date()) + (xlsx ? ".xlsx" : ".csv");
+		response.setContentType(xlsx ? "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"
+		        : "text/csv; charset=UTF-8");
+		response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+		response.setHeader("Cache-Control", "no-store");
+
+		OutputStream out = response.getOutputStream();
+		GZIPOutputStream gzipOut = null;
+		if (!xlsx && (gzip || acceptsGzip(request))) {
+			response.setHeader("Content-Encoding", "gzip");
+			response.setHeader("Vary", "Accept-Encoding");
+			gzipOut = new GZIPOutputStream(out, 8192, true);
+			out = gzipOut;
+		}
+		LineListWriter writer = xlsx ? new XlsxLineListWriter(out, cohort.name()) : new CsvLineListWriter(out);
+		int exported = write(cohort, days, writer);
+		writer.finish();
+		if (gzipOut != null) {
+			gzipOut.finish();
+		}
+		out.flush();
+		return exported;
+	}
+
+	/**
+	 * Writes the header and one row per patient in the cohort
+	 */
+	public int write(CdsCohortType cohort, int days, LineListWriter writer) throws IOException {
+		writer.writeRow(HEADER);
+		ChunkWriter chunks = new ChunkWriter(writer, service.getPendingActionCohort());
+		service.streamCohort(cohort, days, chunks);
+		chunks.writeChunk();
+		if (chunks.failure != null) {
+			throw chunks.failure;
+		}
+		return chunks.written;
+	}
+
+	private static boolean acceptsGzip(HttpServletRequest request) {
+		String acceptEncoding = request.getHeader("Accept-Encoding");
+		return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+	}
+
+	/**
+	 * Collects streamed IDs into fixed-size chunks and renders each chunk once it is full
+	 */
+	private class ChunkWriter implements PatientIdHandler {
+
+		private final LineListWriter writer;
+
+		private final CdsCohort pendingActions;
+
+		private final Integer[] chunk = new Integer[CHUNK_SIZE];
+
+		private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+
+		private int size;
+
+		private int written;
+
+		private IOException failure;
+
+		ChunkWriter(LineListWriter writer, CdsCohort pendingActions) {
+			this.writer = writer;
+			this.pendingActions = pendingActions;
+		}
+
+		@Override
+		public boolean handle(int patientId) {
+			chunk[size++] = patientId;
+			if (size == CHUNK_SIZE) {
+				writeChunk();
+			}
+			// stop reading once the client has gone away
+			return failure == null;
+		}
+
+		void writeChunk() {
+			if (size == 0 || failure != null) {
+				return;
+			}
+			try {
+				List<CdsPatientSummary> summaries = service.getPatientSummaries(Arrays.asList(chunk).subList(0, size));
+				for (CdsPatientSummary s : summaries) {
+					Integer age = s.getAge();
+					writer.writeRow(s.getPepfarId(), s.getGivenName(), s.getFamilyName(), age != null ? age.toString()
+					        : null, s.getGender(), s.getLastAppointmentDate() != null ? dateFormat.format(s
+					        .getLastAppointmentDate()) : null, pendingActions.contains(s.getPatientId()) ? "Yes" : "No");
+					written++;
+				}
+				writer.flush();
+			}
+			catch (IOException e) {
+				failure = e;
+			}
+			size = 0;
+		}
+	}
+}
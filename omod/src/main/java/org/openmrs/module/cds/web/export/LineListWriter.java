@@ -0,0 +1,30 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.web.export;
+
+import java.io.IOException;
+
+/**
+ * Writes line-list rows to an output stream as they are produced
+ */
+public interface LineListWriter {
+
+	void writeRow(String... cells) throws IOException;
+
+	/**
+	 * Pushes buffered rows to the client
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Finishes the document. Does not close the underlying stream.
+	 */
+	void finish() throws IOException;
+}
@@ -0,0 +1,141 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.web.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A single-sheet XLSX workbook written as a stream: the package parts are fixed and the sheet XML
+ * is deflated into the zip as rows arrive, with inline string cells, so no row is kept after it is
+ * written.
+ */
+public class XlsxLineListWriter implements LineListWriter {
+
+	private static final String CONTENT_TYPES = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+	        + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+	        + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+	        + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+	        + "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+	        + "<Override PartName=\"/xl/worksheets/sheet1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>"
+	        + "</Types>";
+
+	private static final String ROOT_RELS = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+	        + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+	        + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"xl/workbook.xml\"/>"
+	        + "</Relationships>";
+
+	private static final String WORKBOOK_RELS = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+	        + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+	        + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet1.xml\"/>"
+	        + "</Relationships>";
+
+	private final ZipOutputStream zip;
+
+	private final Writer sheet;
+
+	private int rowNumber;
+
+	public XlsxLineListWriter(OutputStream stream, String sheetName) throws IOException {
+		zip = new ZipOutputStream(stream, StandardCharsets.UTF_8);
+		sheet = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8), 16 * 1024);
+		writeEntry("[Content_Types].xml", CONTENT_TYPES);
+		writeEntry("_rels/.rels", ROOT_RELS);
+		writeEntry("xl/_rels/workbook.xml.rels", WORKBOOK_RELS);
+		writeEntry("xl/workbook.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+		        + "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" "
+		        + "xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">"
+		        + "<sheets><sheet name=\"" + escape(sheetName) + "\" sheetId=\"1\" r:id=\"rId1\"/></sheets></workbook>");
+		zip.putNextEntry(new ZipEntry("xl/worksheets/sheet1.xml"));
+		sheet.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+		        + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>");
+	}
+
+	private void writeEntry(String name, String content) throws IOException {
+		zip.putNextEntry(new ZipEntry(name));
+		zip.write(content.getBytes(StandardCharsets.UTF_8));
+		zip.closeEntry();
+	}
+
+	@Override
+	public void writeRow(String... cells) throws IOException {
+		rowNumber++;
+		sheet.write("<row r=\"");
+		sheet.write(Integer.toString(rowNumber));
+		sheet.write("\">");
+		for (String cell : cells) {
+			if (cell == null || cell.isEmpty()) {
+				sheet.write("<c/>");
+			} else {
+				sheet.write("<c t=\"inlineStr\"><is><t>");
+				sheet.write(escape(cell));
+				sheet.write("</t></is></c>");
+			}
+		}
+		sheet.write("</row>");
+	}
+
+	@Override
+	public void flush() throws IOException {
+		sheet.flush();
+		zip.flush();
+	}
+
+	@Override
+	public void finish() throws IOException {
+		sheet.write("</sheetData></worksheet>");
+		sheet.flush();
+		zip.closeEntry();
+		zip.finish();
+	}
+
+	private static String escape(String value) {
+		StringBuilder sb = null;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			String replacement;
+			switch (c) {
+				case '&':
+					replacement = "&amp;";
+					break;
+				case '<':
+					replacement = "&lt;";
+					break;
+				case '>':
+					replacement = "&gt;";
+					break;
+				case '"':
+					replacement = "&quot;";
+					break;
+				default:
+					// characters not allowed in XML 1.0 are dropped
+					replacement = c < 0x20 && c != '\t' && c != '\n' && c != '\r' ? "" : null;
+			}
+			if (replacement != null && sb == null) {
+				sb = new StringBuilder(value.length() + 16);
+				sb.append(value, 0, i);
+			}
+			if (sb != null) {
+				if (replacement != null) {
+					sb.append(replacement);
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		return sb != null ? sb.toString() : value;
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.cds.web.export;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openmrs.module.cds.api.CdsCohort;
+import org.openmrs.module.cds.api.CdsCohortType;
+import org.openmrs.module.cds.api.ClinicalDataSystemService;
+import org.openmrs.module.cds.api.PatientIdHandler;
+import org.openmrs.module.cds.api.dto.CdsPatientSummary;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests the streamed line-list export with a mocked service
+ */
+public class LineListExporterTest {
+
+	@Test
+	public void testWrite_RendersStreamedPatientsAsCsv() throws Exception {
+		// Arrange
+		ClinicalDataSystemService service = mock(ClinicalDataSystemService.class);
+		when(service.getPendingActionCohort()).thenReturn(CdsCohort.of(2));
+		when(service.streamCohort(eq(CdsCohortType.IIT), eq(28), any(PatientIdHandler.class))).thenAnswer(
+		    new Answer<Integer>() {
+
+			    @Override
+			    public Integer answer(InvocationOnMock invocation) {
+				    PatientIdHandler handler = (PatientIdHandler) invocation.getArguments()[2];
+				    handler.handle(1);
+				    handler.handle(2);
+				    return 2;
+			    }
+		    });
+		when(service.getPatientSummaries(anyCollection())).thenAnswer(new Answer<List<CdsPatientSummary>>() {
+
+			@Override
+			public List<CdsPatientSummary> answer(InvocationOnMock invocation) {
+				List<CdsPatientSummary> summaries = new ArrayList<CdsPatientSummary>();
+				for (Object id : (java.util.Collection<?>) invocation.getArguments()[0]) {
+					CdsPatientSummary summary = new CdsPatientSummary();
+					summary.setPatientId((Integer) id);
+					summary.setPepfarId("P" + id);
+					summary.setGivenName("Ada, " + id);
+					summary.setGender("F");
+					summaries.add(summary);
+				}
+				return summaries;
+			}
+		});
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		// Act
+		int exported = new LineListExporter(service).write(CdsCohortType.IIT, 28, new CsvLineListWriter(out));
+
+		// Assert
+		assertEquals(2, exported);
+		String[] lines = out.toString("UTF-8").substring(1).split("\r\n");
+		assertEquals("PEPFAR ID,Given Name,Family Name,Age,Sex,Last Appointment,Pending Action", lines[0]);
+		assertEquals("P1,\"Ada, 1\",,,F,,No", lines[1]);
+		assertEquals("P2,\"Ada, 2\",,,F,,Yes", lines[2]);
+		verify(service, times(1)).getPatientSummaries(anyCollection());
+	}
+}